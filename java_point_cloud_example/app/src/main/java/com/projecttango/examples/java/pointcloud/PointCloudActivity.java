@@ -30,6 +30,18 @@ import com.google.tango.support.TangoSupport;
 import com.google.tango.ux.TangoUx;
 import com.google.tango.ux.UxExceptionEvent;
 import com.google.tango.ux.UxExceptionEventListener;
+import com.projecttango.examples.java.pointcloud.core.ColorLut;
+import com.projecttango.examples.java.pointcloud.core.ColorMap;
+import com.projecttango.examples.java.pointcloud.core.DepthRecorder;
+import com.projecttango.examples.java.pointcloud.core.DepthRecording;
+import com.projecttango.examples.java.pointcloud.core.ElevationPalette;
+import com.projecttango.examples.java.pointcloud.core.FrameProcessor;
+import com.projecttango.examples.java.pointcloud.core.FrameStatistics;
+import com.projecttango.examples.java.pointcloud.core.LatencyTracer;
+import com.projecttango.examples.java.pointcloud.core.PoseBuffer;
+import com.projecttango.examples.java.pointcloud.core.ProjectorCalibration;
+import com.projecttango.examples.java.pointcloud.core.QualityController;
+import com.projecttango.examples.java.pointcloud.core.RoiMask;
 //import com.projecttango.examples.java.pointcloud.rajawali.Rerender;
 //import com.projecttango.examples.java.pointcloud.rajawali.RerenderView;
 
@@ -37,6 +49,7 @@ import com.google.tango.ux.UxExceptionEventListener;
 import android.app.Activity;
 import android.content.pm.ActivityInfo;
 import android.hardware.display.DisplayManager;
+import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Display;
@@ -53,7 +66,14 @@ import android.widget.Toast;
 import org.rajawali3d.scene.ASceneFrameCallback;
 import org.rajawali3d.surface.RajawaliSurfaceView;
 
-import java.nio.FloatBuffer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 
@@ -71,6 +91,28 @@ public class PointCloudActivity extends Activity {
     private static final int SECS_TO_MILLISECS = 1000;
     private static final DecimalFormat FORMAT_THREE_DECIMAL = new DecimalFormat("0.000");
     private static final double UPDATE_INTERVAL_MS = 100.0;
+    private static final int MAX_RECORDED_POINTS = 100000;
+    // Every color map is split into as many bands as the original palette.
+    private static final int COLOR_BANDS = ElevationPalette.PALETTE_SIZE;
+    // Depth frames averaged to find the sandbox rim.
+    private static final int ROI_DETECTION_FRAMES = 10;
+    private static final String ROI_FILE_NAME = "sandbox.roi";
+    private static final String PROJECTOR_FILE_NAME = "projector.cal";
+    // Column-major rotation from the Tango start of service frame (Z up) to the OpenGL world
+    // (Y up), and the same as a quaternion, x, y, z, w.
+    private static final float[] OPENGL_T_START_OF_SERVICE = {
+            1, 0, 0, 0,
+            0, 0, -1, 0,
+            0, 1, 0, 0,
+            0, 0, 0, 1};
+    private static final float SQRT_HALF = (float) Math.sqrt(0.5);
+    private static final float[] OPENGL_Q_START_OF_SERVICE = {-SQRT_HALF, 0, 0, SQRT_HALF};
+    // Quarter turns about Z for Surface.ROTATION_0 to ROTATION_270, four floats each.
+    private static final float[] DISPLAY_ROTATIONS = {
+            0, 0, 0, 1,
+            0, 0, SQRT_HALF, SQRT_HALF,
+            0, 0, 1, 0,
+            0, 0, SQRT_HALF, -SQRT_HALF};
 
     private Tango mTango;
     private TangoConfig mConfig;
@@ -80,12 +122,18 @@ public class PointCloudActivity extends Activity {
     private PointCloudRajawaliRenderer mRenderer;
     private RajawaliSurfaceView mSurfaceView;
     private TextView mPointCountTextView;
+    private TextView mLatencyTextView;
 
     private Button btn_first;
     private Button btn_top;
     private Button btn_third;
     private Button btn_grid;
     private Button btn_frustum;
+    private Button btn_record;
+    private Button btn_color_map;
+    private Button btn_find_box;
+    private Button btn_projector;
+    private Button btn_calibrate;
     private boolean isHiden = false;
     private Animation fadeInAnimation;
     private Animation fadeOutAnimation;
@@ -97,10 +145,28 @@ public class PointCloudActivity extends Activity {
 
     private boolean mIsConnected = false;
 
+    private ColorMap mColorMap = ColorMap.CLASSIC;
+
+    // Runs the point cloud processing between onStart and onStop.
+    private volatile PointCloudProcessingThread mProcessingThread;
+    // Steps the water simulation, if any, over the same span.
+    private WaterSimulationThread mWaterThread;
+
+    // Non-null while depth frames are being recorded.
+    private volatile DepthRecorder mDepthRecorder;
+
     private double mPointCloudTimeToNextUpdate = UPDATE_INTERVAL_MS;
 
     private int mDisplayRotation = 0;
 
+    // Device poses from the pose stream, so looking up a pose needs no service call.
+    private final PoseBuffer mPoseBuffer = new PoseBuffer();
+    // Depth camera in the device frame; read once connected.
+    private final float[] mDeviceTDepth = new float[16];
+    private volatile boolean mDeviceTDepthValid;
+    // Only used by the render thread.
+    private final float[] mCameraPose = new float[PoseBuffer.POSE_FLOATS];
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -112,6 +178,7 @@ public class PointCloudActivity extends Activity {
         setContentView(R.layout.activity_point_cloud);
 
         mPointCountTextView = (TextView) findViewById(R.id.point_count_textview);
+        mLatencyTextView = (TextView) findViewById(R.id.latency_textview);
         mAverageZTextView = (TextView) findViewById(R.id.average_z_textview);
         mSurfaceView = (RajawaliSurfaceView) findViewById(R.id.gl_surface_view);
 
@@ -121,6 +188,11 @@ public class PointCloudActivity extends Activity {
         btn_third = (Button)findViewById(R.id.third_person_button);
         btn_grid = (Button)findViewById(R.id.showGrid);
         btn_frustum = (Button)findViewById(R.id.frustumAxes);
+        btn_record = (Button)findViewById(R.id.record_button);
+        btn_color_map = (Button)findViewById(R.id.color_map_button);
+        btn_find_box = (Button)findViewById(R.id.find_box_button);
+        btn_projector = (Button)findViewById(R.id.projector_button);
+        btn_calibrate = (Button)findViewById(R.id.calibrate_button);
 
         btn_third.setVisibility(View.GONE); // hide third-view button
         fadeInAnimation = AnimationUtils.loadAnimation(this, R.anim.fade_in);
@@ -132,6 +204,8 @@ public class PointCloudActivity extends Activity {
         mTangoUx = setupTangoUxAndLayout();
         mRenderer = new PointCloudRajawaliRenderer(this);
         setupRenderer();
+        loadRoiMask();
+        loadProjectorCalibration();
 
         DisplayManager displayManager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
         if (displayManager != null) {
@@ -160,11 +234,17 @@ public class PointCloudActivity extends Activity {
 
         mTangoUx.start();
         bindTangoService();
+        startProcessing();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
+        stopRecording();
+        // Stopped before disconnecting so it makes no more Tango calls.
+        stopProcessing();
+        saveQualityLog();
+        saveLatencyReport();
 
         // Synchronize against disconnecting while the service is being used in the OpenGL
         // thread or in the UI thread.
@@ -182,6 +262,12 @@ public class PointCloudActivity extends Activity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mRenderer.shutdown();
+    }
+
     @Override
     protected void onResume(){
         super.onResume();
@@ -214,6 +300,11 @@ public class PointCloudActivity extends Activity {
                     try {
                         mConfig = setupTangoConfig(mTango);
                         mTango.connect(mConfig);
+                        // Poses of an earlier connection are in another world frame.
+                        mPoseBuffer.clear();
+                        readDepthExtrinsics();
+                        // The world frame starts over with the connection.
+                        mRenderer.getFrameProcessor().resetSandboxFrame();
                         startupTango();
                         TangoSupport.initialize(mTango);
                         mIsConnected = true;
@@ -258,6 +349,11 @@ public class PointCloudActivity extends Activity {
         mTango.connectListener(framePairs, new Tango.TangoUpdateCallback() {
             @Override
             public void onPoseAvailable(TangoPoseData pose) {
+                if (pose.statusCode == TangoPoseData.POSE_VALID) {
+                    mPoseBuffer.add(pose.timestamp, pose.translation, pose.rotation);
+                }
+                mRenderer.getFrameProcessor().getLatencyTracer()
+                        .observeSensorTime(pose.timestamp, System.nanoTime());
                 // Passing in the pose data to UX library produce exceptions.
                 if (mTangoUx != null) {
                     mTangoUx.updatePoseStatus(pose.statusCode);
@@ -266,12 +362,17 @@ public class PointCloudActivity extends Activity {
 
             @Override
             public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+                mRenderer.getFrameProcessor().getLatencyTracer()
+                        .observeSensorTime(pointCloud.timestamp, System.nanoTime());
                 if (mTangoUx != null) {
                     mTangoUx.updatePointCloud(pointCloud);
                 }
-                final double averageDepth = getAveragedDepth(pointCloud.points, pointCloud.numPoints);
-                mRenderer.setAvgDepth(averageDepth);
                 mPointCloudManager.updatePointCloud(pointCloud);
+                PointCloudProcessingThread processingThread = mProcessingThread;
+                if (processingThread != null) {
+                    processingThread.onPointCloudAvailable();
+                }
+                recordPointCloud(pointCloud);
 
                 final double currentTimeStamp = pointCloud.timestamp;
                 final double pointCloudFrameDelta =
@@ -288,7 +389,16 @@ public class PointCloudActivity extends Activity {
                         @Override
                         public void run() {
                             mPointCountTextView.setText(pointCountString);
-                            mAverageZTextView.setText(FORMAT_THREE_DECIMAL.format(averageDepth));
+                            // Gathered by the processing thread, so this may lag a frame behind.
+                            FrameStatistics statistics =
+                                    mRenderer.getFrameProcessor().takeLatestStatistics();
+                            if (statistics != null) {
+                                mAverageZTextView.setText(
+                                        FORMAT_THREE_DECIMAL.format(statistics.getMean()));
+                            }
+                            mLatencyTextView.setText(
+                                    mRenderer.getFrameProcessor().getLatencyTracer()
+                                            .formatSummary());
                         }
                     });
                 }
@@ -314,6 +424,9 @@ public class PointCloudActivity extends Activity {
                 // NOTE: This will be executed on each cycle before rendering; called from the
                 // OpenGL rendering thread.
 
+                // Upload the latest point cloud finished by the processing thread, if any.
+                mRenderer.updatePointCloud();
+
                 // Prevent concurrent access from a service disconnect through the onPause event.
                 synchronized (PointCloudActivity.this) {
                     // Don't execute any Tango API actions if we're not connected to the service.
@@ -321,41 +434,12 @@ public class PointCloudActivity extends Activity {
                         return;
                     }
 
-                    // Update point cloud data.
-                    TangoPointCloudData pointCloud = mPointCloudManager.getLatestPointCloud();
-                    if (pointCloud != null) {
-
-                        // Calculate the tango data!!!!
-
-                        // Calculate the depth camera pose at the last point cloud update.
-                        TangoSupport.MatrixTransformData transform =
-                                TangoSupport.getMatrixTransformAtTime(pointCloud.timestamp,
-                                        TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                                        TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
-                                        TangoSupport.ENGINE_OPENGL,
-                                        TangoSupport.ENGINE_TANGO,
-                                        TangoSupport.ROTATION_IGNORED);
-                        if (transform.statusCode == TangoPoseData.POSE_VALID) {
-                            mRenderer.updatePointCloud(pointCloud, transform.matrix);
-                        }
-                    }
-
-                    // Update current camera pose.
-                    try {
-                        // Calculate the device pose. This transform is used to display
-                        // frustum in third and top down view, and used to render camera pose in
-                        // first person view.
-                        TangoPoseData lastFramePose = TangoSupport.getPoseAtTime(0,
-                                TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
-                                TangoPoseData.COORDINATE_FRAME_DEVICE,
-                                TangoSupport.ENGINE_OPENGL,
-                                TangoSupport.ENGINE_OPENGL,
-                                mDisplayRotation);
-                        if (lastFramePose.statusCode == TangoPoseData.POSE_VALID) {
-                            mRenderer.updateCameraPose(lastFramePose);
-                        }
-                    } catch (TangoErrorException e) {
-                        Log.e(TAG, "Could not get valid transform");
+                    // Update current camera pose. The latest device pose is used to display
+                    // frustum in third and top down view, and to render camera pose in first
+                    // person view.
+                    if (mPoseBuffer.getPose(mPoseBuffer.getLatestTimestamp(), mCameraPose)) {
+                        toOpenGlDisplayPose(mCameraPose, mDisplayRotation);
+                        mRenderer.updateCameraPose(mCameraPose);
                     }
                 }
             }
@@ -372,12 +456,78 @@ public class PointCloudActivity extends Activity {
 
             @Override
             public void onPostFrame(long sceneTime, double deltaTime) {
-
+                mRenderer.onFrameDrawn();
             }
         });
         mSurfaceView.setSurfaceRenderer(mRenderer);
     }
 
+    /**
+     * Start processing point clouds on their own thread, off the render thread.
+     */
+    private void startProcessing() {
+        PointCloudProcessingThread processingThread = new PointCloudProcessingThread(
+                mPointCloudManager, mRenderer.getFrameProcessor(),
+                new PointCloudProcessingThread.DepthTransformSource() {
+                    // Scratch space of the processing thread.
+                    private final float[] mPose = new float[PoseBuffer.POSE_FLOATS];
+                    private final float[] mDevice = new float[16];
+                    private final float[] mWorldTDevice = new float[16];
+
+                    @Override
+                    public boolean getDepthTransform(double timestamp, float[] matrix) {
+                        if (mDeviceTDepthValid
+                                && mPoseBuffer.getMatrix(timestamp, mPose, mDevice)) {
+                            Matrix.multiplyMM(mWorldTDevice, 0,
+                                    OPENGL_T_START_OF_SERVICE, 0, mDevice, 0);
+                            Matrix.multiplyMM(matrix, 0, mWorldTDevice, 0, mDeviceTDepth, 0);
+                            return true;
+                        }
+                        // Outside the buffered poses, e.g. a frame newer than the last pose.
+                        // Prevent concurrent access from a service disconnect through the
+                        // onStop event.
+                        synchronized (PointCloudActivity.this) {
+                            if (!mIsConnected) {
+                                return false;
+                            }
+                            // Calculate the depth camera pose at the point cloud timestamp.
+                            TangoSupport.MatrixTransformData transform =
+                                    TangoSupport.getMatrixTransformAtTime(timestamp,
+                                            TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                                            TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
+                                            TangoSupport.ENGINE_OPENGL,
+                                            TangoSupport.ENGINE_TANGO,
+                                            TangoSupport.ROTATION_IGNORED);
+                            if (transform.statusCode != TangoPoseData.POSE_VALID) {
+                                return false;
+                            }
+                            System.arraycopy(transform.matrix, 0, matrix, 0, matrix.length);
+                            return true;
+                        }
+                    }
+                });
+        processingThread.start();
+        mProcessingThread = processingThread;
+
+        if (mRenderer.getWaterSimulation() != null) {
+            mWaterThread = new WaterSimulationThread(mRenderer.getWaterSimulation());
+            mWaterThread.start();
+        }
+    }
+
+    private void stopProcessing() {
+        if (mWaterThread != null) {
+            mWaterThread.shutdown();
+            mWaterThread = null;
+        }
+        PointCloudProcessingThread processingThread = mProcessingThread;
+        if (processingThread == null) {
+            return;
+        }
+        mProcessingThread = null;
+        processingThread.shutdown();
+    }
+
     /**
      * Sets up TangoUX and sets its listener.
      */
@@ -450,6 +600,243 @@ public class PointCloudActivity extends Activity {
         mRenderer.displayFrustum();
     }
 
+    /**
+     * Color map button onClick callback. Cycles through the color maps; the table is built here
+     * so the render thread only swaps a reference.
+     */
+    public void onColorMapClicked(View v) {
+        ColorMap[] maps = ColorMap.values();
+        mColorMap = maps[(mColorMap.ordinal() + 1) % maps.length];
+        mRenderer.setColorLut(ColorLut.create(mColorMap, COLOR_BANDS));
+        btn_color_map.setText(mColorMap.name());
+    }
+
+    /**
+     * Find box button onClick callback. Looks for the sandbox rim in the next depth frames and
+     * crops to the box if it is found. The box is saved, so this is only needed after moving the
+     * sandbox or the device.
+     */
+    public void onFindBoxClicked(View v) {
+        // Look for the box from where the device is now.
+        mRenderer.getFrameProcessor().resetSandboxFrame();
+        mRenderer.getFrameProcessor().detectRoi(ROI_DETECTION_FRAMES,
+                new FrameProcessor.RoiListener() {
+                    @Override
+                    public void onRoiDetected(RoiMask roiMask) {
+                        if (roiMask != null) {
+                            saveRoiMask(roiMask);
+                        }
+                        showToastOnUiThread(roiMask != null
+                                ? R.string.box_found : R.string.box_not_found);
+                    }
+                });
+    }
+
+    /**
+     * Projector button onClick callback. Switches between the 3D view and the image projected
+     * onto the sand.
+     */
+    public void onProjectorClicked(View v) {
+        mRenderer.setProjectorView(!mRenderer.isProjectorView());
+    }
+
+    /**
+     * Calibrate button onClick callback. The projector shows a cross at one target after the
+     * other; a small object put on the sand under each, and taken away again, marks where it
+     * lands. The calibration is saved, so this is only needed after moving the projector, the
+     * sandbox or the device.
+     */
+    public void onCalibrateClicked(View v) {
+        boolean started = mRenderer.calibrateProjector(new FrameProcessor.CalibrationListener() {
+            @Override
+            public void onProjectorCalibrated(ProjectorCalibration calibration) {
+                if (calibration != null) {
+                    saveProjectorCalibration(calibration);
+                }
+                showToastOnUiThread(calibration != null
+                        ? R.string.projector_calibrated : R.string.projector_not_calibrated);
+            }
+        });
+        if (started) {
+            Toast.makeText(this, R.string.projector_calibrating, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private void loadProjectorCalibration() {
+        File file = new File(getFilesDir(), PROJECTOR_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                mRenderer.setProjectorCalibration(ProjectorCalibration.readFrom(in));
+                mRenderer.setProjectorView(true);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the saved projector calibration", e);
+        }
+    }
+
+    private void saveProjectorCalibration(ProjectorCalibration calibration) {
+        File file = new File(getFilesDir(), PROJECTOR_FILE_NAME);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                calibration.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the projector calibration", e);
+        }
+    }
+
+    private void loadRoiMask() {
+        File file = new File(getFilesDir(), ROI_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                mRenderer.getFrameProcessor().setRoiMask(RoiMask.readFrom(in));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the saved sandbox, using the default crop", e);
+        }
+    }
+
+    private void saveRoiMask(RoiMask roiMask) {
+        File file = new File(getFilesDir(), ROI_FILE_NAME);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                roiMask.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the sandbox", e);
+        }
+    }
+
+    /**
+     * Keep the latest frame times and quality decisions of the session, to tune the controller
+     * offline with {@link QualityController#replay}.
+     */
+    private void saveQualityLog() {
+        QualityController quality = mRenderer.getFrameProcessor().getQualityController();
+        if (quality == null) {
+            return;
+        }
+        File file = new File(getExternalFilesDir(null),
+                "quality-" + System.currentTimeMillis() + ".csv");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                quality.writeLog(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the quality log", e);
+        }
+    }
+
+    /**
+     * Keep the latency histograms of the session.
+     */
+    private void saveLatencyReport() {
+        LatencyTracer tracer = mRenderer.getFrameProcessor().getLatencyTracer();
+        File file = new File(getExternalFilesDir(null),
+                "latency-" + System.currentTimeMillis() + ".csv");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                tracer.writeReport(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the latency report", e);
+        }
+    }
+
+    /**
+     * Record button onClick callback. Starts or stops writing depth frames to a file in the
+     * app's external files directory.
+     */
+    public void onRecordClicked(View v) {
+        if (mDepthRecorder == null) {
+            startRecording();
+        } else {
+            stopRecording();
+        }
+    }
+
+    private void startRecording() {
+        File file = new File(getExternalFilesDir(null),
+                "depth-" + System.currentTimeMillis() + DepthRecording.FILE_EXTENSION);
+        try {
+            DepthRecorder recorder = new DepthRecorder(file, MAX_RECORDED_POINTS);
+            recorder.start();
+            mDepthRecorder = recorder;
+            btn_record.setText(R.string.stop_recording);
+            Log.i(TAG, "Recording depth frames to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start recording", e);
+        }
+    }
+
+    private void stopRecording() {
+        DepthRecorder recorder = mDepthRecorder;
+        if (recorder == null) {
+            return;
+        }
+        mDepthRecorder = null;
+        try {
+            recorder.stop();
+            Log.i(TAG, "Recorded " + recorder.getRecordedFrames() + " frames, dropped "
+                    + recorder.getDroppedFrames());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write recording", e);
+        }
+        btn_record.setText(R.string.record);
+    }
+
+    /**
+     * Queue a point cloud for recording, together with the depth camera pose at its timestamp.
+     * Called from the Tango callback thread; only copies the points.
+     */
+    private void recordPointCloud(TangoPointCloudData pointCloud) {
+        DepthRecorder recorder = mDepthRecorder;
+        if (recorder == null) {
+            return;
+        }
+        float[] matrix = null;
+        boolean transformValid = false;
+        try {
+            TangoSupport.MatrixTransformData transform =
+                    TangoSupport.getMatrixTransformAtTime(pointCloud.timestamp,
+                            TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
+                            TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH,
+                            TangoSupport.ENGINE_OPENGL,
+                            TangoSupport.ENGINE_TANGO,
+                            TangoSupport.ROTATION_IGNORED);
+            matrix = transform.matrix;
+            transformValid = transform.statusCode == TangoPoseData.POSE_VALID;
+        } catch (TangoErrorException e) {
+            Log.e(TAG, "Could not get depth camera transform for recording");
+        }
+        recorder.record(pointCloud.timestamp, pointCloud.points, pointCloud.numPoints, matrix,
+                transformValid);
+    }
+
     /**
      * Top-down button onClick callback.
      */
@@ -466,21 +853,41 @@ public class PointCloudActivity extends Activity {
                 btn_top.startAnimation(fadeOutAnimation);
                 btn_frustum.startAnimation(fadeOutAnimation);
                 btn_grid.startAnimation(fadeOutAnimation);
+                btn_record.startAnimation(fadeOutAnimation);
+                btn_color_map.startAnimation(fadeOutAnimation);
+                btn_find_box.startAnimation(fadeOutAnimation);
+                btn_projector.startAnimation(fadeOutAnimation);
+                btn_calibrate.startAnimation(fadeOutAnimation);
 
                 btn_first.setVisibility(View.GONE);
                 btn_top.setVisibility(View.GONE);
                 btn_frustum.setVisibility(View.GONE);
                 btn_grid.setVisibility(View.GONE);
+                btn_record.setVisibility(View.GONE);
+                btn_color_map.setVisibility(View.GONE);
+                btn_find_box.setVisibility(View.GONE);
+                btn_projector.setVisibility(View.GONE);
+                btn_calibrate.setVisibility(View.GONE);
                 isHiden = true;
             }else{
                 btn_first.startAnimation(fadeInAnimation);
                 btn_top.startAnimation(fadeInAnimation);
                 btn_frustum.startAnimation(fadeInAnimation);
                 btn_grid.startAnimation(fadeInAnimation);
+                btn_record.startAnimation(fadeInAnimation);
+                btn_color_map.startAnimation(fadeInAnimation);
+                btn_find_box.startAnimation(fadeInAnimation);
+                btn_projector.startAnimation(fadeInAnimation);
+                btn_calibrate.startAnimation(fadeInAnimation);
                 btn_first.setVisibility(View.VISIBLE);
                 btn_top.setVisibility(View.VISIBLE);
                 btn_frustum.setVisibility(View.VISIBLE);
                 btn_grid.setVisibility(View.VISIBLE);
+                btn_record.setVisibility(View.VISIBLE);
+                btn_color_map.setVisibility(View.VISIBLE);
+                btn_find_box.setVisibility(View.VISIBLE);
+                btn_projector.setVisibility(View.VISIBLE);
+                btn_calibrate.setVisibility(View.VISIBLE);
                 isHiden = false;
 
             }
@@ -489,29 +896,58 @@ public class PointCloudActivity extends Activity {
     }
 
     /**
-     * Calculates the average depth from a point cloud buffer.
-     *
-     * @param pointCloudBuffer
-     * @param numPoints
-     * @return Average depth.
+     * Read the fixed pose of the depth camera on the device.
      */
-    private float getAveragedDepth(FloatBuffer pointCloudBuffer, int numPoints) {
-        float totalZ = 0;
-        float averageZ = 0;
-
-        float totalsqZ = 0;
-        float varience = 0;
-
-        if (numPoints != 0) {
-            int numFloats = 4 * numPoints;
-            for (int i = 2; i < numFloats; i = i + 4) {
-                totalZ = totalZ + pointCloudBuffer.get(i);
-                totalsqZ = totalsqZ + pointCloudBuffer.get(i) * pointCloudBuffer.get(i);
-            }
-            averageZ = totalZ / numPoints;
-            varience = totalsqZ / numPoints;
+    private void readDepthExtrinsics() {
+        TangoPoseData pose = mTango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_DEVICE,
+                TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH));
+        if (pose.statusCode != TangoPoseData.POSE_VALID) {
+            Log.w(TAG, "No depth camera extrinsics, querying every depth camera pose");
+            mDeviceTDepthValid = false;
+            return;
+        }
+        float[] floats = new float[PoseBuffer.POSE_FLOATS];
+        for (int i = 0; i < 3; i++) {
+            floats[i] = (float) pose.translation[i];
+        }
+        for (int i = 0; i < 4; i++) {
+            floats[3 + i] = (float) pose.rotation[i];
         }
-        return averageZ;
+        PoseBuffer.toMatrix(floats, mDeviceTDepth);
+        mDeviceTDepthValid = true;
+    }
+
+    /**
+     * Turn a device pose in the start of service frame into the OpenGL pose of the display,
+     * as TangoSupport does for ENGINE_OPENGL: the world turned Y up, the device frame turned
+     * about its Z axis by the display rotation.
+     */
+    private static void toOpenGlDisplayPose(float[] pose, int displayRotation) {
+        float y = pose[1];
+        pose[1] = pose[2];
+        pose[2] = -y;
+        multiplyQuaternion(OPENGL_Q_START_OF_SERVICE, 0, pose, 3, pose, 3);
+        multiplyQuaternion(pose, 3, DISPLAY_ROTATIONS, displayRotation * 4, pose, 3);
+    }
+
+    /**
+     * result = a * b, for x, y, z, w quaternions. result may be either operand.
+     */
+    private static void multiplyQuaternion(float[] a, int ai, float[] b, int bi,
+                                           float[] result, int ri) {
+        float ax = a[ai];
+        float ay = a[ai + 1];
+        float az = a[ai + 2];
+        float aw = a[ai + 3];
+        float bx = b[bi];
+        float by = b[bi + 1];
+        float bz = b[bi + 2];
+        float bw = b[bi + 3];
+        result[ri] = aw * bx + ax * bw + ay * bz - az * by;
+        result[ri + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[ri + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[ri + 3] = aw * bw - ax * bx - ay * by - az * bz;
     }
 
     /**
@@ -522,6 +958,16 @@ public class PointCloudActivity extends Activity {
         mDisplayRotation = display.getRotation();
     }
 
+    private void showToastOnUiThread(final int resId) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(PointCloudActivity.this,
+                        getString(resId), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     /**
      * Display toast on UI thread.
      *
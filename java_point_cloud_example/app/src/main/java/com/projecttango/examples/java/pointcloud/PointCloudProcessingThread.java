@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud;
+
+import android.util.Log;
+
+import com.google.atap.tangoservice.TangoPointCloudData;
+import com.google.tango.support.TangoPointCloudManager;
+import com.projecttango.examples.java.pointcloud.core.FrameProcessor;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the {@link FrameProcessor} on its own thread, so neither the Tango callback thread nor the
+ * render thread waits for the per-point work. The thread is woken for every point cloud and
+ * always processes the latest one; clouds that arrive while it is busy are skipped.
+ */
+public class PointCloudProcessingThread extends Thread {
+    private static final String TAG = PointCloudProcessingThread.class.getSimpleName();
+
+    /**
+     * Looks up the depth camera pose of a point cloud.
+     */
+    public interface DepthTransformSource {
+        /**
+         * @param matrix receives the column-major OpenGL transform from the depth camera to
+         *               the world at timestamp.
+         * @return false if there is no valid pose, and the cloud should be skipped.
+         */
+        boolean getDepthTransform(double timestamp, float[] matrix);
+    }
+
+    private final TangoPointCloudManager mPointCloudManager;
+    private final FrameProcessor mProcessor;
+    private final DepthTransformSource mTransforms;
+    private final Semaphore mPointCloudsAvailable = new Semaphore(0);
+    private final float[] mTransform = new float[16];
+    private volatile boolean mRunning = true;
+
+    public PointCloudProcessingThread(TangoPointCloudManager pointCloudManager,
+                                      FrameProcessor processor, DepthTransformSource transforms) {
+        super("PointCloudProcessing");
+        mPointCloudManager = pointCloudManager;
+        mProcessor = processor;
+        mTransforms = transforms;
+    }
+
+    /**
+     * Wake the thread up for the point cloud just handed to the point cloud manager.
+     * Called from the Tango callback thread.
+     */
+    public void onPointCloudAvailable() {
+        mPointCloudsAvailable.release();
+    }
+
+    /**
+     * Stop processing and wait for the frame in progress to finish.
+     */
+    public void shutdown() {
+        mRunning = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (mRunning) {
+            try {
+                mPointCloudsAvailable.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            mPointCloudsAvailable.drainPermits();
+            TangoPointCloudData pointCloud = mPointCloudManager.getLatestPointCloud();
+            if (pointCloud == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean valid = mTransforms.getDepthTransform(pointCloud.timestamp, mTransform);
+            mProcessor.reportPoseNanos(System.nanoTime() - start);
+            if (!valid) {
+                continue;
+            }
+            try {
+                mProcessor.process(pointCloud.points, pointCloud.numPoints, pointCloud.timestamp,
+                        mTransform);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not process point cloud", e);
+            }
+        }
+    }
+}
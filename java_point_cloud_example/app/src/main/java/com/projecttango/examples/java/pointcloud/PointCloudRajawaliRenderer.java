@@ -15,51 +15,235 @@
  */
 package com.projecttango.examples.java.pointcloud;
 
-import com.google.atap.tangoservice.TangoPointCloudData;
-import com.google.atap.tangoservice.TangoPoseData;
 
 import android.content.Context;
 import android.graphics.Color;
 import android.util.Log;
 import android.view.MotionEvent;
 
+import org.rajawali3d.Object3D;
 import org.rajawali3d.math.Matrix4;
 import org.rajawali3d.math.Quaternion;
 import org.rajawali3d.math.vector.Vector3;
 import org.rajawali3d.renderer.RajawaliRenderer;
 
+import javax.microedition.khronos.opengles.GL10;
+
+import com.projecttango.examples.java.pointcloud.core.ColorLut;
+import com.projecttango.examples.java.pointcloud.core.FrameProcessor;
+import com.projecttango.examples.java.pointcloud.core.LatencyTracer;
+import com.projecttango.examples.java.pointcloud.core.ProcessedFrame;
+import com.projecttango.examples.java.pointcloud.core.ProjectorCalibration;
+import com.projecttango.examples.java.pointcloud.core.QualityController;
+import com.projecttango.examples.java.pointcloud.core.WaterSimulation;
+import com.projecttango.examples.java.pointcloud.core.WorkerPool;
 import com.projecttango.examples.java.pointcloud.rajawali.FrustumAxes;
 import com.projecttango.examples.java.pointcloud.rajawali.Grid;
 import com.projecttango.examples.java.pointcloud.rajawali.PointCloud;
+import com.projecttango.examples.java.pointcloud.rajawali.ProjectorImage;
+import com.projecttango.examples.java.pointcloud.rajawali.SurfaceMesh;
 import com.projecttango.examples.java.pointcloud.rajawali.ContourLine;
 
 /**
  * Renderer for Point Cloud data.
  */
 public class PointCloudRajawaliRenderer extends RajawaliRenderer {
+    private static final String TAG = PointCloudRajawaliRenderer.class.getSimpleName();
 
     private static final float CAMERA_NEAR = 0.01f;
     private static final float CAMERA_FAR = 200f;
-    private static final int MAX_NUMBER_OF_POINTS = 100000; // can it increase?
+    // Vertex buffer size in raw point mode. Denser frames are thinned to it, not rejected.
+    private static final int MAX_NUMBER_OF_POINTS = 100000;
+    // Cells per side of the sandbox height grid; 0 draws the raw points instead.
+    private static final int GRID_RESOLUTION = 256;
+    private static final int MAX_CONTOUR_VERTICES = 200000;
+    // Simulate water flowing over the height grid.
+    private static final boolean WATER_SIMULATION = true;
+    // Gentle rain that evaporates twice as fast, so water only stays where it runs together.
+    private static final float WATER_RAIN_RATE = 0.0005f;
+    private static final float WATER_EVAPORATION_RATE = 0.001f;
+    // Color the height grid surface and draw its contour lines in the fragment shader, so only
+    // heights are uploaded; off uploads per vertex colors and draws the isolines as lines.
+    // The water is part of the per vertex colors, so this is off while it is simulated.
+    private static final boolean SHADER_COLORING = !WATER_SIMULATION;
+    // Processing plus upload time per frame the quality controller aims for, about 30 fps.
+    private static final float TARGET_FRAME_MILLIS = 33f;
 
     private TouchViewHandler mTouchViewHandler;
 
-    // Objects rendered in the scene.
+    // Objects rendered in the scene. The surface replaces the point cloud in height grid mode.
     private PointCloud mPointCloud;
+    private SurfaceMesh mSurfaceMesh;
     private FrustumAxes mFrustumAxes;
     private ContourLine mContourLine;
+    // Replaces the surface and isolines in projector view.
+    private ProjectorImage mProjectorImage;
     private Grid mGrid;
-    private double avgDepth;
     private boolean isHidenGrid = true;
     private boolean isHidenFrustum = true;
+    // Runs on the processing thread; the renderer only takes its finished frames.
+    private final FrameProcessor mFrameProcessor;
+    // Only in height grid mode with water; stepped by its own thread, on its own pool.
+    private final WaterSimulation mWaterSimulation;
+    private final WorkerPool mWaterPool;
+    // Projector view state, set from the UI thread and the size from the render thread.
+    private final Object mProjectorLock = new Object();
+    private ProjectorCalibration mProjectorCalibration;
+    private boolean mProjectorView;
+    private int mViewWidth;
+    private int mViewHeight;
+    // Sensor timestamp of the frame uploaded for the current render pass, or NaN if none.
+    private double mUploadedTimestamp = Double.NaN;
+    // Reused every frame, so updating the poses allocates nothing.
+    private final Matrix4 mDepthMatrix = new Matrix4();
+    private final Quaternion mDepthOrientation = new Quaternion();
+    private final Vector3 mCameraPosition = new Vector3();
+    private final Quaternion mCameraOrientation = new Quaternion();
 
     public PointCloudRajawaliRenderer(Context context) {
         super(context);
+        // Leave a core to the render and Tango threads.
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        mFrameProcessor = new FrameProcessor(MAX_NUMBER_OF_POINTS, GRID_RESOLUTION, threads);
+        QualityController quality = new QualityController(
+                QualityController.createDefaultLevels(MAX_NUMBER_OF_POINTS), TARGET_FRAME_MILLIS);
+        quality.setListener(new QualityController.Listener() {
+            @Override
+            public void onQualityChanged(QualityController.Decision decision) {
+                Log.i(TAG, "Quality " + decision);
+            }
+        });
+        mFrameProcessor.setQualityController(quality);
+        if (WATER_SIMULATION && mFrameProcessor.getHeightGrid() != null) {
+            mWaterPool = new WorkerPool(threads);
+            mWaterSimulation = WaterSimulation.forGrid(mFrameProcessor.getHeightGrid(),
+                    mWaterPool);
+            mWaterSimulation.setRainRate(WATER_RAIN_RATE);
+            mWaterSimulation.setEvaporationRate(WATER_EVAPORATION_RATE);
+            mFrameProcessor.setWaterSimulation(mWaterSimulation);
+        } else {
+            mWaterPool = null;
+            mWaterSimulation = null;
+        }
         mTouchViewHandler = new TouchViewHandler(mContext, getCurrentCamera());
     }
 
-    public void setAvgDepth(Double _avgDepth){
-        this.avgDepth = _avgDepth;
+    /**
+     * Switch the elevation colors. The table is swapped in before the next frame is processed.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        mFrameProcessor.setColorLut(colorLut);
+    }
+
+    /**
+     * Processing for the point clouds this renderer draws, to be run on a processing thread.
+     */
+    public FrameProcessor getFrameProcessor() {
+        return mFrameProcessor;
+    }
+
+    /**
+     * The simulated water, to be stepped on a thread of its own, or null without water.
+     */
+    public WaterSimulation getWaterSimulation() {
+        return mWaterSimulation;
+    }
+
+    /**
+     * Stop the worker threads of the processing and the water simulation.
+     */
+    public void shutdown() {
+        mFrameProcessor.shutdown();
+        if (mWaterPool != null) {
+            mWaterPool.shutdown();
+        }
+    }
+
+    /**
+     * The projector calibration, at whatever resolution it was made, or null for the sandbox
+     * rectangle stretched over the view. Only used in projector view.
+     */
+    public void setProjectorCalibration(ProjectorCalibration calibration) {
+        synchronized (mProjectorLock) {
+            mProjectorCalibration = calibration;
+            applyProjector();
+        }
+    }
+
+    /**
+     * Show what is projected onto the sand, the frames warped through the projector
+     * calibration, instead of the 3D scene. Only in height grid mode.
+     */
+    public void setProjectorView(boolean projectorView) {
+        synchronized (mProjectorLock) {
+            mProjectorView = projectorView;
+            applyProjector();
+        }
+    }
+
+    public boolean isProjectorView() {
+        synchronized (mProjectorLock) {
+            return mProjectorView;
+        }
+    }
+
+    /**
+     * Calibrate the projector from markers put on the sand, in projector view. The new
+     * calibration is used as soon as it is found, and the listener told either way.
+     *
+     * @return false if there is no height grid or the view has no size yet.
+     */
+    public boolean calibrateProjector(final FrameProcessor.CalibrationListener listener) {
+        synchronized (mProjectorLock) {
+            if (mFrameProcessor.getHeightGrid() == null || mViewWidth == 0) {
+                return false;
+            }
+            mProjectorView = true;
+            applyProjector();
+            mFrameProcessor.calibrateProjector(mViewWidth, mViewHeight,
+                    new FrameProcessor.CalibrationListener() {
+                        @Override
+                        public void onProjectorCalibrated(ProjectorCalibration calibration) {
+                            if (calibration != null) {
+                                synchronized (mProjectorLock) {
+                                    // Already in use; kept for when the view is resized.
+                                    mProjectorCalibration = calibration;
+                                }
+                            }
+                            listener.onProjectorCalibrated(calibration);
+                        }
+                    });
+            return true;
+        }
+    }
+
+    /**
+     * Hand the calibration for the current view size to the frame processor, or stop the
+     * projector image outside projector view.
+     */
+    private void applyProjector() {
+        if (mFrameProcessor.getHeightGrid() == null) {
+            return;
+        }
+        if (!mProjectorView || mViewWidth == 0) {
+            mFrameProcessor.setProjectorCalibration(null);
+        } else if (mProjectorCalibration != null) {
+            mFrameProcessor.setProjectorCalibration(
+                    mProjectorCalibration.forSize(mViewWidth, mViewHeight));
+        } else {
+            mFrameProcessor.setProjectorCalibration(
+                    ProjectorCalibration.createDefault(mViewWidth, mViewHeight));
+        }
+    }
+
+    @Override
+    public void onRenderSurfaceSizeChanged(GL10 gl, int width, int height) {
+        super.onRenderSurfaceSizeChanged(gl, width, height);
+        synchronized (mProjectorLock) {
+            mViewWidth = width;
+            mViewHeight = height;
+            applyProjector();
+        }
     }
 
     @Override
@@ -68,50 +252,101 @@ public class PointCloudRajawaliRenderer extends RajawaliRenderer {
         mGrid.setPosition(0, -1.3f, 0);
 //        getCurrentScene().addChild(mGrid);
 
-        mContourLine = new ContourLine(1,0.1f,1, 0xFFCCCCCC);
+        mContourLine = new ContourLine(MAX_CONTOUR_VERTICES, 0xFFFFFFFF);
 
         mFrustumAxes = new FrustumAxes(3);
         getCurrentScene().addChild(mFrustumAxes);
 
-        // Indicate four floats per point since the point cloud data comes
-        // in XYZC format.
-        mPointCloud = new PointCloud(MAX_NUMBER_OF_POINTS, 4);
-        getCurrentScene().addChild(mPointCloud);
+        if (mFrameProcessor.getHeightGrid() != null) {
+            mSurfaceMesh = new SurfaceMesh(mFrameProcessor, SHADER_COLORING);
+            getCurrentScene().addChild(mSurfaceMesh);
+            if (!SHADER_COLORING) {
+                // Real isolines replace the white band boundary cells.
+                getCurrentScene().addChild(mContourLine);
+            }
+            // Last, so it covers the rest of the scene.
+            mProjectorImage = new ProjectorImage();
+            getCurrentScene().addChild(mProjectorImage);
+        } else {
+            // Indicate four floats per point since the point cloud data comes
+            // in XYZC format.
+            mPointCloud = new PointCloud(mFrameProcessor, 4);
+            getCurrentScene().addChild(mPointCloud);
+        }
 
         getCurrentScene().setBackgroundColor(Color.BLACK);
         getCurrentCamera().setNearPlane(CAMERA_NEAR);
         getCurrentCamera().setFarPlane(CAMERA_FAR);
-        getCurrentCamera().setFieldOfView(50); // set scale of camera depth
+        // Only frames the 3D views; the projector view is placed by its calibration.
+        getCurrentCamera().setFieldOfView(50);
     }
 
 
     /**
-     * Updates the rendered point cloud. For this, we need the point cloud data and the device pose
-     * at the time the cloud data was acquired.
+     * Updates the rendered point cloud with the latest processed frame, if there is a new one.
+     * The frame carries the depth camera pose at the time the cloud data was acquired.
      * NOTE: This needs to be called from the OpenGL rendering thread.
      */
-    public void updatePointCloud(TangoPointCloudData pointCloudData, float[] openGlTdepth) {
-        // mContourLine.updateCloud(pointCloudData.numPoints, pointCloudData.points, avgDepth);
-        mPointCloud.updateCloud(pointCloudData.numPoints, pointCloudData.points, avgDepth);
-        Matrix4 openGlTdepthMatrix = new Matrix4(openGlTdepth);
-        mPointCloud.setPosition(openGlTdepthMatrix.getTranslation());
+    public void updatePointCloud() {
+        ProcessedFrame frame = mFrameProcessor.takeLatest();
+        if (frame == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Object3D surface;
+        if (frame.isGrid()) {
+            mSurfaceMesh.setColorLut(mFrameProcessor.getColorLut());
+            mSurfaceMesh.updateFrame(frame);
+            mProjectorImage.updateFrame(frame);
+            mSurfaceMesh.setVisible(!mProjectorImage.hasImage());
+            mContourLine.setVisible(!mProjectorImage.hasImage());
+            surface = mSurfaceMesh;
+        } else {
+            mPointCloud.updateFrame(frame);
+            surface = mPointCloud;
+        }
+        float[] openGlTdepth = frame.getTransform();
+        mDepthMatrix.setAll(openGlTdepth);
+        surface.setPosition(openGlTdepth[12], openGlTdepth[13], openGlTdepth[14]);
         // Conjugating the Quaternion is needed because Rajawali uses left-handed convention.
-        mPointCloud.setOrientation(new Quaternion().fromMatrix(openGlTdepthMatrix).conjugate());
+        mDepthOrientation.fromMatrix(mDepthMatrix).conjugate();
+        surface.setOrientation(mDepthOrientation);
+        if (frame.isGrid()) {
+            // Isolines are in the same sandbox frame as the grid.
+            mContourLine.updateContours(frame);
+            mContourLine.setPosition(openGlTdepth[12], openGlTdepth[13], openGlTdepth[14]);
+            mContourLine.setOrientation(mDepthOrientation);
+        }
+        mFrameProcessor.reportUploadNanos(System.nanoTime() - start);
+        mUploadedTimestamp = frame.getTimestamp();
+    }
+
+    /**
+     * Record the latency of the frame uploaded for the render pass just issued, if any.
+     * NOTE: This needs to be called from the OpenGL rendering thread, after rendering.
+     */
+    public void onFrameDrawn() {
+        if (!Double.isNaN(mUploadedTimestamp)) {
+            mFrameProcessor.getLatencyTracer().recordLatency(LatencyTracer.Latency.DRAWN,
+                    mUploadedTimestamp, System.nanoTime());
+            mUploadedTimestamp = Double.NaN;
+        }
     }
 
     /**
      * Updates our information about the current device pose.
      * NOTE: This needs to be called from the OpenGL rendering thread.
+     *
+     * @param cameraPose OpenGL pose of the display, translation then x, y, z, w rotation.
      */
-    public void updateCameraPose(TangoPoseData cameraPose) {
-        float[] rotation = cameraPose.getRotationAsFloats();
-        float[] translation = cameraPose.getTranslationAsFloats();
-        Quaternion quaternion = new Quaternion(rotation[3], rotation[0], rotation[1], rotation[2]);
-        mFrustumAxes.setPosition(translation[0], translation[1], translation[2]);
+    public void updateCameraPose(float[] cameraPose) {
+        mCameraPosition.setAll(cameraPose[0], cameraPose[1], cameraPose[2]);
+        mCameraOrientation.setAll(cameraPose[6], cameraPose[3], cameraPose[4], cameraPose[5]);
+        mFrustumAxes.setPosition(mCameraPosition);
         // Conjugating the Quaternion is needed because Rajawali uses left-handed convention for
         // quaternions.
-        mFrustumAxes.setOrientation(quaternion.conjugate());
-        mTouchViewHandler.updateCamera(new Vector3(translation[0], translation[1], translation[2]), quaternion);
+        mFrustumAxes.setOrientation(mCameraOrientation.conjugate());
+        mTouchViewHandler.updateCamera(mCameraPosition, mCameraOrientation);
     }
 
     @Override
@@ -124,14 +359,17 @@ public class PointCloudRajawaliRenderer extends RajawaliRenderer {
     }
 
     public void setFirstPersonView() { // first-person view
+        setProjectorView(false);
         mTouchViewHandler.setFirstPersonView();
     }
 
     public void setTopDownView() { // top-view
+        setProjectorView(false);
         mTouchViewHandler.setTopDownView();
     }
 
     public void setThirdPersonView() { // third-person view
+        setProjectorView(false);
         mTouchViewHandler.setThirdPersonView();
     }
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud;
+
+import android.util.Log;
+
+import com.projecttango.examples.java.pointcloud.core.WaterSimulation;
+
+/**
+ * Steps a {@link WaterSimulation} in real time on its own thread, so the water flows at the same
+ * speed whatever the render and depth frame rates. The thread wakes up a few times per frame,
+ * runs the time steps due since it last ran and publishes the water depths.
+ */
+public class WaterSimulationThread extends Thread {
+    private static final String TAG = WaterSimulationThread.class.getSimpleName();
+    // Between two publications of the water depths; each copies the whole grid.
+    private static final long WAKE_UP_MILLIS = 10;
+
+    private final WaterSimulation mSimulation;
+    private volatile boolean mRunning = true;
+
+    public WaterSimulationThread(WaterSimulation simulation) {
+        super("WaterSimulation");
+        mSimulation = simulation;
+    }
+
+    /**
+     * Stop simulating and wait for the steps in progress to finish.
+     */
+    public void shutdown() {
+        mRunning = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long last = System.nanoTime();
+        while (mRunning) {
+            try {
+                Thread.sleep(WAKE_UP_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            long now = System.nanoTime();
+            try {
+                mSimulation.advance((now - last) / 1e9);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not step the water simulation", e);
+                break;
+            }
+            last = now;
+        }
+    }
+}
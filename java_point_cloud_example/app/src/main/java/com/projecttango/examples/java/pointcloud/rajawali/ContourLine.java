@@ -1,52 +1,55 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package com.projecttango.examples.java.pointcloud.rajawali;
 
 import android.opengl.GLES20;
 
-import org.rajawali3d.materials.Material;
-import org.rajawali3d.math.vector.Vector3;
-import org.rajawali3d.primitives.Line3D;
-
-import java.nio.FloatBuffer;
-import java.util.Stack;
-
-public class ContourLine extends Line3D {
+import com.projecttango.examples.java.pointcloud.core.IsolineExtractor;
+import com.projecttango.examples.java.pointcloud.core.ProcessedFrame;
 
-    public static final double MIN_DEPTH = 0.31f;
-    public static final double MAX_DEPTH = 0.50f;
+import org.rajawali3d.materials.Material;
 
-    public ContourLine(int size, float step, float thickness, int color) {
-        super();
-//        calculatePoints(size, step), thickness, color;
+/**
+ * Draws the isolines of the sandbox height grid as GL_LINES, in a single color, from a vertex
+ * buffer allocated once for maxVertices. The isolines are extracted, stitched and simplified on
+ * the processing thread and come with each {@link ProcessedFrame}.
+ */
+public class ContourLine extends Points {
+    private final int mMaxVertices;
+
+    public ContourLine(int maxVertices, int color) {
+        super(maxVertices, IsolineExtractor.FLOATS_PER_VERTEX, false);
+        mMaxVertices = maxVertices;
         Material material = new Material();
         material.setColor(color);
-//        this.setMaterial(material);
+        setMaterial(material);
     }
 
-    private static Stack<Vector3> calculatePoints(int size, float step) {
-        Stack<Vector3> points = new Stack<Vector3>();
-
-        // Rows
-        for (float i = -size / 2f; i <= size / 2f; i += step) {
-            points.add(new Vector3(i, 0, -size / 2f));
-            points.add(new Vector3(i, 0, size / 2f));
-        }
-
-        // Columns
-        for (float i = -size / 2f; i <= size / 2f; i += step) {
-            points.add(new Vector3(-size / 2f, 0, i));
-            points.add(new Vector3(size / 2f, 0, i));
-        }
-
-        return points;
+    /**
+     * Upload the isolines of a frame. Lines beyond the vertex buffer capacity are not drawn.
+     * NOTE: This needs to be called from the OpenGL rendering thread.
+     */
+    public void updateContours(ProcessedFrame frame) {
+        int vertexCount = Math.min(frame.getContourVertexCount(), mMaxVertices);
+        updatePoints(vertexCount, frame.getContourVertices());
     }
 
     @Override
-    protected void init(boolean createVBOs) {
-        super.init(createVBOs);
+    public void preRender() {
+        super.preRender();
         setDrawingMode(GLES20.GL_LINES);
     }
-
-    public void updateCloud(int numPoints, FloatBuffer points, double avgDepth) {
-
-    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.rajawali;
+
+import android.opengl.GLES20;
+
+import com.projecttango.examples.java.pointcloud.core.GeometryUploader;
+
+import java.nio.FloatBuffer;
+
+/**
+ * {@link GeometryUploader} backed by OpenGL ES 2.0 array buffers.
+ * NOTE: Every call needs to be made from the OpenGL rendering thread.
+ */
+public class GlGeometryUploader implements GeometryUploader {
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private final int[] mHandle = new int[1];
+
+    @Override
+    public void beginFrame() {
+    }
+
+    @Override
+    public int createBuffer(int byteSize) {
+        GLES20.glGenBuffers(1, mHandle, 0);
+        orphanBuffer(mHandle[0], byteSize);
+        return mHandle[0];
+    }
+
+    @Override
+    public void orphanBuffer(int buffer, int byteSize) {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, byteSize, null, GLES20.GL_STREAM_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void uploadBuffer(int buffer, int byteOffset, FloatBuffer data, int floatCount) {
+        data.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, byteOffset, floatCount * BYTES_PER_FLOAT,
+                data);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        mHandle[0] = buffer;
+        GLES20.glDeleteBuffers(1, mHandle, 0);
+    }
+}
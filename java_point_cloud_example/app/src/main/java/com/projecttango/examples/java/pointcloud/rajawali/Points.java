@@ -18,6 +18,9 @@ package com.projecttango.examples.java.pointcloud.rajawali;
 import android.opengl.GLES10;
 import android.opengl.GLES20;
 
+import com.projecttango.examples.java.pointcloud.core.GeometryUploader;
+import com.projecttango.examples.java.pointcloud.core.StreamingGeometry;
+
 import org.rajawali3d.Object3D;
 
 import java.nio.FloatBuffer;
@@ -25,20 +28,39 @@ import java.nio.FloatBuffer;
 /**
  * A Point primitive for Rajawali.
  * Intended to be contributed and PR'ed to Rajawali.
+ * Points are streamed every frame into a ring of vertex buffers through a
+ * {@link GeometryUploader}, so uploading never waits on the GPU drawing a previous frame.
  */
 public class Points extends Object3D {
     private static final int BYTES_PER_FLOAT = 4;
+    // Frames that can be in flight at once: uploads rotate through this many vertex buffers.
+    public static final int UPLOAD_SLOTS = 3;
 
     private int mMaxNumberOfVertices;
     // Float values per point to expect in points FloatBuffer. XYZ format = 3, XYZC format = 4.
     protected int mFloatsPerPoint = 3;
     // Float values per color = 4 (RGBA).
     protected int mFloatsPerColor = 4;
+    private final boolean mHasColors;
+    private final GeometryUploader mUploader;
+    // Ring of vertex buffers the frames are streamed into, created at the first upload.
+    private StreamingGeometry mStreaming;
+    private boolean mStreamingCreated;
 
     public Points(int numberOfPoints, int floatsPerPoint, boolean isCreateColors) {
+        this(numberOfPoints, floatsPerPoint, isCreateColors, new GlGeometryUploader());
+    }
+
+    /**
+     * @param uploader where the vertex buffers are created and written.
+     */
+    public Points(int numberOfPoints, int floatsPerPoint, boolean isCreateColors,
+                  GeometryUploader uploader) {
         super();
         mMaxNumberOfVertices = numberOfPoints;
         mFloatsPerPoint = floatsPerPoint;
+        mHasColors = isCreateColors;
+        mUploader = uploader;
         init(true, isCreateColors);
     }
 
@@ -63,10 +85,17 @@ public class Points extends Object3D {
      * Update the geometry of the points based on the provided points float buffer.
      */
     public void updatePoints(int pointCount, FloatBuffer pointCloudBuffer) {
-        mGeometry.setNumIndices(pointCount);
-        mGeometry.setVertices(pointCloudBuffer);
-        mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
-                pointCount * mFloatsPerPoint);
+        checkPointCount(pointCount);
+        beginUpload();
+        mStreaming.uploadAll(pointCloudBuffer, pointCount);
+        setPointCount(pointCount);
+    }
+
+    /**
+     * Update the geometry of the points based on the provided points float array, without colors.
+     */
+    public void updatePoints(int pointCount, float[] points) {
+        updatePoints(pointCount, points, null);
     }
 
     /**
@@ -74,18 +103,74 @@ public class Points extends Object3D {
      * colors based on the provided float array.
      */
     public void updatePoints(int pointCount, float[] points, float[] colors) {
+        checkPointCount(pointCount);
+        beginUpload();
+        mStreaming.uploadAll(points, colors, pointCount);
+        setPointCount(pointCount);
+    }
+
+    /**
+     * Start the uploads of a frame, which go to the next vertex buffers of the ring. Only needed
+     * before {@link #updatePointRange}; the updatePoints methods call it themselves.
+     *
+     * @return the ring slot the frame writes to. A slot holds what was uploaded to it the last
+     * time it came round, {@link #UPLOAD_SLOTS} frames ago.
+     */
+    protected int beginUpload() {
+        if (mStreaming == null) {
+            // Buffers can only be created once there is a GL context, on the render thread.
+            mStreaming = new StreamingGeometry(mUploader, mMaxNumberOfVertices, mFloatsPerPoint,
+                    mHasColors, UPLOAD_SLOTS);
+            mStreamingCreated = true;
+        }
+        return mStreaming.beginFrame();
+    }
+
+    /**
+     * Whether the vertex buffers were (re)created, empty, since the last call.
+     */
+    protected boolean takeBuffersCreated() {
+        boolean created = mStreamingCreated;
+        mStreamingCreated = false;
+        return created;
+    }
+
+    /**
+     * Set how many points are drawn and draw from the buffers of the current frame.
+     */
+    public void setPointCount(int pointCount) {
+        checkPointCount(pointCount);
+        mGeometry.setNumIndices(pointCount);
+        if (mStreaming != null) {
+            mGeometry.getVertexBufferInfo().bufferHandle = mStreaming.getPositionBuffer();
+            if (mHasColors) {
+                mGeometry.getColorBufferInfo().bufferHandle = mStreaming.getColorBuffer();
+            }
+        }
+    }
+
+    /**
+     * Upload only the points firstPoint to firstPoint + pointCount - 1, and their colors, from
+     * arrays laid out like the whole buffer, into the buffers of the frame started with
+     * {@link #beginUpload()}. The rest of those buffers is left untouched.
+     */
+    public void updatePointRange(int firstPoint, int pointCount, float[] points, float[] colors) {
+        mStreaming.uploadRange(points, colors, firstPoint, pointCount);
+    }
+
+    private void checkPointCount(int pointCount) {
         if (pointCount > mMaxNumberOfVertices) {
             throw new RuntimeException(
                     String.format("pointClount = %d exceeds maximum number of points = %d",
                             pointCount, mMaxNumberOfVertices));
         }
-        mGeometry.setNumIndices(pointCount);
-        mGeometry.setVertices(points);
-        mGeometry.changeBufferData(mGeometry.getVertexBufferInfo(), mGeometry.getVertices(), 0,
-                pointCount * mFloatsPerPoint);
-        mGeometry.setColors(colors); //color from pointcloud.java
-        mGeometry.changeBufferData(mGeometry.getColorBufferInfo(), mGeometry.getColors(), 0,
-                pointCount * mFloatsPerColor);
+    }
+
+    @Override
+    public void reload() {
+        // The GL context was recreated along with every buffer name; start a new ring.
+        mStreaming = null;
+        super.reload();
     }
 
     @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.rajawali;
+
+import android.opengl.GLES20;
+
+import com.projecttango.examples.java.pointcloud.core.ProcessedFrame;
+import com.projecttango.examples.java.pointcloud.core.ProjectorWarp;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.cameras.Camera;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.math.Matrix4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Draws the projector image of the frames, already warped onto the sand by a
+ * {@link ProjectorWarp}, over the whole view, whatever the camera. The image is uploaded into a
+ * texture of its own resolution, so each pixel of the view shows exactly one of its pixels.
+ * NOTE: Every method needs to be called from the OpenGL rendering thread.
+ */
+public class ProjectorImage extends Object3D {
+    private static final String VERTEX_SHADER =
+            "attribute vec2 aPosition;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "void main() {\n"
+            // The first image row is the top of the view.
+            + "    vTexCoord = vec2(aPosition.x * 0.5 + 0.5, 0.5 - aPosition.y * 0.5);\n"
+            + "    gl_Position = vec4(aPosition, 0.0, 1.0);\n"
+            + "}\n";
+    // Pixels without data are transparent black; draw them black.
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform sampler2D uImage;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = vec4(texture2D(uImage, vTexCoord).rgb, 1.0);\n"
+            + "}\n";
+    // The whole view in clip space, as a triangle strip.
+    private static final float[] QUAD = {-1, -1, 1, -1, -1, 1, 1, 1};
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final FloatBuffer mQuad = ByteBuffer.allocateDirect(QUAD.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    // Staging copy of the latest image, in the native order GL_RGBA bytes expect.
+    private IntBuffer mPixels;
+    private int mWidth;
+    private int mHeight;
+    private boolean mTextureStale;
+    private boolean mHasImage;
+
+    // GL objects, created at the first upload, when there is a GL context.
+    private int mProgram;
+    private int mTexture;
+    private int mPositionHandle;
+    private int mImageHandle;
+    private int mTextureWidth;
+    private int mTextureHeight;
+    private final int[] mHandles = new int[1];
+
+    public ProjectorImage() {
+        super();
+        mQuad.put(QUAD).rewind();
+    }
+
+    /**
+     * Upload the frame's projector image, if it has one. Without one, nothing is drawn.
+     */
+    public void updateFrame(ProcessedFrame frame) {
+        mHasImage = frame.hasProjectorImage();
+        if (!mHasImage) {
+            return;
+        }
+        if (mProgram == 0) {
+            createProgram();
+        }
+        mWidth = frame.getProjectorWidth();
+        mHeight = frame.getProjectorHeight();
+        int pixelCount = mWidth * mHeight;
+        if (mPixels == null || mPixels.capacity() < pixelCount) {
+            mPixels = ByteBuffer.allocateDirect(pixelCount * BYTES_PER_PIXEL)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        mPixels.clear();
+        mPixels.put(frame.getProjectorPixels(), 0, pixelCount).flip();
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        if (mTextureStale || mWidth != mTextureWidth || mHeight != mTextureHeight) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPixels);
+            mTextureWidth = mWidth;
+            mTextureHeight = mHeight;
+            mTextureStale = false;
+        } else {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, mWidth, mHeight,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPixels);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    private void createProgram() {
+        mProgram = GlPrograms.create(VERTEX_SHADER, FRAGMENT_SHADER);
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mImageHandle = GLES20.glGetUniformLocation(mProgram, "uImage");
+        GLES20.glGenTextures(1, mHandles, 0);
+        mTexture = mHandles[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        // Image pixels match view pixels; any size is fine without mipmaps and with clamping.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        mTextureStale = true;
+    }
+
+    /**
+     * Whether the last frame had a projector image, i.e. whether this draws anything.
+     */
+    public boolean hasImage() {
+        return mHasImage;
+    }
+
+    @Override
+    public void render(Camera camera, Matrix4 vpMatrix, Matrix4 projMatrix, Matrix4 vMatrix,
+                       Matrix4 parentMatrix, Material sceneMaterial) {
+        if (!isVisible() || !mHasImage) {
+            return;
+        }
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLES20.glUniform1i(mImageHandle, 0);
+        // Covers whatever was drawn before it.
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_CULL_FACE);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 2, GLES20.GL_FLOAT, false, 0, mQuad);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, QUAD.length / 2);
+        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    public void reload() {
+        // The GL context was recreated along with the program and texture; start over.
+        mProgram = 0;
+        mHasImage = false;
+        super.reload();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.rajawali;
+
+import android.opengl.GLES20;
+
+import com.projecttango.examples.java.pointcloud.core.ColorLut;
+import com.projecttango.examples.java.pointcloud.core.DirtyTileTracker;
+import com.projecttango.examples.java.pointcloud.core.ElevationShader;
+import com.projecttango.examples.java.pointcloud.core.FrameProcessor;
+import com.projecttango.examples.java.pointcloud.core.GeometryUploader;
+import com.projecttango.examples.java.pointcloud.core.GridMesh;
+import com.projecttango.examples.java.pointcloud.core.ProcessedFrame;
+import com.projecttango.examples.java.pointcloud.core.StreamingGeometry;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.cameras.Camera;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.math.Matrix4;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Renders the sandbox height grid as a triangle surface, with no holes between the samples.
+ * The cell positions and triangle strip indices of a {@link GridMesh} are uploaded once into
+ * static buffers. Each frame only the heights and RGBA8 colors of the grid tiles that changed
+ * are streamed, into a ring of buffers as {@link PointCloud} does: 8 bytes per vertex instead
+ * of the 32 of an XYZC point and its float color.
+ * <p>
+ * Rajawali's materials take a single position attribute, so the mesh is drawn with its own
+ * shaders. Triangles touching a cell that was never seen are discarded.
+ * <p>
+ * With shader coloring, the colors are not uploaded at all: an {@link ElevationShader} turns
+ * each fragment's height into its band color and contour lines, from a palette texture built
+ * from the {@link ColorLut}. Only the 4 byte heights are streamed then.
+ * NOTE: Every method needs to be called from the OpenGL rendering thread.
+ */
+public class SurfaceMesh extends Object3D {
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+            + "attribute vec2 aPosition;\n"
+            + "attribute float aHeight;\n"
+            + "attribute vec4 aColor;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    vColor = aColor;\n"
+            + "    gl_Position = uMVPMatrix * vec4(aPosition, max(aHeight, 0.0), 1.0);\n"
+            + "}\n";
+    // Alpha is only below one towards a cell without a height.
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    if (vColor.a < 0.99) {\n"
+            + "        discard;\n"
+            + "    }\n"
+            + "    gl_FragColor = vColor;\n"
+            + "}\n";
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+
+    private final GridMesh mMesh;
+    private final boolean mShaderColoring;
+    private final GeometryUploader mUploader;
+    private final DirtyTileTracker mDirtyTiles;
+    // Per vertex buffer slot, the tiles changed since that slot was last written.
+    private final DirtyTileTracker.Consumer[] mSlotTiles;
+    private final int[] mChangedTiles;
+
+    // GL objects, created at the first upload, when there is a GL context.
+    private StreamingGeometry mStreaming;
+    private int mProgram;
+    private int mPositionBuffer;
+    private int mIndexBuffer;
+    private int mMvpMatrixHandle;
+    private int mPositionHandle;
+    private int mHeightHandle;
+    private int mColorHandle;
+    private boolean mHasFrame;
+    // Shader coloring only.
+    private ElevationShader mElevationShader;
+    private boolean mPaletteStale;
+    private int mPaletteTexture;
+    private int mPaletteHandle;
+    private int mSlotsHandle;
+    private int mBandsHandle;
+    private int mMinDepthHandle;
+    private int mMaxDepthHandle;
+    private int mNearDepthHandle;
+    private int mBandsPerMetreHandle;
+    private int mLineWidthHandle;
+
+    private final Matrix4 mMvpMatrix = new Matrix4();
+    private final float[] mMvpFloats = new float[16];
+    private final int[] mHandles = new int[2];
+
+    public SurfaceMesh(FrameProcessor processor, boolean shaderColoring) {
+        this(processor, shaderColoring, new GlGeometryUploader());
+    }
+
+    /**
+     * @param processor a processor in height grid mode.
+     * @param shaderColoring whether colors and contour lines are computed in the fragment
+     *                       shader, from the table set with {@link #setColorLut(ColorLut)}.
+     * @param uploader where the streamed vertex buffers are created and written.
+     */
+    public SurfaceMesh(FrameProcessor processor, boolean shaderColoring,
+                       GeometryUploader uploader) {
+        super();
+        mMesh = processor.createGridMesh();
+        if (mMesh == null) {
+            throw new IllegalArgumentException("A surface needs a height grid");
+        }
+        mShaderColoring = shaderColoring;
+        mUploader = uploader;
+        mDirtyTiles = processor.getDirtyTileTracker();
+        mSlotTiles = new DirtyTileTracker.Consumer[Points.UPLOAD_SLOTS];
+        mChangedTiles = new int[mDirtyTiles.getTileCount()];
+        setColorLut(processor.getColorLut());
+    }
+
+    /**
+     * Color table of the shader coloring. Ignored without it.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        if (mShaderColoring && (mElevationShader == null
+                || mElevationShader.getColorLut() != colorLut)) {
+            mElevationShader = new ElevationShader(colorLut);
+            mPaletteStale = true;
+        }
+    }
+
+    /**
+     * Upload the heights and colors of the tiles changed since this frame's buffers were last
+     * written. Neighbouring tiles are contiguous and go up in a single upload.
+     */
+    public void updateFrame(ProcessedFrame frame) {
+        if (mStreaming == null) {
+            createBuffers();
+        }
+        int slot = mStreaming.beginFrame();
+        int tileCount = mSlotTiles[slot].poll(frame.getTileSnapshot(), mChangedTiles);
+        int verticesPerTile = frame.getVerticesPerTile();
+        int i = 0;
+        while (i < tileCount) {
+            int first = mChangedTiles[i];
+            int last = first;
+            while (i + 1 < tileCount && mChangedTiles[i + 1] == last + 1) {
+                last = mChangedTiles[++i];
+            }
+            i++;
+            mStreaming.uploadRange(frame.getSurfaceHeights(),
+                    mShaderColoring ? null : frame.getSurfaceColors(),
+                    frame.getTileStart(first), (last - first + 1) * verticesPerTile);
+        }
+        mHasFrame = true;
+    }
+
+    private void createBuffers() {
+        if (mShaderColoring) {
+            mProgram = GlPrograms.create(ElevationShader.VERTEX_SOURCE,
+                    ElevationShader.FRAGMENT_SOURCE);
+            mPaletteHandle = GLES20.glGetUniformLocation(mProgram, "uPalette");
+            mSlotsHandle = GLES20.glGetUniformLocation(mProgram, "uSlots");
+            mBandsHandle = GLES20.glGetUniformLocation(mProgram, "uBands");
+            mMinDepthHandle = GLES20.glGetUniformLocation(mProgram, "uMinDepth");
+            mMaxDepthHandle = GLES20.glGetUniformLocation(mProgram, "uMaxDepth");
+            mNearDepthHandle = GLES20.glGetUniformLocation(mProgram, "uNearDepth");
+            mBandsPerMetreHandle = GLES20.glGetUniformLocation(mProgram, "uBandsPerMetre");
+            mLineWidthHandle = GLES20.glGetUniformLocation(mProgram, "uLineWidth");
+            GLES20.glGenTextures(1, mHandles, 0);
+            mPaletteTexture = mHandles[0];
+            mPaletteStale = true;
+        } else {
+            mProgram = GlPrograms.create(VERTEX_SHADER, FRAGMENT_SHADER);
+            mColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
+        }
+        mMvpMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mHeightHandle = GLES20.glGetAttribLocation(mProgram, "aHeight");
+
+        float[] positions = mMesh.getPositions();
+        short[] indices = mMesh.getIndices();
+        GLES20.glGenBuffers(2, mHandles, 0);
+        mPositionBuffer = mHandles[0];
+        mIndexBuffer = mHandles[1];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mPositionBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positions.length * BYTES_PER_FLOAT,
+                ByteBuffer.allocateDirect(positions.length * BYTES_PER_FLOAT)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer().put(positions).rewind(),
+                GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * BYTES_PER_SHORT,
+                ByteBuffer.allocateDirect(indices.length * BYTES_PER_SHORT)
+                        .order(ByteOrder.nativeOrder()).asShortBuffer().put(indices).rewind(),
+                GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        mStreaming = new StreamingGeometry(mUploader, mMesh.getVertexCount(), 1,
+                !mShaderColoring, true, Points.UPLOAD_SLOTS);
+        // New consumers report every tile, which fills the new, empty buffers.
+        for (int i = 0; i < mSlotTiles.length; i++) {
+            mSlotTiles[i] = mDirtyTiles.newConsumer(true);
+        }
+    }
+
+    @Override
+    public void render(Camera camera, Matrix4 vpMatrix, Matrix4 projMatrix, Matrix4 vMatrix,
+                       Matrix4 parentMatrix, Material sceneMaterial) {
+        if (!isVisible() || !mHasFrame) {
+            return;
+        }
+        onRecalculateModelMatrix(parentMatrix);
+        mMvpMatrix.setAll(vpMatrix).multiply(getModelMatrix());
+        mMvpMatrix.toFloatArray(mMvpFloats);
+
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniformMatrix4fv(mMvpMatrixHandle, 1, false, mMvpFloats, 0);
+        if (mShaderColoring) {
+            bindElevationShader();
+        }
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        GLES20.glDisable(GLES20.GL_CULL_FACE);
+        // Isolines lie on the surface; push the surface back so they win the depth test.
+        GLES20.glEnable(GLES20.GL_POLYGON_OFFSET_FILL);
+        GLES20.glPolygonOffset(1f, 1f);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glEnableVertexAttribArray(mHeightHandle);
+        if (!mShaderColoring) {
+            GLES20.glEnableVertexAttribArray(mColorHandle);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+        for (int band = 0; band < mMesh.getBandCount(); band++) {
+            // Indices are relative to the band's first vertex; offset the attributes instead.
+            int firstVertex = mMesh.getBandFirstVertex(band);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mPositionBuffer);
+            GLES20.glVertexAttribPointer(mPositionHandle, GridMesh.FLOATS_PER_POSITION,
+                    GLES20.GL_FLOAT, false, 0,
+                    firstVertex * GridMesh.FLOATS_PER_POSITION * BYTES_PER_FLOAT);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mStreaming.getPositionBuffer());
+            GLES20.glVertexAttribPointer(mHeightHandle, 1, GLES20.GL_FLOAT, false, 0,
+                    firstVertex * BYTES_PER_FLOAT);
+            if (!mShaderColoring) {
+                GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mStreaming.getColorBuffer());
+                GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_UNSIGNED_BYTE, true, 0,
+                        firstVertex * StreamingGeometry.BYTES_PER_PACKED_COLOR);
+            }
+            GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, mMesh.getBandIndexCount(band),
+                    GLES20.GL_UNSIGNED_SHORT, mMesh.getBandFirstIndex(band) * BYTES_PER_SHORT);
+        }
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLES20.glDisableVertexAttribArray(mHeightHandle);
+        if (mShaderColoring) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        } else {
+            GLES20.glDisableVertexAttribArray(mColorHandle);
+        }
+        GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
+    }
+
+    /**
+     * Bind the palette texture, uploading it first if the color table changed, and set the
+     * uniforms of the elevation shader.
+     */
+    private void bindElevationShader() {
+        ElevationShader shader = mElevationShader;
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPaletteTexture);
+        if (mPaletteStale) {
+            int[] texels = shader.getPaletteTexels();
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_CLAMP_TO_EDGE);
+            // RGBA8 texels are R, G, B, A bytes in memory, as GL_RGBA expects.
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, texels.length, 1, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                    ByteBuffer.allocateDirect(texels.length * 4).order(ByteOrder.nativeOrder())
+                            .asIntBuffer().put(texels).rewind());
+            mPaletteStale = false;
+        }
+        GLES20.glUniform1i(mPaletteHandle, 0);
+        GLES20.glUniform1f(mSlotsHandle, shader.getSlots());
+        GLES20.glUniform1f(mBandsHandle, shader.getBands());
+        GLES20.glUniform1f(mMinDepthHandle, shader.getMinDepth());
+        GLES20.glUniform1f(mMaxDepthHandle, shader.getMaxDepth());
+        GLES20.glUniform1f(mNearDepthHandle, shader.getNearDepth());
+        GLES20.glUniform1f(mBandsPerMetreHandle, shader.getBandsPerMetre());
+        GLES20.glUniform1f(mLineWidthHandle, shader.getLineWidth());
+    }
+
+    @Override
+    public void reload() {
+        // The GL context was recreated along with every buffer and program name; start over.
+        mStreaming = null;
+        mHasFrame = false;
+        super.reload();
+    }
+}
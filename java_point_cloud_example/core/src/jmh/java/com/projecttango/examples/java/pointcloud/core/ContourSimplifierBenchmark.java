@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stitching and Douglas-Peucker simplification of the isolines of the dense terrain of
+ * {@link IsolineBenchmark}. The isolineVertices and lineVertices counters of stitchAndSimplify
+ * report the vertices in and out, so divide by the operation count for vertices per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContourSimplifierBenchmark {
+    @Param({"256", "1024"})
+    public int resolution;
+
+    @Param({"0", "0.0005", "0.001", "0.002"})
+    public float tolerance;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Vertices {
+        public long isolineVertices;
+        public long lineVertices;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            isolineVertices = 0;
+            lineVertices = 0;
+        }
+    }
+
+    private float[] mSegments;
+    private int mVertexCount;
+    private ContourSimplifier mSimplifier;
+
+    @Setup
+    public void setUp() {
+        HeightGrid grid = HeightGrid.forSandbox(resolution);
+        float[] heights = grid.getHeights();
+        float mid = (float) (ElevationPalette.MIN_DEPTH + ElevationPalette.MAX_DEPTH) / 2;
+        float amplitude = (float) (ElevationPalette.MAX_DEPTH - ElevationPalette.MIN_DEPTH) / 2;
+        for (int row = 0; row < resolution; row++) {
+            for (int column = 0; column < resolution; column++) {
+                heights[row * resolution + column] = mid + amplitude
+                        * (float) (Math.sin(column * 0.3) * Math.cos(row * 0.2));
+            }
+        }
+        IsolineExtractor extractor = IsolineExtractor.forPalette(resolution * resolution);
+        mVertexCount = extractor.extract(grid);
+        mSegments = extractor.getVertices();
+        mSimplifier = new ContourSimplifier();
+        mSimplifier.setTolerance(tolerance);
+    }
+
+    @Benchmark
+    public int stitch() {
+        return mSimplifier.stitch(mSegments, mVertexCount);
+    }
+
+    @Benchmark
+    public int stitchAndSimplify(Vertices vertices) {
+        int lineVertices = mSimplifier.process(mSegments, mVertexCount);
+        vertices.isolineVertices += mVertexCount;
+        vertices.lineVertices += lineVertices;
+        return lineVertices;
+    }
+}
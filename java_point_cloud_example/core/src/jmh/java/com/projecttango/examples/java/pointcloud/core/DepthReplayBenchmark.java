@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole {@link FrameProcessor} pipeline driven by a recording, replayed as fast as possible.
+ * The recording is made from synthetic frames with {@link DepthRecorder} during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DepthReplayBenchmark {
+    private static final int FRAME_COUNT = 30;
+    // Tango delivers depth at 5 Hz.
+    private static final double FRAME_SECONDS = 0.2;
+
+    @Param({"10000", "100000"})
+    public int pointCount;
+
+    private File mFile;
+    private DepthReplay mReplay;
+    private FrameProcessor mProcessor;
+    private DepthReplayDriver mDriver;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("replay", ".depth");
+        DepthRecorder recorder = new DepthRecorder(mFile, pointCount);
+        recorder.start();
+        float[] transform = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            FloatBuffer points = SyntheticFrames.createFrame(pointCount, i);
+            while (!recorder.record(i * FRAME_SECONDS, points, pointCount, transform, true)) {
+                Thread.yield();
+            }
+        }
+        recorder.stop();
+        mReplay = new DepthReplay(mFile);
+        mProcessor = new FrameProcessor(pointCount, 256);
+        mDriver = new DepthReplayDriver(mReplay, mProcessor);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mProcessor.shutdown();
+        mReplay.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int replay() throws IOException {
+        mDriver.rewind();
+        return mDriver.run(false);
+    }
+}
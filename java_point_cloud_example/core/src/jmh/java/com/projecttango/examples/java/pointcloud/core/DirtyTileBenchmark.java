@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the dirty tile path against rewriting the whole grid, when only a share of
+ * the tiles change between frames (a hand moving through the sand).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirtyTileBenchmark {
+    @Param({"256", "512"})
+    public int resolution;
+
+    @Param({"0", "5", "25", "100"})
+    public int changedPercent;
+
+    private HeightGrid mGrid;
+    private DirtyTileTracker mTracker;
+    private DirtyTileTracker.Consumer mConsumer;
+    private GridVertexWriter mWriter;
+    private IsolineExtractor mExtractor;
+    private int[] mTiles;
+    private float[] mFrameA;
+    private float[] mFrameB;
+    private boolean mUseB;
+
+    @Setup
+    public void setUp() {
+        mGrid = HeightGrid.forSandbox(resolution);
+        FrameBuffer frame = new FrameBuffer(1000000);
+        frame.load(SyntheticFrames.createFrame(1000000, 42), 1000000);
+        mGrid.bin(frame);
+        mTracker = DirtyTileTracker.forGrid(mGrid);
+        mConsumer = mTracker.newConsumer(true);
+        mWriter = new GridVertexWriter(ColorLut.createDefault(), mTracker);
+        mExtractor = IsolineExtractor.forPalette(1024);
+        mTiles = new int[mTracker.getTileCount()];
+
+        // Frame B raises a random share of the tiles by a few millimetres.
+        mFrameA = mGrid.getHeights().clone();
+        mFrameB = mFrameA.clone();
+        Random random = new Random(7);
+        int tileSize = mTracker.getTileSize();
+        for (int tile = 0; tile < mTracker.getTileCount(); tile++) {
+            if (random.nextInt(100) >= changedPercent) {
+                continue;
+            }
+            int row0 = tile / mTracker.getTileColumns() * tileSize;
+            int col0 = tile % mTracker.getTileColumns() * tileSize;
+            for (int row = row0; row < Math.min(row0 + tileSize, mGrid.getRows()); row++) {
+                for (int col = col0; col < Math.min(col0 + tileSize, mGrid.getColumns()); col++) {
+                    mFrameB[row * mGrid.getColumns() + col] += 0.005f;
+                }
+            }
+        }
+
+        mTracker.update(mGrid.getHeights());
+        mWriter.writeTiles(mGrid, mTiles, mConsumer.poll(mTiles));
+        mExtractor.extract(mGrid);
+    }
+
+    private void nextFrame() {
+        mUseB = !mUseB;
+        System.arraycopy(mUseB ? mFrameB : mFrameA, 0, mGrid.getHeights(), 0,
+                mFrameA.length);
+    }
+
+    @Benchmark
+    public int dirtyTiles() {
+        nextFrame();
+        mTracker.update(mGrid.getHeights());
+        int tileCount = mConsumer.poll(mTiles);
+        mWriter.writeTiles(mGrid, mTiles, tileCount);
+        return mExtractor.extract(mGrid, mTracker, mTiles, tileCount);
+    }
+
+    @Benchmark
+    public int fullRewrite() {
+        nextFrame();
+        mWriter.writeAll(mGrid);
+        return mExtractor.extract(mGrid);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU side cost of streaming a frame of vertices through {@link StreamingGeometry} into a
+ * {@link RecordingGeometryUploader}, whose copy stands in for the driver's. The uploadBytes
+ * counter reports the bytes sent, so divide by the operation count for bytes per frame.
+ * The surface variant streams what a {@link GridMesh} needs per vertex instead: a height and an
+ * RGBA8 color.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryUploadBenchmark {
+    @Param({"60000", "100000"})
+    public int pointCount;
+
+    @Param({"2", "3"})
+    public int slots;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long uploadBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            uploadBytes = 0;
+        }
+    }
+
+    private float[] mPoints;
+    private float[] mColors;
+    private RecordingGeometryUploader mUploader;
+    private StreamingGeometry mStreaming;
+    private float[] mHeights;
+    private int[] mPackedColors;
+    private StreamingGeometry mSurfaceStreaming;
+
+    @Setup
+    public void setUp() {
+        FrameBuffer frame = new FrameBuffer(pointCount);
+        frame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        mPoints = frame.getPoints();
+        mColors = new float[pointCount * StreamingGeometry.FLOATS_PER_COLOR];
+        mUploader = new RecordingGeometryUploader(false);
+        mStreaming = new StreamingGeometry(mUploader, pointCount, FrameBuffer.FLOATS_PER_POINT,
+                true, slots);
+        mHeights = new float[pointCount];
+        mPackedColors = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            mHeights[i] = mPoints[i * FrameBuffer.FLOATS_PER_POINT + 2];
+        }
+        mSurfaceStreaming = new StreamingGeometry(mUploader, pointCount, 1, true, true, slots);
+    }
+
+    @Benchmark
+    public int uploadFrame(Bytes bytes) {
+        long before = mUploader.getTotalBytes();
+        int slot = mStreaming.beginFrame();
+        mStreaming.uploadAll(mPoints, mColors, pointCount);
+        bytes.uploadBytes += mUploader.getTotalBytes() - before;
+        return slot;
+    }
+
+    @Benchmark
+    public int uploadSurfaceFrame(Bytes bytes) {
+        long before = mUploader.getTotalBytes();
+        int slot = mSurfaceStreaming.beginFrame();
+        mSurfaceStreaming.uploadRange(mHeights, mPackedColors, 0, pointCount);
+        bytes.uploadBytes += mUploader.getTotalBytes() - before;
+        return slot;
+    }
+}
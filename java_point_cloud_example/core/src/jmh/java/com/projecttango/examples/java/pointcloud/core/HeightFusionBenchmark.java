@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of fusing a sparse frame into the height map, which has to stay well inside
+ * the depth frame interval on one core. About a third of the cells are hit per frame, with
+ * the occasional jump so the restart path runs too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeightFusionBenchmark {
+    private static final int FRAMES = 8;
+
+    @Param({"256", "1024"})
+    public int resolution;
+
+    private HeightFusion mFusion;
+    private float[][] mFrames;
+    private int[][] mFrameCounts;
+    private float[] mHeights;
+    private int[] mCounts;
+    private int mFrameIndex;
+
+    @Setup
+    public void setUp() {
+        int cells = resolution * resolution;
+        mFusion = HeightFusion.createDefault(cells);
+        Random random = new Random(42);
+        mFrames = new float[FRAMES][cells];
+        mFrameCounts = new int[FRAMES][cells];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int i = 0; i < cells; i++) {
+                mFrames[frame][i] = 0.44f + 0.003f * (float) random.nextGaussian()
+                        + (random.nextInt(100) == 0 ? 0.05f : 0f);
+                mFrameCounts[frame][i] = random.nextInt(3) == 0 ? 1 + random.nextInt(4) : 0;
+            }
+        }
+        mHeights = new float[cells];
+        mCounts = new int[cells];
+    }
+
+    @Benchmark
+    public float[] update() {
+        System.arraycopy(mFrames[mFrameIndex], 0, mHeights, 0, mHeights.length);
+        System.arraycopy(mFrameCounts[mFrameIndex], 0, mCounts, 0, mCounts.length);
+        mFrameIndex = (mFrameIndex + 1) % FRAMES;
+        mFusion.update(mHeights, mCounts);
+        return mHeights;
+    }
+}
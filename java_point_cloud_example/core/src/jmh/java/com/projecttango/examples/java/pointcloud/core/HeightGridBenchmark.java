@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of binning a frame into the height grid and turning the grid into vertices, across grid
+ * resolutions and sensor densities.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeightGridBenchmark {
+    @Param({"60000", "1000000"})
+    public int pointCount;
+
+    @Param({"128", "256", "512", "1024"})
+    public int resolution;
+
+    private FrameBuffer mFrame;
+    private HeightGrid mGrid;
+    private GridVertexWriter mWriter;
+
+    @Setup
+    public void setUp() {
+        mFrame = new FrameBuffer(pointCount);
+        mFrame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        mGrid = HeightGrid.forSandbox(resolution);
+        mWriter = new GridVertexWriter(ColorLut.createDefault(),
+                DirtyTileTracker.forGrid(mGrid));
+        mGrid.bin(mFrame);
+    }
+
+    @Benchmark
+    public float[] bin() {
+        mGrid.bin(mFrame);
+        return mGrid.getHeights();
+    }
+
+    @Benchmark
+    public int writeVertices() {
+        return mWriter.writeAll(mGrid);
+    }
+
+    @Benchmark
+    public int gridFrame() {
+        mGrid.bin(mFrame);
+        return mWriter.writeAll(mGrid);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marching squares over flat and dense terrain. Dense terrain has ridges a few cells apart
+ * spanning the whole color range, so most squares are crossed by several isolines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IsolineBenchmark {
+    @Param({"256", "1024"})
+    public int resolution;
+
+    @Param({"flat", "dense"})
+    public String terrain;
+
+    private HeightGrid mGrid;
+    private IsolineExtractor mExtractor;
+
+    @Setup
+    public void setUp() {
+        mGrid = HeightGrid.forSandbox(resolution);
+        float[] heights = mGrid.getHeights();
+        float mid = (float) (ElevationPalette.MIN_DEPTH + ElevationPalette.MAX_DEPTH) / 2;
+        float amplitude = "dense".equals(terrain)
+                ? (float) (ElevationPalette.MAX_DEPTH - ElevationPalette.MIN_DEPTH) / 2 : 0.001f;
+        for (int row = 0; row < resolution; row++) {
+            for (int column = 0; column < resolution; column++) {
+                heights[row * resolution + column] = mid + amplitude
+                        * (float) (Math.sin(column * 0.3) * Math.cos(row * 0.2));
+            }
+        }
+        mExtractor = IsolineExtractor.forPalette(resolution * resolution);
+    }
+
+    @Benchmark
+    public int extract() {
+        return mExtractor.extract(mGrid);
+    }
+}
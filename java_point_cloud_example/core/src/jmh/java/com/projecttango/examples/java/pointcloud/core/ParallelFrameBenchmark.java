@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the per-frame work with the number of {@link WorkerPool} threads. One thread runs
+ * every job inline, so it doubles as the serial baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelFrameBenchmark {
+    @Param({"100000", "1000000"})
+    public int pointCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private WorkerPool mPool;
+    private FrameBuffer mFrame;
+    private FusedPointKernel mSerialKernel;
+    private ParallelPointKernel mKernel;
+    private HeightGrid mGrid;
+    private GridVertexWriter mWriter;
+    private int[] mTiles;
+
+    @Setup
+    public void setUp() {
+        mPool = new WorkerPool(threads);
+        mFrame = new FrameBuffer(pointCount);
+        mFrame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        ColorLut colorLut = ColorLut.createDefault();
+        mSerialKernel = new FusedPointKernel(colorLut, pointCount);
+        mKernel = new ParallelPointKernel(colorLut, pointCount, mPool);
+        mGrid = HeightGrid.forSandbox(256);
+        mGrid.bin(mFrame);
+        DirtyTileTracker tracker = DirtyTileTracker.forGrid(mGrid);
+        mWriter = new GridVertexWriter(colorLut, tracker);
+        mTiles = new int[tracker.getTileCount()];
+        for (int tile = 0; tile < mTiles.length; tile++) {
+            mTiles[tile] = tile;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int fusedKernelSerial() {
+        return mSerialKernel.process(mFrame);
+    }
+
+    @Benchmark
+    public int fusedKernel() {
+        return mKernel.process(mFrame);
+    }
+
+    @Benchmark
+    public float[] bin() {
+        mGrid.bin(mFrame, mPool);
+        return mGrid.getHeights();
+    }
+
+    @Benchmark
+    public float[] writeAllTiles() {
+        mWriter.writeTiles(mGrid, mTiles, mTiles.length, mPool);
+        return mWriter.getPoints();
+    }
+}
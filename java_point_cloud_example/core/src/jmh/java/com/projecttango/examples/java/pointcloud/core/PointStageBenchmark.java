@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage and full-frame timings of the point cloud pipeline.
+ * Run with ./gradlew :core:jmh; the gc profiler adds gc.alloc.rate.norm (bytes per frame).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PointStageBenchmark {
+    @Param({"10000", "60000", "100000", "1000000"})
+    public int pointCount;
+
+    private FloatBuffer mSensorBuffer;
+    private FrameBuffer mFrame;
+    private PointStages mStages;
+    private FusedPointKernel mKernel;
+    private int[] mPalette;
+    private final FrameStatistics mStatistics = new FrameStatistics();
+
+    // Inputs of each stage, prepared once so a stage is measured on its own.
+    private FrameBuffer mCropped;
+    private float[] mDensified;
+    private int mDensifiedCount;
+    private float[] mColored;
+
+    @Setup
+    public void setUp() {
+        ColorLut colorLut = ColorLut.createDefault();
+        mPalette = ElevationPalette.createPalette();
+        mSensorBuffer = SyntheticFrames.createFrame(pointCount, 42);
+        mFrame = new FrameBuffer(pointCount);
+        mFrame.load(mSensorBuffer, pointCount);
+        mStages = new PointStages(colorLut, pointCount * 2);
+        mKernel = new FusedPointKernel(colorLut, pointCount * 2);
+
+        mCropped = new FrameBuffer(pointCount);
+        mCropped.load(mSensorBuffer, pointCount);
+        mStages.cropPointsIntoRectangle(mCropped);
+        mDensified = mStages.duplicatePoints(mCropped.getPoints());
+        mDensifiedCount = mStages.getPointCount();
+        mStages.calculateColors(mDensifiedCount, mDensified);
+        mColored = mStages.getColors().clone();
+    }
+
+    @Benchmark
+    public int load() {
+        mFrame.load(mSensorBuffer, pointCount);
+        return mFrame.getPointCount();
+    }
+
+    @Benchmark
+    public int crop() {
+        mFrame.load(mSensorBuffer, pointCount);
+        return mStages.cropPointsIntoRectangle(mFrame);
+    }
+
+    @Benchmark
+    public float[] duplicatePoints() {
+        // duplicatePoints reads the point count left by the crop.
+        mStages.cropPointsIntoRectangle(mCropped);
+        return mStages.duplicatePoints(mCropped.getPoints());
+    }
+
+    @Benchmark
+    public float[] calculateColors() {
+        mStages.calculateColors(mDensifiedCount, mDensified);
+        return mStages.getColors();
+    }
+
+    /**
+     * The coloring pass as it was before the color table: palette lookup and channel unpacking
+     * per point.
+     */
+    @Benchmark
+    public float[] calculateColorsPalette() {
+        float[] colors = mStages.getColors();
+        for (int i = 0; i < mDensifiedCount; i++) {
+            ElevationPalette.writeColor(colors, i,
+                    ElevationPalette.colorForDepth(mPalette, mDensified[i * 4 + 2]));
+        }
+        return colors;
+    }
+
+    @Benchmark
+    public float[] createContourLine() {
+        // Contour marking overwrites colors, so start each run from the same input.
+        float[] colors = mStages.getColors();
+        System.arraycopy(mColored, 0, colors, 0, mDensifiedCount * 4);
+        mStages.createContourLine(mDensifiedCount);
+        return colors;
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public float averagedDepth() {
+        return PointStages.getAveragedDepth(mSensorBuffer, pointCount);
+    }
+
+    @Benchmark
+    public FrameStatistics frameStatistics() {
+        // On its own pass here; in the pipeline it rides along the crop or bin pass.
+        mStatistics.reset();
+        mStatistics.addAll(mFrame.getPoints(), mFrame.getPointCount());
+        return mStatistics;
+    }
+
+    @Benchmark
+    public float[] stagedFrame() {
+        mFrame.load(mSensorBuffer, pointCount);
+        return mStages.process(mFrame);
+    }
+
+    @Benchmark
+    public int fusedFrame() {
+        mFrame.load(mSensorBuffer, pointCount);
+        return mKernel.process(mFrame);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Depth camera to sandbox transform of a whole frame, against a plain copy of the same frame:
+ * the transform should cost little more than the memory traffic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PointTransformBenchmark {
+    @Param({"100000", "1000000"})
+    public int pointCount;
+
+    private float[] mPoints;
+    private float[] mOut;
+    private final float[] mMatrix = new float[PointTransform.MATRIX_FLOATS];
+
+    @Setup
+    public void setUp() {
+        FrameBuffer frame = new FrameBuffer(pointCount);
+        frame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        mPoints = frame.getPoints();
+        mOut = new float[mPoints.length];
+        // A small tilt and offset, as between two poses of a device on a stand.
+        float angle = 0.05f;
+        mMatrix[0] = 1;
+        mMatrix[5] = (float) Math.cos(angle);
+        mMatrix[6] = (float) Math.sin(angle);
+        mMatrix[9] = -(float) Math.sin(angle);
+        mMatrix[10] = (float) Math.cos(angle);
+        mMatrix[12] = 0.01f;
+        mMatrix[13] = -0.02f;
+        mMatrix[14] = 0.005f;
+        mMatrix[15] = 1;
+    }
+
+    @Benchmark
+    public float[] copy() {
+        System.arraycopy(mPoints, 0, mOut, 0, pointCount * FrameBuffer.FLOATS_PER_POINT);
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] transform() {
+        PointTransform.transform(mMatrix, mPoints, mOut, pointCount);
+        return mOut;
+    }
+}
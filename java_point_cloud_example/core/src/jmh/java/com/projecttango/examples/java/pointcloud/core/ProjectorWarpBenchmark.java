@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to draw a projector image from a frame's surface colors: through the baked
+ * {@link ProjectorWarp} table, serial and on a {@link WorkerPool}, against mapping every pixel
+ * through the calibration's homography as it is drawn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProjectorWarpBenchmark {
+    private static final int GRID_RESOLUTION = 256;
+
+    @Param({"1280x720", "1920x1080"})
+    public String projector;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private WorkerPool mPool;
+    private HeightGrid mGrid;
+    private GridVertexWriter mWriter;
+    private ProjectorCalibration mCalibration;
+    private ProjectorWarp mWarp;
+    private int[] mPixels;
+    private final double[] mSandbox = new double[2];
+
+    @Setup
+    public void setUp() {
+        int width = Integer.parseInt(projector.substring(0, projector.indexOf('x')));
+        int height = Integer.parseInt(projector.substring(projector.indexOf('x') + 1));
+        mPool = new WorkerPool(threads);
+        mGrid = HeightGrid.forSandbox(GRID_RESOLUTION);
+        float[] heights = mGrid.getHeights();
+        for (int row = 0; row < mGrid.getRows(); row++) {
+            for (int column = 0; column < mGrid.getColumns(); column++) {
+                float x = mGrid.getCellCenterX(column);
+                float y = mGrid.getCellCenterY(row);
+                heights[row * mGrid.getColumns() + column] = 0.44f
+                        + 0.03f * (float) Math.sin(x * 40) * (float) Math.cos(y * 30);
+            }
+        }
+        mWriter = new GridVertexWriter(ColorLut.createDefault(), DirtyTileTracker.forGrid(mGrid));
+        mWriter.writeAll(mGrid);
+        // A slightly keystoned projector overshooting the sandbox a little.
+        Homography keystone = Homography.fromMatrix(new double[] {
+                1.1, 0.02, -0.05 * width,
+                0, 1.1, -0.05 * height,
+                0, 0.05 / height, 1});
+        ProjectorCalibration stretch = ProjectorCalibration.createDefault(width, height);
+        mCalibration = new ProjectorCalibration(width, height, Homography.fromMatrix(
+                multiply(stretch.getProjectorToSandbox().getMatrix(), keystone.getMatrix())));
+        mWarp = new ProjectorWarp(mCalibration, mGrid, mWriter);
+        mPixels = new int[mWarp.getPixelCount()];
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        double[] product = new double[9];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                product[r * 3 + c] = a[r * 3] * b[c] + a[r * 3 + 1] * b[3 + c]
+                        + a[r * 3 + 2] * b[6 + c];
+            }
+        }
+        return product;
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int[] lookupTable() {
+        mWarp.warp(mWriter.getSurfaceColors(), mPixels, mPool);
+        return mPixels;
+    }
+
+    @Benchmark
+    public int[] transformEveryPixel() {
+        int[] colors = mWriter.getSurfaceColors();
+        int columns = mGrid.getColumns();
+        int width = mCalibration.getWidth();
+        for (int row = 0; row < mCalibration.getHeight(); row++) {
+            for (int column = 0; column < width; column++) {
+                mCalibration.pixelToSandbox(column, row, mSandbox);
+                int cell = mGrid.cellOf((float) mSandbox[0], (float) mSandbox[1]);
+                mPixels[row * width + column] = cell < 0 ? 0
+                        : colors[mWriter.getVertex(cell % columns, cell / columns)];
+            }
+        }
+        return mPixels;
+    }
+}
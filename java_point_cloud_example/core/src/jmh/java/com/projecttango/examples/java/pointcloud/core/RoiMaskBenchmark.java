@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crop cost of a region of interest mask against the hand written rectangle test. The round
+ * mask stands in for a box that is not rectangular; its cost should match the rectangle's.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoiMaskBenchmark {
+    @Param({"100000", "1000000"})
+    public int pointCount;
+
+    @Param({"rectangle", "round"})
+    public String shape;
+
+    private float[] mPoints;
+    private RoiMask mMask;
+
+    @Setup
+    public void setUp() {
+        FrameBuffer frame = new FrameBuffer(pointCount);
+        frame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        mPoints = frame.getPoints();
+        if (shape.equals("rectangle")) {
+            mMask = RoiMask.createDefault();
+        } else {
+            // An ellipse inscribed in the default rectangle.
+            int columns = 256;
+            int rows = 256;
+            boolean[] inside = new boolean[columns * rows];
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    float u = (column + 0.5f) / columns * 2 - 1;
+                    float v = (row + 0.5f) / rows * 2 - 1;
+                    inside[row * columns + column] = u * u + v * v <= 1;
+                }
+            }
+            mMask = RoiMask.fromCells(columns, rows,
+                    (float) PointStages.CROP_MIN_X, (float) PointStages.CROP_MAX_X,
+                    (float) PointStages.CROP_MIN_Y, (float) PointStages.CROP_MAX_Y, inside);
+        }
+    }
+
+    @Benchmark
+    public int inlineRectangle() {
+        int kept = 0;
+        for (int i = 0; i < pointCount; i++) {
+            float x = mPoints[i * FrameBuffer.FLOATS_PER_POINT];
+            float y = mPoints[i * FrameBuffer.FLOATS_PER_POINT + 1];
+            if (x <= PointStages.CROP_MAX_X && x >= PointStages.CROP_MIN_X
+                    && y <= PointStages.CROP_MAX_Y && y >= PointStages.CROP_MIN_Y) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    @Benchmark
+    public int mask() {
+        RoiMask mask = mMask;
+        int kept = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (mask.contains(mPoints[i * FrameBuffer.FLOATS_PER_POINT],
+                    mPoints[i * FrameBuffer.FLOATS_PER_POINT + 1])) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the temporal height filter over a full grid, cycling through noisy frames
+ * with the occasional spike so both the filter and the rejection paths run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemporalFilterBenchmark {
+    private static final int FRAMES = 8;
+
+    @Param({"256", "1024"})
+    public int resolution;
+
+    @Param({"EXPONENTIAL", "KALMAN"})
+    public TemporalHeightFilter.Mode mode;
+
+    private TemporalHeightFilter mFilter;
+    private float[][] mFrames;
+    private float[] mHeights;
+    private int[] mCounts;
+    private int mFrameIndex;
+
+    @Setup
+    public void setUp() {
+        int cells = resolution * resolution;
+        mFilter = mode == TemporalHeightFilter.Mode.KALMAN
+                ? TemporalHeightFilter.createDefault(cells)
+                : TemporalHeightFilter.exponential(cells, TemporalHeightFilter.DEFAULT_ALPHA,
+                TemporalHeightFilter.DEFAULT_SPIKE_THRESHOLD,
+                TemporalHeightFilter.DEFAULT_MOVE_FRAMES);
+        Random random = new Random(42);
+        mFrames = new float[FRAMES][cells];
+        for (float[] frame : mFrames) {
+            for (int i = 0; i < cells; i++) {
+                frame[i] = 0.44f + 0.003f * (float) random.nextGaussian()
+                        + (random.nextInt(100) == 0 ? 0.05f : 0f);
+            }
+        }
+        mHeights = new float[cells];
+        mCounts = new int[cells];
+        Arrays.fill(mCounts, 1);
+    }
+
+    @Benchmark
+    public float[] update() {
+        System.arraycopy(mFrames[mFrameIndex], 0, mHeights, 0, mHeights.length);
+        mFrameIndex = (mFrameIndex + 1) % FRAMES;
+        mFilter.update(mHeights, mCounts);
+        return mHeights;
+    }
+}
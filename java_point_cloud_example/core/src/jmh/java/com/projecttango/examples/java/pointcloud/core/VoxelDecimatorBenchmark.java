@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of thinning the fused kernel output of a frame to a point budget. The decimator keeps
+ * its voxel size between frames, so after the first few invocations this is the steady state
+ * of a stream of similar frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VoxelDecimatorBenchmark {
+    @Param({"100000", "1000000"})
+    public int pointCount;
+
+    @Param({"20000", "100000"})
+    public int budget;
+
+    private FusedPointKernel mKernel;
+    private int mKernelPoints;
+    private VoxelDecimator mDecimator;
+
+    @Setup
+    public void setUp() {
+        FrameBuffer frame = new FrameBuffer(pointCount);
+        frame.load(SyntheticFrames.createFrame(pointCount, 42), pointCount);
+        mKernel = new FusedPointKernel(ColorLut.createDefault(), pointCount * 2);
+        mKernelPoints = mKernel.process(frame);
+        mDecimator = new VoxelDecimator(budget);
+    }
+
+    @Benchmark
+    public int decimate() {
+        return mDecimator.process(mKernel.getPoints(), mKernel.getColors(), mKernelPoints, budget);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulation steps per second of a {@link WaterSimulation} over a bumpy sandbox, for grid sizes
+ * and {@link WorkerPool} threads. The default time step needs 200 steps per second to keep up
+ * with real time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WaterSimulationBenchmark {
+    @Param({"256", "512", "1024"})
+    public int resolution;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private WorkerPool mPool;
+    private WaterSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mPool = new WorkerPool(threads);
+        HeightGrid grid = HeightGrid.forSandbox(resolution);
+        float[] depths = new float[grid.getCellCount()];
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                float x = grid.getCellCenterX(column);
+                float y = grid.getCellCenterY(row);
+                depths[row * grid.getColumns() + column] = 0.44f
+                        + 0.03f * (float) Math.sin(x * 40) * (float) Math.cos(y * 30);
+            }
+        }
+        mSimulation = WaterSimulation.forGrid(grid, mPool);
+        mSimulation.setTerrainDepths(depths);
+        // Half a second of heavy rain, so water is flowing everywhere.
+        mSimulation.setRainRate(0.01f);
+        for (int i = 0; i < 100; i++) {
+            mSimulation.step();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public long step() {
+        mSimulation.step();
+        return mSimulation.getStepCount();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Precomputed height to color table for a {@link ColorMap} split into a number of bands.
+ * <p>
+ * A height is quantized once into a slot with {@link #slotOf(float)}; the slot indexes the packed
+ * ARGB table, the RGBA float table, which has the layout of the vertex color buffer and can be
+ * copied or uploaded as is, and the RGBA8 table of byte vertex colors. Slot 0 is black and holds
+ * heights outside the sandbox range; slots 1 to bands hold the bands, nearest first. Heights
+ * closer than the near depth get the first band, as {@link ElevationPalette#colorForDepth} does.
+ * <p>
+ * Tables are immutable, so a new one can be handed to a running pipeline through a volatile
+ * field and swapped in between two frames.
+ */
+public final class ColorLut {
+    public static final int FLOATS_PER_COLOR = 4;
+
+    private final ColorMap mColorMap;
+    private final int mBands;
+    private final double mNearDepth;
+    private final double mMinDepth;
+    private final double mMaxDepth;
+    private final double mScale;
+    private final int[] mArgb;
+    private final float[] mRgba;
+    private final int[] mRgba8;
+
+    private ColorLut(ColorMap colorMap, int bands, double nearDepth, double minDepth,
+                     double maxDepth, double scale) {
+        if (bands < 1) {
+            throw new IllegalArgumentException("A color table needs at least one band");
+        }
+        if (!(maxDepth > minDepth)) {
+            throw new IllegalArgumentException("Max depth must be greater than min depth");
+        }
+        mColorMap = colorMap;
+        mBands = bands;
+        mNearDepth = nearDepth;
+        mMinDepth = minDepth;
+        mMaxDepth = maxDepth;
+        mScale = scale;
+
+        mArgb = new int[bands + 1];
+        mRgba = new float[(bands + 1) * FLOATS_PER_COLOR];
+        mRgba8 = new int[bands + 1];
+        mArgb[0] = ElevationPalette.BLACK;
+        for (int band = 0; band < bands; band++) {
+            // Sampled so the first and last bands get the end stops exactly; with as many bands
+            // as stops every band gets its own stop.
+            mArgb[band + 1] = colorMap.colorAt(bands == 1 ? 0 : band / (double) (bands - 1));
+        }
+        for (int slot = 0; slot <= bands; slot++) {
+            ElevationPalette.writeColor(mRgba, slot, mArgb[slot]);
+            mRgba8[slot] = ElevationPalette.toRgba8(mArgb[slot]);
+        }
+    }
+
+    /**
+     * A table over the sandbox depth range of {@link ElevationPalette}. Bands per metre are
+     * rounded down like {@link ElevationPalette#PRODUCT_RATIO}, so with fifteen bands the table
+     * matches {@link ElevationPalette#colorForDepth} exactly; the last band absorbs the rest.
+     */
+    public static ColorLut create(ColorMap colorMap, int bands) {
+        double minDepth = ElevationPalette.MIN_DEPTH;
+        double maxDepth = ElevationPalette.MAX_DEPTH;
+        return new ColorLut(colorMap, bands, ElevationPalette.NEAR_DEPTH, minDepth, maxDepth,
+                (int) (bands / (maxDepth - minDepth)));
+    }
+
+    /**
+     * A table with bands of equal height between minDepth and maxDepth.
+     */
+    public static ColorLut create(ColorMap colorMap, int bands, double nearDepth,
+                                  double minDepth, double maxDepth) {
+        return new ColorLut(colorMap, bands, nearDepth, minDepth, maxDepth,
+                bands / (maxDepth - minDepth));
+    }
+
+    /**
+     * The classic fifteen band palette.
+     */
+    public static ColorLut createDefault() {
+        return create(ColorMap.CLASSIC, ElevationPalette.PALETTE_SIZE);
+    }
+
+    /**
+     * Quantize a height into a table slot. NaN falls in slot 0.
+     */
+    public int slotOf(float z) {
+        if (z > mMinDepth && z <= mMaxDepth) {
+            return 1 + Math.min((int) ((z - mMinDepth) * mScale), mBands - 1);
+        } else if (z <= mNearDepth) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    public int colorOf(int slot) {
+        return mArgb[slot];
+    }
+
+    /**
+     * Color of a slot as packed RGBA bytes, see {@link ElevationPalette#toRgba8(int)}.
+     */
+    public int rgba8Of(int slot) {
+        return mRgba8[slot];
+    }
+
+    public int colorForDepth(float z) {
+        return mArgb[slotOf(z)];
+    }
+
+    /**
+     * Copy the RGBA floats of a slot into a color array at a vertex index.
+     */
+    public void writeColor(float[] colors, int index, int slot) {
+        int src = slot * FLOATS_PER_COLOR;
+        int dst = index * FLOATS_PER_COLOR;
+        colors[dst] = mRgba[src];
+        colors[dst + 1] = mRgba[src + 1];
+        colors[dst + 2] = mRgba[src + 2];
+        colors[dst + 3] = mRgba[src + 3];
+    }
+
+    /**
+     * Packed ARGB color of every slot. Do not modify.
+     */
+    public int[] getArgb() {
+        return mArgb;
+    }
+
+    /**
+     * RGBA floats in [0, 1] of every slot, four per slot. Do not modify.
+     */
+    public float[] getRgba() {
+        return mRgba;
+    }
+
+    public ColorMap getColorMap() {
+        return mColorMap;
+    }
+
+    public int getBands() {
+        return mBands;
+    }
+
+    /**
+     * Bands per metre of height, the scale slots are computed with.
+     */
+    public double getBandsPerMetre() {
+        return mScale;
+    }
+
+    /**
+     * Height covered by one band, the spacing of the band boundary isolines.
+     */
+    public double getBandHeight() {
+        return 1 / mScale;
+    }
+
+    public double getNearDepth() {
+        return mNearDepth;
+    }
+
+    public double getMinDepth() {
+        return mMinDepth;
+    }
+
+    public double getMaxDepth() {
+        return mMaxDepth;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Named color gradients for the sandbox. Each map is a list of evenly spaced color stops, from
+ * the nearest (highest sand) to the farthest (lowest) height; {@link ColorLut} samples it into
+ * bands. Pure white and black are avoided since they mark contours and missing data.
+ */
+public enum ColorMap {
+    /** The original fifteen band palette, red peaks down to blue water. */
+    CLASSIC(ElevationPalette.createPalette()),
+    /** Snow, rock, grass, beach and water, like a relief map. */
+    TERRAIN(0xFFE8E8E8, 0xFF8C6A4F, 0xFFC8A060, 0xFF4F9A3A, 0xFF2E6B2E, 0xFFE6D690,
+            0xFF6EB4E6, 0xFF1F4E9A),
+    /** Perceptually uniform yellow to purple. */
+    VIRIDIS(0xFFFDE725, 0xFF5EC962, 0xFF21918C, 0xFF3B528B, 0xFF440154),
+    /** Light grey peaks down to dark grey valleys. */
+    GRAYSCALE(0xFFF0F0F0, 0xFF202020);
+
+    private final int[] mStops;
+
+    ColorMap(int... stops) {
+        mStops = stops;
+    }
+
+    /**
+     * Color at a position along the map, 0 being the nearest stop and 1 the farthest.
+     * Channels are interpolated linearly between the two surrounding stops.
+     */
+    public int colorAt(double t) {
+        double position = Math.max(0, Math.min(1, t)) * (mStops.length - 1);
+        int index = Math.min((int) position, mStops.length - 2);
+        if (index < 0) {
+            return mStops[0];
+        }
+        double fraction = position - index;
+        int from = mStops[index];
+        int to = mStops[index + 1];
+        return ElevationPalette.argb(
+                lerp(ElevationPalette.alpha(from), ElevationPalette.alpha(to), fraction),
+                lerp(ElevationPalette.red(from), ElevationPalette.red(to), fraction),
+                lerp(ElevationPalette.green(from), ElevationPalette.green(to), fraction),
+                lerp(ElevationPalette.blue(from), ElevationPalette.blue(to), fraction));
+    }
+
+    private static int lerp(int from, int to, double fraction) {
+        return (int) Math.round(from + (to - from) * fraction);
+    }
+
+    public int getStopCount() {
+        return mStops.length;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Turns the loose GL_LINES segments of an {@link IsolineExtractor} into fewer, longer lines.
+ * <p>
+ * {@link #stitch} joins segments that share an end point into polylines, using an open
+ * addressing hash of the end points. Neighbouring squares compute a shared crossing from
+ * opposite ends of the edge, so end points are matched after rounding to about a micrometer.
+ * {@link #simplify} then runs Douglas-Peucker over each polyline, keeping only the vertices
+ * needed to stay within a tolerance of it. The polylines are packed one after the other as
+ * strips; {@link #getLineVertices()} has them as GL_LINES again, for drawing them all in one
+ * call.
+ * <p>
+ * All buffers are reused, so once they have grown to the largest frame nothing is allocated.
+ */
+public class ContourSimplifier {
+    public static final int FLOATS_PER_VERTEX = IsolineExtractor.FLOATS_PER_VERTEX;
+    // Well under the size of a grid cell, and invisible once projected.
+    public static final float DEFAULT_TOLERANCE = 0.001f;
+    // End points closer than about 1 um are the same point.
+    private static final float KEY_SCALE = 1 << 20;
+    private static final int EMPTY = -1;
+
+    private float mTolerance = DEFAULT_TOLERANCE;
+
+    // End point hash: rounded x and y, exact level bits, and the first end point seen there.
+    private long[] mKeyXy = new long[0];
+    private int[] mKeyLevel = new int[0];
+    private int[] mKeyEndPoint = new int[0];
+    // The end point of another segment at the same place, or EMPTY. End point 2s and 2s + 1
+    // belong to segment s.
+    private int[] mPartners = new int[0];
+    private boolean[] mVisited = new boolean[0];
+
+    // Polylines packed one after the other, polyline i from vertex mStarts[i] to mStarts[i + 1].
+    private float[] mPolylines = new float[0];
+    private int[] mStarts = new int[1];
+    private int mPolylineCount;
+
+    // Douglas-Peucker work space.
+    private boolean[] mKeep = new boolean[0];
+    private int[] mStack = new int[0];
+
+    private float[] mLines = new float[0];
+    private int mLineVertexCount;
+
+    /**
+     * Largest distance a simplified polyline may be from the original, in meters. Zero keeps
+     * every vertex.
+     */
+    public void setTolerance(float tolerance) {
+        mTolerance = Math.max(0, tolerance);
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * Stitch and simplify a frame of isolines.
+     *
+     * @return the number of vertices in {@link #getLineVertices()}, two per segment.
+     */
+    public int process(float[] segments, int vertexCount) {
+        stitch(segments, vertexCount);
+        simplify();
+        return writeLines();
+    }
+
+    /**
+     * Join GL_LINES segments into polylines. Closed isolines come out as polylines whose last
+     * vertex repeats the first.
+     *
+     * @return the number of polylines.
+     */
+    public int stitch(float[] segments, int vertexCount) {
+        int endPoints = vertexCount & ~1;
+        int segmentCount = endPoints / 2;
+        if (mPartners.length < endPoints) {
+            mPartners = new int[endPoints];
+            mVisited = new boolean[segmentCount];
+            // At worst every segment is a polyline of its own, of two vertices.
+            mPolylines = new float[endPoints * FLOATS_PER_VERTEX];
+            mStarts = new int[segmentCount + 1];
+            mKeep = new boolean[endPoints];
+            mStack = new int[endPoints * 2];
+            mLines = new float[endPoints * FLOATS_PER_VERTEX];
+        }
+        matchEndPoints(segments, endPoints);
+        Arrays.fill(mVisited, 0, segmentCount, false);
+
+        mPolylineCount = 0;
+        int written = 0;
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (mVisited[segment]) {
+                continue;
+            }
+            // Walk back to the first end point of the line, or once round a closed one.
+            int start = 2 * segment;
+            for (int steps = 0; steps < segmentCount; steps++) {
+                int partner = mPartners[start];
+                if (partner == EMPTY || mVisited[partner >> 1] || partner >> 1 == segment) {
+                    break;
+                }
+                start = partner ^ 1;
+            }
+            mStarts[mPolylineCount] = written;
+            written = copyVertex(segments, start, written);
+            int end = start;
+            while (true) {
+                mVisited[end >> 1] = true;
+                end ^= 1;
+                written = copyVertex(segments, end, written);
+                int partner = mPartners[end];
+                if (partner == EMPTY || mVisited[partner >> 1]) {
+                    break;
+                }
+                end = partner;
+            }
+            mPolylineCount++;
+        }
+        mStarts[mPolylineCount] = written;
+        return mPolylineCount;
+    }
+
+    private void matchEndPoints(float[] segments, int endPoints) {
+        int slots = Integer.highestOneBit(Math.max(endPoints, 1)) * 4;
+        if (mKeyEndPoint.length < slots) {
+            mKeyXy = new long[slots];
+            mKeyLevel = new int[slots];
+            mKeyEndPoint = new int[slots];
+        }
+        int mask = slots - 1;
+        Arrays.fill(mKeyEndPoint, 0, slots, EMPTY);
+        for (int endPoint = 0; endPoint < endPoints; endPoint++) {
+            int src = endPoint * FLOATS_PER_VERTEX;
+            long xy = ((long) Math.round(segments[src] * KEY_SCALE) << 32)
+                    ^ (Math.round(segments[src + 1] * KEY_SCALE) & 0xffffffffL);
+            int level = Float.floatToIntBits(segments[src + 2]);
+            long hash = (xy ^ level * 0x9e3779b97f4a7c15L) * 0xc2b2ae3d27d4eb4fL;
+            int slot = (int) (hash >>> 40) & mask;
+            mPartners[endPoint] = EMPTY;
+            while (true) {
+                int other = mKeyEndPoint[slot];
+                if (other == EMPTY) {
+                    mKeyXy[slot] = xy;
+                    mKeyLevel[slot] = level;
+                    mKeyEndPoint[slot] = endPoint;
+                    break;
+                }
+                if (mKeyXy[slot] == xy && mKeyLevel[slot] == level) {
+                    // Only two segments meet at a crossing; a collapsed segment joins nothing.
+                    if (mPartners[other] == EMPTY && other >> 1 != endPoint >> 1) {
+                        mPartners[other] = endPoint;
+                        mPartners[endPoint] = other;
+                    }
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    private int copyVertex(float[] segments, int endPoint, int written) {
+        System.arraycopy(segments, endPoint * FLOATS_PER_VERTEX, mPolylines,
+                written * FLOATS_PER_VERTEX, FLOATS_PER_VERTEX);
+        return written + 1;
+    }
+
+    /**
+     * Douglas-Peucker simplification of every stitched polyline, in place.
+     *
+     * @return the number of polyline vertices left.
+     */
+    public int simplify() {
+        float tolerance = mTolerance;
+        int written = 0;
+        for (int polyline = 0; polyline < mPolylineCount; polyline++) {
+            int first = mStarts[polyline];
+            int last = mStarts[polyline + 1] - 1;
+            mStarts[polyline] = written;
+            if (tolerance > 0 && last - first > 1) {
+                markKept(first, last, tolerance * tolerance);
+            } else {
+                Arrays.fill(mKeep, first, last + 1, true);
+            }
+            for (int i = first; i <= last; i++) {
+                if (mKeep[i]) {
+                    System.arraycopy(mPolylines, i * FLOATS_PER_VERTEX, mPolylines,
+                            written * FLOATS_PER_VERTEX, FLOATS_PER_VERTEX);
+                    written++;
+                }
+            }
+        }
+        mStarts[mPolylineCount] = written;
+        return written;
+    }
+
+    private void markKept(int first, int last, float squaredTolerance) {
+        Arrays.fill(mKeep, first, last + 1, false);
+        mKeep[first] = true;
+        mKeep[last] = true;
+        int top = 0;
+        mStack[top++] = first;
+        mStack[top++] = last;
+        float[] p = mPolylines;
+        while (top > 0) {
+            int b = mStack[--top];
+            int a = mStack[--top];
+            float ax = p[a * FLOATS_PER_VERTEX];
+            float ay = p[a * FLOATS_PER_VERTEX + 1];
+            float dx = p[b * FLOATS_PER_VERTEX] - ax;
+            float dy = p[b * FLOATS_PER_VERTEX + 1] - ay;
+            float squaredLength = dx * dx + dy * dy;
+            float farthest = squaredTolerance;
+            int split = -1;
+            for (int i = a + 1; i < b; i++) {
+                float px = p[i * FLOATS_PER_VERTEX] - ax;
+                float py = p[i * FLOATS_PER_VERTEX + 1] - ay;
+                // Squared distance to the segment a-b, or to a if a and b coincide, as they do
+                // for a closed polyline.
+                float t = squaredLength > 0
+                        ? Math.min(Math.max((px * dx + py * dy) / squaredLength, 0), 1) : 0;
+                float ex = px - t * dx;
+                float ey = py - t * dy;
+                float distance = ex * ex + ey * ey;
+                if (distance > farthest) {
+                    farthest = distance;
+                    split = i;
+                }
+            }
+            if (split >= 0) {
+                mKeep[split] = true;
+                mStack[top++] = a;
+                mStack[top++] = split;
+                mStack[top++] = split;
+                mStack[top++] = b;
+            }
+        }
+    }
+
+    private int writeLines() {
+        int written = 0;
+        for (int polyline = 0; polyline < mPolylineCount; polyline++) {
+            for (int i = mStarts[polyline]; i < mStarts[polyline + 1] - 1; i++) {
+                System.arraycopy(mPolylines, i * FLOATS_PER_VERTEX, mLines,
+                        written * FLOATS_PER_VERTEX, 2 * FLOATS_PER_VERTEX);
+                written += 2;
+            }
+        }
+        mLineVertexCount = written;
+        return written;
+    }
+
+    /**
+     * The polylines as strips, {@link #FLOATS_PER_VERTEX} floats per vertex, one after the
+     * other. Polyline i runs from vertex {@link #getPolylineStart}(i) to
+     * getPolylineStart(i + 1) - 1.
+     */
+    public float[] getPolylineVertices() {
+        return mPolylines;
+    }
+
+    public int getPolylineCount() {
+        return mPolylineCount;
+    }
+
+    public int getPolylineStart(int polyline) {
+        return mStarts[polyline];
+    }
+
+    /**
+     * The polylines as GL_LINES segments, after {@link #process}.
+     */
+    public float[] getLineVertices() {
+        return mLines;
+    }
+
+    public int getLineVertexCount() {
+        return mLineVertexCount;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Appends depth frames to a recording file on a background thread.
+ * {@link #record} only copies the points into a preallocated slot and returns, so it is safe to
+ * call from the Tango callback thread. When the writer falls behind, frames are dropped rather
+ * than blocking the caller. See {@link DepthRecording} for the file layout.
+ */
+public class DepthRecorder {
+    // Frames that can wait for the disk before new ones get dropped.
+    private static final int SLOT_COUNT = 4;
+
+    private final FileChannel mChannel;
+    private final BlockingQueue<Slot> mFreeSlots;
+    private final BlockingQueue<Slot> mFilledSlots;
+    private final Slot mStopSlot = new Slot(0);
+    private final Object mStopLock = new Object();
+    private final Thread mWriterThread;
+
+    private volatile IOException mError;
+    private volatile boolean mStopped;
+    private volatile int mDroppedFrames;
+    private volatile int mRecordedFrames;
+
+    /**
+     * Opens the file for appending. A file header is written if the file is new or empty.
+     */
+    public DepthRecorder(File file, int maxPoints) throws IOException {
+        mChannel = new FileOutputStream(file, true).getChannel();
+        if (mChannel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(DepthRecording.FILE_HEADER_BYTES)
+                    .order(DepthRecording.BYTE_ORDER);
+            header.putInt(DepthRecording.MAGIC)
+                    .putInt(DepthRecording.VERSION)
+                    .putInt(FrameBuffer.FLOATS_PER_POINT)
+                    .putInt(0);
+            header.flip();
+            writeFully(header);
+        }
+        mFreeSlots = new ArrayBlockingQueue<Slot>(SLOT_COUNT);
+        mFilledSlots = new ArrayBlockingQueue<Slot>(SLOT_COUNT + 1);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            mFreeSlots.add(new Slot(maxPoints));
+        }
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "DepthRecorder");
+    }
+
+    public void start() {
+        mWriterThread.start();
+    }
+
+    /**
+     * Queue a frame for writing.
+     *
+     * @param transform the depth camera transform from getMatrixTransformAtTime, or null.
+     * @return false if the frame was dropped because the writer is behind or has failed.
+     */
+    public boolean record(double timestamp, FloatBuffer points, int numPoints,
+                          float[] transform, boolean transformValid) {
+        Slot slot = mStopped || mError != null ? null : mFreeSlots.poll();
+        if (slot != null) {
+            slot.fill(timestamp, points, numPoints, transform, transformValid);
+            // Enqueue under the lock stop() takes, so no frame lands behind the stop slot.
+            synchronized (mStopLock) {
+                if (!mStopped) {
+                    mFilledSlots.add(slot);
+                    mRecordedFrames++;
+                    return true;
+                }
+            }
+            mFreeSlots.add(slot);
+        }
+        mDroppedFrames++;
+        return false;
+    }
+
+    /**
+     * Write out the queued frames, stop the writer thread and close the file.
+     *
+     * @throws IOException if any write failed while recording.
+     */
+    public void stop() throws IOException {
+        synchronized (mStopLock) {
+            if (mStopped) {
+                return;
+            }
+            mStopped = true;
+            mFilledSlots.add(mStopSlot);
+        }
+        try {
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mChannel.close();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    public int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public int getRecordedFrames() {
+        return mRecordedFrames;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Slot slot;
+            try {
+                slot = mFilledSlots.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (slot == mStopSlot) {
+                return;
+            }
+            if (mError == null) {
+                try {
+                    slot.write();
+                } catch (IOException e) {
+                    mError = e;
+                }
+            }
+            mFreeSlots.add(slot);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    /**
+     * One frame waiting to be written, kept in direct buffers so the channel writes them without
+     * an extra copy.
+     */
+    private final class Slot {
+        private final ByteBuffer mHeader;
+        private ByteBuffer mPoints;
+        private final ByteBuffer[] mGather = new ByteBuffer[2];
+
+        Slot(int maxPoints) {
+            mHeader = ByteBuffer.allocateDirect(
+                    DepthRecording.FRAME_HEADER_BYTES + DepthRecording.TRANSFORM_BYTES)
+                    .order(DepthRecording.BYTE_ORDER);
+            mPoints = ByteBuffer.allocateDirect(maxPoints * DepthRecording.POINT_BYTES)
+                    .order(DepthRecording.BYTE_ORDER);
+        }
+
+        void fill(double timestamp, FloatBuffer points, int numPoints, float[] transform,
+                  boolean transformValid) {
+            int bytes = numPoints * DepthRecording.POINT_BYTES;
+            if (mPoints.capacity() < bytes) {
+                mPoints = ByteBuffer.allocateDirect(bytes).order(DepthRecording.BYTE_ORDER);
+            }
+            mHeader.clear();
+            mHeader.putDouble(timestamp)
+                    .putInt(numPoints)
+                    .putInt(transformValid ? DepthRecording.TRANSFORM_VALID
+                            : DepthRecording.TRANSFORM_INVALID);
+            for (int i = 0; i < DepthRecording.TRANSFORM_FLOATS; i++) {
+                mHeader.putFloat(transform != null ? transform[i] : 0f);
+            }
+            mHeader.flip();
+
+            FloatBuffer source = points.duplicate();
+            source.rewind();
+            source.limit(numPoints * FrameBuffer.FLOATS_PER_POINT);
+            mPoints.clear();
+            mPoints.asFloatBuffer().put(source);
+            mPoints.limit(bytes);
+        }
+
+        void write() throws IOException {
+            mGather[0] = mHeader;
+            mGather[1] = mPoints;
+            while (mHeader.hasRemaining() || mPoints.hasRemaining()) {
+                mChannel.write(mGather);
+            }
+        }
+    }
+}
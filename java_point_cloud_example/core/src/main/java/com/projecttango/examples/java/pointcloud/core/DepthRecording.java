@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a depth recording file, shared by {@link DepthRecorder} and {@link DepthReplay}.
+ * <p>
+ * The file starts with a 16 byte header: magic, version, floats per point and a reserved int.
+ * It is followed by frames, each made of a 16 byte frame header (timestamp as a double,
+ * numPoints, transform status), the 4x4 depth camera transform as 16 floats in OpenGL column
+ * major order, and numPoints XYZC points. Everything is little endian, which is the native order
+ * of the devices and of the machines recordings are replayed on, so points can be read in place.
+ */
+public final class DepthRecording {
+    public static final int MAGIC = 0x43455244; // "DREC" read as little endian bytes
+    public static final int VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int FILE_HEADER_BYTES = 16;
+    public static final int FRAME_HEADER_BYTES = 16;
+    public static final int TRANSFORM_FLOATS = 16;
+    public static final int TRANSFORM_BYTES = TRANSFORM_FLOATS * 4;
+    public static final int POINT_BYTES = FrameBuffer.FLOATS_PER_POINT * 4;
+
+    // Transform status stored in the frame header.
+    public static final int TRANSFORM_INVALID = 0;
+    public static final int TRANSFORM_VALID = 1;
+
+    public static final String FILE_EXTENSION = ".drec";
+
+    private DepthRecording() {
+    }
+
+    /**
+     * Total size of one frame on disk, headers included.
+     */
+    public static long frameBytes(int numPoints) {
+        return FRAME_HEADER_BYTES + TRANSFORM_BYTES + (long) numPoints * POINT_BYTES;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a recording written by {@link DepthRecorder}.
+ * The file is memory-mapped in windows of up to {@link #WINDOW_BYTES}, so recordings larger
+ * than a single mapping can be replayed, and frames are handed out as FloatBuffer views of the
+ * mapping without copying the points.
+ */
+public class DepthReplay implements Closeable {
+    // A single MappedByteBuffer is limited to 2 GB; map the file a window at a time.
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    /**
+     * A frame read from the recording. The points buffer is only valid until the replay is
+     * closed.
+     */
+    public static class Frame {
+        public double timestamp;
+        public int numPoints;
+        public boolean transformValid;
+        public final float[] transform = new float[DepthRecording.TRANSFORM_FLOATS];
+        public FloatBuffer points;
+    }
+
+    /**
+     * Receives frames during {@link #play}.
+     */
+    public interface Listener {
+        /**
+         * @return false to stop the playback.
+         */
+        boolean onFrame(Frame frame);
+    }
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mWindowBytes;
+    // Start of each frame, followed by the end of the last one.
+    private long[] mFrameOffsets;
+    private int mFrameCount;
+
+    private MappedByteBuffer mWindow;
+    private long mWindowStart;
+    private long mWindowEnd;
+
+    // Playback position of next().
+    private int mNextFrame;
+    private long mStartNanos;
+    private double mFirstTimestamp;
+
+    public DepthReplay(File file) throws IOException {
+        this(file, WINDOW_BYTES);
+    }
+
+    /**
+     * @param windowBytes most bytes mapped at a time, unless a single frame needs more.
+     */
+    DepthReplay(File file, long windowBytes) throws IOException {
+        mWindowBytes = windowBytes;
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            readHeader();
+            indexFrames();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Read a frame into the given holder. The points are a view of the mapped file.
+     */
+    public void readFrame(int index, Frame frame) throws IOException {
+        if (index < 0 || index >= mFrameCount) {
+            throw new IndexOutOfBoundsException("frame " + index + " of " + mFrameCount);
+        }
+        long offset = mFrameOffsets[index];
+        long end = mFrameOffsets[index + 1];
+        ByteBuffer window = mapWindow(offset, end);
+        int position = (int) (offset - mWindowStart);
+
+        frame.timestamp = window.getDouble(position);
+        frame.numPoints = window.getInt(position + 8);
+        frame.transformValid = window.getInt(position + 12) == DepthRecording.TRANSFORM_VALID;
+        int transformPosition = position + DepthRecording.FRAME_HEADER_BYTES;
+        for (int i = 0; i < DepthRecording.TRANSFORM_FLOATS; i++) {
+            frame.transform[i] = window.getFloat(transformPosition + i * 4);
+        }
+
+        ByteBuffer points = window.duplicate();
+        int pointsPosition = transformPosition + DepthRecording.TRANSFORM_BYTES;
+        points.limit(pointsPosition + frame.numPoints * DepthRecording.POINT_BYTES);
+        points.position(pointsPosition);
+        frame.points = points.slice().order(DepthRecording.BYTE_ORDER).asFloatBuffer();
+    }
+
+    /**
+     * Read the frame after the last one returned, starting over at the first frame after
+     * {@link #rewind}.
+     *
+     * @param realTime true to wait until the frame is due by its recorded timestamp, counted
+     *                 from the first frame, false to return it right away.
+     * @return false at the end of the recording, or if the wait was interrupted.
+     */
+    public boolean next(Frame frame, boolean realTime) throws IOException {
+        if (mNextFrame >= mFrameCount) {
+            return false;
+        }
+        readFrame(mNextFrame, frame);
+        if (mNextFrame == 0) {
+            mStartNanos = System.nanoTime();
+            mFirstTimestamp = frame.timestamp;
+        }
+        mNextFrame++;
+        if (realTime) {
+            long dueNanos = mStartNanos + (long) ((frame.timestamp - mFirstTimestamp) * 1e9);
+            long waitMillis = (dueNanos - System.nanoTime()) / 1000000;
+            if (waitMillis > 0) {
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make {@link #next} start over at the first frame.
+     */
+    public void rewind() {
+        mNextFrame = 0;
+    }
+
+    /**
+     * Hand every frame to the listener, in order, from the first one.
+     *
+     * @param realTime true to pace frames by their recorded timestamps, false to replay them as
+     *                 fast as the listener consumes them.
+     */
+    public void play(Listener listener, boolean realTime) throws IOException {
+        Frame frame = new Frame();
+        rewind();
+        while (next(frame, realTime)) {
+            if (!listener.onFrame(frame)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = null;
+        mFile.close();
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DepthRecording.FILE_HEADER_BYTES)
+                .order(DepthRecording.BYTE_ORDER);
+        readFully(header, 0);
+        if (header.getInt(0) != DepthRecording.MAGIC) {
+            throw new IOException("Not a depth recording");
+        }
+        if (header.getInt(4) != DepthRecording.VERSION) {
+            throw new IOException("Unsupported depth recording version " + header.getInt(4));
+        }
+        if (header.getInt(8) != FrameBuffer.FLOATS_PER_POINT) {
+            throw new IOException("Unsupported point layout " + header.getInt(8));
+        }
+    }
+
+    /**
+     * Walk the frame headers once to find where each frame starts. A frame cut short at the end
+     * of the file, e.g. when the app was killed while recording, is ignored.
+     */
+    private void indexFrames() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DepthRecording.FRAME_HEADER_BYTES)
+                .order(DepthRecording.BYTE_ORDER);
+        long size = mChannel.size();
+        long offset = DepthRecording.FILE_HEADER_BYTES;
+        mFrameOffsets = new long[64];
+        mFrameCount = 0;
+        while (offset + DepthRecording.FRAME_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, offset);
+            int numPoints = header.getInt(8);
+            long end = offset + DepthRecording.frameBytes(numPoints);
+            if (numPoints < 0 || end > size) {
+                break;
+            }
+            if (mFrameCount + 1 == mFrameOffsets.length) {
+                mFrameOffsets = Arrays.copyOf(mFrameOffsets, mFrameOffsets.length * 2);
+            }
+            mFrameOffsets[mFrameCount++] = offset;
+            offset = end;
+        }
+        mFrameOffsets[mFrameCount] = offset;
+    }
+
+    /**
+     * Make sure [start, end) is inside the current mapping, mapping a new window from start if
+     * it is not.
+     */
+    private ByteBuffer mapWindow(long start, long end) throws IOException {
+        if (mWindow == null || start < mWindowStart || end > mWindowEnd) {
+            long length = Math.max(end - start, Math.min(mWindowBytes, mChannel.size() - start));
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            mWindow.order(DepthRecording.BYTE_ORDER);
+            mWindowStart = start;
+            mWindowEnd = start + length;
+        }
+        return mWindow;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of depth recording");
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.IOException;
+
+/**
+ * Feeds the frames of a {@link DepthReplay} into a {@link FrameProcessor}, in place of the Tango
+ * service. Frames recorded without a valid depth camera pose are skipped, as the live processing
+ * thread skips clouds it has no pose for.
+ */
+public class DepthReplayDriver {
+    private final DepthReplay mReplay;
+    private final FrameProcessor mProcessor;
+    private final DepthReplay.Frame mFrame = new DepthReplay.Frame();
+
+    public DepthReplayDriver(DepthReplay replay, FrameProcessor processor) {
+        mReplay = replay;
+        mProcessor = processor;
+    }
+
+    /**
+     * Process the next recorded frame that has a pose.
+     * NOTE: Only call from the processing thread.
+     *
+     * @param realTime true to wait until the frame is due at sensor rate, false to process it
+     *                 right away.
+     * @return false at the end of the recording.
+     */
+    public boolean step(boolean realTime) throws IOException {
+        while (mReplay.next(mFrame, realTime)) {
+            if (mFrame.transformValid) {
+                mProcessor.process(mFrame.points, mFrame.numPoints, mFrame.timestamp,
+                        mFrame.transform);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Process the rest of the recording.
+     *
+     * @return the number of frames processed.
+     */
+    public int run(boolean realTime) throws IOException {
+        int frames = 0;
+        while (step(realTime)) {
+            frames++;
+        }
+        return frames;
+    }
+
+    /**
+     * Start the recording over at its first frame.
+     */
+    public void rewind() {
+        mReplay.rewind();
+    }
+}
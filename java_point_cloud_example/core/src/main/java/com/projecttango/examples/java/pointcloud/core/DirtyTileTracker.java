@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which square tiles of a {@link HeightGrid} have changed, so downstream stages only
+ * redo the parts of the sandbox people are digging in.
+ * <p>
+ * Each cell remembers the height it had when it last counted as changed. A cell changes when it
+ * moves further than the threshold from that height, so slow drift is still caught once it adds
+ * up. Every {@link #update} stamps changed tiles with the frame number; each {@link Consumer}
+ * remembers the frame it last ran at and polls the tiles stamped after it.
+ */
+public class DirtyTileTracker {
+    public static final int DEFAULT_TILE_SIZE = 16;
+    public static final float DEFAULT_THRESHOLD = 0.001f;
+
+    private final int mColumns;
+    private final int mRows;
+    private final int mTileSize;
+    private final int mTileColumns;
+    private final int mTileRows;
+    private final float mThreshold;
+
+    private final float[] mReferenceHeights;
+    private final int[] mTileChangedFrame;
+    // Tile column of each grid column, to keep the division out of the cell loop.
+    private final int[] mColumnTile;
+    private int mFrame;
+
+    public DirtyTileTracker(int columns, int rows, int tileSize, float threshold) {
+        mColumns = columns;
+        mRows = rows;
+        mTileSize = tileSize;
+        mTileColumns = (columns + tileSize - 1) / tileSize;
+        mTileRows = (rows + tileSize - 1) / tileSize;
+        mThreshold = threshold;
+        mReferenceHeights = new float[columns * rows];
+        Arrays.fill(mReferenceHeights, HeightGrid.NO_DATA);
+        mTileChangedFrame = new int[mTileColumns * mTileRows];
+        mColumnTile = new int[columns];
+        for (int column = 0; column < columns; column++) {
+            mColumnTile[column] = column / tileSize;
+        }
+    }
+
+    public static DirtyTileTracker forGrid(HeightGrid grid) {
+        return new DirtyTileTracker(grid.getColumns(), grid.getRows(), DEFAULT_TILE_SIZE,
+                DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Compare a new frame of heights with the reference and stamp the tiles that changed.
+     *
+     * @return the number of tiles that changed in this frame.
+     */
+    public int update(float[] heights) {
+        int frame = ++mFrame;
+        int changedTiles = 0;
+        for (int row = 0; row < mRows; row++) {
+            int tileRowStart = (row / mTileSize) * mTileColumns;
+            int cell = row * mColumns;
+            for (int column = 0; column < mColumns; column++, cell++) {
+                float height = heights[cell];
+                float reference = mReferenceHeights[cell];
+                float delta = height - reference;
+                boolean changed = delta > mThreshold || delta < -mThreshold
+                        // Cells that appear or disappear.
+                        || ((height != height) != (reference != reference));
+                if (changed) {
+                    mReferenceHeights[cell] = height;
+                    int tile = tileRowStart + mColumnTile[column];
+                    if (mTileChangedFrame[tile] != frame) {
+                        mTileChangedFrame[tile] = frame;
+                        changedTiles++;
+                    }
+                }
+            }
+        }
+        return changedTiles;
+    }
+
+    /**
+     * Mark every tile as changed, e.g. after the grid was reset.
+     */
+    public void invalidateAll() {
+        Arrays.fill(mTileChangedFrame, ++mFrame);
+        Arrays.fill(mReferenceHeights, HeightGrid.NO_DATA);
+    }
+
+    /**
+     * @param withUpLeftNeighbours also report the tiles to the left of, above and above-left of
+     *                             a changed tile. Needed by stages whose result for a cell
+     *                             depends on the cell to its right or below it, like contour
+     *                             marking and marching squares.
+     */
+    public Consumer newConsumer(boolean withUpLeftNeighbours) {
+        return new Consumer(withUpLeftNeighbours);
+    }
+
+    /**
+     * Copy the change stamps into a snapshot, so consumers on another thread can poll the state
+     * of this frame while the tracker moves on.
+     *
+     * @param reuse a snapshot to overwrite, or null to allocate one.
+     */
+    public Snapshot snapshot(Snapshot reuse) {
+        Snapshot snapshot = reuse != null ? reuse : new Snapshot(mTileChangedFrame.length);
+        System.arraycopy(mTileChangedFrame, 0, snapshot.mTileChangedFrame, 0,
+                mTileChangedFrame.length);
+        snapshot.mFrame = mFrame;
+        return snapshot;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getTileColumns() {
+        return mTileColumns;
+    }
+
+    public int getTileRows() {
+        return mTileRows;
+    }
+
+    public int getTileCount() {
+        return mTileChangedFrame.length;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /**
+     * The change stamps of every tile at one frame.
+     */
+    public static class Snapshot {
+        private final int[] mTileChangedFrame;
+        private int mFrame;
+
+        private Snapshot(int tileCount) {
+            mTileChangedFrame = new int[tileCount];
+        }
+
+        public int getFrame() {
+            return mFrame;
+        }
+    }
+
+    /**
+     * One downstream stage's view of the changes. A new consumer sees every tile as changed.
+     */
+    public class Consumer {
+        private final boolean mWithUpLeftNeighbours;
+        private final boolean[] mSelected;
+        private int mLastFrame = -1;
+
+        private Consumer(boolean withUpLeftNeighbours) {
+            mWithUpLeftNeighbours = withUpLeftNeighbours;
+            mSelected = new boolean[mTileChangedFrame.length];
+        }
+
+        /**
+         * Collect the tiles changed since the last poll, in ascending tile order.
+         *
+         * @param tiles receives tile indices; must hold {@link #getTileCount()} entries.
+         * @return the number of tiles written.
+         */
+        public int poll(int[] tiles) {
+            return poll(mTileChangedFrame, mFrame, tiles);
+        }
+
+        /**
+         * Collect the tiles changed between the last poll and a snapshot. Snapshots have to be
+         * polled in frame order.
+         */
+        public int poll(Snapshot snapshot, int[] tiles) {
+            return poll(snapshot.mTileChangedFrame, snapshot.mFrame, tiles);
+        }
+
+        private int poll(int[] tileChangedFrame, int frame, int[] tiles) {
+            int tileCount = tileChangedFrame.length;
+            for (int tile = 0; tile < tileCount; tile++) {
+                if (tileChangedFrame[tile] > mLastFrame) {
+                    mSelected[tile] = true;
+                    if (mWithUpLeftNeighbours) {
+                        int tileColumn = tile % mTileColumns;
+                        boolean hasLeft = tileColumn > 0;
+                        boolean hasUp = tile >= mTileColumns;
+                        if (hasLeft) {
+                            mSelected[tile - 1] = true;
+                        }
+                        if (hasUp) {
+                            mSelected[tile - mTileColumns] = true;
+                        }
+                        if (hasLeft && hasUp) {
+                            mSelected[tile - mTileColumns - 1] = true;
+                        }
+                    }
+                }
+            }
+            mLastFrame = frame;
+
+            int count = 0;
+            for (int tile = 0; tile < tileCount; tile++) {
+                if (mSelected[tile]) {
+                    mSelected[tile] = false;
+                    tiles[count++] = tile;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.ByteOrder;
+
+/**
+ * Depth to color banding used to paint the sandbox.
+ * Colors are packed ARGB ints, the same layout as android.graphics.Color. The renderers color
+ * through a precomputed {@link ColorLut}; this table is the {@link ColorMap#CLASSIC} map.
+ */
+public final class ElevationPalette {
+    public static final int PALETTE_SIZE = 15;
+
+    public static final double MIN_DEPTH = 0.39f;
+    public static final double MAX_DEPTH = 0.49f;
+    // Anything closer to the camera than this is painted with the first palette entry.
+    public static final float NEAR_DEPTH = 0.21f;
+
+    public static final int PRODUCT_RATIO = (int) (PALETTE_SIZE / (MAX_DEPTH - MIN_DEPTH));
+
+    public static final int BLACK = 0xFF000000;
+    public static final int WHITE = 0xFFFFFFFF;
+
+    private static final boolean LITTLE_ENDIAN =
+            ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private ElevationPalette() {
+    }
+
+    /**
+     * Pre-calculate a palette to be used to translate between point distance and RGB color.
+     * Entry 0 is used for the nearest band (highest sand), the last entry for the farthest.
+     */
+    public static int[] createPalette() {
+        int[] rgb = {
+                204,0,0, //dark red
+                255,0,0, // red
+                255,179,179,
+                255,153,51, //orange
+                255,204,0,
+                255,255,0, //yellow
+                0,255,0, // green
+                51,204,51, // light green
+                153,204,0,
+                102,153,0, // dark green
+                0,255,255, //light blue
+                102,204,255,
+                0,153,255, //dark blue
+                102,102,255,
+                0,0,255}; // blue
+        // The palette used to be built through an RGB -> HSV -> RGB round-trip, which is the
+        // identity for 8-bit channels, so the table is packed directly.
+        int[] palette = new int[PALETTE_SIZE];
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            palette[i] = argb(0xFF, rgb[i * 3], rgb[i * 3 + 1], rgb[i * 3 + 2]);
+        }
+        return palette;
+    }
+
+    /**
+     * Palette color for a depth value.
+     */
+    public static int colorForDepth(int[] palette, float z) {
+        if (z > MIN_DEPTH && z <= MAX_DEPTH) { // if the depth is inside the range.
+            return palette[Math.min((int) ((z - MIN_DEPTH) * PRODUCT_RATIO), palette.length - 1)];
+        } else if (z <= NEAR_DEPTH) { // if the depth distance is between camera and MIN
+            return palette[0];
+        } else { // if the depth distance is below MAX
+            return BLACK;
+        }
+    }
+
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    public static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    /**
+     * Blend between two packed colors, channel by channel; amount 0 gives from, 1 gives to.
+     */
+    public static int mix(int from, int to, float amount) {
+        return argb(mixChannel(alpha(from), alpha(to), amount),
+                mixChannel(red(from), red(to), amount),
+                mixChannel(green(from), green(to), amount),
+                mixChannel(blue(from), blue(to), amount));
+    }
+
+    private static int mixChannel(int from, int to, float amount) {
+        return Math.round(from + (to - from) * amount);
+    }
+
+    /**
+     * Write a packed color as four RGBA floats in [0, 1], the layout of the vertex color VBO.
+     */
+    public static void writeColor(float[] colors, int index, int color) {
+        int dst = index * 4;
+        colors[dst] = red(color) / 255f;
+        colors[dst + 1] = green(color) / 255f;
+        colors[dst + 2] = blue(color) / 255f;
+        colors[dst + 3] = alpha(color) / 255f;
+    }
+
+    /**
+     * Repack an ARGB color so that its bytes in native order are R, G, B, A: the layout of a
+     * normalized unsigned byte vertex color, a quarter of the size of four floats.
+     */
+    public static int toRgba8(int color) {
+        int abgr = (color & 0xFF00FF00) | red(color) | (blue(color) << 16);
+        return LITTLE_ENDIAN ? abgr : Integer.reverseBytes(abgr);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Elevation coloring and contour lines computed per fragment on the GPU, from the height alone,
+ * and a Java reference of the same math.
+ * <p>
+ * The fragment shader quantizes the interpolated height into a {@link ColorLut} slot and looks
+ * the color up in a palette texture of {@link #getPaletteTexels()}; heights within the line
+ * width of a band boundary, counted in bands, are painted white. The CPU then only uploads
+ * heights: half of a height and an RGBA8 color, an eighth of an XYZC point and a float color.
+ * <p>
+ * {@link #shade(float)} repeats the shader's float operations in the same order, so on a GPU
+ * with IEEE single precision highp floats both give the same colors. The table's own
+ * {@link ColorLut#slotOf(float)} works in double and may put heights within a rounding error of
+ * a boundary in the neighbouring band.
+ */
+public final class ElevationShader {
+    // Line half-width in bands: 8% of a band, about half a millimetre with the classic table.
+    public static final float DEFAULT_LINE_WIDTH = 0.08f;
+
+    /**
+     * Passes the height on, and whether the vertex has one: heights below zero mean no data.
+     * Such vertices are drawn on the camera plane and their triangles discarded.
+     */
+    public static final String VERTEX_SOURCE =
+            "uniform mat4 uMVPMatrix;\n"
+            + "attribute vec2 aPosition;\n"
+            + "attribute float aHeight;\n"
+            + "varying float vHeight;\n"
+            + "varying float vValid;\n"
+            + "void main() {\n"
+            + "    vHeight = aHeight;\n"
+            + "    vValid = step(0.0, aHeight);\n"
+            + "    gl_Position = uMVPMatrix * vec4(aPosition, max(aHeight, 0.0), 1.0);\n"
+            + "}\n";
+
+    /**
+     * Mirrored by {@link #slotOf(float)}, {@link #isContour(float)} and {@link #shade(float)}.
+     */
+    public static final String FRAGMENT_SOURCE =
+            "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "uniform sampler2D uPalette;\n"
+            + "uniform float uSlots;\n"
+            + "uniform float uBands;\n"
+            + "uniform float uMinDepth;\n"
+            + "uniform float uMaxDepth;\n"
+            + "uniform float uNearDepth;\n"
+            + "uniform float uBandsPerMetre;\n"
+            + "uniform float uLineWidth;\n"
+            + "varying float vHeight;\n"
+            + "varying float vValid;\n"
+            + "void main() {\n"
+            + "    if (vValid < 0.999) {\n"
+            + "        discard;\n"
+            + "    }\n"
+            + "    float h = vHeight;\n"
+            + "    float t = (h - uMinDepth) * uBandsPerMetre;\n"
+            + "    float k = floor(t + 0.5);\n"
+            + "    if (k >= 0.0 && k <= uBands && abs(t - k) < uLineWidth) {\n"
+            + "        gl_FragColor = vec4(1.0);\n"
+            + "        return;\n"
+            + "    }\n"
+            + "    float slot = 0.0;\n"
+            + "    if (h > uMinDepth && h <= uMaxDepth) {\n"
+            + "        slot = 1.0 + min(floor(t), uBands - 1.0);\n"
+            + "    } else if (h <= uNearDepth) {\n"
+            + "        slot = 1.0;\n"
+            + "    }\n"
+            + "    gl_FragColor = texture2D(uPalette, vec2((slot + 0.5) / uSlots, 0.5));\n"
+            + "}\n";
+
+    private final ColorLut mColorLut;
+    private final float mLineWidth;
+    private final float mBands;
+    private final float mMinDepth;
+    private final float mMaxDepth;
+    private final float mNearDepth;
+    private final float mBandsPerMetre;
+    private final int[] mPaletteTexels;
+
+    public ElevationShader(ColorLut colorLut) {
+        this(colorLut, DEFAULT_LINE_WIDTH);
+    }
+
+    /**
+     * @param lineWidth half-width of the contour lines in bands, 0 for none.
+     */
+    public ElevationShader(ColorLut colorLut, float lineWidth) {
+        mColorLut = colorLut;
+        mLineWidth = lineWidth;
+        mBands = colorLut.getBands();
+        mMinDepth = (float) colorLut.getMinDepth();
+        mMaxDepth = (float) colorLut.getMaxDepth();
+        mNearDepth = (float) colorLut.getNearDepth();
+        mBandsPerMetre = (float) colorLut.getBandsPerMetre();
+        mPaletteTexels = new int[colorLut.getBands() + 1];
+        for (int slot = 0; slot < mPaletteTexels.length; slot++) {
+            mPaletteTexels[slot] = colorLut.rgba8Of(slot);
+        }
+    }
+
+    /**
+     * Palette slot of a height, as the fragment shader computes it.
+     */
+    public int slotOf(float h) {
+        float t = (h - mMinDepth) * mBandsPerMetre;
+        float slot = 0f;
+        if (h > mMinDepth && h <= mMaxDepth) {
+            slot = 1f + Math.min((float) Math.floor(t), mBands - 1f);
+        } else if (h <= mNearDepth) {
+            slot = 1f;
+        }
+        return (int) slot;
+    }
+
+    /**
+     * Whether the fragment shader paints a height as a contour line.
+     */
+    public boolean isContour(float h) {
+        float t = (h - mMinDepth) * mBandsPerMetre;
+        float k = (float) Math.floor(t + 0.5f);
+        return k >= 0f && k <= mBands && Math.abs(t - k) < mLineWidth;
+    }
+
+    /**
+     * Packed ARGB color the fragment shader draws for a height.
+     */
+    public int shade(float h) {
+        return isContour(h) ? ElevationPalette.WHITE : mColorLut.colorOf(slotOf(h));
+    }
+
+    public ColorLut getColorLut() {
+        return mColorLut;
+    }
+
+    /**
+     * RGBA8 color of every slot, the texels of the one row palette texture.
+     */
+    public int[] getPaletteTexels() {
+        return mPaletteTexels;
+    }
+
+    // Uniform values.
+
+    public float getSlots() {
+        return mPaletteTexels.length;
+    }
+
+    public float getBands() {
+        return mBands;
+    }
+
+    public float getMinDepth() {
+        return mMinDepth;
+    }
+
+    public float getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public float getNearDepth() {
+        return mNearDepth;
+    }
+
+    public float getBandsPerMetre() {
+        return mBandsPerMetre;
+    }
+
+    public float getLineWidth() {
+        return mLineWidth;
+    }
+}
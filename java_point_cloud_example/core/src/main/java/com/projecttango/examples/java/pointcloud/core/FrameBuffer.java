@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A reusable block of XYZC points backed by a primitive float array.
+ * The array only ever grows, so once a frame has held the largest cloud of a session it is
+ * never reallocated again.
+ */
+public class FrameBuffer {
+    // Point cloud data comes in XYZC format.
+    public static final int FLOATS_PER_POINT = 4;
+
+    private float[] mPoints;
+    private int mPointCount;
+
+    public FrameBuffer(int pointCapacity) {
+        mPoints = new float[pointCapacity * FLOATS_PER_POINT];
+    }
+
+    /**
+     * Makes sure the backing array can hold at least pointCapacity points. Existing content is
+     * not preserved when the array has to grow.
+     */
+    public void ensureCapacity(int pointCapacity) {
+        if (mPoints.length < pointCapacity * FLOATS_PER_POINT) {
+            mPoints = new float[pointCapacity * FLOATS_PER_POINT];
+        }
+    }
+
+    /**
+     * Bulk copy the first pointCount points of a Tango point cloud buffer into this frame.
+     * The position of the source buffer is left at zero, as the rest of the pipeline expects.
+     */
+    public void load(FloatBuffer pointCloudBuffer, int pointCount) {
+        ensureCapacity(pointCount);
+        pointCloudBuffer.rewind();
+        pointCloudBuffer.get(mPoints, 0, pointCount * FLOATS_PER_POINT);
+        pointCloudBuffer.rewind();
+        mPointCount = pointCount;
+    }
+
+    /**
+     * Keep an evenly spread maxPoints of the points, in order, dropping the others in place.
+     * Cheaper than a {@link VoxelDecimator}, for consumers such as the {@link HeightGrid} that
+     * average the points anyway.
+     */
+    public void thin(int maxPoints) {
+        if (mPointCount <= maxPoints) {
+            return;
+        }
+        // Fixed point step, so the kept points span the whole frame.
+        long step = ((long) mPointCount << 16) / maxPoints;
+        long position = 0;
+        for (int i = 0; i < maxPoints; i++, position += step) {
+            int src = (int) (position >>> 16) * FLOATS_PER_POINT;
+            int dst = i * FLOATS_PER_POINT;
+            mPoints[dst] = mPoints[src];
+            mPoints[dst + 1] = mPoints[src + 1];
+            mPoints[dst + 2] = mPoints[src + 2];
+            mPoints[dst + 3] = mPoints[src + 3];
+        }
+        mPointCount = maxPoints;
+    }
+
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public void setPointCount(int pointCount) {
+        mPointCount = pointCount;
+    }
+
+    public int getPointCapacity() {
+        return mPoints.length / FLOATS_PER_POINT;
+    }
+}
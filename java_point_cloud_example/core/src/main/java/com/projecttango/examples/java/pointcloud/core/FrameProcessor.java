@@ -0,0 +1,745 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns depth frames into {@link ProcessedFrame}s on a processing thread and hands the latest
+ * one to the render thread through a {@link TripleBuffer}, so rendering never waits for the
+ * per-point work.
+ * <p>
+ * Without a grid resolution the raw points go through the {@link FusedPointKernel}. With one,
+ * frames are binned into a {@link HeightGrid}, fused with the previous frames by a
+ * {@link HeightFusion}, filtered, and the changed tiles are rewritten as vertices and
+ * isolines, which a {@link ContourSimplifier} then stitches and simplifies. With a
+ * {@link WaterSimulation} set, the filtered heights become its terrain and its latest water
+ * depths are drawn over the sand; tiles whose water changed count as changed. Each of the three
+ * frames keeps its own vertex arrays, brought up to date with the tiles that changed since it
+ * was last written.
+ * <p>
+ * With more than one thread, the point kernel, the binning and the tile writes are split over a
+ * {@link WorkerPool}. The parallel versions give the same output as the serial ones.
+ * <p>
+ * Depth {@link FrameStatistics} of every raw point are gathered by whichever pass first walks
+ * the raw frame, or by a pass of their own before a grid frame is thinned, and published with
+ * the frame as well as on their own, for a UI thread.
+ * <p>
+ * Raw point frames over the point budget are thinned by a {@link VoxelDecimator}, so however
+ * dense the sensor, a frame never has more vertices than {@link #getMaxVertexCount()}.
+ * <p>
+ * Points are cropped to a {@link RoiMask}, by default the hand measured sandbox rectangle. On
+ * request, the next few frames are fed to a {@link RoiDetector} to find the box instead.
+ * <p>
+ * With a {@link ProjectorCalibration} set, each grid frame also carries the image to project
+ * back onto the sand: its surface colors warped through a {@link ProjectorWarp}, one table read
+ * per pixel. On request, a {@link ProjectorCalibrator} draws its targets into that image instead
+ * and looks for the markers put under them, until it has a new calibration.
+ * <p>
+ * Each frame is first transformed from the depth camera into a fixed sandbox frame: the depth
+ * camera pose of the first frame, or of the first frame after {@link #resetSandboxFrame()}.
+ * Binning, cropping and analysis therefore see coordinates that stay put when the device moves.
+ * <p>
+ * Every stage is timed into the frame's {@link FrameTimings}. With a {@link QualityController}
+ * set, the frame times pick the {@link QualitySettings} of the next frames. The timings, and the
+ * latency from the sensor timestamp, are also collected in a {@link LatencyTracer}.
+ */
+public class FrameProcessor {
+    /**
+     * Told about the outcome of a region of interest detection, on the processing thread.
+     */
+    public interface RoiListener {
+        /**
+         * @param roiMask the detected region, now in use, or null if no box was found.
+         */
+        void onRoiDetected(RoiMask roiMask);
+    }
+
+    /**
+     * Told about the outcome of a projector calibration, on the processing thread.
+     */
+    public interface CalibrationListener {
+        /**
+         * @param calibration the fitted calibration, now in use, or null if the markers did
+         *                    not fix one.
+         */
+        void onProjectorCalibrated(ProjectorCalibration calibration);
+    }
+
+    private final int mMaxPoints;
+    private final FrameBuffer mFrame;
+    private final WorkerPool mPool;
+    private final ProcessedFrame[] mFrames;
+    private final TripleBuffer<ProcessedFrame> mOutput;
+    private final TripleBuffer<FrameStatistics> mStatisticsOutput;
+    // Gathered in a pass of their own for the staged reference, and for grid frames that are
+    // thinned before binning.
+    private final FrameStatistics mRawStatistics = new FrameStatistics();
+    private final FrameTimings mTimings = new FrameTimings();
+    private final LatencyTracer mLatencyTracer = new LatencyTracer();
+    // Column-major transforms between the world, the sandbox and the current depth camera.
+    private final float[] mWorldTSandbox = new float[PointTransform.MATRIX_FLOATS];
+    private final float[] mSandboxTWorld = new float[PointTransform.MATRIX_FLOATS];
+    private final float[] mSandboxTDepth = new float[PointTransform.MATRIX_FLOATS];
+    // Only set in height grid mode.
+    private final HeightGrid mHeightGrid;
+    private final HeightFusion mHeightFusion;
+    private final TemporalHeightFilter mHeightFilter;
+    private final DirtyTileTracker mDirtyTiles;
+    private final IsolineExtractor mIsolines;
+    private final DirtyTileTracker.Consumer mIsolineTiles;
+    private final ContourSimplifier mContours;
+    private final int[] mChangedTiles;
+
+    // Requested from any thread, applied by the processing thread between two frames.
+    private volatile ColorLut mRequestedColorLut;
+    private volatile boolean mStagedReference;
+    private volatile int mPointBudget;
+    private volatile RoiMask mRequestedRoiMask;
+    private volatile int mRequestedRoiFrames;
+    private volatile RoiListener mRoiListener;
+    private volatile QualityController mQualityController;
+    // Taken by the next frame, so an upload is counted once.
+    private final AtomicLong mUploadNanos = new AtomicLong();
+    private long mPoseNanos;
+    private volatile boolean mRequestedSandboxReset = true;
+    private volatile boolean mFusion = true;
+    private volatile float mContourTolerance = ContourSimplifier.DEFAULT_TOLERANCE;
+    private volatile ProjectorCalibration mRequestedCalibration;
+    private volatile ProjectorCalibrator mRequestedCalibrator;
+    private volatile CalibrationListener mCalibrationListener;
+    private volatile WaterSimulation mRequestedWater;
+    private WaterSimulation mWater;
+    // Water depths last taken from the simulation, and the water surface the tiles track.
+    private float[] mWaterDepths;
+    private float[] mWaterSurface;
+    private ColorLut mColorLut;
+    private RoiMask mRoiMask;
+    private RoiDetector mRoiDetector;
+    private ProjectorWarp mProjectorWarp;
+    private ProjectorCalibrator mCalibrator;
+    private int mRoiFrames;
+    // Set by the quality controller, if any.
+    private QualitySettings mQuality;
+    private long mSequence;
+
+    /**
+     * @param maxPoints most points drawn per frame in raw point mode. Larger frames are thinned.
+     * @param gridResolution cells per side of the sandbox height grid, or 0 to draw raw points.
+     */
+    public FrameProcessor(int maxPoints, int gridResolution) {
+        this(maxPoints, gridResolution, 1);
+    }
+
+    /**
+     * @param maxPoints most points drawn per frame in raw point mode. Larger frames are thinned.
+     * @param gridResolution cells per side of the sandbox height grid, or 0 to draw raw points.
+     * @param threads threads working on a frame, the processing thread included.
+     */
+    public FrameProcessor(int maxPoints, int gridResolution, int threads) {
+        mMaxPoints = maxPoints;
+        mPointBudget = maxPoints;
+        mPool = new WorkerPool(threads);
+        mFrame = new FrameBuffer(maxPoints);
+        mColorLut = ColorLut.createDefault();
+        mRequestedColorLut = mColorLut;
+        mRoiMask = RoiMask.createDefault();
+        mRequestedRoiMask = mRoiMask;
+        if (gridResolution > 0) {
+            mHeightGrid = HeightGrid.forSandbox(gridResolution);
+            mHeightFusion = HeightFusion.createDefault(mHeightGrid.getCellCount());
+            mHeightFilter = TemporalHeightFilter.createDefault(mHeightGrid.getCellCount());
+            mDirtyTiles = DirtyTileTracker.forGrid(mHeightGrid);
+            mIsolines = IsolineExtractor.forPalette(mHeightGrid.getCellCount());
+            mIsolines.setLevels(mColorLut);
+            // Marching squares reads the samples to the right and below.
+            mIsolineTiles = mDirtyTiles.newConsumer(true);
+            mContours = new ContourSimplifier();
+            mChangedTiles = new int[mDirtyTiles.getTileCount()];
+        } else {
+            mHeightGrid = null;
+            mHeightFusion = null;
+            mHeightFilter = null;
+            mDirtyTiles = null;
+            mIsolines = null;
+            mIsolineTiles = null;
+            mContours = null;
+            mChangedTiles = null;
+        }
+        mFrames = new ProcessedFrame[3];
+        for (int i = 0; i < mFrames.length; i++) {
+            mFrames[i] = new ProcessedFrame(mColorLut, maxPoints, mDirtyTiles, mPool);
+        }
+        mOutput = new TripleBuffer<ProcessedFrame>(mFrames[0], mFrames[1], mFrames[2]);
+        mStatisticsOutput = new TripleBuffer<FrameStatistics>(new FrameStatistics(),
+                new FrameStatistics(), new FrameStatistics());
+    }
+
+    /**
+     * Process a depth frame and publish the result.
+     * NOTE: Only call from the processing thread.
+     *
+     * @param points XYZC points, read from the start of the buffer.
+     * @param transform OpenGL transform from the depth camera to the world at timestamp.
+     */
+    public void process(FloatBuffer points, int pointCount, double timestamp,
+                        float[] transform) {
+        mTimings.reset();
+        mTimings.add(FrameTimings.Stage.UPLOAD, mUploadNanos.getAndSet(0));
+        mTimings.add(FrameTimings.Stage.POSE, mPoseNanos);
+        mPoseNanos = 0;
+        applyColorLut();
+        applyRoiMask();
+        applySandboxFrame(transform);
+        ProcessedFrame output = mOutput.getBack();
+        output.setDensify(mQuality == null || mQuality.isDensify());
+        long start = System.nanoTime();
+        mFrame.load(points, pointCount);
+        long end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.LOAD, end - start);
+        start = end;
+        PointTransform.multiply(mSandboxTDepth, mSandboxTWorld, transform);
+        PointTransform.transform(mSandboxTDepth, mFrame.getPoints(), mFrame.getPoints(),
+                mFrame.getPointCount());
+        mTimings.add(FrameTimings.Stage.TRANSFORM, System.nanoTime() - start);
+        detectRoi();
+        FrameStatistics statistics;
+        start = System.nanoTime();
+        if (mHeightGrid != null) {
+            statistics = processGrid(output);
+        } else if (mStagedReference) {
+            mRawStatistics.reset();
+            mRawStatistics.addAll(mFrame.getPoints(), mFrame.getPointCount());
+            statistics = mRawStatistics;
+            PointStages stages = output.getStages();
+            float[] staged = stages.process(mFrame, mTimings);
+            setRawPoints(output, staged, stages.getColors(), stages.getPointCount());
+        } else if (output.getParallelKernel() != null) {
+            ParallelPointKernel kernel = output.getParallelKernel();
+            int count = kernel.process(mFrame);
+            mTimings.add(FrameTimings.Stage.POINTS, System.nanoTime() - start);
+            setRawPoints(output, kernel.getPoints(), kernel.getColors(), count);
+            statistics = kernel.getStatistics();
+        } else {
+            FusedPointKernel kernel = output.getKernel();
+            int count = kernel.process(mFrame);
+            mTimings.add(FrameTimings.Stage.POINTS, System.nanoTime() - start);
+            setRawPoints(output, kernel.getPoints(), kernel.getColors(), count);
+            statistics = kernel.getStatistics();
+        }
+        output.setStatistics(statistics);
+        output.setTimings(mTimings);
+        output.setPose(timestamp, mWorldTSandbox, ++mSequence);
+        mOutput.publish();
+        mStatisticsOutput.getBack().set(statistics);
+        mStatisticsOutput.publish();
+        mLatencyTracer.recordLatency(LatencyTracer.Latency.PUBLISHED, timestamp, System.nanoTime());
+        mLatencyTracer.recordFrame(mTimings);
+        updateQuality();
+    }
+
+    private void setRawPoints(ProcessedFrame output, float[] points, float[] colors,
+                              int pointCount) {
+        int budget = mPointBudget;
+        if (mQuality != null) {
+            budget = Math.min(budget, mQuality.getPointBudget());
+        }
+        if (pointCount > budget) {
+            long start = System.nanoTime();
+            VoxelDecimator decimator = output.getDecimator();
+            pointCount = decimator.process(points, colors, pointCount, budget);
+            points = decimator.getPoints();
+            colors = decimator.getColors();
+            mTimings.add(FrameTimings.Stage.DECIMATE, System.nanoTime() - start);
+        }
+        output.setPoints(points, colors, pointCount);
+    }
+
+    /**
+     * @return the depth statistics of every raw point of the frame.
+     */
+    private FrameStatistics processGrid(ProcessedFrame output) {
+        long start = System.nanoTime();
+        FrameStatistics statistics = mHeightGrid.getStatistics();
+        // Cells average their points, so a plain stride is enough to shed work. The bin would
+        // then only see the kept points, so the statistics are gathered first.
+        if (mQuality != null && mQuality.getPointBudget() < mFrame.getPointCount()) {
+            mRawStatistics.reset();
+            mRawStatistics.addAll(mFrame.getPoints(), mFrame.getPointCount());
+            statistics = mRawStatistics;
+            mFrame.thin(mQuality.getPointBudget());
+        }
+        mHeightGrid.bin(mFrame, mPool);
+        long end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.BIN, end - start);
+        start = end;
+        if (mFusion) {
+            mHeightFusion.update(mHeightGrid);
+            end = System.nanoTime();
+            mTimings.add(FrameTimings.Stage.FUSE, end - start);
+            start = end;
+        }
+        mHeightFilter.update(mHeightGrid);
+        end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.FILTER, end - start);
+        start = end;
+        boolean water = updateWater();
+        end = System.nanoTime();
+        if (mWater != null) {
+            mTimings.add(FrameTimings.Stage.WATER, end - start);
+        }
+        start = end;
+        mDirtyTiles.update(water ? mWaterSurface : mHeightGrid.getHeights());
+        end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.DIRTY, end - start);
+        start = end;
+
+        GridVertexWriter writer = output.getGridWriter();
+        writer.setWaterDepths(mWaterDepths);
+        int tileCount = output.getGridTiles().poll(mChangedTiles);
+        writer.writeTiles(mHeightGrid, mChangedTiles, tileCount, mPool);
+        output.setPoints(writer.getPoints(), writer.getColors(), writer.getVertexCount());
+        output.takeTileSnapshot(mDirtyTiles);
+        end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.TILES, end - start);
+        start = end;
+
+        tileCount = mIsolineTiles.poll(mChangedTiles);
+        int vertexCount = mIsolines.extract(mHeightGrid, mDirtyTiles, mChangedTiles, tileCount);
+        end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.ISOLINES, end - start);
+        start = end;
+        mContours.setTolerance(mContourTolerance);
+        vertexCount = mContours.process(mIsolines.getVertices(), vertexCount);
+        output.setContours(mContours.getLineVertices(), vertexCount);
+        end = System.nanoTime();
+        mTimings.add(FrameTimings.Stage.SIMPLIFY, end - start);
+        start = end;
+
+        updateProjector(output);
+        mTimings.add(FrameTimings.Stage.PROJECTOR, System.nanoTime() - start);
+        return statistics;
+    }
+
+    /**
+     * Draw the frame's projector image: the targets while calibrating, else the surface colors
+     * warped through the calibration, if there is one.
+     */
+    private void updateProjector(ProcessedFrame output) {
+        ProjectorCalibrator requested = mRequestedCalibrator;
+        if (requested != null) {
+            mRequestedCalibrator = null;
+            mCalibrator = requested;
+        }
+        if (mCalibrator != null && mCalibrator.feed(mHeightGrid)) {
+            ProjectorCalibration calibration = mCalibrator.getResult();
+            mCalibrator = null;
+            if (calibration != null) {
+                mRequestedCalibration = calibration;
+            }
+            CalibrationListener listener = mCalibrationListener;
+            if (listener != null) {
+                listener.onProjectorCalibrated(calibration);
+            }
+        }
+        if (mCalibrator != null) {
+            mCalibrator.drawTarget(output.setProjectorImage(mCalibrator.getWidth(),
+                    mCalibrator.getHeight()));
+            return;
+        }
+        ProjectorCalibration calibration = mRequestedCalibration;
+        if (calibration == null) {
+            mProjectorWarp = null;
+            output.clearProjectorImage();
+            return;
+        }
+        if (mProjectorWarp == null || mProjectorWarp.getCalibration() != calibration) {
+            // Every frame's writer has the same vertex layout.
+            mProjectorWarp = new ProjectorWarp(calibration, mHeightGrid, output.getGridWriter());
+        }
+        int[] pixels = output.setProjectorImage(mProjectorWarp.getWidth(),
+                mProjectorWarp.getHeight());
+        mProjectorWarp.warp(output.getSurfaceColors(), pixels, mPool);
+    }
+
+    /**
+     * Hand the filtered heights to the water simulation, if any, take its latest depths and
+     * work out the water surface.
+     *
+     * @return whether there are water depths to draw.
+     */
+    private boolean updateWater() {
+        WaterSimulation water = mRequestedWater;
+        if (water != mWater) {
+            mWater = water;
+            mWaterDepths = null;
+            // Tiles that had water need repainting.
+            mDirtyTiles.invalidateAll();
+        }
+        if (water == null) {
+            return false;
+        }
+        float[] heights = mHeightGrid.getHeights();
+        water.setTerrainDepths(heights);
+        float[] depths = water.takeLatestDepths();
+        if (depths != null) {
+            mWaterDepths = depths;
+        }
+        if (mWaterDepths == null) {
+            return false;
+        }
+        if (mWaterSurface == null) {
+            mWaterSurface = new float[heights.length];
+        }
+        for (int cell = 0; cell < heights.length; cell++) {
+            float depth = mWaterDepths[cell];
+            mWaterSurface[cell] = depth > GridVertexWriter.MIN_WATER_DEPTH
+                    ? heights[cell] - depth : heights[cell];
+        }
+        return true;
+    }
+
+    private void updateQuality() {
+        QualityController controller = mQualityController;
+        if (controller == null) {
+            mQuality = null;
+            return;
+        }
+        QualitySettings quality = controller.onFrame(mSequence, mTimings.getTotal(), mTimings);
+        if (quality == mQuality) {
+            return;
+        }
+        int oldStep = mQuality != null ? mQuality.getContourStep() : 1;
+        mQuality = quality;
+        if (mIsolines != null && quality.getContourStep() != oldStep) {
+            setIsolineLevels();
+        }
+    }
+
+    private void setIsolineLevels() {
+        int step = mQuality != null ? mQuality.getContourStep() : 1;
+        mIsolines.setLevels((float) mColorLut.getMinDepth(), (float) mColorLut.getMaxDepth(),
+                (float) (mColorLut.getBandHeight() * step));
+    }
+
+    private void applyColorLut() {
+        ColorLut colorLut = mRequestedColorLut;
+        if (colorLut == mColorLut) {
+            return;
+        }
+        mColorLut = colorLut;
+        // The render thread only reads a frame's arrays, never its color table, so every frame
+        // can switch now.
+        for (ProcessedFrame frame : mFrames) {
+            frame.setColorLut(colorLut);
+        }
+        if (mDirtyTiles != null) {
+            mDirtyTiles.invalidateAll();
+            setIsolineLevels();
+        }
+    }
+
+    /**
+     * Stop the worker threads. The processor must not be used afterwards.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private void applyRoiMask() {
+        RoiMask roiMask = mRequestedRoiMask;
+        if (roiMask == mRoiMask) {
+            return;
+        }
+        mRoiMask = roiMask;
+        for (ProcessedFrame frame : mFrames) {
+            frame.setRoiMask(roiMask);
+        }
+        if (mHeightGrid != null) {
+            // Cells that left the region would otherwise keep their last height for good.
+            mHeightGrid.setRoiMask(roiMask);
+            mHeightGrid.reset();
+            mHeightFusion.reset();
+            mHeightFilter.reset();
+            mDirtyTiles.invalidateAll();
+        }
+    }
+
+    private void applySandboxFrame(float[] worldTDepth) {
+        if (!mRequestedSandboxReset) {
+            return;
+        }
+        mRequestedSandboxReset = false;
+        System.arraycopy(worldTDepth, 0, mWorldTSandbox, 0, mWorldTSandbox.length);
+        PointTransform.invertRigid(mWorldTSandbox, mSandboxTWorld);
+        if (mHeightGrid != null) {
+            // The heights so far are in the old frame.
+            mHeightGrid.reset();
+            mHeightFusion.reset();
+            mHeightFilter.reset();
+            mDirtyTiles.invalidateAll();
+            if (mWater != null) {
+                mWater.clearWater();
+            }
+        }
+    }
+
+    private void detectRoi() {
+        int requestedFrames = mRequestedRoiFrames;
+        if (requestedFrames > 0) {
+            mRequestedRoiFrames = 0;
+            mRoiDetector = new RoiDetector();
+            mRoiFrames = requestedFrames;
+        }
+        if (mRoiDetector == null) {
+            return;
+        }
+        mRoiDetector.addFrame(mFrame);
+        if (mRoiDetector.getFrameCount() < mRoiFrames) {
+            return;
+        }
+        RoiMask roiMask = mRoiDetector.detect();
+        mRoiDetector = null;
+        if (roiMask != null) {
+            mRequestedRoiMask = roiMask;
+        }
+        RoiListener listener = mRoiListener;
+        if (listener != null) {
+            listener.onRoiDetected(roiMask);
+        }
+    }
+
+    /**
+     * Latest frame published since the last call, or null if there is none.
+     * NOTE: Only call from the render thread.
+     */
+    public ProcessedFrame takeLatest() {
+        return mOutput.takeLatest();
+    }
+
+    /**
+     * Depth statistics of the latest frame published since the last call, or null if there is
+     * none. Valid until the next call.
+     * NOTE: Only call from one thread, e.g. the UI thread.
+     */
+    public FrameStatistics takeLatestStatistics() {
+        return mStatisticsOutput.takeLatest();
+    }
+
+    /**
+     * Color the frames processed from now on with another table.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        mRequestedColorLut = colorLut;
+    }
+
+    public ColorLut getColorLut() {
+        return mRequestedColorLut;
+    }
+
+    /**
+     * Crop the frames processed from now on to another region.
+     */
+    public void setRoiMask(RoiMask roiMask) {
+        mRequestedRoiMask = roiMask;
+    }
+
+    public RoiMask getRoiMask() {
+        return mRequestedRoiMask;
+    }
+
+    /**
+     * Look for the sandbox in the next frames, and crop to it if it is found. The listener is
+     * told either way.
+     */
+    public void detectRoi(int frameCount, RoiListener listener) {
+        mRoiListener = listener;
+        mRequestedRoiFrames = Math.max(1, frameCount);
+    }
+
+    /**
+     * Fix the sandbox frame at the depth camera pose of the next frame, e.g. after the sandbox
+     * or the world frame moved. Region of interest masks are in the sandbox frame.
+     */
+    public void resetSandboxFrame() {
+        mRequestedSandboxReset = true;
+    }
+
+    /**
+     * Project each grid frame's colors through a calibration from the next frame on, or stop
+     * drawing the projector image with null. Calibrations are in the sandbox frame, so they
+     * hold as long as the device, the projector and the sandbox stay where they were.
+     * Only in grid mode.
+     */
+    public void setProjectorCalibration(ProjectorCalibration calibration) {
+        if (mHeightGrid == null) {
+            throw new IllegalStateException("Projecting needs a height grid");
+        }
+        mRequestedCalibration = calibration;
+    }
+
+    public ProjectorCalibration getProjectorCalibration() {
+        return mRequestedCalibration;
+    }
+
+    /**
+     * Calibrate the projector from markers: the projector image shows the targets of a
+     * {@link ProjectorCalibrator} until each has had its marker, then the new calibration is
+     * used. The listener is told either way. Only in grid mode.
+     *
+     * @param width resolution of the projector image.
+     */
+    public void calibrateProjector(int width, int height, CalibrationListener listener) {
+        if (mHeightGrid == null) {
+            throw new IllegalStateException("Calibrating needs a height grid");
+        }
+        mCalibrationListener = listener;
+        mRequestedCalibrator = new ProjectorCalibrator(width, height);
+    }
+
+    /**
+     * Thin raw point frames to at most pointBudget points, up to the maximum given at
+     * construction, e.g. to keep the frame rate up on a slow device.
+     */
+    public void setPointBudget(int pointBudget) {
+        mPointBudget = Math.max(1, Math.min(pointBudget, mMaxPoints));
+    }
+
+    public int getPointBudget() {
+        return mPointBudget;
+    }
+
+    /**
+     * Let a controller trade quality for frame time from the next frame on, or go back to full
+     * quality for null. The controller is fed on the processing thread.
+     */
+    public void setQualityController(QualityController controller) {
+        mQualityController = controller;
+    }
+
+    public QualityController getQualityController() {
+        return mQualityController;
+    }
+
+    /**
+     * Time the render thread spent uploading the last frame, counted in the next frame's
+     * {@link FrameTimings}.
+     */
+    public void reportUploadNanos(long nanos) {
+        mUploadNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Time spent looking up the pose of the next frame, counted in its {@link FrameTimings}.
+     * NOTE: Only call from the processing thread.
+     */
+    public void reportPoseNanos(long nanos) {
+        mPoseNanos += nanos;
+    }
+
+    /**
+     * Stage and end-to-end latencies of all frames processed so far.
+     */
+    public LatencyTracer getLatencyTracer() {
+        return mLatencyTracer;
+    }
+
+    /**
+     * Whether height grid frames are fused with the previous ones before filtering, on by
+     * default. Without fusion every frame's cell means go straight to the filter.
+     */
+    public void setFusion(boolean fusion) {
+        mFusion = fusion;
+    }
+
+    /**
+     * Simulate water over the height grid, or stop with null. The simulation is stepped
+     * elsewhere, e.g. by its own thread; this only feeds it the terrain and draws its water.
+     * Only in grid mode.
+     */
+    public void setWaterSimulation(WaterSimulation water) {
+        if (mHeightGrid == null) {
+            throw new IllegalStateException("Water needs a height grid");
+        }
+        if (water != null && (water.getColumns() != mHeightGrid.getColumns()
+                || water.getRows() != mHeightGrid.getRows())) {
+            throw new IllegalArgumentException("Water simulation does not match the grid");
+        }
+        mRequestedWater = water;
+    }
+
+    public WaterSimulation getWaterSimulation() {
+        return mRequestedWater;
+    }
+
+    /**
+     * How far simplified isolines may stray from the extracted ones, in meters. Zero only
+     * stitches them.
+     */
+    public void setContourTolerance(float tolerance) {
+        mContourTolerance = tolerance;
+    }
+
+    public float getContourTolerance() {
+        return mContourTolerance;
+    }
+
+    /**
+     * Run the four separate {@link PointStages} passes instead of the fused kernel, as a
+     * reference. Raw point mode only.
+     */
+    public void setStagedReference(boolean stagedReference) {
+        mStagedReference = stagedReference;
+    }
+
+    /**
+     * Most vertices a processed frame can hold.
+     */
+    public int getMaxVertexCount() {
+        if (mHeightGrid == null) {
+            return mMaxPoints;
+        }
+        return Math.max(mMaxPoints, mFrames[0].getGridWriter().getVertexCount());
+    }
+
+    /**
+     * The sandbox height grid, or null when drawing raw points. Owned by the processing thread.
+     */
+    public HeightGrid getHeightGrid() {
+        return mHeightGrid;
+    }
+
+    /**
+     * Positions and triangle strip indices of a surface over the height grid, matching the
+     * vertex layout of the frames' surface heights and colors, or null when drawing raw points.
+     * The grid geometry never changes, so this can be called from any thread.
+     */
+    public GridMesh createGridMesh() {
+        if (mHeightGrid == null) {
+            return null;
+        }
+        return new GridMesh(mHeightGrid, mFrames[0].getGridWriter());
+    }
+
+    /**
+     * Tracks the changed tiles of the height grid, or null when drawing raw points. Consumers
+     * on the render thread must only poll {@link ProcessedFrame#getTileSnapshot()}.
+     */
+    public DirtyTileTracker getDirtyTileTracker() {
+        return mDirtyTiles;
+    }
+}
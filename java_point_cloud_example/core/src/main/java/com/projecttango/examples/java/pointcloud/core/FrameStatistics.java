@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Depth statistics of one frame, accumulated point by point inside the pass that already walks
+ * the frame: count, mean, variance, min and max, and a fixed-bin histogram from which
+ * percentiles are estimated.
+ * <p>
+ * Partial statistics of separate chunks can be merged, so parallel passes keep one accumulator
+ * per chunk. Nothing is allocated after construction.
+ */
+public class FrameStatistics {
+    public static final int HISTOGRAM_BINS = 1024;
+    // Depths of the histogram, in meters. Deeper points land in the last bin.
+    public static final float HISTOGRAM_MAX_DEPTH = 4f;
+    private static final float BINS_PER_METER = HISTOGRAM_BINS / HISTOGRAM_MAX_DEPTH;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BINS];
+    private int mCount;
+    private double mSum;
+    private double mSumOfSquares;
+    private float mMin;
+    private float mMax;
+
+    public FrameStatistics() {
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(mHistogram, 0);
+        mCount = 0;
+        mSum = 0;
+        mSumOfSquares = 0;
+        mMin = Float.POSITIVE_INFINITY;
+        mMax = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Account for one depth. NaN depths are ignored.
+     */
+    public void add(float z) {
+        if (z != z) {
+            return;
+        }
+        mCount++;
+        mSum += z;
+        mSumOfSquares += (double) z * z;
+        if (z < mMin) {
+            mMin = z;
+        }
+        if (z > mMax) {
+            mMax = z;
+        }
+        int bin = (int) (z * BINS_PER_METER);
+        if (bin < 0) {
+            bin = 0;
+        } else if (bin >= HISTOGRAM_BINS) {
+            bin = HISTOGRAM_BINS - 1;
+        }
+        mHistogram[bin]++;
+    }
+
+    /**
+     * Account for the depths of the first pointCount XYZC points of an array.
+     */
+    public void addAll(float[] points, int pointCount) {
+        for (int i = 0; i < pointCount; i++) {
+            add(points[i * FrameBuffer.FLOATS_PER_POINT + 2]);
+        }
+    }
+
+    /**
+     * Add the depths accounted for by other, as if they had been added here.
+     */
+    public void merge(FrameStatistics other) {
+        if (other.mCount == 0) {
+            return;
+        }
+        for (int bin = 0; bin < HISTOGRAM_BINS; bin++) {
+            mHistogram[bin] += other.mHistogram[bin];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mSumOfSquares += other.mSumOfSquares;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /**
+     * Make this a copy of other.
+     */
+    public void set(FrameStatistics other) {
+        System.arraycopy(other.mHistogram, 0, mHistogram, 0, HISTOGRAM_BINS);
+        mCount = other.mCount;
+        mSum = other.mSum;
+        mSumOfSquares = other.mSumOfSquares;
+        mMin = other.mMin;
+        mMax = other.mMax;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Mean depth in meters, or 0 for an empty frame.
+     */
+    public double getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Population variance of the depth, in square meters.
+     */
+    public double getVariance() {
+        if (mCount == 0) {
+            return 0;
+        }
+        double mean = mSum / mCount;
+        // Rounding can push a near constant frame slightly below zero.
+        return Math.max(0, mSumOfSquares / mCount - mean * mean);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Smallest depth, or +Infinity for an empty frame.
+     */
+    public float getMin() {
+        return mMin;
+    }
+
+    /**
+     * Largest depth, or -Infinity for an empty frame.
+     */
+    public float getMax() {
+        return mMax;
+    }
+
+    /**
+     * Point counts per {@link #getBinWidth()} wide bin, starting at depth 0. Do not modify.
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    public static float getBinWidth() {
+        return 1 / BINS_PER_METER;
+    }
+
+    /**
+     * Depth below which a given share of the points lies, interpolated within its histogram
+     * bin, so accurate to about a bin width.
+     *
+     * @param fraction between 0 and 1, e.g. 0.5 for the median.
+     * @return the depth in meters, or NaN for an empty frame.
+     */
+    public float getPercentile(double fraction) {
+        if (mCount == 0) {
+            return Float.NaN;
+        }
+        double rank = Math.min(Math.max(fraction, 0), 1) * mCount;
+        int below = 0;
+        for (int bin = 0; bin < HISTOGRAM_BINS; bin++) {
+            int count = mHistogram[bin];
+            if (count > 0 && below + count >= rank) {
+                float depth = (float) ((bin + (rank - below) / count) / BINS_PER_METER);
+                return Math.min(Math.max(depth, mMin), mMax);
+            }
+            below += count;
+        }
+        return mMax;
+    }
+}
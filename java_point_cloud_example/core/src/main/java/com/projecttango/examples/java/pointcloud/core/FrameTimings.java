@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Time spent on one frame in each stage of the pipeline, in nanoseconds. Stages a frame did not
+ * go through stay at zero.
+ */
+public class FrameTimings {
+    public enum Stage {
+        // Depth camera pose lookup for the frame timestamp.
+        POSE,
+        // Copy of the sensor buffer.
+        LOAD,
+        // Depth camera to sandbox frame transform of the points.
+        TRANSFORM,
+        // Crop, densify, color and contour marking of raw points, fused in one pass.
+        POINTS,
+        // The same four steps when run as separate passes by the staged reference.
+        CROP,
+        DENSIFY,
+        COLOR,
+        CONTOUR,
+        DECIMATE,
+        BIN,
+        FUSE,
+        FILTER,
+        // Terrain hand-over to the water simulation and the water surface heights.
+        WATER,
+        // Dirty tile tracking of the heights, or of the water surface with water.
+        DIRTY,
+        TILES,
+        ISOLINES,
+        // Stitching and simplification of the isolines.
+        SIMPLIFY,
+        // Projector image warp, or the calibration targets.
+        PROJECTOR,
+        // Vertex buffer uploads on the render thread, reported one frame late.
+        UPLOAD
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long[] mNanos = new long[STAGES.length];
+
+    public void reset() {
+        for (int i = 0; i < mNanos.length; i++) {
+            mNanos[i] = 0;
+        }
+    }
+
+    public void add(Stage stage, long nanos) {
+        mNanos[stage.ordinal()] += nanos;
+    }
+
+    public long get(Stage stage) {
+        return mNanos[stage.ordinal()];
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long nanos : mNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public void set(FrameTimings other) {
+        System.arraycopy(other.mNanos, 0, mNanos, 0, mNanos.length);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Single pass version of the {@link PointStages} pipeline.
+ * Crops, densifies, colors and marks contour boundaries while walking the frame once, writing
+ * straight into preallocated point and color arrays. The output is identical to running
+ * cropPointsIntoRectangle, duplicatePoints, calculateColors and createContourLine one after the
+ * other. Depth {@link FrameStatistics} of the whole frame are gathered on the way.
+ */
+public class FusedPointKernel {
+    private static final int FLOATS_PER_POINT = FrameBuffer.FLOATS_PER_POINT;
+    private static final int FLOATS_PER_COLOR = 4;
+
+    private ColorLut mColorLut;
+    private RoiMask mRoiMask = RoiMask.createDefault();
+    private boolean mDensify = true;
+    private float[] mPoints;
+    private float[] mColors;
+    private int mPointCount;
+    private final FrameStatistics mStatistics = new FrameStatistics();
+
+    public FusedPointKernel(ColorLut colorLut, int maxPoints) {
+        mColorLut = colorLut;
+        mPoints = new float[maxPoints * FLOATS_PER_POINT];
+        mColors = new float[maxPoints * FLOATS_PER_COLOR];
+    }
+
+    /**
+     * Run the whole pipeline over a raw (uncropped) frame.
+     *
+     * @return the number of points written to {@link #getPoints()} and {@link #getColors()}.
+     */
+    public int process(FrameBuffer frame) {
+        float[] in = frame.getPoints();
+        int inCount = frame.getPointCount();
+        RoiMask roiMask = mRoiMask;
+        boolean densify = mDensify;
+        // Densification adds at most one point between each pair of cropped points.
+        ensureCapacity(inCount * 2);
+        mStatistics.reset();
+
+        int emitted = 0;
+        int lastColor = 0;
+        int kept = 0;
+        float px = 0, py = 0, pz = 0, pc = 0;
+
+        for (int i = 0; i < inCount; i++) {
+            int src = i * FLOATS_PER_POINT;
+            float x = in[src];
+            float y = in[src + 1];
+            float z = in[src + 2];
+            mStatistics.add(z);
+            if (!roiMask.contains(x, y)) {
+                continue;
+            }
+            float c = in[src + 3];
+
+            // A point is only emitted once its right hand neighbour is known, which is when
+            // duplicatePoints decides whether an interpolated point goes in between.
+            if (kept > 0) {
+                lastColor = emit(emitted++, px, py, pz, pc, lastColor);
+                if (densify && px < x) {
+                    lastColor = emit(emitted++, (px + x) / 2, (py + y) / 2, (pz + z) / 2,
+                            (pc + c) / 2, lastColor);
+                }
+            }
+            px = x;
+            py = y;
+            pz = z;
+            pc = c;
+            kept++;
+        }
+        // duplicatePoints drops a lone point, so the last one is only written for two or more.
+        if (kept > 1) {
+            emit(emitted++, px, py, pz, pc, lastColor);
+        }
+        mPointCount = emitted;
+        return emitted;
+    }
+
+    /**
+     * Write one output point and its color. If the color differs from the previous point's, the
+     * previous point becomes a contour point, as createContourLine does in scan order.
+     *
+     * @return the elevation color of the written point.
+     */
+    private int emit(int index, float x, float y, float z, float c, int previousColor) {
+        int dst = index * FLOATS_PER_POINT;
+        mPoints[dst] = x;
+        mPoints[dst + 1] = y;
+        mPoints[dst + 2] = z;
+        mPoints[dst + 3] = c;
+
+        int slot = mColorLut.slotOf(z);
+        int color = mColorLut.colorOf(slot);
+        if (index > 0 && color != previousColor) {
+            ElevationPalette.writeColor(mColors, index - 1, ElevationPalette.WHITE);
+        }
+        mColorLut.writeColor(mColors, index, slot);
+        return color;
+    }
+
+    /**
+     * Color table used from the next frame on.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        mColorLut = colorLut;
+    }
+
+    /**
+     * Whether to add the interpolated points of duplicatePoints, on by default. Without them the
+     * output is just the cropped, colored points, about half as many.
+     */
+    public void setDensify(boolean densify) {
+        mDensify = densify;
+    }
+
+    /**
+     * Region of interest cropped to from the next frame on.
+     */
+    public void setRoiMask(RoiMask roiMask) {
+        mRoiMask = roiMask;
+    }
+
+    private void ensureCapacity(int pointCapacity) {
+        if (mPoints.length < pointCapacity * FLOATS_PER_POINT) {
+            mPoints = new float[pointCapacity * FLOATS_PER_POINT];
+            mColors = new float[pointCapacity * FLOATS_PER_COLOR];
+        }
+    }
+
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] getColors() {
+        return mColors;
+    }
+
+    /**
+     * Depth statistics of all points of the last frame, cropped or not.
+     */
+    public FrameStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+}
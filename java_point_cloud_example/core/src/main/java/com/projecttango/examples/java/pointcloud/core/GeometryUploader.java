@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The vertex buffer operations {@link StreamingGeometry} needs, so the upload schedule can run
+ * against OpenGL on the device and against {@link RecordingGeometryUploader} anywhere else.
+ * Buffers are identified by handles, as GL buffer names are. Offsets and sizes are in bytes.
+ */
+public interface GeometryUploader {
+    /**
+     * Called once at the start of every frame, before its uploads.
+     */
+    void beginFrame();
+
+    /**
+     * Create a buffer with storage for byteSize bytes.
+     *
+     * @return the buffer handle.
+     */
+    int createBuffer(int byteSize);
+
+    /**
+     * Give a buffer new storage of byteSize bytes, leaving the old storage to draws still in
+     * flight (glBufferData with no data). The contents are undefined afterwards.
+     */
+    void orphanBuffer(int buffer, int byteSize);
+
+    /**
+     * Copy floatCount floats from the start of data into a buffer at byteOffset.
+     */
+    void uploadBuffer(int buffer, int byteOffset, FloatBuffer data, int floatCount);
+
+    void deleteBuffer(int buffer);
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * The fixed part of a triangle mesh over a {@link HeightGrid}: the XY position of every vertex
+ * and triangle strip indices joining neighbouring cell centers, so the surface has no holes
+ * between samples. Vertices follow the tile layout of a {@link GridVertexWriter}, whose surface
+ * heights and colors are the only per-frame data.
+ * <p>
+ * Each pair of grid rows is one strip, zigzagging down the columns; consecutive pairs are joined
+ * by repeating the last vertex of one and the first of the next, which adds four degenerate
+ * triangles and keeps the winding. Indices are 16 bits, all OpenGL ES 2.0 guarantees, so the
+ * mesh is cut into bands of whole tile rows that reach at most {@link #MAX_BAND_VERTICES}
+ * vertices. Tile rows are contiguous in the layout, so a band's indices are relative to the
+ * first vertex of its first tile row, and drawing a band only offsets the vertex attributes.
+ */
+public class GridMesh {
+    public static final int FLOATS_PER_POSITION = 2;
+    // Vertices addressable by unsigned 16-bit indices.
+    public static final int MAX_BAND_VERTICES = 1 << 16;
+
+    private final float[] mPositions;
+    private final short[] mIndices;
+    // Per band, its first index and, after the last band, the index count.
+    private final int[] mBandFirstIndex;
+    private final int[] mBandFirstVertex;
+
+    public GridMesh(HeightGrid grid, GridVertexWriter layout) {
+        int columns = grid.getColumns();
+        int rows = grid.getRows();
+        int tileSize = layout.getTileSize();
+        int tileRowVertices = layout.getTileColumns() * layout.getVerticesPerTile();
+        // A band's last row pair reaches into the next tile row.
+        int tileRowsPerBand = MAX_BAND_VERTICES / tileRowVertices - 1;
+        if (tileRowsPerBand < 1) {
+            throw new IllegalArgumentException(
+                    "Grid rows of " + columns + " cells are too wide for 16-bit indices");
+        }
+        int rowsPerBand = tileRowsPerBand * tileSize;
+
+        mPositions = new float[layout.getVertexCount() * FLOATS_PER_POSITION];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int dst = layout.getVertex(column, row) * FLOATS_PER_POSITION;
+                mPositions[dst] = grid.getCellCenterX(column);
+                mPositions[dst + 1] = grid.getCellCenterY(row);
+            }
+        }
+
+        int bands = rows > 1 ? (rows - 2) / rowsPerBand + 1 : 0;
+        mBandFirstIndex = new int[bands + 1];
+        mBandFirstVertex = new int[bands];
+        int indexCount = 0;
+        for (int band = 0; band < bands; band++) {
+            int pairs = Math.min(rowsPerBand, rows - 1 - band * rowsPerBand);
+            mBandFirstIndex[band] = indexCount;
+            indexCount += pairs * 2 * columns + (pairs - 1) * 2;
+        }
+        mBandFirstIndex[bands] = indexCount;
+
+        mIndices = new short[indexCount];
+        int index = 0;
+        for (int band = 0; band < bands; band++) {
+            int firstRow = band * rowsPerBand;
+            int lastRow = Math.min(firstRow + rowsPerBand, rows - 1);
+            int base = layout.getVertex(0, firstRow);
+            mBandFirstVertex[band] = base;
+            for (int row = firstRow; row < lastRow; row++) {
+                if (row > firstRow) {
+                    mIndices[index] = mIndices[index - 1];
+                    mIndices[index + 1] = (short) (layout.getVertex(0, row) - base);
+                    index += 2;
+                }
+                for (int column = 0; column < columns; column++) {
+                    mIndices[index++] = (short) (layout.getVertex(column, row) - base);
+                    mIndices[index++] = (short) (layout.getVertex(column, row + 1) - base);
+                }
+            }
+        }
+    }
+
+    /**
+     * XY of every vertex, {@link #FLOATS_PER_POSITION} floats each. Padding vertices are at 0.
+     */
+    public float[] getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * Triangle strip indices of all bands, unsigned 16 bits, relative to each band's first
+     * vertex.
+     */
+    public short[] getIndices() {
+        return mIndices;
+    }
+
+    public int getVertexCount() {
+        return mPositions.length / FLOATS_PER_POSITION;
+    }
+
+    public int getBandCount() {
+        return mBandFirstVertex.length;
+    }
+
+    public int getBandFirstIndex(int band) {
+        return mBandFirstIndex[band];
+    }
+
+    public int getBandIndexCount(int band) {
+        return mBandFirstIndex[band + 1] - mBandFirstIndex[band];
+    }
+
+    /**
+     * Vertex the band's indices count from.
+     */
+    public int getBandFirstVertex(int band) {
+        return mBandFirstVertex[band];
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Turns a {@link HeightGrid} into XYZC vertices and RGBA colors for rendering.
+ * Coloring uses the same {@link ColorLut} banding as the point path. A cell becomes a contour cell when its
+ * band differs from the cell to its right or below it, the grid equivalent of the scan order test
+ * in {@link PointStages#createContourLine}; this can be turned off when real isolines are drawn
+ * from {@link IsolineExtractor}.
+ * <p>
+ * Vertices are laid out tile by tile, following the tiles of a {@link DirtyTileTracker}, so that
+ * each tile is one contiguous range and can be rewritten and uploaded on its own. Cells that
+ * have never been seen, and the padding of partial tiles at the grid edge, are black at depth
+ * zero, which puts them on the camera plane where the near plane clips them.
+ * <p>
+ * The same pass writes the surface form of each vertex for a {@link GridMesh}: just the height
+ * and an RGBA8 color, since the cell positions never change. Unseen cells and padding get
+ * {@link #NO_HEIGHT} and a transparent color there, which the mesh uses to leave them out.
+ * <p>
+ * An optional water layer, the depths of a {@link WaterSimulation}, is drawn over the sand:
+ * wet cells are lifted to the water surface and tinted blue, more the deeper the water.
+ */
+public class GridVertexWriter {
+    // Surface height of a vertex without data. Real heights are in front of the camera.
+    public static final float NO_HEIGHT = -1f;
+    private static final int WHITE_RGBA8 = ElevationPalette.toRgba8(ElevationPalette.WHITE);
+    public static final int WATER_COLOR = ElevationPalette.argb(0xFF, 0x10, 0x50, 0xFF);
+    // Shallower water is not drawn.
+    public static final float MIN_WATER_DEPTH = 0.0005f;
+    // Water this deep hides the sand color completely.
+    public static final float OPAQUE_WATER_DEPTH = 0.01f;
+
+    private ColorLut mColorLut;
+    private final int mTileSize;
+    private final int mTileColumns;
+    private final int mVerticesPerTile;
+    private final float[] mPoints;
+    private final float[] mColors;
+    private final float[] mSurfaceHeights;
+    private final int[] mSurfaceColors;
+    private boolean mMarkContours = true;
+    private float[] mWaterDepths;
+
+    // Arguments of the parallel writeTiles, for its tasks.
+    private HeightGrid mTaskGrid;
+    private int[] mTaskTiles;
+    private final WorkerPool.Task mTileTask = new WorkerPool.Task() {
+        @Override
+        public void run(int index) {
+            writeTile(mTaskGrid, mTaskTiles[index]);
+        }
+    };
+
+    public GridVertexWriter(ColorLut colorLut, DirtyTileTracker tiles) {
+        mColorLut = colorLut;
+        mTileSize = tiles.getTileSize();
+        mTileColumns = tiles.getTileColumns();
+        mVerticesPerTile = mTileSize * mTileSize;
+        int vertexCount = tiles.getTileCount() * mVerticesPerTile;
+        mPoints = new float[vertexCount * FrameBuffer.FLOATS_PER_POINT];
+        mColors = new float[vertexCount * 4];
+        mSurfaceHeights = new float[vertexCount];
+        mSurfaceColors = new int[vertexCount];
+    }
+
+    /**
+     * Rewrite the vertices of every tile.
+     *
+     * @return the number of vertices, always {@link #getVertexCount()}.
+     */
+    public int writeAll(HeightGrid grid) {
+        int tileCount = getVertexCount() / mVerticesPerTile;
+        for (int tile = 0; tile < tileCount; tile++) {
+            writeTile(grid, tile);
+        }
+        return getVertexCount();
+    }
+
+    /**
+     * Rewrite the vertices of the given tiles only.
+     */
+    public void writeTiles(HeightGrid grid, int[] tiles, int tileCount) {
+        for (int i = 0; i < tileCount; i++) {
+            writeTile(grid, tiles[i]);
+        }
+    }
+
+    /**
+     * Same as {@link #writeTiles(HeightGrid, int[], int)}, one tile per pool task. Tiles are
+     * written to separate vertex ranges, so the result is the same.
+     */
+    public void writeTiles(HeightGrid grid, int[] tiles, int tileCount, WorkerPool pool) {
+        mTaskGrid = grid;
+        mTaskTiles = tiles;
+        pool.run(tileCount, mTileTask);
+        mTaskGrid = null;
+        mTaskTiles = null;
+    }
+
+    private void writeTile(HeightGrid grid, int tile) {
+        float[] heights = grid.getHeights();
+        int columns = grid.getColumns();
+        int rows = grid.getRows();
+        int firstColumn = (tile % mTileColumns) * mTileSize;
+        int firstRow = (tile / mTileColumns) * mTileSize;
+        int vertex = tile * mVerticesPerTile;
+
+        for (int row = firstRow; row < firstRow + mTileSize; row++) {
+            for (int column = firstColumn; column < firstColumn + mTileSize; column++, vertex++) {
+                int dst = vertex * FrameBuffer.FLOATS_PER_POINT;
+                if (row >= rows || column >= columns) {
+                    // Padding of an edge tile.
+                    mPoints[dst + 2] = 0;
+                    ElevationPalette.writeColor(mColors, vertex, ElevationPalette.BLACK);
+                    mSurfaceHeights[vertex] = NO_HEIGHT;
+                    mSurfaceColors[vertex] = 0;
+                    continue;
+                }
+                int cell = row * columns + column;
+                float z = heights[cell];
+                int slot = mColorLut.slotOf(z);
+                int color = mColorLut.colorOf(slot);
+                boolean contour = mMarkContours
+                        && ((column + 1 < columns && bandOf(heights[cell + 1]) != color)
+                        || (row + 1 < rows && bandOf(heights[cell + columns]) != color));
+                float water = mWaterDepths != null && z == z ? mWaterDepths[cell] : 0f;
+                if (water > MIN_WATER_DEPTH) {
+                    // Depths grow away from the camera, so the water surface is nearer.
+                    z -= water;
+                }
+                mPoints[dst] = grid.getCellCenterX(column);
+                mPoints[dst + 1] = grid.getCellCenterY(row);
+                mPoints[dst + 2] = z == z ? z : 0;
+                mPoints[dst + 3] = 1f;
+                mSurfaceHeights[vertex] = z == z ? z : NO_HEIGHT;
+                if (water > MIN_WATER_DEPTH) {
+                    int wet = ElevationPalette.mix(contour ? ElevationPalette.WHITE : color,
+                            WATER_COLOR, Math.min(1f, water / OPAQUE_WATER_DEPTH));
+                    ElevationPalette.writeColor(mColors, vertex, wet);
+                    mSurfaceColors[vertex] = ElevationPalette.toRgba8(wet);
+                } else if (contour) {
+                    ElevationPalette.writeColor(mColors, vertex, ElevationPalette.WHITE);
+                    mSurfaceColors[vertex] = WHITE_RGBA8;
+                } else {
+                    mColorLut.writeColor(mColors, vertex, slot);
+                    mSurfaceColors[vertex] = mColorLut.rgba8Of(slot);
+                }
+                if (z != z) {
+                    mSurfaceColors[vertex] = 0;
+                }
+            }
+        }
+    }
+
+    private int bandOf(float z) {
+        return mColorLut.colorForDepth(z);
+    }
+
+    /**
+     * Color table used by the next write. Callers rewrite every tile after a change.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        mColorLut = colorLut;
+    }
+
+    /**
+     * Water depth of every grid cell to draw over the sand from the next write, or null for
+     * none. Callers rewrite the tiles whose water changed.
+     */
+    public void setWaterDepths(float[] waterDepths) {
+        mWaterDepths = waterDepths;
+    }
+
+    /**
+     * Whether to paint band boundary cells white. Turn off when isolines are drawn separately.
+     */
+    public void setMarkContours(boolean markContours) {
+        mMarkContours = markContours;
+    }
+
+    /**
+     * Vertex of the cell at (column, row).
+     */
+    public int getVertex(int column, int row) {
+        int tile = (row / mTileSize) * mTileColumns + column / mTileSize;
+        return tile * mVerticesPerTile + (row % mTileSize) * mTileSize + column % mTileSize;
+    }
+
+    /**
+     * First vertex of a tile.
+     */
+    public int getTileStart(int tile) {
+        return tile * mVerticesPerTile;
+    }
+
+    public int getVerticesPerTile() {
+        return mVerticesPerTile;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getTileColumns() {
+        return mTileColumns;
+    }
+
+    public int getVertexCount() {
+        return mPoints.length / FrameBuffer.FLOATS_PER_POINT;
+    }
+
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] getColors() {
+        return mColors;
+    }
+
+    /**
+     * Height of every vertex, {@link #NO_HEIGHT} where there is none.
+     */
+    public float[] getSurfaceHeights() {
+        return mSurfaceHeights;
+    }
+
+    /**
+     * RGBA8 color of every vertex, see {@link ElevationPalette#toRgba8(int)}. Fully transparent
+     * for cells without a height and for padding.
+     */
+    public int[] getSurfaceColors() {
+        return mSurfaceColors;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Fuses successive height grids into one height map, to fill in the cells a sparse single frame
+ * misses and to steady the ones it hits with few points.
+ * <p>
+ * Each cell keeps a weighted mean height and its weight. A frame adds its cell means, weighted
+ * by the number of points behind them, and every frame first decays all weights, so old frames
+ * fade out. A cell that is no longer seen is written back as {@link HeightGrid#NO_DATA} once its
+ * weight has decayed, and disappears from the map. A measurement that is far from the fused
+ * height restarts the cell, so moved sand shows at once.
+ * <p>
+ * The grids must be in a world-anchored frame, as those of a {@link FrameProcessor} are, so that
+ * a cell covers the same sand whatever the pose of the device. Fusing is one pass over the cells
+ * and allocates nothing.
+ */
+public class HeightFusion {
+    // A frame's weight halves in about four frames, just under a second at the depth rate.
+    public static final float DEFAULT_DECAY = 0.85f;
+    // Enough points that a new frame still moves the height by a few percent.
+    public static final float DEFAULT_MAX_WEIGHT = 64f;
+    // Below this the cell is no longer reported.
+    public static final float DEFAULT_MIN_WEIGHT = 0.5f;
+    public static final float DEFAULT_RESTART_THRESHOLD = 0.01f;
+
+    private final float mDecay;
+    private final float mMaxWeight;
+    private final float mMinWeight;
+    private final float mRestartThreshold;
+    private final float[] mHeights;
+    private final float[] mWeights;
+
+    public HeightFusion(int cellCount, float decay, float maxWeight, float minWeight,
+                        float restartThreshold) {
+        if (!(decay > 0 && decay <= 1) || !(minWeight > 0) || !(maxWeight >= minWeight)) {
+            throw new IllegalArgumentException("Decay must be in (0, 1], weights positive");
+        }
+        mDecay = decay;
+        mMaxWeight = maxWeight;
+        mMinWeight = minWeight;
+        mRestartThreshold = restartThreshold;
+        mHeights = new float[cellCount];
+        mWeights = new float[cellCount];
+        reset();
+    }
+
+    public static HeightFusion createDefault(int cellCount) {
+        return new HeightFusion(cellCount, DEFAULT_DECAY, DEFAULT_MAX_WEIGHT, DEFAULT_MIN_WEIGHT,
+                DEFAULT_RESTART_THRESHOLD);
+    }
+
+    /**
+     * Fuse the last bin of the grid, then write the fused heights back into it: every cell
+     * with enough weight gets its fused height and a count of one, the others
+     * {@link HeightGrid#NO_DATA} and a count of zero, so a {@link TemporalHeightFilter} after it
+     * sees the fused map as its measurements and forgets the faded cells.
+     */
+    public void update(HeightGrid grid) {
+        update(grid.getHeights(), grid.getCounts());
+    }
+
+    /**
+     * Fuse one frame of cell means, weighted by their point counts, and write the fused map
+     * back in their place.
+     */
+    public void update(float[] heights, int[] counts) {
+        float decay = mDecay;
+        float maxWeight = mMaxWeight;
+        float minWeight = mMinWeight;
+        float threshold = mRestartThreshold;
+        int cellCount = mHeights.length;
+        for (int cell = 0; cell < cellCount; cell++) {
+            float weight = mWeights[cell] * decay;
+            float height = mHeights[cell];
+            int count = counts[cell];
+            if (count > 0) {
+                float measurement = heights[cell];
+                float difference = measurement - height;
+                if (weight < minWeight || difference > threshold || difference < -threshold) {
+                    height = measurement;
+                    weight = count;
+                } else {
+                    height += difference * count / (weight + count);
+                    weight += count;
+                }
+                mHeights[cell] = height;
+            }
+            mWeights[cell] = Math.min(weight, maxWeight);
+            if (weight >= minWeight) {
+                heights[cell] = height;
+                counts[cell] = 1;
+            } else {
+                mHeights[cell] = HeightGrid.NO_DATA;
+                heights[cell] = HeightGrid.NO_DATA;
+                counts[cell] = 0;
+            }
+        }
+    }
+
+    /**
+     * Forget the fused map.
+     */
+    public void reset() {
+        Arrays.fill(mHeights, HeightGrid.NO_DATA);
+        Arrays.fill(mWeights, 0);
+    }
+
+    public float[] getHeights() {
+        return mHeights;
+    }
+
+    /**
+     * Decayed number of points behind each fused height.
+     */
+    public float[] getWeights() {
+        return mWeights;
+    }
+}
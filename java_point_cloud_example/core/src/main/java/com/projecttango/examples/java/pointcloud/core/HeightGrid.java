@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * A fixed resolution 2D grid of depth values over the sandbox area.
+ * Each frame's points are binned into cells and averaged, giving one primitive float per cell.
+ * Per-frame cost is one pass over the points plus one pass over the cells, and memory use is
+ * fixed by the resolution, however many points the sensor returns. Cells that receive no point
+ * in a frame keep their previous value, so the surface has no holes once it has been seen.
+ */
+public class HeightGrid {
+    // Value of a cell that has never received a point.
+    public static final float NO_DATA = Float.NaN;
+
+    private final int mColumns;
+    private final int mRows;
+    private final float mMinX;
+    private final float mMinY;
+    private final float mCellWidth;
+    private final float mCellHeight;
+    private final float mInvCellWidth;
+    private final float mInvCellHeight;
+
+    private final float[] mHeights;
+    private final float[] mSums;
+    private final int[] mCounts;
+
+    // Scratch space of the parallel bin, allocated on first use.
+    private static final int BIN_CHUNK_POINTS = 8192;
+    private ParallelBin mParallelBin;
+    private final FrameStatistics mStatistics = new FrameStatistics();
+    // Points outside it are not binned. Null bins everything inside the grid.
+    private RoiMask mRoiMask;
+
+    public HeightGrid(int columns, int rows, float minX, float maxX, float minY, float maxY) {
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Grid resolution must be positive");
+        }
+        mColumns = columns;
+        mRows = rows;
+        mMinX = minX;
+        mMinY = minY;
+        mCellWidth = (maxX - minX) / columns;
+        mCellHeight = (maxY - minY) / rows;
+        mInvCellWidth = 1 / mCellWidth;
+        mInvCellHeight = 1 / mCellHeight;
+        mHeights = new float[columns * rows];
+        mSums = new float[columns * rows];
+        mCounts = new int[columns * rows];
+        Arrays.fill(mHeights, NO_DATA);
+    }
+
+    /**
+     * A square grid covering the sandbox crop rectangle.
+     */
+    public static HeightGrid forSandbox(int resolution) {
+        return new HeightGrid(resolution, resolution,
+                (float) PointStages.CROP_MIN_X, (float) PointStages.CROP_MAX_X,
+                (float) PointStages.CROP_MIN_Y, (float) PointStages.CROP_MAX_Y);
+    }
+
+    /**
+     * Bin a raw frame into the grid. Points outside the grid area are ignored, so the frame does
+     * not need to be cropped first. The {@link #getStatistics()} of the frame are gathered in
+     * the same pass.
+     */
+    public void bin(FrameBuffer frame) {
+        float[] points = frame.getPoints();
+        int pointCount = frame.getPointCount();
+        Arrays.fill(mSums, 0);
+        Arrays.fill(mCounts, 0);
+        mStatistics.reset();
+
+        for (int i = 0; i < pointCount; i++) {
+            mStatistics.add(points[i * FrameBuffer.FLOATS_PER_POINT + 2]);
+            int cell = binCellOf(points[i * FrameBuffer.FLOATS_PER_POINT],
+                    points[i * FrameBuffer.FLOATS_PER_POINT + 1]);
+            if (cell >= 0) {
+                mSums[cell] += points[i * FrameBuffer.FLOATS_PER_POINT + 2];
+                mCounts[cell]++;
+            }
+        }
+
+        for (int cell = 0; cell < mHeights.length; cell++) {
+            if (mCounts[cell] > 0) {
+                mHeights[cell] = mSums[cell] / mCounts[cell];
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #bin(FrameBuffer)}, spread over the threads of a pool, with bit-identical
+     * heights.
+     * <p>
+     * The grid rows are split into one band per task. The points are first sorted by band with a
+     * stable counting sort, in parallel over chunks of points; then each task sums the points of
+     * its band. Every cell therefore adds up its points in frame order, as the serial bin does.
+     */
+    public void bin(FrameBuffer frame, WorkerPool pool) {
+        if (pool.getThreadCount() == 1) {
+            bin(frame);
+            return;
+        }
+        if (mParallelBin == null) {
+            mParallelBin = new ParallelBin(Math.min(mRows, pool.getThreadCount() * 2));
+        }
+        mParallelBin.bin(frame, pool);
+    }
+
+    /**
+     * Depth statistics of all points of the last binned frame, inside the grid or not.
+     */
+    public FrameStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Index of the cell containing (x, y), or -1 if the point is outside the grid.
+     */
+    public int cellOf(float x, float y) {
+        float u = (x - mMinX) * mInvCellWidth;
+        float v = (y - mMinY) * mInvCellHeight;
+        // Written so NaN coordinates fail the test as well.
+        if (!(u >= 0 && v >= 0 && u <= mColumns && v <= mRows)) {
+            return -1;
+        }
+        // The far edges belong to the last column and row.
+        int column = Math.min((int) u, mColumns - 1);
+        int row = Math.min((int) v, mRows - 1);
+        return row * mColumns + column;
+    }
+
+    private int binCellOf(float x, float y) {
+        if (mRoiMask != null && !mRoiMask.contains(x, y)) {
+            return -1;
+        }
+        return cellOf(x, y);
+    }
+
+    /**
+     * Only bin the points inside a region of interest from now on, or all points inside the
+     * grid for null. Cells outside the region keep their heights until {@link #reset()}.
+     */
+    public void setRoiMask(RoiMask roiMask) {
+        mRoiMask = roiMask;
+    }
+
+    /**
+     * Forget all heights, e.g. after the sandbox or the camera has been moved.
+     */
+    public void reset() {
+        Arrays.fill(mHeights, NO_DATA);
+    }
+
+    public float[] getHeights() {
+        return mHeights;
+    }
+
+    /**
+     * Number of points that fell into each cell during the last {@link #bin}.
+     */
+    public int[] getCounts() {
+        return mCounts;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getCellCount() {
+        return mHeights.length;
+    }
+
+    public float getCellCenterX(int column) {
+        return mMinX + (column + 0.5f) * mCellWidth;
+    }
+
+    public float getCellCenterY(int row) {
+        return mMinY + (row + 0.5f) * mCellHeight;
+    }
+
+    public float getCellWidth() {
+        return mCellWidth;
+    }
+
+    public float getCellHeight() {
+        return mCellHeight;
+    }
+
+    private class ParallelBin {
+        private final int mBands;
+        private final int mRowsPerBand;
+        private float[] mPoints;
+        private int mPointCount;
+        private int mChunks;
+        private int[] mPointCell = new int[0];
+        // Points sorted by band, each band in frame order.
+        private int[] mOrder = new int[0];
+        // Points per chunk and band, then the position of each chunk's first point of a band.
+        private int[] mChunkBandCounts = new int[0];
+        private final int[] mBandStart;
+        private FrameStatistics[] mChunkStatistics = new FrameStatistics[0];
+
+        private final WorkerPool.Task mClassifyTask = new WorkerPool.Task() {
+            @Override
+            public void run(int chunk) {
+                classify(chunk);
+            }
+        };
+        private final WorkerPool.Task mScatterTask = new WorkerPool.Task() {
+            @Override
+            public void run(int chunk) {
+                scatter(chunk);
+            }
+        };
+        private final WorkerPool.Task mSumTask = new WorkerPool.Task() {
+            @Override
+            public void run(int band) {
+                sum(band);
+            }
+        };
+
+        ParallelBin(int bands) {
+            mRowsPerBand = (mRows + bands - 1) / bands;
+            mBands = (mRows + mRowsPerBand - 1) / mRowsPerBand;
+            mBandStart = new int[mBands + 1];
+        }
+
+        void bin(FrameBuffer frame, WorkerPool pool) {
+            mPoints = frame.getPoints();
+            mPointCount = frame.getPointCount();
+            mChunks = (mPointCount + BIN_CHUNK_POINTS - 1) / BIN_CHUNK_POINTS;
+            if (mPointCell.length < mPointCount) {
+                mPointCell = new int[mPointCount];
+                mOrder = new int[mPointCount];
+            }
+            if (mChunkBandCounts.length < mChunks * mBands) {
+                mChunkBandCounts = new int[mChunks * mBands];
+            }
+            if (mChunkStatistics.length < mChunks) {
+                int oldLength = mChunkStatistics.length;
+                mChunkStatistics = Arrays.copyOf(mChunkStatistics, mChunks);
+                for (int chunk = oldLength; chunk < mChunks; chunk++) {
+                    mChunkStatistics[chunk] = new FrameStatistics();
+                }
+            }
+
+            pool.run(mChunks, mClassifyTask);
+            mStatistics.reset();
+            for (int chunk = 0; chunk < mChunks; chunk++) {
+                mStatistics.merge(mChunkStatistics[chunk]);
+            }
+            // Band by band, chunk by chunk: where each chunk's points of each band go.
+            int position = 0;
+            for (int band = 0; band < mBands; band++) {
+                mBandStart[band] = position;
+                for (int chunk = 0; chunk < mChunks; chunk++) {
+                    int count = mChunkBandCounts[chunk * mBands + band];
+                    mChunkBandCounts[chunk * mBands + band] = position;
+                    position += count;
+                }
+            }
+            mBandStart[mBands] = position;
+            pool.run(mChunks, mScatterTask);
+            pool.run(mBands, mSumTask);
+            mPoints = null;
+        }
+
+        private void classify(int chunk) {
+            int first = chunk * BIN_CHUNK_POINTS;
+            int end = Math.min(first + BIN_CHUNK_POINTS, mPointCount);
+            int counts = chunk * mBands;
+            for (int band = 0; band < mBands; band++) {
+                mChunkBandCounts[counts + band] = 0;
+            }
+            FrameStatistics statistics = mChunkStatistics[chunk];
+            statistics.reset();
+            for (int i = first; i < end; i++) {
+                statistics.add(mPoints[i * FrameBuffer.FLOATS_PER_POINT + 2]);
+                int cell = binCellOf(mPoints[i * FrameBuffer.FLOATS_PER_POINT],
+                        mPoints[i * FrameBuffer.FLOATS_PER_POINT + 1]);
+                mPointCell[i] = cell;
+                if (cell >= 0) {
+                    mChunkBandCounts[counts + cell / mColumns / mRowsPerBand]++;
+                }
+            }
+        }
+
+        private void scatter(int chunk) {
+            int first = chunk * BIN_CHUNK_POINTS;
+            int end = Math.min(first + BIN_CHUNK_POINTS, mPointCount);
+            int positions = chunk * mBands;
+            for (int i = first; i < end; i++) {
+                int cell = mPointCell[i];
+                if (cell >= 0) {
+                    mOrder[mChunkBandCounts[positions + cell / mColumns / mRowsPerBand]++] = i;
+                }
+            }
+        }
+
+        private void sum(int band) {
+            int firstCell = band * mRowsPerBand * mColumns;
+            int endCell = Math.min((band + 1) * mRowsPerBand, mRows) * mColumns;
+            Arrays.fill(mSums, firstCell, endCell, 0);
+            Arrays.fill(mCounts, firstCell, endCell, 0);
+            for (int k = mBandStart[band]; k < mBandStart[band + 1]; k++) {
+                int i = mOrder[k];
+                int cell = mPointCell[i];
+                mSums[cell] += mPoints[i * FrameBuffer.FLOATS_PER_POINT + 2];
+                mCounts[cell]++;
+            }
+            for (int cell = firstCell; cell < endCell; cell++) {
+                if (mCounts[cell] > 0) {
+                    mHeights[cell] = mSums[cell] / mCounts[cell];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * A projective transform between two planes, e.g. from projector pixels to the sandbox:
+ * x' = (h0 x + h1 y + h2) / (h6 x + h7 y + h8), y' = (h3 x + h4 y + h5) / (h6 x + h7 y + h8).
+ * Immutable.
+ */
+public final class Homography {
+    // Fewest point pairs that fix the eight degrees of freedom.
+    public static final int MIN_POINTS = 4;
+    private static final int UNKNOWNS = 8;
+    // Relative pivot below which the point pairs are taken to be degenerate, e.g. collinear.
+    private static final double SINGULAR_PIVOT = 1e-10;
+
+    // Row-major 3x3 matrix.
+    private final double[] mH;
+
+    private Homography(double[] h) {
+        mH = h;
+    }
+
+    /**
+     * The transform with the given row-major 3x3 matrix, up to scale.
+     */
+    public static Homography fromMatrix(double[] h) {
+        if (h.length != 9) {
+            throw new IllegalArgumentException("A homography is a 3x3 matrix");
+        }
+        return new Homography(h.clone());
+    }
+
+    /**
+     * Least squares fit of the transform taking each from point to its to point, by the direct
+     * linear transform on points normalized to their centroid and mean distance.
+     *
+     * @param from x, y pairs.
+     * @param to x, y pairs, as many as from.
+     * @return the transform, or null if the points are degenerate, e.g. three on a line.
+     */
+    public static Homography fit(double[] from, double[] to, int count) {
+        if (count < MIN_POINTS || from.length < count * 2 || to.length < count * 2) {
+            throw new IllegalArgumentException("A homography needs at least " + MIN_POINTS
+                    + " point pairs");
+        }
+        double[] fromNorm = normalization(from, count);
+        double[] toNorm = normalization(to, count);
+        // Normal equations of the 2 * count linear equations in h0..h7, with h8 fixed at 1:
+        // h0 x + h1 y + h2 - h6 x u - h7 y u = u, and likewise for v with h3..h5.
+        double[] normal = new double[UNKNOWNS * UNKNOWNS];
+        double[] rhs = new double[UNKNOWNS];
+        double[] row = new double[UNKNOWNS];
+        for (int i = 0; i < count; i++) {
+            double x = (from[i * 2] - fromNorm[0]) * fromNorm[2];
+            double y = (from[i * 2 + 1] - fromNorm[1]) * fromNorm[2];
+            double u = (to[i * 2] - toNorm[0]) * toNorm[2];
+            double v = (to[i * 2 + 1] - toNorm[1]) * toNorm[2];
+            setRow(row, x, y, 1, 0, 0, 0, -x * u, -y * u);
+            accumulate(normal, rhs, row, u);
+            setRow(row, 0, 0, 0, x, y, 1, -x * v, -y * v);
+            accumulate(normal, rhs, row, v);
+        }
+        if (!solve(normal, rhs)) {
+            return null;
+        }
+        double[] h = {
+                rhs[0], rhs[1], rhs[2],
+                rhs[3], rhs[4], rhs[5],
+                rhs[6], rhs[7], 1};
+        // Undo the normalizations: H = T_to^-1 * Hn * T_from.
+        double s = fromNorm[2];
+        double[] fromT = {s, 0, -s * fromNorm[0], 0, s, -s * fromNorm[1], 0, 0, 1};
+        double t = 1 / toNorm[2];
+        double[] toInverse = {t, 0, toNorm[0], 0, t, toNorm[1], 0, 0, 1};
+        return new Homography(multiply(toInverse, multiply(h, fromT)));
+    }
+
+    /**
+     * Centroid x, y and the scale that brings the mean distance to it to the square root of 2.
+     */
+    private static double[] normalization(double[] points, int count) {
+        double cx = 0;
+        double cy = 0;
+        for (int i = 0; i < count; i++) {
+            cx += points[i * 2];
+            cy += points[i * 2 + 1];
+        }
+        cx /= count;
+        cy /= count;
+        double distance = 0;
+        for (int i = 0; i < count; i++) {
+            distance += Math.hypot(points[i * 2] - cx, points[i * 2 + 1] - cy);
+        }
+        distance /= count;
+        return new double[] {cx, cy, distance > 0 ? Math.sqrt(2) / distance : 1};
+    }
+
+    private static void setRow(double[] row, double... values) {
+        System.arraycopy(values, 0, row, 0, UNKNOWNS);
+    }
+
+    private static void accumulate(double[] normal, double[] rhs, double[] row, double value) {
+        for (int i = 0; i < UNKNOWNS; i++) {
+            if (row[i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < UNKNOWNS; j++) {
+                normal[i * UNKNOWNS + j] += row[i] * row[j];
+            }
+            rhs[i] += row[i] * value;
+        }
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting; the solution replaces rhs.
+     *
+     * @return false if the system is singular.
+     */
+    private static boolean solve(double[] a, double[] rhs) {
+        int n = rhs.length;
+        double largest = 0;
+        for (double value : a) {
+            largest = Math.max(largest, Math.abs(value));
+        }
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            for (int r = column + 1; r < n; r++) {
+                if (Math.abs(a[r * n + column]) > Math.abs(a[pivot * n + column])) {
+                    pivot = r;
+                }
+            }
+            if (!(Math.abs(a[pivot * n + column]) > largest * SINGULAR_PIVOT)) {
+                return false;
+            }
+            if (pivot != column) {
+                for (int c = 0; c < n; c++) {
+                    double swap = a[column * n + c];
+                    a[column * n + c] = a[pivot * n + c];
+                    a[pivot * n + c] = swap;
+                }
+                double swap = rhs[column];
+                rhs[column] = rhs[pivot];
+                rhs[pivot] = swap;
+            }
+            for (int r = column + 1; r < n; r++) {
+                double factor = a[r * n + column] / a[column * n + column];
+                if (factor == 0) {
+                    continue;
+                }
+                for (int c = column; c < n; c++) {
+                    a[r * n + c] -= factor * a[column * n + c];
+                }
+                rhs[r] -= factor * rhs[column];
+            }
+        }
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = rhs[r];
+            for (int c = r + 1; c < n; c++) {
+                sum -= a[r * n + c] * rhs[c];
+            }
+            rhs[r] = sum / a[r * n + r];
+        }
+        return true;
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        double[] product = new double[9];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                product[r * 3 + c] = a[r * 3] * b[c] + a[r * 3 + 1] * b[3 + c]
+                        + a[r * 3 + 2] * b[6 + c];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Map (x, y) into out[0], out[1]. Points on the horizon line map to infinities or NaN.
+     */
+    public void map(double x, double y, double[] out) {
+        double w = mH[6] * x + mH[7] * y + mH[8];
+        out[0] = (mH[0] * x + mH[1] * y + mH[2]) / w;
+        out[1] = (mH[3] * x + mH[4] * y + mH[5]) / w;
+    }
+
+    /**
+     * This transform applied after scaling its input by (sx, sy), e.g. to keep a projector
+     * calibration when the image is drawn at another resolution.
+     */
+    public Homography scaleInput(double sx, double sy) {
+        double[] h = mH.clone();
+        for (int r = 0; r < 3; r++) {
+            h[r * 3] *= sx;
+            h[r * 3 + 1] *= sy;
+        }
+        return new Homography(h);
+    }
+
+    /**
+     * Root mean square distance between the mapped from points and the to points.
+     */
+    public double getRmsError(double[] from, double[] to, int count) {
+        double[] mapped = new double[2];
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            map(from[i * 2], from[i * 2 + 1], mapped);
+            double dx = mapped[0] - to[i * 2];
+            double dy = mapped[1] - to[i * 2 + 1];
+            sum += dx * dx + dy * dy;
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    /**
+     * A copy of the row-major 3x3 matrix.
+     */
+    public double[] getMatrix() {
+        return mH.clone();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Marching squares over a {@link HeightGrid}.
+ * Extracts isolines at every multiple of an interval inside a height range and writes them as
+ * GL_LINES segments, XYZ per vertex, into a reusable array. The samples are the cell centers.
+ * A square is only worked on for the levels between its lowest and highest corner, so the cost
+ * beyond one scan of the grid is proportional to the number of crossings.
+ * <p>
+ * With a {@link DirtyTileTracker}, segments are cached per tile and only the changed tiles are
+ * extracted again; the cached tiles are then concatenated into the output.
+ */
+public class IsolineExtractor {
+    public static final int FLOATS_PER_VERTEX = 3;
+
+    // Square edges: 0 top (corner 0 to 1), 1 right (1 to 2), 2 bottom (2 to 3), 3 left (3 to 0).
+    // Corners: 0 (column, row), 1 (column + 1, row), 2 (column + 1, row + 1), 3 (column, row + 1).
+    // Segments for each corner case, as pairs of edges. Cases 5 and 10 are saddles and are
+    // resolved with the center value in addSaddle.
+    private static final int[][] SEGMENTS = {
+            {},
+            {3, 0},
+            {0, 1},
+            {3, 1},
+            {1, 2},
+            {},
+            {0, 2},
+            {3, 2},
+            {2, 3},
+            {0, 2},
+            {},
+            {1, 2},
+            {1, 3},
+            {0, 1},
+            {3, 0},
+            {},
+    };
+
+    private float mMinLevel;
+    private float mMaxLevel;
+    private float mInterval;
+
+    private float[] mVertices;
+    private int mVertexCount;
+
+    // Where addSegment writes: the output array or a tile cache.
+    private float[] mTarget;
+    private int mTargetCount;
+
+    // Per tile segment caches, created on the first tiled extraction.
+    private float[][] mTileVertices;
+    private int[] mTileVertexCounts;
+    // Set when the levels change, so the next tiled extraction redoes every tile.
+    private boolean mTilesStale = true;
+
+    // Corner values and positions of the square being processed.
+    private final float[] mCornerValues = new float[4];
+    private final float[] mCornerX = new float[4];
+    private final float[] mCornerY = new float[4];
+
+    /**
+     * @param minLevel lowest isoline height.
+     * @param maxLevel highest isoline height.
+     * @param interval spacing between isolines.
+     */
+    public IsolineExtractor(float minLevel, float maxLevel, float interval, int initialVertices) {
+        setLevels(minLevel, maxLevel, interval);
+        mVertices = new float[initialVertices * FLOATS_PER_VERTEX];
+    }
+
+    /**
+     * Isolines on the boundaries of the elevation color bands.
+     */
+    public static IsolineExtractor forPalette(int initialVertices) {
+        return new IsolineExtractor((float) ElevationPalette.MIN_DEPTH,
+                (float) ElevationPalette.MAX_DEPTH, 1f / ElevationPalette.PRODUCT_RATIO,
+                initialVertices);
+    }
+
+    /**
+     * Isolines on the band boundaries of a color table.
+     */
+    public void setLevels(ColorLut colorLut) {
+        setLevels((float) colorLut.getMinDepth(), (float) colorLut.getMaxDepth(),
+                (float) colorLut.getBandHeight());
+    }
+
+    public void setLevels(float minLevel, float maxLevel, float interval) {
+        if (!(interval > 0)) {
+            throw new IllegalArgumentException("Isoline interval must be positive");
+        }
+        mMinLevel = minLevel;
+        mMaxLevel = maxLevel;
+        mInterval = interval;
+        mTilesStale = true;
+    }
+
+    /**
+     * Extract all isolines of the grid.
+     *
+     * @return the number of vertices written to {@link #getVertices()}, two per segment.
+     */
+    public int extract(HeightGrid grid) {
+        mTarget = mVertices;
+        mTargetCount = 0;
+        extractSquares(grid, 0, grid.getRows(), 0, grid.getColumns());
+        mVertices = mTarget;
+        mVertexCount = mTargetCount;
+        return mVertexCount;
+    }
+
+    /**
+     * Extract the isolines of the changed tiles only and rebuild the output from the per-tile
+     * caches. The square whose top-left sample is a cell belongs to that cell's tile, so the
+     * tiles must be polled from a consumer created with up-left neighbours.
+     *
+     * @return the number of vertices written to {@link #getVertices()}, two per segment.
+     */
+    public int extract(HeightGrid grid, DirtyTileTracker tracker, int[] tiles, int tileCount) {
+        int allTiles = tracker.getTileCount();
+        if (mTileVertices == null || mTileVertices.length != allTiles) {
+            mTileVertices = new float[allTiles][];
+            mTileVertexCounts = new int[allTiles];
+            for (int tile = 0; tile < allTiles; tile++) {
+                mTileVertices[tile] = new float[0];
+            }
+            mTilesStale = true;
+        }
+        boolean everyTile = mTilesStale;
+        mTilesStale = false;
+        int tileSize = tracker.getTileSize();
+        int tileColumns = tracker.getTileColumns();
+        int extractCount = everyTile ? allTiles : tileCount;
+        for (int i = 0; i < extractCount; i++) {
+            int tile = everyTile ? i : tiles[i];
+            int firstColumn = (tile % tileColumns) * tileSize;
+            int firstRow = (tile / tileColumns) * tileSize;
+            mTarget = mTileVertices[tile];
+            mTargetCount = 0;
+            extractSquares(grid, firstRow, Math.min(firstRow + tileSize, grid.getRows()),
+                    firstColumn, Math.min(firstColumn + tileSize, grid.getColumns()));
+            mTileVertices[tile] = mTarget;
+            mTileVertexCounts[tile] = mTargetCount;
+        }
+
+        mTarget = mVertices;
+        mTargetCount = 0;
+        for (int tile = 0; tile < allTiles; tile++) {
+            int count = mTileVertexCounts[tile];
+            ensureCapacity(mTargetCount + count);
+            System.arraycopy(mTileVertices[tile], 0, mTarget, mTargetCount * FLOATS_PER_VERTEX,
+                    count * FLOATS_PER_VERTEX);
+            mTargetCount += count;
+        }
+        mVertices = mTarget;
+        mVertexCount = mTargetCount;
+        return mVertexCount;
+    }
+
+    /**
+     * Marching squares over the squares whose top-left sample is in the given rows and columns.
+     */
+    private void extractSquares(HeightGrid grid, int rowStart, int rowEnd, int columnStart,
+                                int columnEnd) {
+        float[] heights = grid.getHeights();
+        int columns = grid.getColumns();
+        int rows = grid.getRows();
+        int lastRow = Math.min(rowEnd, rows - 1);
+        int lastColumn = Math.min(columnEnd, columns - 1);
+
+        for (int row = rowStart; row < lastRow; row++) {
+            float y0 = grid.getCellCenterY(row);
+            float y1 = grid.getCellCenterY(row + 1);
+            for (int column = columnStart; column < lastColumn; column++) {
+                int cell = row * columns + column;
+                float v0 = heights[cell];
+                float v1 = heights[cell + 1];
+                float v2 = heights[cell + columns + 1];
+                float v3 = heights[cell + columns];
+                float min = Math.min(Math.min(v0, v1), Math.min(v2, v3));
+                float max = Math.max(Math.max(v0, v1), Math.max(v2, v3));
+                // Also skips squares with an unseen (NaN) corner.
+                if (!(max > min) || max < mMinLevel || min > mMaxLevel) {
+                    continue;
+                }
+                int first = (int) Math.ceil((Math.max(min, mMinLevel) - mMinLevel) / mInterval);
+                int last = (int) Math.floor((Math.min(max, mMaxLevel) - mMinLevel) / mInterval);
+                if (first > last) {
+                    continue;
+                }
+
+                float x0 = grid.getCellCenterX(column);
+                float x1 = grid.getCellCenterX(column + 1);
+                mCornerValues[0] = v0;
+                mCornerValues[1] = v1;
+                mCornerValues[2] = v2;
+                mCornerValues[3] = v3;
+                mCornerX[0] = x0;
+                mCornerX[1] = x1;
+                mCornerX[2] = x1;
+                mCornerX[3] = x0;
+                mCornerY[0] = y0;
+                mCornerY[1] = y0;
+                mCornerY[2] = y1;
+                mCornerY[3] = y1;
+                for (int k = first; k <= last; k++) {
+                    addSquare(mMinLevel + k * mInterval);
+                }
+            }
+        }
+    }
+
+    private void addSquare(float level) {
+        float[] v = mCornerValues;
+        int index = (v[0] > level ? 1 : 0) | (v[1] > level ? 2 : 0)
+                | (v[2] > level ? 4 : 0) | (v[3] > level ? 8 : 0);
+        if (index == 5 || index == 10) {
+            addSaddle(index, level);
+            return;
+        }
+        int[] edges = SEGMENTS[index];
+        if (edges.length != 0) {
+            addSegment(edges[0], edges[1], level);
+        }
+    }
+
+    /**
+     * Two opposite corners above the level: the center value decides whether they are joined,
+     * and so which pair of corners the two segments cut off.
+     */
+    private void addSaddle(int index, float level) {
+        float[] v = mCornerValues;
+        boolean centerAbove = (v[0] + v[1] + v[2] + v[3]) * 0.25f > level;
+        // Case 5 has corners 0 and 2 above; case 10 has corners 1 and 3 above.
+        if ((index == 5) == centerAbove) {
+            // Cut off corners 1 and 3.
+            addSegment(0, 1, level);
+            addSegment(2, 3, level);
+        } else {
+            // Cut off corners 0 and 2.
+            addSegment(3, 0, level);
+            addSegment(1, 2, level);
+        }
+    }
+
+    private void addSegment(int edgeA, int edgeB, float level) {
+        ensureCapacity(mTargetCount + 2);
+        addEdgeVertex(edgeA, level);
+        addEdgeVertex(edgeB, level);
+    }
+
+    private void addEdgeVertex(int edge, float level) {
+        int a = edge;
+        int b = (edge + 1) & 3;
+        float va = mCornerValues[a];
+        float t = (level - va) / (mCornerValues[b] - va);
+        int dst = mTargetCount * FLOATS_PER_VERTEX;
+        mTarget[dst] = mCornerX[a] + t * (mCornerX[b] - mCornerX[a]);
+        mTarget[dst + 1] = mCornerY[a] + t * (mCornerY[b] - mCornerY[a]);
+        mTarget[dst + 2] = level;
+        mTargetCount++;
+    }
+
+    private void ensureCapacity(int vertexCount) {
+        if (mTarget.length < vertexCount * FLOATS_PER_VERTEX) {
+            mTarget = Arrays.copyOf(mTarget,
+                    Math.max(vertexCount, mTarget.length / FLOATS_PER_VERTEX * 2)
+                            * FLOATS_PER_VERTEX);
+        }
+    }
+
+    public float[] getVertices() {
+        return mVertices;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+}
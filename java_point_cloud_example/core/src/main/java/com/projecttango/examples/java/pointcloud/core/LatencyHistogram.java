@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Counts durations in fixed, logarithmically spaced buckets: 16 per power of two of
+ * microseconds, so percentiles are within about 6% of the true value from 1 us to a minute.
+ * Recording is a few shifts and an increment, and nothing is allocated after construction.
+ * <p>
+ * One thread may record while others read; all methods are synchronized on the histogram.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Longest duration told apart, about 67 s. Longer ones land in the last bucket.
+    private static final int MAX_EXPONENT = 26;
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mMaxNanos;
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts[bucketOf(nanos / 1000)]++;
+        mCount++;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * Copy another histogram, e.g. to read a consistent view while it keeps recording.
+     */
+    public void set(LatencyHistogram other) {
+        synchronized (other) {
+            synchronized (this) {
+                System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKETS);
+                mCount = other.mCount;
+                mMaxNanos = other.mMaxNanos;
+            }
+        }
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given fraction of the durations, at most the
+     * maximum, or 0 when nothing was recorded.
+     */
+    public synchronized long getPercentileNanos(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        double rank = Math.min(Math.max(fraction, 0), 1) * mCount;
+        long below = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            below += mCounts[bucket];
+            if (mCounts[bucket] > 0 && below >= rank) {
+                return Math.min(upperBoundOf(bucket) * 1000, mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    /**
+     * Durations counted in a bucket, for export.
+     */
+    public synchronized long getBucketCount(int bucket) {
+        return mCounts[bucket];
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest duration in microseconds that lands in a bucket.
+     */
+    public static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Latency histograms of a session: one per {@link FrameTimings.Stage}, and two end-to-end ones
+ * from the sensor timestamp of a depth frame to its publication and to the render pass that
+ * draws it.
+ * <p>
+ * Sensor timestamps are in seconds on the Tango clock. They are mapped to
+ * {@link System#nanoTime()} with the smallest observed difference between the arrival time of
+ * sensor data and its timestamp, so end-to-end latencies leave out the shortest delivery delay
+ * seen, and are a slight underestimate.
+ */
+public class LatencyTracer {
+    /**
+     * End-to-end latencies, from the sensor timestamp.
+     */
+    public enum Latency {
+        // The processed frame was handed to the render thread.
+        PUBLISHED,
+        // The render pass that draws the frame was issued.
+        DRAWN
+    }
+
+    private static final FrameTimings.Stage[] STAGES = FrameTimings.Stage.values();
+    private static final Latency[] LATENCIES = Latency.values();
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[LATENCIES.length];
+    // System.nanoTime() minus the sensor time in nanoseconds, or Long.MAX_VALUE until observed.
+    private volatile long mClockOffset = Long.MAX_VALUE;
+
+    public LatencyTracer() {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < mLatencies.length; i++) {
+            mLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Note that sensor data with the given timestamp arrived at nanoTime, a
+     * {@link System#nanoTime()} value. Call as soon as sensor data arrives, e.g. from the Tango
+     * callbacks.
+     */
+    public synchronized void observeSensorTime(double sensorSeconds, long nanoTime) {
+        long offset = nanoTime - (long) (sensorSeconds * 1e9);
+        if (offset < mClockOffset) {
+            mClockOffset = offset;
+        }
+    }
+
+    /**
+     * Record the stages a frame went through. Stages it skipped are not counted.
+     */
+    public void recordFrame(FrameTimings timings) {
+        for (FrameTimings.Stage stage : STAGES) {
+            long nanos = timings.get(stage);
+            if (nanos > 0) {
+                mStages[stage.ordinal()].record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Record the time from a frame's sensor timestamp to nanoTime, a {@link System#nanoTime()}
+     * value. Ignored until the sensor clock has been observed.
+     */
+    public void recordLatency(Latency latency, double sensorSeconds, long nanoTime) {
+        long offset = mClockOffset;
+        if (offset == Long.MAX_VALUE) {
+            return;
+        }
+        mLatencies[latency.ordinal()].record(nanoTime - offset - (long) (sensorSeconds * 1e9));
+    }
+
+    public LatencyHistogram getHistogram(FrameTimings.Stage stage) {
+        return mStages[stage.ordinal()];
+    }
+
+    public LatencyHistogram getHistogram(Latency latency) {
+        return mLatencies[latency.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mStages) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : mLatencies) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per recorded histogram: name, then p50, p99 and max in milliseconds, for an
+     * on-screen overlay.
+     */
+    public String formatSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "%-10s %7s %7s %7s", "ms", "p50", "p99", "max"));
+        for (Latency latency : LATENCIES) {
+            appendSummary(summary, latency.name(), mLatencies[latency.ordinal()]);
+        }
+        for (FrameTimings.Stage stage : STAGES) {
+            appendSummary(summary, stage.name(), mStages[stage.ordinal()]);
+        }
+        return summary.toString();
+    }
+
+    private static void appendSummary(StringBuilder summary, String name,
+                                      LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        summary.append(String.format(Locale.US, "\n%-10s %7.2f %7.2f %7.2f", name,
+                histogram.getPercentileNanos(0.5) / 1e6,
+                histogram.getPercentileNanos(0.99) / 1e6,
+                histogram.getMaxNanos() / 1e6));
+    }
+
+    /**
+     * Write every histogram as comma separated lines: a summary
+     * {@code summary,<name>,<count>,<p50 us>,<p90 us>,<p99 us>,<max us>}, then
+     * {@code bucket,<name>,<upper bound us>,<count>} for each non-empty bucket.
+     */
+    public void writeReport(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        for (Latency latency : LATENCIES) {
+            writeHistogram(out, latency.name(), mLatencies[latency.ordinal()]);
+        }
+        for (FrameTimings.Stage stage : STAGES) {
+            writeHistogram(out, stage.name(), mStages[stage.ordinal()]);
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Could not write the latency report");
+        }
+    }
+
+    private static void writeHistogram(PrintWriter out, String name, LatencyHistogram live) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.set(live);
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        out.println("summary," + name + "," + histogram.getCount()
+                + "," + histogram.getPercentileNanos(0.5) / 1000
+                + "," + histogram.getPercentileNanos(0.9) / 1000
+                + "," + histogram.getPercentileNanos(0.99) / 1000
+                + "," + histogram.getMaxNanos() / 1000);
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long count = histogram.getBucketCount(bucket);
+            if (count > 0) {
+                out.println("bucket," + name + "," + LatencyHistogram.upperBoundOf(bucket)
+                        + "," + count);
+            }
+        }
+    }
+}
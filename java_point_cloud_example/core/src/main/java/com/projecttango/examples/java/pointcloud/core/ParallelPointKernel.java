@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Multi-threaded version of {@link FusedPointKernel}, with identical output.
+ * <p>
+ * The frame is cut into fixed chunks of points and run in four {@link WorkerPool} jobs: each
+ * chunk crops its points; each chunk counts the points it emits, which needs the first kept
+ * point of the chunks after it; each chunk writes its points and colors at its offset in the
+ * output; and each slice of the output paints contour points white, comparing with the next
+ * output point. Between the jobs one thread links the chunks and adds up offsets. Every value
+ * is computed by the same expression as in the serial kernel, and no two tasks write the same
+ * element, so the result does not depend on the thread count or on scheduling.
+ * <p>
+ * The crop job also gathers {@link FrameStatistics} per chunk, merged in chunk order.
+ */
+public class ParallelPointKernel {
+    private static final int FLOATS_PER_POINT = FrameBuffer.FLOATS_PER_POINT;
+    private static final int FLOATS_PER_COLOR = 4;
+    // Points per crop task, and output points per contour task.
+    private static final int CHUNK_POINTS = 8192;
+
+    private final WorkerPool mPool;
+    private ColorLut mColorLut;
+    private RoiMask mRoiMask = RoiMask.createDefault();
+    private boolean mDensify = true;
+    private float[] mPoints;
+    private float[] mColors;
+    // Packed color of each output point before contour marking.
+    private int[] mColorOf;
+    private int mPointCount;
+    private final FrameStatistics mStatistics = new FrameStatistics();
+    private FrameStatistics[] mChunkStatistics = new FrameStatistics[0];
+
+    // Per frame state shared with the tasks.
+    private float[] mIn;
+    private int mInCount;
+    private int mTotalKept;
+    // Indices of the kept points, chunk c's at c * CHUNK_POINTS.
+    private int[] mKept = new int[0];
+    private int[] mKeptCount = new int[0];
+    // Input index of the first kept point after each chunk, or -1.
+    private int[] mNextKept = new int[0];
+    private int[] mEmitStart = new int[0];
+
+    private final WorkerPool.Task mCropTask = new WorkerPool.Task() {
+        @Override
+        public void run(int chunk) {
+            crop(chunk);
+        }
+    };
+    private final WorkerPool.Task mCountTask = new WorkerPool.Task() {
+        @Override
+        public void run(int chunk) {
+            mEmitStart[chunk + 1] = emit(chunk, false);
+        }
+    };
+    private final WorkerPool.Task mWriteTask = new WorkerPool.Task() {
+        @Override
+        public void run(int chunk) {
+            emit(chunk, true);
+        }
+    };
+    private final WorkerPool.Task mContourTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice) {
+            markContours(slice);
+        }
+    };
+
+    public ParallelPointKernel(ColorLut colorLut, int maxPoints, WorkerPool pool) {
+        mColorLut = colorLut;
+        mPool = pool;
+        mPoints = new float[maxPoints * FLOATS_PER_POINT];
+        mColors = new float[maxPoints * FLOATS_PER_COLOR];
+        mColorOf = new int[maxPoints];
+    }
+
+    /**
+     * Run the whole pipeline over a raw (uncropped) frame.
+     *
+     * @return the number of points written to {@link #getPoints()} and {@link #getColors()}.
+     */
+    public int process(FrameBuffer frame) {
+        mIn = frame.getPoints();
+        mInCount = frame.getPointCount();
+        int chunks = (mInCount + CHUNK_POINTS - 1) / CHUNK_POINTS;
+        if (mKept.length < mInCount) {
+            mKept = new int[mInCount];
+        }
+        if (mKeptCount.length < chunks) {
+            mKeptCount = new int[chunks];
+            mNextKept = new int[chunks];
+        }
+        // One more than the chunks, so it is needed even for an empty frame.
+        if (mEmitStart.length < chunks + 1) {
+            mEmitStart = new int[chunks + 1];
+        }
+        if (mChunkStatistics.length < chunks) {
+            int oldLength = mChunkStatistics.length;
+            mChunkStatistics = Arrays.copyOf(mChunkStatistics, chunks);
+            for (int chunk = oldLength; chunk < chunks; chunk++) {
+                mChunkStatistics[chunk] = new FrameStatistics();
+            }
+        }
+
+        mPool.run(chunks, mCropTask);
+        mStatistics.reset();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            mStatistics.merge(mChunkStatistics[chunk]);
+        }
+
+        // Link each chunk to the first kept point after it.
+        mTotalKept = 0;
+        int next = -1;
+        for (int chunk = chunks - 1; chunk >= 0; chunk--) {
+            mNextKept[chunk] = next;
+            if (mKeptCount[chunk] > 0) {
+                next = mKept[chunk * CHUNK_POINTS];
+                mTotalKept += mKeptCount[chunk];
+            }
+        }
+
+        mPool.run(chunks, mCountTask);
+        mEmitStart[0] = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            mEmitStart[chunk + 1] += mEmitStart[chunk];
+        }
+        int emitted = mEmitStart[chunks];
+        ensureCapacity(emitted);
+
+        mPool.run(chunks, mWriteTask);
+        mPointCount = emitted;
+        mPool.run((emitted + CHUNK_POINTS - 1) / CHUNK_POINTS, mContourTask);
+        mIn = null;
+        return emitted;
+    }
+
+    private void crop(int chunk) {
+        float[] in = mIn;
+        int first = chunk * CHUNK_POINTS;
+        int end = Math.min(first + CHUNK_POINTS, mInCount);
+        int kept = first;
+        FrameStatistics statistics = mChunkStatistics[chunk];
+        statistics.reset();
+        RoiMask roiMask = mRoiMask;
+        for (int i = first; i < end; i++) {
+            int src = i * FLOATS_PER_POINT;
+            float x = in[src];
+            float y = in[src + 1];
+            statistics.add(in[src + 2]);
+            if (roiMask.contains(x, y)) {
+                mKept[kept++] = i;
+            }
+        }
+        mKeptCount[chunk] = kept - first;
+    }
+
+    /**
+     * Walk the kept points of a chunk the way the serial kernel emits them: each point, then an
+     * interpolated point if the next kept point is further right. The very last point is only
+     * emitted when at least two points were kept.
+     *
+     * @param write false to only count.
+     * @return the number of points emitted.
+     */
+    private int emit(int chunk, boolean write) {
+        float[] in = mIn;
+        int first = chunk * CHUNK_POINTS;
+        int end = first + mKeptCount[chunk];
+        int index = write ? mEmitStart[chunk] : 0;
+        int start = index;
+        for (int k = first; k < end; k++) {
+            int src = mKept[k] * FLOATS_PER_POINT;
+            int next = k + 1 < end ? mKept[k + 1] : mNextKept[chunk];
+            if (next < 0) {
+                if (mTotalKept > 1) {
+                    if (write) {
+                        put(index, in[src], in[src + 1], in[src + 2], in[src + 3]);
+                    }
+                    index++;
+                }
+                break;
+            }
+            if (write) {
+                put(index, in[src], in[src + 1], in[src + 2], in[src + 3]);
+            }
+            index++;
+            int nextSrc = next * FLOATS_PER_POINT;
+            float px = in[src];
+            float x = in[nextSrc];
+            if (mDensify && px < x) {
+                if (write) {
+                    put(index, (px + x) / 2, (in[src + 1] + in[nextSrc + 1]) / 2,
+                            (in[src + 2] + in[nextSrc + 2]) / 2,
+                            (in[src + 3] + in[nextSrc + 3]) / 2);
+                }
+                index++;
+            }
+        }
+        return index - start;
+    }
+
+    private void put(int index, float x, float y, float z, float c) {
+        int dst = index * FLOATS_PER_POINT;
+        mPoints[dst] = x;
+        mPoints[dst + 1] = y;
+        mPoints[dst + 2] = z;
+        mPoints[dst + 3] = c;
+        int slot = mColorLut.slotOf(z);
+        mColorOf[index] = mColorLut.colorOf(slot);
+        mColorLut.writeColor(mColors, index, slot);
+    }
+
+    private void markContours(int slice) {
+        int first = slice * CHUNK_POINTS;
+        int end = Math.min(first + CHUNK_POINTS, mPointCount - 1);
+        for (int i = first; i < end; i++) {
+            if (mColorOf[i] != mColorOf[i + 1]) {
+                ElevationPalette.writeColor(mColors, i, ElevationPalette.WHITE);
+            }
+        }
+    }
+
+    private void ensureCapacity(int pointCapacity) {
+        if (mColorOf.length < pointCapacity) {
+            mPoints = new float[pointCapacity * FLOATS_PER_POINT];
+            mColors = new float[pointCapacity * FLOATS_PER_COLOR];
+            mColorOf = new int[pointCapacity];
+        }
+    }
+
+    /**
+     * Color table used from the next frame on.
+     */
+    public void setColorLut(ColorLut colorLut) {
+        mColorLut = colorLut;
+    }
+
+    /**
+     * Whether to add the interpolated points of duplicatePoints, on by default. Without them the
+     * output is just the cropped, colored points, about half as many.
+     */
+    public void setDensify(boolean densify) {
+        mDensify = densify;
+    }
+
+    /**
+     * Region of interest cropped to from the next frame on.
+     */
+    public void setRoiMask(RoiMask roiMask) {
+        mRoiMask = roiMask;
+    }
+
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] getColors() {
+        return mColors;
+    }
+
+    /**
+     * Depth statistics of all points of the last frame, cropped or not.
+     */
+    public FrameStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+}
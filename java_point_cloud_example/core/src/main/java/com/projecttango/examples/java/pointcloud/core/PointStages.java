@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * The point cloud pipeline as separate passes: crop, densify, color and contour.
+ * This is the reference {@link FusedPointKernel} has to match, and what the benchmarks use to
+ * measure each stage on its own.
+ */
+public class PointStages {
+    private static final float APPROX_ERROR = 0.05f; // Approximation error of any data, i.e. error = (+/-) 5%
+    private static final float MAX_APPROX = 1 + APPROX_ERROR;
+
+    // Hand measured bounds of the sandbox rectangle in depth camera coordinates, the default
+    // region of interest until a RoiDetector has found the box.
+    public static final double CROP_MAX_X = (0.1665 - 0.04) * MAX_APPROX;
+    public static final double CROP_MIN_X = (-0.1665 - 0.03) * MAX_APPROX;
+    public static final double CROP_MAX_Y = (0.1125 - 0.008) * MAX_APPROX;
+    public static final double CROP_MIN_Y = (-0.1125 + 0.008) * MAX_APPROX;
+
+    private static final int FLOATS_PER_POINT = FrameBuffer.FLOATS_PER_POINT;
+
+    private ColorLut mColorLut;
+    private RoiMask mRoiMask = RoiMask.createDefault();
+    private float[] mColorArray;
+    private int arraySize = 0;
+
+    public PointStages(ColorLut colorLut, int maxPoints) {
+        mColorLut = colorLut;
+        mColorArray = new float[maxPoints * 4]; // set array size to maxPoints
+    }
+
+    /**
+     * Run all four passes over a raw frame.
+     *
+     * @return the densified points; their colors are in {@link #getColors()}.
+     */
+    public float[] process(FrameBuffer frame) {
+        cropPointsIntoRectangle(frame);
+        float[] points = duplicatePoints(frame.getPoints());
+        calculateColors(arraySize, points);
+        createContourLine(arraySize);
+        return points;
+    }
+
+    /**
+     * Same as {@link #process(FrameBuffer)}, adding the time of each pass to timings.
+     */
+    public float[] process(FrameBuffer frame, FrameTimings timings) {
+        long start = System.nanoTime();
+        cropPointsIntoRectangle(frame);
+        long end = System.nanoTime();
+        timings.add(FrameTimings.Stage.CROP, end - start);
+        start = end;
+        float[] points = duplicatePoints(frame.getPoints());
+        end = System.nanoTime();
+        timings.add(FrameTimings.Stage.DENSIFY, end - start);
+        start = end;
+        calculateColors(arraySize, points);
+        end = System.nanoTime();
+        timings.add(FrameTimings.Stage.COLOR, end - start);
+        start = end;
+        createContourLine(arraySize);
+        timings.add(FrameTimings.Stage.CONTOUR, System.nanoTime() - start);
+        return points;
+    }
+
+    /**
+     * Drop every point outside the region of interest, by default the sandbox rectangle. The frame is compacted in place, so the
+     * surviving points keep their scan order at the front of its array and nothing is allocated.
+     *
+     * @return the number of points left in the frame.
+     */
+    public int cropPointsIntoRectangle(FrameBuffer frame) {
+        float[] points = frame.getPoints();
+        int pointCount = frame.getPointCount();
+        float x, y;
+        int kept = 0;
+
+        for (int i = 0; i < pointCount; i++) {
+            int src = i * FLOATS_PER_POINT;
+            x = points[src];
+            y = points[src + 1];
+
+            if (mRoiMask.contains(x, y)) {
+                int dst = kept * FLOATS_PER_POINT;
+                if (dst != src) {
+                    points[dst] = x;
+                    points[dst + 1] = y;
+                    points[dst + 2] = points[src + 2]; // axis-z is at every 3rd place
+                    points[dst + 3] = points[src + 3];
+                }
+                kept++;
+            }
+        }
+        frame.setPointCount(kept);
+        arraySize = kept;
+
+        return kept;
+    }
+
+    // Linear interpolation for x-axis, constant interpolation for y-axis.
+    public float[] duplicatePoints(float[] pointBuffer){
+        ArrayList<Float> dupPoints = new ArrayList<Float>();
+        float x1, x2, y1, y2, z1, z2, c1, c2;
+        int point_num = arraySize - 1;
+        for (int i = 0; i < point_num; i++) {
+            // comparing every 2-tuple dots per "row"
+            x1 = pointBuffer[i * FLOATS_PER_POINT]; // rightmost x (smaller value)
+            y1 = pointBuffer[i * FLOATS_PER_POINT + 1]; // y of rightmost x (smaller value)
+            z1 = pointBuffer[i * FLOATS_PER_POINT + 2]; // y of rightmost x (smaller value)
+            c1 = pointBuffer[i * FLOATS_PER_POINT + 3]; // y of rightmost x (smaller value)
+
+            x2 = pointBuffer[(i+1) * FLOATS_PER_POINT]; // leftmost x (larger value)
+            y2 = pointBuffer[(i+1) * FLOATS_PER_POINT + 1]; // y of leftmost x (larger value)
+            z2 = pointBuffer[(i+1) * FLOATS_PER_POINT + 2]; // y of leftmost x (larger value)
+            c2 = pointBuffer[(i+1) * FLOATS_PER_POINT + 3]; // y of leftmost x (larger value)
+
+            dupPoints.add(x1);
+            dupPoints.add(y1);
+            dupPoints.add(z1);
+            dupPoints.add(c1);
+
+            if (x1 < x2){ // if x1 is on the right side of x2
+                dupPoints.add((x1 + x2)/2); // linear interpolation
+                dupPoints.add((y1 + y2)/2);
+                dupPoints.add((z1 + z2)/2);
+                dupPoints.add((c1 + c2)/2);
+            }
+
+            if(i == point_num - 1){
+                dupPoints.add(x2);
+                dupPoints.add(y2);
+                dupPoints.add(z2);
+                dupPoints.add(c2);
+            }
+        }
+
+        // convert arraylist to float array
+        float[] output = new float[dupPoints.size()];
+        int i = 0;
+        for (Float f : dupPoints) {
+            output[i++] = (f != null ? f : Float.NaN);
+        }
+        arraySize = dupPoints.size()/4;
+
+        return output;
+    }
+
+    public void setColorLut(ColorLut colorLut) {
+        mColorLut = colorLut;
+    }
+
+    public void setRoiMask(RoiMask roiMask) {
+        mRoiMask = roiMask;
+    }
+
+    /**
+     * Calculate the right color for each point in the point cloud.
+     */
+    public void calculateColors(int pointCount, float[] pointCloudBuffer) {
+        if (mColorArray.length < pointCount * 4) {
+            mColorArray = new float[pointCount * 4];
+        }
+        for (int i = 0; i < pointCount; i++) {
+            float z = pointCloudBuffer[i * FLOATS_PER_POINT + 2]; // axis-z is at every 3rd place
+            mColorLut.writeColor(mColorArray, i, mColorLut.slotOf(z));
+        }
+    }
+
+    /**
+     * Paint white every point whose color differs from the next point in scan order.
+     */
+    public void createContourLine(int pointCount){
+        for(int i = 0;i < pointCount-1; i++){
+            float red1 = mColorArray[i * 4];
+            float green1 = mColorArray[i * 4 + 1];
+            float blue1 = mColorArray[i * 4 + 2];
+            float alpha1 = mColorArray[i * 4 + 3];
+            float red2 = mColorArray[(i+1) * 4];
+            float green2 = mColorArray[(i+1) * 4 + 1];
+            float blue2 = mColorArray[(i+1) * 4 + 2];
+            float alpha2 = mColorArray[(i+1) * 4 + 3];
+            if(red1 != red2 || green1 != green2 || blue1 != blue2 || alpha1 != alpha2){
+                ElevationPalette.writeColor(mColorArray, i, ElevationPalette.WHITE);
+            }
+        }
+    }
+
+    /**
+     * Calculates the average depth from a point cloud buffer.
+     *
+     * @param pointCloudBuffer
+     * @param numPoints
+     * @return Average depth.
+     * @deprecated Kept as a benchmark baseline. The processing passes gather
+     * {@link FrameStatistics} instead.
+     */
+    @Deprecated
+    public static float getAveragedDepth(FloatBuffer pointCloudBuffer, int numPoints) {
+        float totalZ = 0;
+        float averageZ = 0;
+
+        float totalsqZ = 0;
+        float varience = 0;
+
+        if (numPoints != 0) {
+            int numFloats = 4 * numPoints;
+            for (int i = 2; i < numFloats; i = i + 4) {
+                totalZ = totalZ + pointCloudBuffer.get(i);
+                totalsqZ = totalsqZ + pointCloudBuffer.get(i) * pointCloudBuffer.get(i);
+            }
+            averageZ = totalZ / numPoints;
+            varience = totalsqZ / numPoints;
+        }
+        return averageZ;
+    }
+
+    public float[] getColors() {
+        return mColorArray;
+    }
+
+    public int getPointCount() {
+        return arraySize;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Rigid 4x4 transforms of whole frames of XYZC points, and the few column-major matrix
+ * operations needed to build them.
+ */
+public final class PointTransform {
+    public static final int MATRIX_FLOATS = 16;
+
+    private PointTransform() {
+    }
+
+    /**
+     * Apply an affine column-major matrix to the positions of count XYZC points. The confidence
+     * is copied as is. in and out may be the same array.
+     * <p>
+     * One straight pass with the matrix in locals and no branches, so it runs at memory speed.
+     */
+    public static void transform(float[] matrix, float[] in, float[] out, int count) {
+        float m0 = matrix[0];
+        float m1 = matrix[1];
+        float m2 = matrix[2];
+        float m4 = matrix[4];
+        float m5 = matrix[5];
+        float m6 = matrix[6];
+        float m8 = matrix[8];
+        float m9 = matrix[9];
+        float m10 = matrix[10];
+        float m12 = matrix[12];
+        float m13 = matrix[13];
+        float m14 = matrix[14];
+        int end = count * FrameBuffer.FLOATS_PER_POINT;
+        for (int i = 0; i < end; i += FrameBuffer.FLOATS_PER_POINT) {
+            float x = in[i];
+            float y = in[i + 1];
+            float z = in[i + 2];
+            out[i] = m0 * x + m4 * y + m8 * z + m12;
+            out[i + 1] = m1 * x + m5 * y + m9 * z + m13;
+            out[i + 2] = m2 * x + m6 * y + m10 * z + m14;
+            out[i + 3] = in[i + 3];
+        }
+    }
+
+    /**
+     * result = lhs * rhs. result must not be either operand.
+     */
+    public static void multiply(float[] result, float[] lhs, float[] rhs) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                result[column * 4 + row] = lhs[row] * rhs[column * 4]
+                        + lhs[4 + row] * rhs[column * 4 + 1]
+                        + lhs[8 + row] * rhs[column * 4 + 2]
+                        + lhs[12 + row] * rhs[column * 4 + 3];
+            }
+        }
+    }
+
+    /**
+     * Inverse of a rotation and translation: the transposed rotation, and the translation
+     * rotated back and negated. result must not be matrix.
+     */
+    public static void invertRigid(float[] matrix, float[] result) {
+        for (int column = 0; column < 3; column++) {
+            for (int row = 0; row < 3; row++) {
+                result[column * 4 + row] = matrix[row * 4 + column];
+            }
+            result[column * 4 + 3] = 0;
+        }
+        for (int row = 0; row < 3; row++) {
+            result[12 + row] = -(result[row] * matrix[12] + result[4 + row] * matrix[13]
+                    + result[8 + row] * matrix[14]);
+        }
+        result[15] = 1;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * Ring buffer of the latest timestamped poses, filled from the pose stream of the device, from
+ * which the pose at any timestamp in between is interpolated: linearly for the translation,
+ * spherically for the rotation.
+ * <p>
+ * One thread adds poses while any number of threads look them up, without locks or
+ * allocations. A lookup that overlapped with the writer wrapping around onto the poses it read
+ * is simply retried.
+ * <p>
+ * Poses are {@link #POSE_FLOATS} floats: translation x, y, z and rotation quaternion x, y, z, w,
+ * in the order of TangoPoseData.
+ */
+public class PoseBuffer {
+    public static final int POSE_FLOATS = 7;
+    // About three seconds of poses at the 100 Hz of the Tango pose stream.
+    public static final int DEFAULT_CAPACITY = 256;
+    // Below this angle between two rotations, a normalized lerp is as good as a slerp.
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final double[] mTimestamps;
+    private final float[] mPoses;
+    // Index of the oldest and one past the newest pose. Indices only grow; slots are index & mask.
+    private volatile long mStart;
+    private volatile long mEnd;
+
+    public PoseBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity poses kept, rounded up to a power of two.
+     */
+    public PoseBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("A pose buffer needs room for two poses");
+        }
+        mCapacity = Integer.highestOneBit(capacity - 1) << 1;
+        mMask = mCapacity - 1;
+        mTimestamps = new double[mCapacity];
+        mPoses = new float[mCapacity * POSE_FLOATS];
+    }
+
+    /**
+     * Add the pose at a timestamp later than all poses added so far; others are ignored.
+     * NOTE: Only call from one thread.
+     */
+    public void add(double timestamp, double[] translation, double[] rotation) {
+        long end = mEnd;
+        if (end > mStart && !(timestamp > mTimestamps[(int) ((end - 1) & mMask)])) {
+            return;
+        }
+        int slot = (int) (end & mMask);
+        mTimestamps[slot] = timestamp;
+        int pose = slot * POSE_FLOATS;
+        mPoses[pose] = (float) translation[0];
+        mPoses[pose + 1] = (float) translation[1];
+        mPoses[pose + 2] = (float) translation[2];
+        mPoses[pose + 3] = (float) rotation[0];
+        mPoses[pose + 4] = (float) rotation[1];
+        mPoses[pose + 5] = (float) rotation[2];
+        mPoses[pose + 6] = (float) rotation[3];
+        mEnd = end + 1;
+    }
+
+    /**
+     * Forget all poses, e.g. when the service is reconnected and the world frame starts over.
+     * NOTE: Only call from the thread adding poses.
+     */
+    public void clear() {
+        mStart = mEnd;
+    }
+
+    /**
+     * The pose at a timestamp between the oldest and the newest pose in the buffer.
+     *
+     * @param pose receives {@link #POSE_FLOATS} floats.
+     * @return false, leaving pose unspecified, if the timestamp is outside the buffered poses.
+     */
+    public boolean getPose(double timestamp, float[] pose) {
+        while (true) {
+            long start = mStart;
+            long end = mEnd;
+            // The slot of index end - capacity may be overwritten by the next add already.
+            long first = Math.max(start, end - mCapacity + 1);
+            if (end <= first) {
+                return false;
+            }
+            boolean found = interpolate(timestamp, first, end, pose);
+            // The poses read are intact if the writer has not come round to them since.
+            if (start == mStart && first > mEnd - mCapacity) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * The pose at a timestamp as a column-major OpenGL matrix.
+     *
+     * @param pose scratch space for {@link #POSE_FLOATS} floats.
+     * @return false, leaving the arrays unspecified, if the timestamp is outside the buffer.
+     */
+    public boolean getMatrix(double timestamp, float[] pose, float[] matrix) {
+        if (!getPose(timestamp, pose)) {
+            return false;
+        }
+        toMatrix(pose, matrix);
+        return true;
+    }
+
+    /**
+     * Timestamp of the newest pose, or NaN if there is none.
+     */
+    public double getLatestTimestamp() {
+        while (true) {
+            long start = mStart;
+            long end = mEnd;
+            if (end <= start) {
+                return Double.NaN;
+            }
+            double timestamp = mTimestamps[(int) ((end - 1) & mMask)];
+            if (end - 1 > mEnd - mCapacity) {
+                return timestamp;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    private boolean interpolate(double timestamp, long first, long end, float[] pose) {
+        if (!(timestamp >= mTimestamps[(int) (first & mMask)]
+                && timestamp <= mTimestamps[(int) ((end - 1) & mMask)])) {
+            return false;
+        }
+        // Last pose at or before the timestamp.
+        long low = first;
+        long high = end - 1;
+        while (low < high) {
+            long middle = (low + high + 1) >>> 1;
+            if (mTimestamps[(int) (middle & mMask)] <= timestamp) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int before = (int) (low & mMask);
+        if (low == end - 1 || mTimestamps[before] == timestamp) {
+            System.arraycopy(mPoses, before * POSE_FLOATS, pose, 0, POSE_FLOATS);
+            return true;
+        }
+        int after = (int) ((low + 1) & mMask);
+        double t = (timestamp - mTimestamps[before])
+                / (mTimestamps[after] - mTimestamps[before]);
+        interpolate(mPoses, before * POSE_FLOATS, after * POSE_FLOATS, t, pose);
+        return true;
+    }
+
+    /**
+     * Lerp the translations and slerp the rotations of two poses in poses.
+     */
+    static void interpolate(float[] poses, int a, int b, double t, float[] pose) {
+        for (int i = 0; i < 3; i++) {
+            pose[i] = (float) (poses[a + i] + (poses[b + i] - poses[a + i]) * t);
+        }
+        double ax = poses[a + 3];
+        double ay = poses[a + 4];
+        double az = poses[a + 5];
+        double aw = poses[a + 6];
+        double bx = poses[b + 3];
+        double by = poses[b + 4];
+        double bz = poses[b + 5];
+        double bw = poses[b + 6];
+        double cos = ax * bx + ay * by + az * bz + aw * bw;
+        // q and -q are the same rotation; take the short way round.
+        if (cos < 0) {
+            cos = -cos;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+        double wa;
+        double wb;
+        if (cos > SLERP_THRESHOLD) {
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double angle = Math.acos(cos);
+            double sin = Math.sin(angle);
+            wa = Math.sin((1 - t) * angle) / sin;
+            wb = Math.sin(t * angle) / sin;
+        }
+        double x = wa * ax + wb * bx;
+        double y = wa * ay + wb * by;
+        double z = wa * az + wb * bz;
+        double w = wa * aw + wb * bw;
+        double norm = 1 / Math.sqrt(x * x + y * y + z * z + w * w);
+        pose[3] = (float) (x * norm);
+        pose[4] = (float) (y * norm);
+        pose[5] = (float) (z * norm);
+        pose[6] = (float) (w * norm);
+    }
+
+    /**
+     * Column-major OpenGL matrix of a pose: the rotation, then the translation.
+     */
+    public static void toMatrix(float[] pose, float[] matrix) {
+        float x = pose[3];
+        float y = pose[4];
+        float z = pose[5];
+        float w = pose[6];
+        matrix[0] = 1 - 2 * (y * y + z * z);
+        matrix[1] = 2 * (x * y + z * w);
+        matrix[2] = 2 * (x * z - y * w);
+        matrix[3] = 0;
+        matrix[4] = 2 * (x * y - z * w);
+        matrix[5] = 1 - 2 * (x * x + z * z);
+        matrix[6] = 2 * (y * z + x * w);
+        matrix[7] = 0;
+        matrix[8] = 2 * (x * z + y * w);
+        matrix[9] = 2 * (y * z - x * w);
+        matrix[10] = 1 - 2 * (x * x + y * y);
+        matrix[11] = 0;
+        matrix[12] = pose[0];
+        matrix[13] = pose[1];
+        matrix[14] = pose[2];
+        matrix[15] = 1;
+    }
+}
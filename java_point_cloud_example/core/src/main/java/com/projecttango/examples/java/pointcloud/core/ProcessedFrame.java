@@ -0,0 +1,302 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Everything the render thread needs to draw one depth frame, produced by
+ * {@link FrameProcessor}. A frame is only read by the render thread once published, and only
+ * written again after the render thread moved on to a later one.
+ */
+public class ProcessedFrame {
+    private final FusedPointKernel mKernel;
+    // Only set when the processor has more than one thread.
+    private final ParallelPointKernel mParallelKernel;
+    private final PointStages mStages;
+    private final int mMaxPoints;
+    // Created for the first frame over the point budget.
+    private VoxelDecimator mDecimator;
+    // Only set in height grid mode.
+    private final GridVertexWriter mGridWriter;
+    private final DirtyTileTracker.Consumer mGridTiles;
+    private DirtyTileTracker.Snapshot mTileSnapshot;
+
+    private float[] mPoints;
+    private float[] mColors;
+    private int mVertexCount;
+    // Only drawn while the processor has a projector calibration or is calibrating.
+    private int[] mProjectorPixels = new int[0];
+    private int mProjectorWidth;
+    private int mProjectorHeight;
+    private float[] mContourVertices = new float[0];
+    private int mContourVertexCount;
+    private double mTimestamp;
+    private final float[] mTransform = new float[16];
+    private long mSequence;
+    private final FrameStatistics mStatistics = new FrameStatistics();
+    private final FrameTimings mTimings = new FrameTimings();
+
+    ProcessedFrame(ColorLut colorLut, int maxPoints, DirtyTileTracker tracker, WorkerPool pool) {
+        mKernel = new FusedPointKernel(colorLut, maxPoints);
+        if (pool.getThreadCount() > 1) {
+            mParallelKernel = new ParallelPointKernel(colorLut, maxPoints, pool);
+        } else {
+            mParallelKernel = null;
+        }
+        mStages = new PointStages(colorLut, maxPoints);
+        mMaxPoints = maxPoints;
+        if (tracker != null) {
+            mGridWriter = new GridVertexWriter(colorLut, tracker);
+            mGridWriter.setMarkContours(false);
+            // Writing a cell reads the cells to its right and below.
+            mGridTiles = tracker.newConsumer(true);
+        } else {
+            mGridWriter = null;
+            mGridTiles = null;
+        }
+    }
+
+    void setColorLut(ColorLut colorLut) {
+        mKernel.setColorLut(colorLut);
+        if (mParallelKernel != null) {
+            mParallelKernel.setColorLut(colorLut);
+        }
+        mStages.setColorLut(colorLut);
+        if (mGridWriter != null) {
+            mGridWriter.setColorLut(colorLut);
+        }
+    }
+
+    void setRoiMask(RoiMask roiMask) {
+        mKernel.setRoiMask(roiMask);
+        if (mParallelKernel != null) {
+            mParallelKernel.setRoiMask(roiMask);
+        }
+        mStages.setRoiMask(roiMask);
+    }
+
+    void setPoints(float[] points, float[] colors, int vertexCount) {
+        mPoints = points;
+        mColors = colors;
+        mVertexCount = vertexCount;
+    }
+
+    void setContours(float[] vertices, int vertexCount) {
+        int floats = vertexCount * IsolineExtractor.FLOATS_PER_VERTEX;
+        if (mContourVertices.length < floats) {
+            mContourVertices = Arrays.copyOf(vertices, floats + floats / 2);
+        } else {
+            System.arraycopy(vertices, 0, mContourVertices, 0, floats);
+        }
+        mContourVertexCount = vertexCount;
+    }
+
+    /**
+     * Pixels of a projector image of the given resolution, to be drawn by the caller.
+     */
+    int[] setProjectorImage(int width, int height) {
+        if (mProjectorPixels.length < width * height) {
+            mProjectorPixels = new int[width * height];
+        }
+        mProjectorWidth = width;
+        mProjectorHeight = height;
+        return mProjectorPixels;
+    }
+
+    void clearProjectorImage() {
+        mProjectorWidth = 0;
+        mProjectorHeight = 0;
+    }
+
+    void setDensify(boolean densify) {
+        mKernel.setDensify(densify);
+        if (mParallelKernel != null) {
+            mParallelKernel.setDensify(densify);
+        }
+    }
+
+    void setTimings(FrameTimings timings) {
+        mTimings.set(timings);
+    }
+
+    void setStatistics(FrameStatistics statistics) {
+        mStatistics.set(statistics);
+    }
+
+    void setPose(double timestamp, float[] transform, long sequence) {
+        mTimestamp = timestamp;
+        System.arraycopy(transform, 0, mTransform, 0, mTransform.length);
+        mSequence = sequence;
+    }
+
+    FusedPointKernel getKernel() {
+        return mKernel;
+    }
+
+    ParallelPointKernel getParallelKernel() {
+        return mParallelKernel;
+    }
+
+    VoxelDecimator getDecimator() {
+        if (mDecimator == null) {
+            mDecimator = new VoxelDecimator(mMaxPoints);
+        }
+        return mDecimator;
+    }
+
+    PointStages getStages() {
+        return mStages;
+    }
+
+    GridVertexWriter getGridWriter() {
+        return mGridWriter;
+    }
+
+    DirtyTileTracker.Consumer getGridTiles() {
+        return mGridTiles;
+    }
+
+    void takeTileSnapshot(DirtyTileTracker tracker) {
+        mTileSnapshot = tracker.snapshot(mTileSnapshot);
+    }
+
+    /**
+     * XYZC vertices to draw, {@link FrameBuffer#FLOATS_PER_POINT} floats each.
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] getColors() {
+        return mColors;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * Height of every grid vertex, for a {@link GridMesh}. Only in grid mode.
+     */
+    public float[] getSurfaceHeights() {
+        return mGridWriter.getSurfaceHeights();
+    }
+
+    /**
+     * RGBA8 color of every grid vertex, transparent where the grid has no height. Only in grid
+     * mode.
+     */
+    public int[] getSurfaceColors() {
+        return mGridWriter.getSurfaceColors();
+    }
+
+    /**
+     * Whether the frame has an image for the projector. Only in grid mode.
+     */
+    public boolean hasProjectorImage() {
+        return mProjectorWidth > 0;
+    }
+
+    /**
+     * RGBA8 colors of the projector image, row by row from the top; the array may be longer.
+     */
+    public int[] getProjectorPixels() {
+        return mProjectorPixels;
+    }
+
+    public int getProjectorWidth() {
+        return mProjectorWidth;
+    }
+
+    public int getProjectorHeight() {
+        return mProjectorHeight;
+    }
+
+    /**
+     * Whether the vertices are height grid cells laid out by tile. Tiles can then be uploaded
+     * on their own, using {@link #getTileSnapshot()} to find the changed ones.
+     */
+    public boolean isGrid() {
+        return mGridWriter != null;
+    }
+
+    /**
+     * Which tiles had changed as of this frame. Only in grid mode.
+     */
+    public DirtyTileTracker.Snapshot getTileSnapshot() {
+        return mTileSnapshot;
+    }
+
+    /**
+     * First vertex of a tile. Only in grid mode.
+     */
+    public int getTileStart(int tile) {
+        return mGridWriter.getTileStart(tile);
+    }
+
+    public int getVerticesPerTile() {
+        return mGridWriter.getVerticesPerTile();
+    }
+
+    /**
+     * Isoline segment end points, {@link IsolineExtractor#FLOATS_PER_VERTEX} floats each. Only
+     * filled in grid mode.
+     */
+    public float[] getContourVertices() {
+        return mContourVertices;
+    }
+
+    public int getContourVertexCount() {
+        return mContourVertexCount;
+    }
+
+    /**
+     * Depth statistics of all points of the raw frame.
+     */
+    public FrameStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Time spent on each stage of this frame. The upload stage is that of the previous frame.
+     */
+    public FrameTimings getTimings() {
+        return mTimings;
+    }
+
+    /**
+     * Sensor timestamp of the depth frame, in seconds.
+     */
+    public double getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Column-major OpenGL transform from the frame's points to the world. The points are in the
+     * fixed sandbox frame, so this only changes when the sandbox frame is reset.
+     */
+    public float[] getTransform() {
+        return mTransform;
+    }
+
+    /**
+     * Increases by one with every frame processed.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Where each projector pixel lands on the sandbox: a {@link Homography} from projector pixel
+ * coordinates to sandbox frame XY, fitted to a few marked points by a
+ * {@link ProjectorCalibrator}. The sand is taken to be a plane, so points well above or below
+ * the level the markers stood on are off by their parallax.
+ * <p>
+ * Pixel (column, row) covers [column, column + 1] x [row, row + 1], row 0 at the top.
+ * Immutable, so a calibration can be handed between threads freely.
+ */
+public class ProjectorCalibration {
+    private static final int MAGIC = 0x4c414350; // "PCAL" read as little endian bytes
+    private static final int VERSION = 1;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Homography mProjectorToSandbox;
+
+    public ProjectorCalibration(int width, int height, Homography projectorToSandbox) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Projector resolution must be positive");
+        }
+        mWidth = width;
+        mHeight = height;
+        mProjectorToSandbox = projectorToSandbox;
+    }
+
+    /**
+     * The hand measured sandbox rectangle of {@link PointStages} stretched over the whole
+     * image, columns along X and rows along Y, for when the projector was never calibrated.
+     */
+    public static ProjectorCalibration createDefault(int width, int height) {
+        double sx = (PointStages.CROP_MAX_X - PointStages.CROP_MIN_X) / width;
+        double sy = (PointStages.CROP_MAX_Y - PointStages.CROP_MIN_Y) / height;
+        return new ProjectorCalibration(width, height, Homography.fromMatrix(new double[] {
+                sx, 0, PointStages.CROP_MIN_X,
+                0, sy, PointStages.CROP_MIN_Y,
+                0, 0, 1}));
+    }
+
+    /**
+     * Fit a calibration to marked points.
+     *
+     * @param projectorPoints x, y pixel coordinates of each mark in the projector image.
+     * @param sandboxPoints x, y where each mark was found in the sandbox frame.
+     * @return the calibration, or null if the points are degenerate.
+     */
+    public static ProjectorCalibration fit(int width, int height, double[] projectorPoints,
+                                           double[] sandboxPoints, int count) {
+        Homography homography = Homography.fit(projectorPoints, sandboxPoints, count);
+        return homography != null ? new ProjectorCalibration(width, height, homography) : null;
+    }
+
+    /**
+     * The same calibration for the image drawn at another resolution over the same area.
+     */
+    public ProjectorCalibration forSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return this;
+        }
+        return new ProjectorCalibration(width, height, mProjectorToSandbox.scaleInput(
+                (double) mWidth / width, (double) mHeight / height));
+    }
+
+    /**
+     * Sandbox frame x, y of the center of a projector pixel into out[0], out[1].
+     */
+    public void pixelToSandbox(int column, int row, double[] out) {
+        mProjectorToSandbox.map(column + 0.5, row + 0.5, out);
+    }
+
+    public Homography getProjectorToSandbox() {
+        return mProjectorToSandbox;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Save the calibration, so it survives a restart.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        for (double value : mProjectorToSandbox.getMatrix()) {
+            out.writeDouble(value);
+        }
+        out.flush();
+    }
+
+    public static ProjectorCalibration readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a projector calibration");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported calibration version " + version);
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        double[] matrix = new double[9];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = in.readDouble();
+            if (Double.isNaN(matrix[i]) || Double.isInfinite(matrix[i])) {
+                throw new IOException("Corrupt projector calibration");
+            }
+        }
+        if (width <= 0 || height <= 0 || width > 16384 || height > 16384) {
+            throw new IOException("Corrupt projector calibration");
+        }
+        return new ProjectorCalibration(width, height, Homography.fromMatrix(matrix));
+    }
+}
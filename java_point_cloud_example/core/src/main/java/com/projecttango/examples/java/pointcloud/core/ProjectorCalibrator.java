@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Calibrates the projector from markers put on the sand. The projector shows a cross at one
+ * target pixel after the other; someone puts a small object on the sand under it, and the
+ * object is found in the height grid as the cells that rose above the empty sand. Once every
+ * target has its marker, a {@link ProjectorCalibration} is fitted to them.
+ * <p>
+ * A marker has to stay put for a while to be taken, and be taken away again before the next
+ * target shows, so a hand moving over the sand is not mistaken for one. The empty sand is
+ * captured again after each marker, in case putting it down moved some sand.
+ * NOTE: Only feed and draw from one thread, e.g. the processing thread.
+ */
+public class ProjectorCalibrator {
+    // How much nearer the camera than the empty sand a cell must be to be part of a marker.
+    public static final float MIN_MARKER_HEIGHT = 0.015f;
+    // Target positions as fractions of the image, x, y: the corners inset by a fifth, then the
+    // center, which over-determines the fit.
+    private static final float[] TARGETS = {
+            0.2f, 0.2f,
+            0.8f, 0.2f,
+            0.8f, 0.8f,
+            0.2f, 0.8f,
+            0.5f, 0.5f};
+    private static final int MIN_MARKER_CELLS = 4;
+    // Frames a marker must stay within STABLE_DISTANCE meters, or stay away, to count.
+    private static final int STABLE_FRAMES = 15;
+    private static final double STABLE_DISTANCE = 0.004;
+    private static final int BACKGROUND = ElevationPalette.toRgba8(ElevationPalette.BLACK);
+    private static final int CROSS_COLOR = ElevationPalette.toRgba8(ElevationPalette.WHITE);
+
+    private enum State {
+        // Capturing the empty sand.
+        REFERENCE,
+        WAITING_FOR_MARKER,
+        WAITING_FOR_REMOVAL,
+        DONE
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mCrossArm;
+    private final double[] mProjectorPoints = new double[TARGETS.length];
+    private final double[] mSandboxPoints = new double[TARGETS.length];
+    private final double[] mMarker = new double[2];
+    private float[] mReference;
+    private State mState = State.REFERENCE;
+    private int mTarget;
+    private int mStableFrames;
+    // Where the marker is held still, and the sum of its positions since.
+    private double mAnchorX;
+    private double mAnchorY;
+    private double mSumX;
+    private double mSumY;
+    private ProjectorCalibration mResult;
+
+    /**
+     * @param width projector image resolution the targets are drawn at.
+     */
+    public ProjectorCalibrator(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Projector resolution must be positive");
+        }
+        mWidth = width;
+        mHeight = height;
+        mCrossArm = Math.max(4, Math.min(width, height) / 30);
+        for (int target = 0; target < getTargetCount(); target++) {
+            // Pixel centers, where the cross is drawn.
+            mProjectorPoints[target * 2] = getTargetColumn(target) + 0.5;
+            mProjectorPoints[target * 2 + 1] = getTargetRow(target) + 0.5;
+        }
+    }
+
+    /**
+     * Look for the marker of the current target in the latest heights of a grid.
+     *
+     * @return whether the calibration is over, see {@link #getResult()}.
+     */
+    public boolean feed(HeightGrid grid) {
+        float[] heights = grid.getHeights();
+        switch (mState) {
+            case REFERENCE:
+                mReference = heights.clone();
+                mState = State.WAITING_FOR_MARKER;
+                break;
+            case WAITING_FOR_MARKER:
+                if (!locateMarker(grid)) {
+                    mStableFrames = 0;
+                } else if (mStableFrames == 0 || Math.hypot(mMarker[0] - mAnchorX,
+                        mMarker[1] - mAnchorY) > STABLE_DISTANCE) {
+                    mAnchorX = mMarker[0];
+                    mAnchorY = mMarker[1];
+                    mSumX = mMarker[0];
+                    mSumY = mMarker[1];
+                    mStableFrames = 1;
+                } else {
+                    mSumX += mMarker[0];
+                    mSumY += mMarker[1];
+                    if (++mStableFrames >= STABLE_FRAMES) {
+                        mSandboxPoints[mTarget * 2] = mSumX / mStableFrames;
+                        mSandboxPoints[mTarget * 2 + 1] = mSumY / mStableFrames;
+                        mStableFrames = 0;
+                        if (++mTarget == getTargetCount()) {
+                            mResult = ProjectorCalibration.fit(mWidth, mHeight,
+                                    mProjectorPoints, mSandboxPoints, mTarget);
+                            mState = State.DONE;
+                        } else {
+                            mState = State.WAITING_FOR_REMOVAL;
+                        }
+                    }
+                }
+                break;
+            case WAITING_FOR_REMOVAL:
+                if (locateMarker(grid)) {
+                    mStableFrames = 0;
+                } else if (++mStableFrames >= STABLE_FRAMES) {
+                    System.arraycopy(heights, 0, mReference, 0, heights.length);
+                    mStableFrames = 0;
+                    mState = State.WAITING_FOR_MARKER;
+                }
+                break;
+            case DONE:
+                break;
+        }
+        return mState == State.DONE;
+    }
+
+    /**
+     * Centroid of the cells that rose above the empty sand, weighted by how much they rose,
+     * into mMarker.
+     *
+     * @return false if too few cells rose for a marker.
+     */
+    private boolean locateMarker(HeightGrid grid) {
+        float[] heights = grid.getHeights();
+        int columns = grid.getColumns();
+        double weight = 0;
+        double sumX = 0;
+        double sumY = 0;
+        int cells = 0;
+        for (int cell = 0; cell < heights.length; cell++) {
+            // Depths shrink towards the camera; NaN on either side fails the test.
+            float rise = mReference[cell] - heights[cell];
+            if (rise >= MIN_MARKER_HEIGHT) {
+                weight += rise;
+                sumX += rise * grid.getCellCenterX(cell % columns);
+                sumY += rise * grid.getCellCenterY(cell / columns);
+                cells++;
+            }
+        }
+        if (cells < MIN_MARKER_CELLS) {
+            return false;
+        }
+        mMarker[0] = sumX / weight;
+        mMarker[1] = sumY / weight;
+        return true;
+    }
+
+    /**
+     * Draw the projector image of the calibration: black, with a cross on the target waiting
+     * for its marker.
+     *
+     * @param pixels RGBA8 colors of the image, row by row from the top.
+     */
+    public void drawTarget(int[] pixels) {
+        Arrays.fill(pixels, 0, mWidth * mHeight, BACKGROUND);
+        // No cross while a marker has to go, so it is not just moved on to the next target.
+        if (mState == State.WAITING_FOR_REMOVAL || mState == State.DONE) {
+            return;
+        }
+        int column = getTargetColumn(mTarget);
+        int row = getTargetRow(mTarget);
+        int left = Math.max(0, column - mCrossArm);
+        int right = Math.min(mWidth - 1, column + mCrossArm);
+        Arrays.fill(pixels, row * mWidth + left, row * mWidth + right + 1, CROSS_COLOR);
+        int top = Math.max(0, row - mCrossArm);
+        int bottom = Math.min(mHeight - 1, row + mCrossArm);
+        for (int r = top; r <= bottom; r++) {
+            pixels[r * mWidth + column] = CROSS_COLOR;
+        }
+    }
+
+    private int getTargetColumn(int target) {
+        return Math.min((int) (TARGETS[target * 2] * mWidth), mWidth - 1);
+    }
+
+    private int getTargetRow(int target) {
+        return Math.min((int) (TARGETS[target * 2 + 1] * mHeight), mHeight - 1);
+    }
+
+    /**
+     * Index of the target waiting for its marker; the target count once all have one.
+     */
+    public int getTarget() {
+        return mTarget;
+    }
+
+    public int getTargetCount() {
+        return TARGETS.length / 2;
+    }
+
+    /**
+     * Whether the current marker was taken and has to be taken away before the next target.
+     */
+    public boolean isWaitingForRemoval() {
+        return mState == State.WAITING_FOR_REMOVAL;
+    }
+
+    /**
+     * The fitted calibration once every target had its marker, or null before or if the
+     * markers did not fix one.
+     */
+    public ProjectorCalibration getResult() {
+        return mResult;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * A {@link ProjectorCalibration} baked into a per pixel lookup table: for every projector
+ * pixel, the grid vertex under its center. Warping a frame's surface colors into the projector
+ * image then costs one indexed read per pixel, with no transform math at run time.
+ * <p>
+ * Pixels that land outside the grid read as 0, i.e. transparent black, as do cells the grid
+ * has no height for.
+ */
+public class ProjectorWarp {
+    // Rows of the image per task of a parallel warp.
+    private static final int ROWS_PER_STRIP = 16;
+    private static final int OUTSIDE = -1;
+
+    private final ProjectorCalibration mCalibration;
+    private final int mWidth;
+    private final int mHeight;
+    // Grid vertex under each pixel, row by row from the top, or OUTSIDE.
+    private final int[] mSources;
+
+    // Arguments of the parallel warp in progress.
+    private int[] mSourceColors;
+    private int[] mTarget;
+    private final WorkerPool.Task mStripTask = new WorkerPool.Task() {
+        @Override
+        public void run(int strip) {
+            int first = strip * ROWS_PER_STRIP * mWidth;
+            int end = Math.min((strip + 1) * ROWS_PER_STRIP, mHeight) * mWidth;
+            warpRange(mSourceColors, mTarget, first, end);
+        }
+    };
+
+    /**
+     * @param grid the grid whose vertices are looked up.
+     * @param writer the vertex layout of the grid.
+     */
+    public ProjectorWarp(ProjectorCalibration calibration, HeightGrid grid,
+                         GridVertexWriter writer) {
+        mCalibration = calibration;
+        mWidth = calibration.getWidth();
+        mHeight = calibration.getHeight();
+        mSources = new int[mWidth * mHeight];
+        double[] sandbox = new double[2];
+        int pixel = 0;
+        for (int row = 0; row < mHeight; row++) {
+            for (int column = 0; column < mWidth; column++) {
+                calibration.pixelToSandbox(column, row, sandbox);
+                int cell = grid.cellOf((float) sandbox[0], (float) sandbox[1]);
+                mSources[pixel++] = cell < 0 ? OUTSIDE
+                        : writer.getVertex(cell % grid.getColumns(), cell / grid.getColumns());
+            }
+        }
+    }
+
+    /**
+     * Fill the projector image with the colors of the vertices under its pixels.
+     *
+     * @param sourceColors a color per grid vertex, e.g. {@link ProcessedFrame#getSurfaceColors}.
+     * @param target {@link #getPixelCount()} colors, row by row from the top.
+     */
+    public void warp(int[] sourceColors, int[] target) {
+        warpRange(sourceColors, target, 0, mSources.length);
+    }
+
+    /**
+     * Same as {@link #warp(int[], int[])}, in strips of rows over the threads of a pool.
+     */
+    public void warp(int[] sourceColors, int[] target, WorkerPool pool) {
+        if (pool.getThreadCount() == 1) {
+            warp(sourceColors, target);
+            return;
+        }
+        mSourceColors = sourceColors;
+        mTarget = target;
+        pool.run((mHeight + ROWS_PER_STRIP - 1) / ROWS_PER_STRIP, mStripTask);
+        mSourceColors = null;
+        mTarget = null;
+    }
+
+    private void warpRange(int[] sourceColors, int[] target, int first, int end) {
+        int[] sources = mSources;
+        for (int pixel = first; pixel < end; pixel++) {
+            int source = sources[pixel];
+            target[pixel] = source != OUTSIDE ? sourceColors[source] : 0;
+        }
+    }
+
+    public ProjectorCalibration getCalibration() {
+        return mCalibration;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getPixelCount() {
+        return mSources.length;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Holds the frame time near a target by moving along a ladder of {@link QualitySettings}, from
+ * full quality at level 0 to the cheapest at the last level.
+ * <p>
+ * Frame times are smoothed with an exponential moving average. The controller steps down when
+ * the average has been above the target for a few frames, and only steps back up once it has
+ * been well below it for much longer, so quality does not oscillate around the target. After a
+ * change it waits for the average to settle before deciding again.
+ * <p>
+ * Decisions only depend on the frame times fed in. A log written by {@link #writeLog} holds the
+ * latest frame times, the controller state before the first of them and the decisions made on
+ * them, so {@link #replay} reproduces those decisions, or runs the frames through a controller
+ * with other parameters to tune it offline.
+ */
+public class QualityController {
+    public static final float DEFAULT_TARGET_MILLIS = 33f;
+    // Weight of the newest frame in the moving average.
+    private static final float SMOOTHING = 0.2f;
+    // Step down above target * DEGRADE_RATIO, step up below target * UPGRADE_RATIO.
+    private static final float DEGRADE_RATIO = 1f;
+    private static final float UPGRADE_RATIO = 0.7f;
+    private static final int DEGRADE_FRAMES = 5;
+    private static final int UPGRADE_FRAMES = 60;
+    // Frames ignored after a change, while the average catches up with the new cost.
+    private static final int SETTLE_FRAMES = 10;
+    // Frame times kept for the log, and the window of the decisions kept.
+    private static final int LOG_SAMPLES = 4096;
+
+    /**
+     * Told about every level change, on the thread feeding the frame times.
+     */
+    public interface Listener {
+        void onQualityChanged(Decision decision);
+    }
+
+    /**
+     * A level change, and the frame it was decided on.
+     */
+    public static final class Decision {
+        public final long sequence;
+        public final int fromLevel;
+        public final int toLevel;
+        public final float averageMillis;
+
+        Decision(long sequence, int fromLevel, int toLevel, float averageMillis) {
+            this.sequence = sequence;
+            this.fromLevel = fromLevel;
+            this.toLevel = toLevel;
+            this.averageMillis = averageMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Decision)) {
+                return false;
+            }
+            Decision other = (Decision) o;
+            return sequence == other.sequence && fromLevel == other.fromLevel
+                    && toLevel == other.toLevel
+                    && Float.floatToIntBits(averageMillis)
+                    == Float.floatToIntBits(other.averageMillis);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) sequence * 31 + toLevel;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "frame %d: level %d -> %d, average %.1f ms",
+                    sequence, fromLevel, toLevel, averageMillis);
+        }
+    }
+
+    private final QualitySettings[] mLevels;
+    private final float mTargetMillis;
+    private Listener mListener;
+
+    private int mLevel;
+    private float mAverageMillis = Float.NaN;
+    private int mFramesAbove;
+    private int mFramesBelow;
+    private int mSettleFrames;
+
+    // Ring of the latest frame times, with their sequence numbers and stage breakdown.
+    private final long[] mSampleSequences = new long[LOG_SAMPLES];
+    private final long[] mSampleNanos = new long[LOG_SAMPLES];
+    private final long[][] mSampleStageNanos =
+            new long[LOG_SAMPLES][FrameTimings.Stage.values().length];
+    // Controller state before each sample, so a log can start from its first one.
+    private final int[] mSampleLevels = new int[LOG_SAMPLES];
+    private final float[] mSampleAverages = new float[LOG_SAMPLES];
+    private final int[] mSampleFramesAbove = new int[LOG_SAMPLES];
+    private final int[] mSampleFramesBelow = new int[LOG_SAMPLES];
+    private final int[] mSampleSettleFrames = new int[LOG_SAMPLES];
+    private long mSampleCount;
+    // Decisions made on the logged samples, and the index of the sample of each.
+    private final ArrayDeque<Decision> mDecisions = new ArrayDeque<Decision>();
+    private final ArrayDeque<Long> mDecisionSamples = new ArrayDeque<Long>();
+
+    public QualityController(QualitySettings[] levels, float targetMillis) {
+        if (levels.length == 0) {
+            throw new IllegalArgumentException("A quality ladder needs at least one level");
+        }
+        mLevels = levels.clone();
+        mTargetMillis = targetMillis;
+    }
+
+    /**
+     * A ladder that first drops the interpolated points, then halves the point budget and
+     * thins the isolines.
+     */
+    public static QualitySettings[] createDefaultLevels(int maxPoints) {
+        return new QualitySettings[] {
+                new QualitySettings(maxPoints, true, 1),
+                new QualitySettings(maxPoints, false, 1),
+                new QualitySettings(Math.max(1, maxPoints / 2), false, 1),
+                new QualitySettings(Math.max(1, maxPoints / 2), false, 2),
+                new QualitySettings(Math.max(1, maxPoints / 4), false, 2),
+                new QualitySettings(Math.max(1, maxPoints / 8), false, 3),
+        };
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Account for the time one frame took and possibly change level.
+     *
+     * @param timings stage breakdown for the log, or null.
+     * @return the settings for the next frames.
+     */
+    public synchronized QualitySettings onFrame(long sequence, long frameNanos,
+                                                FrameTimings timings) {
+        log(sequence, frameNanos, timings);
+        float millis = frameNanos / 1e6f;
+        mAverageMillis = mAverageMillis == mAverageMillis
+                ? mAverageMillis + SMOOTHING * (millis - mAverageMillis)
+                : millis;
+        if (mSettleFrames > 0) {
+            mSettleFrames--;
+            return mLevels[mLevel];
+        }
+
+        mFramesAbove = mAverageMillis > mTargetMillis * DEGRADE_RATIO ? mFramesAbove + 1 : 0;
+        mFramesBelow = mAverageMillis < mTargetMillis * UPGRADE_RATIO ? mFramesBelow + 1 : 0;
+        if (mFramesAbove >= DEGRADE_FRAMES && mLevel < mLevels.length - 1) {
+            changeLevel(sequence, mLevel + 1);
+        } else if (mFramesBelow >= UPGRADE_FRAMES && mLevel > 0) {
+            changeLevel(sequence, mLevel - 1);
+        }
+        return mLevels[mLevel];
+    }
+
+    private void changeLevel(long sequence, int level) {
+        Decision decision = new Decision(sequence, mLevel, level, mAverageMillis);
+        mLevel = level;
+        mFramesAbove = 0;
+        mFramesBelow = 0;
+        mSettleFrames = SETTLE_FRAMES;
+        mDecisions.addLast(decision);
+        mDecisionSamples.addLast(mSampleCount - 1);
+        if (mListener != null) {
+            mListener.onQualityChanged(decision);
+        }
+    }
+
+    private void log(long sequence, long frameNanos, FrameTimings timings) {
+        int slot = (int) (mSampleCount % LOG_SAMPLES);
+        mSampleSequences[slot] = sequence;
+        mSampleNanos[slot] = frameNanos;
+        long[] stages = mSampleStageNanos[slot];
+        for (FrameTimings.Stage stage : FrameTimings.Stage.values()) {
+            stages[stage.ordinal()] = timings != null ? timings.get(stage) : 0;
+        }
+        mSampleLevels[slot] = mLevel;
+        mSampleAverages[slot] = mAverageMillis;
+        mSampleFramesAbove[slot] = mFramesAbove;
+        mSampleFramesBelow[slot] = mFramesBelow;
+        mSampleSettleFrames[slot] = mSettleFrames;
+        mSampleCount++;
+        // Forget the decisions made on the sample this one overwrote.
+        long first = mSampleCount - LOG_SAMPLES;
+        while (!mDecisionSamples.isEmpty() && mDecisionSamples.peekFirst() < first) {
+            mDecisionSamples.pollFirst();
+            mDecisions.pollFirst();
+        }
+    }
+
+    private synchronized void restore(int level, float averageMillis, int framesAbove,
+                                      int framesBelow, int settleFrames) {
+        mLevel = Math.min(Math.max(level, 0), mLevels.length - 1);
+        mAverageMillis = averageMillis;
+        mFramesAbove = framesAbove;
+        mFramesBelow = framesBelow;
+        mSettleFrames = settleFrames;
+    }
+
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    public synchronized QualitySettings getSettings() {
+        return mLevels[mLevel];
+    }
+
+    public synchronized float getAverageMillis() {
+        return mAverageMillis;
+    }
+
+    public float getTargetMillis() {
+        return mTargetMillis;
+    }
+
+    /**
+     * The level changes made on the frames still in the log, oldest first.
+     */
+    public synchronized List<Decision> getDecisions() {
+        return new ArrayList<Decision>(mDecisions);
+    }
+
+    /**
+     * Write the latest frame times and the decisions made on them as comma separated lines,
+     * after the controller state before the first frame:
+     * {@code state,<level>,<average ms>,<frames above>,<frames below>,<settle frames>},
+     * {@code sample,<sequence>,<nanos>,<stage nanos>...} and
+     * {@code decision,<sequence>,<from level>,<to level>,<average ms>}.
+     */
+    public synchronized void writeLog(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.print("# target_ms=" + mTargetMillis + ", stages=");
+        FrameTimings.Stage[] stages = FrameTimings.Stage.values();
+        for (int i = 0; i < stages.length; i++) {
+            out.print(i == 0 ? "" : ";");
+            out.print(stages[i].name());
+        }
+        out.println();
+        long first = Math.max(0, mSampleCount - LOG_SAMPLES);
+        if (first < mSampleCount) {
+            int slot = (int) (first % LOG_SAMPLES);
+            // Float.toString reads back to the same float, so the replay starts exactly here.
+            out.println("state," + mSampleLevels[slot] + "," + mSampleAverages[slot] + ","
+                    + mSampleFramesAbove[slot] + "," + mSampleFramesBelow[slot] + ","
+                    + mSampleSettleFrames[slot]);
+        }
+        for (long i = first; i < mSampleCount; i++) {
+            int slot = (int) (i % LOG_SAMPLES);
+            out.print("sample," + mSampleSequences[slot] + "," + mSampleNanos[slot]);
+            for (long nanos : mSampleStageNanos[slot]) {
+                out.print("," + nanos);
+            }
+            out.println();
+        }
+        for (Decision decision : mDecisions) {
+            out.println(String.format(Locale.US, "decision,%d,%d,%d,%.3f", decision.sequence,
+                    decision.fromLevel, decision.toLevel, decision.averageMillis));
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Could not write the quality log");
+        }
+    }
+
+    /**
+     * Feed the frame times of a log written by {@link #writeLog} to a fresh controller, starting
+     * from the logged state. With the parameters of the logging controller this reproduces its
+     * decisions.
+     *
+     * @return the decisions the controller made.
+     */
+    public static List<Decision> replay(BufferedReader log, QualityController controller)
+            throws IOException {
+        String line;
+        while ((line = log.readLine()) != null) {
+            boolean state = line.startsWith("state,");
+            if (!state && !line.startsWith("sample,")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            try {
+                if (state) {
+                    controller.restore(Integer.parseInt(fields[1]),
+                            Float.parseFloat(fields[2]), Integer.parseInt(fields[3]),
+                            Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
+                } else {
+                    controller.onFrame(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            null);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Bad quality log line: " + line);
+            }
+        }
+        return controller.getDecisions();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+/**
+ * One step of the quality ladder of a {@link QualityController}: the knobs of the
+ * {@link FrameProcessor} that trade detail for time.
+ */
+public final class QualitySettings {
+    private final int mPointBudget;
+    private final boolean mDensify;
+    private final int mContourStep;
+
+    /**
+     * @param pointBudget most points drawn in raw point mode, or binned in height grid mode.
+     * @param densify whether raw point mode adds interpolated points.
+     * @param contourStep draw an isoline on every contourStep-th band boundary.
+     */
+    public QualitySettings(int pointBudget, boolean densify, int contourStep) {
+        if (pointBudget <= 0 || contourStep <= 0) {
+            throw new IllegalArgumentException("Point budget and contour step must be positive");
+        }
+        mPointBudget = pointBudget;
+        mDensify = densify;
+        mContourStep = contourStep;
+    }
+
+    public int getPointBudget() {
+        return mPointBudget;
+    }
+
+    public boolean isDensify() {
+        return mDensify;
+    }
+
+    public int getContourStep() {
+        return mContourStep;
+    }
+
+    @Override
+    public String toString() {
+        return "points " + mPointBudget + (mDensify ? " densified" : "")
+                + ", contour step " + mContourStep;
+    }
+}
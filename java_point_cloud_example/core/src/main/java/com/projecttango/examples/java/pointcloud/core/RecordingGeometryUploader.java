@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link GeometryUploader} that keeps buffer contents in memory and logs every call, to check
+ * and measure an upload schedule without a GPU. Orphaned storage is filled with NaN, so reading
+ * data that was never written after an orphan shows up.
+ */
+public class RecordingGeometryUploader implements GeometryUploader {
+    private static final int BYTES_PER_FLOAT = 4;
+
+    /**
+     * One logged call.
+     */
+    public static final class Call {
+        public enum Type { CREATE, ORPHAN, UPLOAD, DELETE }
+
+        public final Type type;
+        public final int frame;
+        public final int buffer;
+        public final int byteOffset;
+        public final int byteSize;
+
+        Call(Type type, int frame, int buffer, int byteOffset, int byteSize) {
+            this.type = type;
+            this.frame = frame;
+            this.buffer = buffer;
+            this.byteOffset = byteOffset;
+            this.byteSize = byteSize;
+        }
+
+        @Override
+        public String toString() {
+            return type + " frame=" + frame + " buffer=" + buffer + " offset=" + byteOffset
+                    + " size=" + byteSize;
+        }
+    }
+
+    private final boolean mLogCalls;
+    private final List<Call> mCalls = new ArrayList<Call>();
+    // Contents per buffer handle; handle 0 is never used, as in GL.
+    private final List<float[]> mBuffers = new ArrayList<float[]>();
+    private long[] mFrameBytes = new long[16];
+    private int mFrame = -1;
+    private long mTotalBytes;
+
+    public RecordingGeometryUploader() {
+        this(true);
+    }
+
+    /**
+     * @param logCalls false to only count bytes, for benchmarks running many frames.
+     */
+    public RecordingGeometryUploader(boolean logCalls) {
+        mLogCalls = logCalls;
+        mBuffers.add(null);
+    }
+
+    @Override
+    public void beginFrame() {
+        mFrame++;
+        if (mFrame == mFrameBytes.length) {
+            mFrameBytes = Arrays.copyOf(mFrameBytes, mFrameBytes.length * 2);
+        }
+        mFrameBytes[mFrame] = 0;
+    }
+
+    @Override
+    public int createBuffer(int byteSize) {
+        float[] contents = new float[byteSize / BYTES_PER_FLOAT];
+        Arrays.fill(contents, Float.NaN);
+        mBuffers.add(contents);
+        int buffer = mBuffers.size() - 1;
+        log(Call.Type.CREATE, buffer, 0, byteSize);
+        return buffer;
+    }
+
+    @Override
+    public void orphanBuffer(int buffer, int byteSize) {
+        float[] contents = contents(buffer);
+        if (contents.length != byteSize / BYTES_PER_FLOAT) {
+            contents = new float[byteSize / BYTES_PER_FLOAT];
+            mBuffers.set(buffer, contents);
+        }
+        Arrays.fill(contents, Float.NaN);
+        log(Call.Type.ORPHAN, buffer, 0, byteSize);
+    }
+
+    @Override
+    public void uploadBuffer(int buffer, int byteOffset, FloatBuffer data, int floatCount) {
+        float[] contents = contents(buffer);
+        if (byteOffset % BYTES_PER_FLOAT != 0
+                || byteOffset / BYTES_PER_FLOAT + floatCount > contents.length) {
+            throw new IndexOutOfBoundsException("Upload of " + floatCount + " floats at byte "
+                    + byteOffset + " overflows buffer " + buffer);
+        }
+        FloatBuffer source = data.duplicate();
+        source.position(0);
+        source.get(contents, byteOffset / BYTES_PER_FLOAT, floatCount);
+        int bytes = floatCount * BYTES_PER_FLOAT;
+        mTotalBytes += bytes;
+        if (mFrame >= 0) {
+            mFrameBytes[mFrame] += bytes;
+        }
+        log(Call.Type.UPLOAD, buffer, byteOffset, bytes);
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        contents(buffer);
+        mBuffers.set(buffer, null);
+        log(Call.Type.DELETE, buffer, 0, 0);
+    }
+
+    private float[] contents(int buffer) {
+        float[] contents = buffer > 0 && buffer < mBuffers.size() ? mBuffers.get(buffer) : null;
+        if (contents == null) {
+            throw new IllegalArgumentException("No buffer " + buffer);
+        }
+        return contents;
+    }
+
+    private void log(Call.Type type, int buffer, int byteOffset, int byteSize) {
+        if (mLogCalls) {
+            mCalls.add(new Call(type, mFrame, buffer, byteOffset, byteSize));
+        }
+    }
+
+    /**
+     * Current contents of a buffer. Do not modify.
+     */
+    public float[] getContents(int buffer) {
+        return contents(buffer);
+    }
+
+    public List<Call> getCalls() {
+        return mCalls;
+    }
+
+    /**
+     * Bytes uploaded during a frame, counting from 0 at the first {@link #beginFrame()}.
+     */
+    public long getFrameBytes(int frame) {
+        return mFrameBytes[frame];
+    }
+
+    public int getFrameCount() {
+        return mFrame + 1;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Forget the call log and byte counts, keeping the buffers.
+     */
+    public void reset() {
+        mCalls.clear();
+        mFrame = -1;
+        mTotalBytes = 0;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Finds the inside of the sandbox from a few depth frames, so the crop does not have to be
+ * measured by hand for every installation.
+ * <p>
+ * The frames are averaged into a depth raster over their whole field of view. The camera is
+ * assumed to point at the sand, so the median depth of the central cells is taken as the sand
+ * level. The box rim stands above the sand: cells noticeably closer to the camera are rim. The
+ * floor is whatever the edge of the view reaches without crossing rim cells, and the rim proper
+ * is the rim cells within a rim width of it or of the edge. The sand is what is left around the
+ * center of the view, eroded by a cell away from the rim, so sand heaped above the rim height
+ * still counts.
+ * Detection fails if the floor reaches the center, i.e. the rim was not seen all around.
+ */
+public class RoiDetector {
+    public static final int DEFAULT_RESOLUTION = 256;
+    // How much closer to the camera than the sand a cell has to be to count as rim, in meters.
+    public static final float DEFAULT_RIM_HEIGHT = 0.02f;
+    // Widest rim expected, in meters.
+    public static final float DEFAULT_MAX_RIM_WIDTH = 0.05f;
+
+    private final int mResolution;
+    private final float mRimHeight;
+    private final float mMaxRimWidth;
+    private HeightGrid mFrameGrid;
+    private float[] mSums;
+    private int[] mCounts;
+    private int mFrameCount;
+
+    public RoiDetector() {
+        this(DEFAULT_RESOLUTION, DEFAULT_RIM_HEIGHT, DEFAULT_MAX_RIM_WIDTH);
+    }
+
+    public RoiDetector(int resolution, float rimHeight, float maxRimWidth) {
+        mResolution = resolution;
+        mRimHeight = rimHeight;
+        mMaxRimWidth = maxRimWidth;
+    }
+
+    /**
+     * Add a raw frame. The raster covers the field of view of the first frame.
+     */
+    public void addFrame(FrameBuffer frame) {
+        if (mFrameGrid == null) {
+            if (!createGrid(frame)) {
+                return;
+            }
+        }
+        mFrameGrid.reset();
+        mFrameGrid.bin(frame);
+        float[] heights = mFrameGrid.getHeights();
+        for (int cell = 0; cell < heights.length; cell++) {
+            float z = heights[cell];
+            if (z == z) {
+                mSums[cell] += z;
+                mCounts[cell]++;
+            }
+        }
+        mFrameCount++;
+    }
+
+    private boolean createGrid(FrameBuffer frame) {
+        float[] points = frame.getPoints();
+        float minX = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < frame.getPointCount(); i++) {
+            float x = points[i * FrameBuffer.FLOATS_PER_POINT];
+            float y = points[i * FrameBuffer.FLOATS_PER_POINT + 1];
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        if (!(minX < maxX && minY < maxY)) {
+            return false;
+        }
+        mFrameGrid = new HeightGrid(mResolution, mResolution, minX, maxX, minY, maxY);
+        mSums = new float[mResolution * mResolution];
+        mCounts = new int[mResolution * mResolution];
+        return true;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Detect the sandbox in the frames added so far.
+     *
+     * @return the mask of the sand, or null if no closed rim was found.
+     */
+    public RoiMask detect() {
+        if (mFrameGrid == null) {
+            return null;
+        }
+        int columns = mResolution;
+        int rows = mResolution;
+        int cellCount = columns * rows;
+
+        float[] depths = new float[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            depths[cell] = mCounts[cell] > 0 ? mSums[cell] / mCounts[cell] : Float.NaN;
+        }
+        // Sand level: median of the known cells in the middle quarter of the view.
+        float[] central = new float[cellCount / 4];
+        int known = 0;
+        for (int row = rows * 3 / 8; row < rows * 5 / 8; row++) {
+            for (int column = columns * 3 / 8; column < columns * 5 / 8; column++) {
+                float z = depths[row * columns + column];
+                if (z == z) {
+                    central[known++] = z;
+                }
+            }
+        }
+        if (known == 0) {
+            return null;
+        }
+        Arrays.sort(central, 0, known);
+        float rimDepth = central[known / 2] - mRimHeight;
+
+        boolean[] rim = new boolean[cellCount];
+        boolean[] notRim = new boolean[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            // Cells without data count as floor, so a gap in the rim data is a leak.
+            rim[cell] = depths[cell] < rimDepth;
+            notRim[cell] = !rim[cell];
+        }
+        int[] stack = new int[cellCount];
+
+        // The floor: everything the edge of the view reaches without crossing the rim.
+        boolean[] outside = new boolean[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (isEdge(cell) && !rim[cell] && !outside[cell]) {
+                flood(cell, rim, outside, stack);
+            }
+        }
+        int center = rows / 2 * columns + columns / 2;
+        if (outside[center]) {
+            // The rim is not closed around the middle of the view.
+            return null;
+        }
+
+        // The rim proper: rim cells at most a rim width in from the floor or the edge of the
+        // view. Sand heaped as high as the rim further in is not part of it.
+        boolean[] wall = new boolean[cellCount];
+        int top = 0;
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (rim[cell] && (isEdge(cell) || nextToOutside(cell, outside))) {
+                wall[cell] = true;
+                stack[top++] = cell;
+            }
+        }
+        int layers = (int) Math.ceil(mMaxRimWidth / Math.min(mFrameGrid.getCellWidth(),
+                mFrameGrid.getCellHeight()));
+        int[] next = new int[cellCount];
+        for (int layer = 1; layer < layers && top > 0; layer++) {
+            int nextTop = 0;
+            for (int i = 0; i < top; i++) {
+                int cell = stack[i];
+                int row = cell / columns;
+                int column = cell % columns;
+                if (column > 0) {
+                    nextTop = push(cell - 1, notRim, wall, next, nextTop);
+                }
+                if (column < columns - 1) {
+                    nextTop = push(cell + 1, notRim, wall, next, nextTop);
+                }
+                if (row > 0) {
+                    nextTop = push(cell - columns, notRim, wall, next, nextTop);
+                }
+                if (row < rows - 1) {
+                    nextTop = push(cell + columns, notRim, wall, next, nextTop);
+                }
+            }
+            int[] swap = stack;
+            stack = next;
+            next = swap;
+            top = nextTop;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            wall[cell] |= outside[cell];
+        }
+        if (wall[center]) {
+            return null;
+        }
+
+        boolean[] inside = new boolean[cellCount];
+        flood(center, wall, inside, stack);
+        return crop(erode(inside));
+    }
+
+    private boolean isEdge(int cell) {
+        int row = cell / mResolution;
+        int column = cell % mResolution;
+        return row == 0 || column == 0 || row == mResolution - 1 || column == mResolution - 1;
+    }
+
+    private boolean nextToOutside(int cell, boolean[] outside) {
+        // Only asked for cells off the edge, so all four neighbours exist.
+        return outside[cell - 1] || outside[cell + 1]
+                || outside[cell - mResolution] || outside[cell + mResolution];
+    }
+
+    /**
+     * Mark the cells connected to start that are not walls, four-connected.
+     */
+    private void flood(int start, boolean[] walls, boolean[] region, int[] stack) {
+        int columns = mResolution;
+        int rows = mResolution;
+        int top = 0;
+        stack[top++] = start;
+        region[start] = true;
+        while (top > 0) {
+            int cell = stack[--top];
+            int row = cell / columns;
+            int column = cell % columns;
+            if (column > 0) {
+                top = push(cell - 1, walls, region, stack, top);
+            }
+            if (column < columns - 1) {
+                top = push(cell + 1, walls, region, stack, top);
+            }
+            if (row > 0) {
+                top = push(cell - columns, walls, region, stack, top);
+            }
+            if (row < rows - 1) {
+                top = push(cell + columns, walls, region, stack, top);
+            }
+        }
+    }
+
+    private static int push(int cell, boolean[] walls, boolean[] region, int[] stack, int top) {
+        if (!walls[cell] && !region[cell]) {
+            region[cell] = true;
+            stack[top++] = cell;
+        }
+        return top;
+    }
+
+    private boolean[] erode(boolean[] inside) {
+        int columns = mResolution;
+        boolean[] eroded = new boolean[inside.length];
+        for (int cell = 0; cell < inside.length; cell++) {
+            // The edge of the view is floor or rim, so an inside cell has all four neighbours.
+            eroded[cell] = inside[cell] && inside[cell - 1] && inside[cell + 1]
+                    && inside[cell - columns] && inside[cell + columns];
+        }
+        return eroded;
+    }
+
+    /**
+     * Mask of the bounding rectangle of the inside cells.
+     */
+    private RoiMask crop(boolean[] inside) {
+        int columns = mResolution;
+        int firstColumn = columns;
+        int lastColumn = -1;
+        int firstRow = columns;
+        int lastRow = -1;
+        for (int cell = 0; cell < inside.length; cell++) {
+            if (inside[cell]) {
+                int row = cell / columns;
+                int column = cell % columns;
+                firstColumn = Math.min(firstColumn, column);
+                lastColumn = Math.max(lastColumn, column);
+                firstRow = Math.min(firstRow, row);
+                lastRow = Math.max(lastRow, row);
+            }
+        }
+        if (lastColumn < 0) {
+            return null;
+        }
+        int maskColumns = lastColumn - firstColumn + 1;
+        int maskRows = lastRow - firstRow + 1;
+        boolean[] cells = new boolean[maskColumns * maskRows];
+        for (int row = 0; row < maskRows; row++) {
+            System.arraycopy(inside, (firstRow + row) * columns + firstColumn,
+                    cells, row * maskColumns, maskColumns);
+        }
+        HeightGrid grid = mFrameGrid;
+        float cellWidth = grid.getCellWidth();
+        float cellHeight = grid.getCellHeight();
+        float minX = grid.getCellCenterX(firstColumn) - cellWidth / 2;
+        float minY = grid.getCellCenterY(firstRow) - cellHeight / 2;
+        return RoiMask.fromCells(maskColumns, maskRows, minX, minX + maskColumns * cellWidth,
+                minY, minY + maskRows * cellHeight, cells);
+    }
+}
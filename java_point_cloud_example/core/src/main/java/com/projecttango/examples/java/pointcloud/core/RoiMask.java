@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The region of interest of the depth frames, the inside of the sandbox, as a bitmask over a
+ * rectangle of depth camera XY coordinates. Whatever the shape of the box, a point is tested
+ * with a bounds check and a single bit lookup.
+ * <p>
+ * Immutable, so a mask can be handed between threads freely. Masks are either a plain
+ * rectangle, see {@link #createDefault()}, or detected by a {@link RoiDetector}.
+ */
+public class RoiMask {
+    private static final int MAGIC = 0x4b534d52; // "RMSK" read as little endian bytes
+    private static final int VERSION = 1;
+
+    private final int mColumns;
+    private final int mRows;
+    private final float mMinX;
+    private final float mMaxX;
+    private final float mMinY;
+    private final float mMaxY;
+    private final float mInvCellWidth;
+    private final float mInvCellHeight;
+    private final long[] mBits;
+
+    private RoiMask(int columns, int rows, float minX, float maxX, float minY, float maxY,
+                    long[] bits) {
+        mColumns = columns;
+        mRows = rows;
+        mMinX = minX;
+        mMaxX = maxX;
+        mMinY = minY;
+        mMaxY = maxY;
+        mInvCellWidth = columns / (maxX - minX);
+        mInvCellHeight = rows / (maxY - minY);
+        mBits = bits;
+    }
+
+    /**
+     * A mask of the given cells, row by row, over the rectangle [minX, maxX] x [minY, maxY].
+     */
+    public static RoiMask fromCells(int columns, int rows, float minX, float maxX, float minY,
+                                    float maxY, boolean[] inside) {
+        if (columns <= 0 || rows <= 0 || inside.length != columns * rows) {
+            throw new IllegalArgumentException("Mask cells do not match its resolution");
+        }
+        if (!(minX < maxX && minY < maxY)) {
+            throw new IllegalArgumentException("Mask rectangle is empty");
+        }
+        long[] bits = new long[(columns * rows + 63) / 64];
+        for (int cell = 0; cell < inside.length; cell++) {
+            if (inside[cell]) {
+                bits[cell >>> 6] |= 1L << cell;
+            }
+        }
+        return new RoiMask(columns, rows, minX, maxX, minY, maxY, bits);
+    }
+
+    /**
+     * A plain rectangle, given in double precision. The float bounds are rounded inwards, so a
+     * float coordinate passes exactly when it passes the double comparison.
+     */
+    public static RoiMask rectangle(double minX, double maxX, double minY, double maxY) {
+        return fromCells(1, 1, roundUp(minX), roundDown(maxX), roundUp(minY), roundDown(maxY),
+                new boolean[] {true});
+    }
+
+    /**
+     * The hand measured sandbox rectangle of {@link PointStages}.
+     */
+    public static RoiMask createDefault() {
+        return rectangle(PointStages.CROP_MIN_X, PointStages.CROP_MAX_X,
+                PointStages.CROP_MIN_Y, PointStages.CROP_MAX_Y);
+    }
+
+    private static float roundDown(double value) {
+        float rounded = (float) value;
+        return rounded > value ? Math.nextAfter(rounded, Double.NEGATIVE_INFINITY) : rounded;
+    }
+
+    private static float roundUp(double value) {
+        float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+
+    /**
+     * Whether the point (x, y) is inside the region. NaN coordinates are not.
+     */
+    public boolean contains(float x, float y) {
+        if (!(x >= mMinX && x <= mMaxX && y >= mMinY && y <= mMaxY)) {
+            return false;
+        }
+        // The far edges belong to the last column and row.
+        int column = Math.min((int) ((x - mMinX) * mInvCellWidth), mColumns - 1);
+        int row = Math.min((int) ((y - mMinY) * mInvCellHeight), mRows - 1);
+        int cell = row * mColumns + column;
+        return (mBits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public float getMinX() {
+        return mMinX;
+    }
+
+    public float getMaxX() {
+        return mMaxX;
+    }
+
+    public float getMinY() {
+        return mMinY;
+    }
+
+    public float getMaxY() {
+        return mMaxY;
+    }
+
+    /**
+     * Share of the bounding rectangle inside the region, 1 for a plain rectangle.
+     */
+    public float getCoverage() {
+        int inside = 0;
+        for (long word : mBits) {
+            inside += Long.bitCount(word);
+        }
+        return (float) inside / (mColumns * mRows);
+    }
+
+    /**
+     * Save the mask, e.g. to reuse a detected box after a restart.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mColumns);
+        out.writeInt(mRows);
+        out.writeFloat(mMinX);
+        out.writeFloat(mMaxX);
+        out.writeFloat(mMinY);
+        out.writeFloat(mMaxY);
+        for (long word : mBits) {
+            out.writeLong(word);
+        }
+        out.flush();
+    }
+
+    public static RoiMask readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a region of interest mask");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported mask version " + version);
+        }
+        int columns = in.readInt();
+        int rows = in.readInt();
+        float minX = in.readFloat();
+        float maxX = in.readFloat();
+        float minY = in.readFloat();
+        float maxY = in.readFloat();
+        if (columns <= 0 || rows <= 0 || columns > 4096 || rows > 4096
+                || !(minX < maxX && minY < maxY)) {
+            throw new IOException("Corrupt region of interest mask");
+        }
+        long[] bits = new long[(columns * rows + 63) / 64];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new RoiMask(columns, rows, minX, maxX, minY, maxY, bits);
+    }
+}
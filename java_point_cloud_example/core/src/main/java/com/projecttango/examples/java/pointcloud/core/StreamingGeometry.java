@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Streams per-frame vertex positions and colors into a ring of vertex buffers.
+ * <p>
+ * Every frame writes into the next slot of the ring, so the buffers the GPU may still be reading
+ * for the previous frames are never touched. A whole frame upload also orphans the slot's
+ * storage first, so the driver never has to wait for it either. Partial uploads write over the
+ * slot's existing contents, which are as old as the last time that slot was written; callers
+ * that upload ranges have to track changes per slot (see {@link #getSlot()}).
+ * <p>
+ * Data goes through one direct staging buffer, so arrays and heap buffers are copied once.
+ * <p>
+ * Colors are either four floats per vertex or, with packed colors, one RGBA8 int (see
+ * {@link ElevationPalette#toRgba8(int)}), for a normalized unsigned byte attribute. Packed colors
+ * go through an int view of the same staging memory and are uploaded as raw bytes.
+ */
+public class StreamingGeometry {
+    private static final int BYTES_PER_FLOAT = 4;
+    public static final int FLOATS_PER_COLOR = 4;
+    public static final int BYTES_PER_PACKED_COLOR = 4;
+
+    private final GeometryUploader mUploader;
+    private final int mMaxVertices;
+    private final int mFloatsPerPosition;
+    private final boolean mHasColors;
+    private final boolean mPackedColors;
+    private final int[] mPositionBuffers;
+    private final int[] mColorBuffers;
+    private final FloatBuffer mStaging;
+    private final IntBuffer mPackedStaging;
+    private int mSlot = -1;
+
+    /**
+     * @param slotCount buffers per stream, 2 for double and 3 for triple buffering.
+     */
+    public StreamingGeometry(GeometryUploader uploader, int maxVertices, int floatsPerPosition,
+                             boolean hasColors, int slotCount) {
+        this(uploader, maxVertices, floatsPerPosition, hasColors, false, slotCount);
+    }
+
+    /**
+     * @param packedColors whether colors are one RGBA8 int per vertex instead of four floats.
+     * @param slotCount buffers per stream, 2 for double and 3 for triple buffering.
+     */
+    public StreamingGeometry(GeometryUploader uploader, int maxVertices, int floatsPerPosition,
+                             boolean hasColors, boolean packedColors, int slotCount) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("At least one buffer slot is needed");
+        }
+        mUploader = uploader;
+        mMaxVertices = maxVertices;
+        mFloatsPerPosition = floatsPerPosition;
+        mHasColors = hasColors;
+        mPackedColors = packedColors;
+        mPositionBuffers = new int[slotCount];
+        mColorBuffers = new int[hasColors ? slotCount : 0];
+        for (int slot = 0; slot < slotCount; slot++) {
+            mPositionBuffers[slot] = uploader.createBuffer(positionBytes(maxVertices));
+            if (hasColors) {
+                mColorBuffers[slot] = uploader.createBuffer(colorBytes(maxVertices));
+            }
+        }
+        ByteBuffer staging = ByteBuffer
+                .allocateDirect(maxVertices * Math.max(floatsPerPosition, FLOATS_PER_COLOR)
+                        * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder());
+        mStaging = staging.asFloatBuffer();
+        mPackedStaging = staging.asIntBuffer();
+    }
+
+    /**
+     * Move on to the next slot of the ring. Every frame's uploads start with this.
+     *
+     * @return the slot the frame writes to.
+     */
+    public int beginFrame() {
+        mSlot = (mSlot + 1) % mPositionBuffers.length;
+        mUploader.beginFrame();
+        return mSlot;
+    }
+
+    /**
+     * Replace the whole contents of the current slot with the first vertexCount vertices.
+     *
+     * @param colors may be null when the geometry has no colors.
+     */
+    public void uploadAll(float[] positions, float[] colors, int vertexCount) {
+        checkVertexRange(0, vertexCount);
+        mUploader.orphanBuffer(mPositionBuffers[mSlot], positionBytes(mMaxVertices));
+        upload(mPositionBuffers[mSlot], positions, 0, vertexCount * mFloatsPerPosition);
+        if (mHasColors && colors != null) {
+            checkPackedColors(false);
+            mUploader.orphanBuffer(mColorBuffers[mSlot], colorBytes(mMaxVertices));
+            upload(mColorBuffers[mSlot], colors, 0, vertexCount * FLOATS_PER_COLOR);
+        }
+    }
+
+    /**
+     * Replace the positions of the current slot with the first vertexCount vertices of a buffer,
+     * read from its start.
+     */
+    public void uploadAll(FloatBuffer positions, int vertexCount) {
+        checkVertexRange(0, vertexCount);
+        int floatCount = vertexCount * mFloatsPerPosition;
+        mUploader.orphanBuffer(mPositionBuffers[mSlot], positionBytes(mMaxVertices));
+        if (positions.isDirect()) {
+            positions.rewind();
+            mUploader.uploadBuffer(mPositionBuffers[mSlot], 0, positions, floatCount);
+        } else {
+            mStaging.clear();
+            FloatBuffer source = positions.duplicate();
+            source.rewind();
+            source.limit(floatCount);
+            mStaging.put(source);
+            mStaging.flip();
+            mUploader.uploadBuffer(mPositionBuffers[mSlot], 0, mStaging, floatCount);
+        }
+    }
+
+    /**
+     * Write vertices firstVertex to firstVertex + vertexCount - 1 of the current slot, from
+     * arrays laid out like the whole buffer.
+     */
+    public void uploadRange(float[] positions, float[] colors, int firstVertex,
+                            int vertexCount) {
+        checkVertexRange(firstVertex, vertexCount);
+        upload(mPositionBuffers[mSlot], positions, firstVertex * mFloatsPerPosition,
+                vertexCount * mFloatsPerPosition);
+        if (mHasColors && colors != null) {
+            checkPackedColors(false);
+            upload(mColorBuffers[mSlot], colors, firstVertex * FLOATS_PER_COLOR,
+                    vertexCount * FLOATS_PER_COLOR);
+        }
+    }
+
+    /**
+     * Same as {@link #uploadRange(float[], float[], int, int)}, with packed colors.
+     */
+    public void uploadRange(float[] positions, int[] colors, int firstVertex, int vertexCount) {
+        checkVertexRange(firstVertex, vertexCount);
+        upload(mPositionBuffers[mSlot], positions, firstVertex * mFloatsPerPosition,
+                vertexCount * mFloatsPerPosition);
+        if (mHasColors && colors != null) {
+            checkPackedColors(true);
+            mPackedStaging.clear();
+            mPackedStaging.put(colors, firstVertex, vertexCount);
+            // Ints and floats are the same size; the float view only carries the bytes.
+            mStaging.clear();
+            mStaging.limit(vertexCount);
+            mUploader.uploadBuffer(mColorBuffers[mSlot], firstVertex * BYTES_PER_PACKED_COLOR,
+                    mStaging, vertexCount);
+        }
+    }
+
+    private void upload(int buffer, float[] data, int floatOffset, int floatCount) {
+        mStaging.clear();
+        mStaging.put(data, floatOffset, floatCount);
+        mStaging.flip();
+        mUploader.uploadBuffer(buffer, floatOffset * BYTES_PER_FLOAT, mStaging, floatCount);
+    }
+
+    private void checkVertexRange(int firstVertex, int vertexCount) {
+        if (mSlot < 0) {
+            throw new IllegalStateException("beginFrame has not been called");
+        }
+        if (firstVertex < 0 || vertexCount < 0 || firstVertex + vertexCount > mMaxVertices) {
+            throw new IndexOutOfBoundsException("Vertices " + firstVertex + " to "
+                    + (firstVertex + vertexCount) + " exceed " + mMaxVertices);
+        }
+    }
+
+    private void checkPackedColors(boolean packed) {
+        if (packed != mPackedColors) {
+            throw new IllegalArgumentException(
+                    packed ? "Colors are not packed" : "Colors are packed");
+        }
+    }
+
+    private int positionBytes(int vertexCount) {
+        return vertexCount * mFloatsPerPosition * BYTES_PER_FLOAT;
+    }
+
+    private int colorBytes(int vertexCount) {
+        return vertexCount * (mPackedColors ? BYTES_PER_PACKED_COLOR
+                : FLOATS_PER_COLOR * BYTES_PER_FLOAT);
+    }
+
+    /**
+     * Delete every buffer of the ring.
+     */
+    public void release() {
+        for (int buffer : mPositionBuffers) {
+            mUploader.deleteBuffer(buffer);
+        }
+        for (int buffer : mColorBuffers) {
+            mUploader.deleteBuffer(buffer);
+        }
+    }
+
+    /**
+     * Slot written by the current frame, or -1 before the first frame.
+     */
+    public int getSlot() {
+        return mSlot;
+    }
+
+    public int getSlotCount() {
+        return mPositionBuffers.length;
+    }
+
+    /**
+     * Position buffer of the current slot, the one to draw from.
+     */
+    public int getPositionBuffer() {
+        return mPositionBuffers[Math.max(mSlot, 0)];
+    }
+
+    /**
+     * Color buffer of the current slot, or 0 without colors.
+     */
+    public int getColorBuffer() {
+        return mHasColors ? mColorBuffers[Math.max(mSlot, 0)] : 0;
+    }
+
+    public int getMaxVertices() {
+        return mMaxVertices;
+    }
+}
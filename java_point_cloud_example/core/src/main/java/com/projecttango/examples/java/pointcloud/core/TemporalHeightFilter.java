@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Per-cell temporal smoothing of a height grid, to stop sensor jitter of a few millimetres from
+ * flickering the narrow color bands.
+ * <p>
+ * Each cell runs either an exponential moving average or a 1D Kalman filter. A measurement
+ * further than the spike threshold from the current estimate is rejected as an outlier, unless it
+ * keeps happening on the same side for several frames in a row: then the sand has really moved
+ * and the cell snaps to the new height instead of crawling towards it.
+ * All state lives in primitive arrays and an update allocates nothing.
+ */
+public class TemporalHeightFilter {
+    public enum Mode {
+        EXPONENTIAL, KALMAN
+    }
+
+    // Defaults tuned for the sandbox: about 3 mm of depth noise, sand that stays put between
+    // frames, and 1 cm steps counting as a real change.
+    public static final float DEFAULT_ALPHA = 0.2f;
+    public static final float DEFAULT_PROCESS_NOISE = 1e-6f;
+    public static final float DEFAULT_MEASUREMENT_NOISE = 9e-6f;
+    public static final float DEFAULT_SPIKE_THRESHOLD = 0.01f;
+    public static final int DEFAULT_MOVE_FRAMES = 3;
+
+    private final Mode mMode;
+    private final float mAlpha;
+    private final float mProcessNoise;
+    private final float mMeasurementNoise;
+    private final float mSpikeThreshold;
+    private final int mMoveFrames;
+
+    private final float[] mEstimates;
+    private final float[] mVariances;
+    // Consecutive outliers per cell: positive above the estimate, negative below.
+    private final int[] mOutliers;
+
+    private TemporalHeightFilter(int cellCount, Mode mode, float alpha, float processNoise,
+                                 float measurementNoise, float spikeThreshold, int moveFrames) {
+        mMode = mode;
+        mAlpha = alpha;
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+        mSpikeThreshold = spikeThreshold;
+        mMoveFrames = moveFrames;
+        mEstimates = new float[cellCount];
+        mVariances = new float[cellCount];
+        mOutliers = new int[cellCount];
+        reset();
+    }
+
+    /**
+     * Exponential moving average: estimate += alpha * (measurement - estimate).
+     */
+    public static TemporalHeightFilter exponential(int cellCount, float alpha,
+                                                   float spikeThreshold, int moveFrames) {
+        return new TemporalHeightFilter(cellCount, Mode.EXPONENTIAL, alpha, 0, 0,
+                spikeThreshold, moveFrames);
+    }
+
+    /**
+     * 1D Kalman filter with a constant height model.
+     *
+     * @param processNoise     variance the true height may drift by per frame, in m^2.
+     * @param measurementNoise variance of one cell measurement, in m^2.
+     */
+    public static TemporalHeightFilter kalman(int cellCount, float processNoise,
+                                              float measurementNoise, float spikeThreshold,
+                                              int moveFrames) {
+        return new TemporalHeightFilter(cellCount, Mode.KALMAN, 0, processNoise,
+                measurementNoise, spikeThreshold, moveFrames);
+    }
+
+    public static TemporalHeightFilter createDefault(int cellCount) {
+        return kalman(cellCount, DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE,
+                DEFAULT_SPIKE_THRESHOLD, DEFAULT_MOVE_FRAMES);
+    }
+
+    /**
+     * Filter the grid in place: cells measured in the last bin are updated, and every cell is
+     * set to its filtered height.
+     */
+    public void update(HeightGrid grid) {
+        update(grid.getHeights(), grid.getCounts());
+    }
+
+    /**
+     * Feed one frame of measurements. Cells whose count is zero had no measurement and only
+     * get their current estimate written back, unless their height is
+     * {@link HeightGrid#NO_DATA}: those are no longer seen, and their estimate is forgotten.
+     */
+    public void update(float[] heights, int[] counts) {
+        int cellCount = mEstimates.length;
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (counts[cell] > 0) {
+                updateCell(cell, heights[cell]);
+            } else if (heights[cell] != heights[cell]) {
+                forget(cell);
+            }
+            heights[cell] = mEstimates[cell];
+        }
+    }
+
+    private void updateCell(int cell, float measurement) {
+        float estimate = mEstimates[cell];
+        if (estimate != estimate) { // first measurement of the cell
+            restart(cell, measurement);
+            return;
+        }
+
+        float innovation = measurement - estimate;
+        if (innovation > mSpikeThreshold || innovation < -mSpikeThreshold) {
+            int outliers = mOutliers[cell];
+            // Count runs of outliers on the same side only.
+            outliers = innovation > 0 ? Math.max(outliers, 0) + 1 : Math.min(outliers, 0) - 1;
+            if (outliers >= mMoveFrames || -outliers >= mMoveFrames) {
+                restart(cell, measurement);
+            } else {
+                mOutliers[cell] = outliers;
+            }
+            return;
+        }
+        mOutliers[cell] = 0;
+
+        if (mMode == Mode.KALMAN) {
+            float variance = mVariances[cell] + mProcessNoise;
+            float gain = variance / (variance + mMeasurementNoise);
+            mEstimates[cell] = estimate + gain * innovation;
+            mVariances[cell] = (1 - gain) * variance;
+        } else {
+            mEstimates[cell] = estimate + mAlpha * innovation;
+        }
+    }
+
+    private void restart(int cell, float measurement) {
+        mEstimates[cell] = measurement;
+        mVariances[cell] = mMeasurementNoise;
+        mOutliers[cell] = 0;
+    }
+
+    private void forget(int cell) {
+        mEstimates[cell] = HeightGrid.NO_DATA;
+        mVariances[cell] = 0;
+        mOutliers[cell] = 0;
+    }
+
+    /**
+     * Forget all estimates.
+     */
+    public void reset() {
+        Arrays.fill(mEstimates, HeightGrid.NO_DATA);
+        Arrays.fill(mVariances, 0);
+        Arrays.fill(mOutliers, 0);
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public float[] getEstimates() {
+        return mEstimates;
+    }
+}
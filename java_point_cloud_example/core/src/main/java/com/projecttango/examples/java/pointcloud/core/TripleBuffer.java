@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free hand-over of the latest result from one producer thread to one consumer thread.
+ * <p>
+ * Of the three slots the producer owns one (the back), the consumer owns one (the front) and the
+ * third sits in the middle. Publishing swaps the back with the middle and flags it as new;
+ * taking swaps the front with a new middle. Neither side ever waits, the producer never
+ * overwrites what the consumer is reading, and a consumer that falls behind just skips to the
+ * latest result.
+ */
+public class TripleBuffer<T> {
+    private static final int INDEX_MASK = 3;
+    // Set on the middle index when it holds a result the consumer has not taken yet.
+    private static final int FRESH = 4;
+
+    private final Object[] mSlots;
+    private final AtomicInteger mMiddle = new AtomicInteger(2);
+    // Only touched by the producer.
+    private int mBack = 0;
+    // Only touched by the consumer.
+    private int mFront = 1;
+
+    public TripleBuffer(T first, T second, T third) {
+        mSlots = new Object[] {first, second, third};
+    }
+
+    /**
+     * The slot the producer writes the next result into.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Hand the back slot over to the consumer and take a free slot as the new back.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Take the latest published result, if there is one the consumer has not seen.
+     *
+     * @return the new front slot, or null when nothing was published since the last take.
+     */
+    @SuppressWarnings("unchecked")
+    public T takeLatest() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return null;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        return (T) mSlots[mFront];
+    }
+
+    /**
+     * The slot the consumer last took. Before the first take this is a slot nothing was
+     * written to.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) mSlots[mFront];
+    }
+}
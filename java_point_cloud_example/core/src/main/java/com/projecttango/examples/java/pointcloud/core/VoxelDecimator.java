@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Thins a colored point cloud down to a point budget while keeping its coverage: space is cut
+ * into cubic voxels and only the first point of each occupied voxel, in scan order, is kept. The
+ * voxel size starts from the one that fit the previous frame, or from the area the points cover,
+ * and grows until the occupied voxels fit the budget.
+ * <p>
+ * Voxels are looked up in an open addressing table of packed long keys, so a frame allocates
+ * nothing and boxes nothing. Kept points are copied unchanged, colors included, and stay in
+ * scan order.
+ */
+public class VoxelDecimator {
+    private static final int FLOATS_PER_POINT = FrameBuffer.FLOATS_PER_POINT;
+    private static final int FLOATS_PER_COLOR = 4;
+    // Bits of each voxel coordinate in a packed key.
+    private static final int KEY_BITS = 21;
+    private static final int MAX_VOXEL_INDEX = (1 << KEY_BITS) - 1;
+    private static final double VOXEL_INDEX_OFFSET = 1 << (KEY_BITS - 1);
+    // Voxels any smaller are indistinguishable from the sensor noise; also the guess for
+    // degenerate frames.
+    private static final float MIN_VOXEL_SIZE = 0.001f;
+    private static final long EMPTY = -1L;
+    // Voxel size growth passes before falling back to a plain stride.
+    private static final int MAX_PASSES = 8;
+
+    private final int mMaxPoints;
+    private final float[] mPoints;
+    private final float[] mColors;
+    private final long[] mKeys;
+    // Table slots in use for the current budget, minus one.
+    private int mMask;
+    private int mPointCount;
+    private float mVoxelSize;
+    // Voxel size that fit the budget in the last thinned frame.
+    private float mLastVoxelSize;
+    private int mPasses;
+    // Points a failed pass got through before the budget ran out.
+    private int mScanned;
+
+    /**
+     * @param maxPoints the largest budget a frame will be thinned to.
+     */
+    public VoxelDecimator(int maxPoints) {
+        if (maxPoints <= 0) {
+            throw new IllegalArgumentException("Point budget must be positive");
+        }
+        mMaxPoints = maxPoints;
+        mPoints = new float[maxPoints * FLOATS_PER_POINT];
+        mColors = new float[maxPoints * FLOATS_PER_COLOR];
+        // At most budget + 1 voxels go in before a pass gives up, so the table stays at most
+        // half full.
+        mKeys = new long[tableCapacity(maxPoints)];
+    }
+
+    /**
+     * Keep at most budget of the pointCount points. With budget or fewer points they are all
+     * copied.
+     *
+     * @return the number of points written to {@link #getPoints()} and {@link #getColors()}.
+     */
+    public int process(float[] points, float[] colors, int pointCount, int budget) {
+        budget = Math.min(budget, mMaxPoints);
+        mPasses = 0;
+        if (pointCount <= budget) {
+            System.arraycopy(points, 0, mPoints, 0, pointCount * FLOATS_PER_POINT);
+            System.arraycopy(colors, 0, mColors, 0, pointCount * FLOATS_PER_COLOR);
+            mVoxelSize = 0;
+            mPointCount = pointCount;
+            return pointCount;
+        }
+
+        float voxelSize = mLastVoxelSize > 0
+                // Consecutive frames are alike: start just below what fit the last one, so
+                // most frames take a single pass and the size can still shrink back over a few.
+                ? mLastVoxelSize / 1.05f
+                : estimateVoxelSize(points, pointCount, budget);
+
+        voxelSize = Math.max(voxelSize, MIN_VOXEL_SIZE);
+        mMask = tableCapacity(budget) - 1;
+        int kept = -1;
+        while (mPasses < MAX_PASSES) {
+            mPasses++;
+            kept = keepFirstPerVoxel(points, colors, pointCount, budget, voxelSize);
+            if (kept >= 0) {
+                break;
+            }
+            // The budget ran out after mScanned points. Assuming the rest of the frame is as
+            // dense, grow the voxels so the whole frame would just fit, with some margin.
+            float overflow = (float) pointCount / mScanned;
+            voxelSize *= Math.max(1.05f, (float) Math.sqrt(overflow) * 1.1f);
+        }
+        if (kept < 0) {
+            kept = keepStride(points, colors, pointCount, budget);
+        }
+        mVoxelSize = voxelSize;
+        mLastVoxelSize = voxelSize;
+        mPointCount = kept;
+        return kept;
+    }
+
+    /**
+     * First guess, for a frame without a previous one: a depth frame is a surface seen from one
+     * side, so its occupied voxels grow with the area it covers.
+     */
+    private static float estimateVoxelSize(float[] points, int pointCount, int budget) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < pointCount; i++) {
+            int src = i * FLOATS_PER_POINT;
+            minX = Math.min(minX, points[src]);
+            maxX = Math.max(maxX, points[src]);
+            minY = Math.min(minY, points[src + 1]);
+            maxY = Math.max(maxY, points[src + 1]);
+        }
+        float area = (maxX - minX) * (maxY - minY);
+        return area > 0 ? (float) Math.sqrt(area / budget) : MIN_VOXEL_SIZE;
+    }
+
+    /**
+     * @return the number of points kept, or -1 if more than budget voxels are occupied.
+     */
+    private int keepFirstPerVoxel(float[] points, float[] colors, int pointCount, int budget,
+                                  float voxelSize) {
+        Arrays.fill(mKeys, 0, mMask + 1, EMPTY);
+        double scale = 1 / voxelSize;
+        int kept = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int src = i * FLOATS_PER_POINT;
+            long x = voxelIndex(points[src], scale);
+            long y = voxelIndex(points[src + 1], scale);
+            long z = voxelIndex(points[src + 2], scale);
+            long key = (x << (2 * KEY_BITS)) | (y << KEY_BITS) | z;
+            if (!insert(key)) {
+                continue;
+            }
+            if (kept == budget) {
+                mScanned = i + 1;
+                return -1;
+            }
+            copy(points, colors, i, kept++);
+        }
+        return kept;
+    }
+
+    private static int tableCapacity(int budget) {
+        return Integer.highestOneBit(budget) * 4;
+    }
+
+    private static long voxelIndex(float coordinate, double scale) {
+        // Voxels are counted from a fixed origin, offset to make the indices positive.
+        int index = (int) (coordinate * scale + VOXEL_INDEX_OFFSET);
+        return Math.max(0, Math.min(index, MAX_VOXEL_INDEX));
+    }
+
+    /**
+     * @return whether the key was not in the table yet.
+     */
+    private boolean insert(long key) {
+        int slot = hash(key) & mMask;
+        while (true) {
+            long current = mKeys[slot];
+            if (current == EMPTY) {
+                mKeys[slot] = key;
+                return true;
+            }
+            if (current == key) {
+                return false;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    private static int hash(long key) {
+        // Finalizer of MurmurHash3, so neighbouring voxels spread over the table.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb93fe53ec9e3L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int keepStride(float[] points, float[] colors, int pointCount, int budget) {
+        for (int k = 0; k < budget; k++) {
+            copy(points, colors, (int) ((long) k * pointCount / budget), k);
+        }
+        return budget;
+    }
+
+    private void copy(float[] points, float[] colors, int from, int to) {
+        System.arraycopy(points, from * FLOATS_PER_POINT, mPoints, to * FLOATS_PER_POINT,
+                FLOATS_PER_POINT);
+        System.arraycopy(colors, from * FLOATS_PER_COLOR, mColors, to * FLOATS_PER_COLOR,
+                FLOATS_PER_COLOR);
+    }
+
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    public float[] getColors() {
+        return mColors;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Edge of the voxels of the last frame in meters, or 0 if it was within budget.
+     */
+    public float getVoxelSize() {
+        return mVoxelSize;
+    }
+
+    /**
+     * Voxel sizes tried for the last frame.
+     */
+    public int getPasses() {
+        return mPasses;
+    }
+
+    public int getMaxPoints() {
+        return mMaxPoints;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.Arrays;
+
+/**
+ * Virtual water flowing over the sand, with the virtual pipe model: every cell holds a water
+ * depth and is joined to its four neighbours by pipes, whose outflows are accelerated by the
+ * difference in water surface height and scaled down so a cell never gives away more water
+ * than it holds. Water runs downhill and pools in the hollows.
+ * <p>
+ * The simulation advances in fixed time steps, however often and irregularly
+ * {@link #advance(double)} is called, so its speed does not depend on the render or depth frame
+ * rate. Each step is two passes over the grid, the outflows and then the depths, each split into
+ * strips of rows over a {@link WorkerPool}. The state is double-buffered primitive arrays: a
+ * pass reads only the previous buffers and each strip writes only its own rows, so the result
+ * does not depend on the number of threads.
+ * <p>
+ * The terrain comes from the sandbox height grid, whose heights are depths from the camera, so
+ * further is lower. It can be replaced from another thread at any time; the simulation switches
+ * to it between two steps. Water depths are published through a {@link TripleBuffer} after
+ * every {@link #advance(double)}, for a consumer on another thread.
+ */
+public class WaterSimulation {
+    public static final float GRAVITY = 9.81f;
+    // 200 steps per second.
+    public static final float DEFAULT_TIME_STEP = 0.005f;
+    // Share of its outflow a pipe keeps from one step to the next, which calms sloshing.
+    public static final float DEFAULT_FLOW_DAMPING = 0.99f;
+    // Most steps one advance runs; a simulation further behind slows down instead.
+    public static final int MAX_STEPS_PER_ADVANCE = 20;
+    // Elevation of cells without a height: a wall no water flows into.
+    private static final float WALL = 1e6f;
+    private static final int ROWS_PER_STRIP = 16;
+
+    private final int mColumns;
+    private final int mRows;
+    private final float mCellWidth;
+    private final float mCellHeight;
+    private final float mTimeStep;
+    private final WorkerPool mPool;
+    private final int mStrips;
+    private volatile float mFlowDamping = DEFAULT_FLOW_DAMPING;
+    private volatile float mRainRate;
+    private volatile float mEvaporationRate;
+
+    // Elevation of the sand, up being positive; only touched by the simulating thread.
+    private final float[] mTerrain;
+    private final float[] mPendingTerrain;
+    private boolean mTerrainPending;
+    private volatile boolean mClearPending;
+
+    // Double-buffered state: water depth, and outflow towards each neighbour in m^3/s.
+    private final float[][] mDepth = new float[2][];
+    private final float[][] mFlowLeft = new float[2][];
+    private final float[][] mFlowRight = new float[2][];
+    private final float[][] mFlowUp = new float[2][];
+    private final float[][] mFlowDown = new float[2][];
+    // Index of the buffers holding the current state.
+    private int mCurrent;
+    private double mBacklog;
+    private long mStepCount;
+    private final TripleBuffer<float[]> mOutput;
+
+    private final WorkerPool.Task mFlowTask = new WorkerPool.Task() {
+        @Override
+        public void run(int strip) {
+            updateFlows(strip);
+        }
+    };
+    private final WorkerPool.Task mDepthTask = new WorkerPool.Task() {
+        @Override
+        public void run(int strip) {
+            updateDepths(strip);
+        }
+    };
+
+    public WaterSimulation(int columns, int rows, float cellWidth, float cellHeight,
+                           float timeStep, WorkerPool pool) {
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Grid resolution must be positive");
+        }
+        if (!(timeStep > 0)) {
+            throw new IllegalArgumentException("Time step must be positive");
+        }
+        mColumns = columns;
+        mRows = rows;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mTimeStep = timeStep;
+        mPool = pool;
+        mStrips = (rows + ROWS_PER_STRIP - 1) / ROWS_PER_STRIP;
+        int cells = columns * rows;
+        mTerrain = new float[cells];
+        mPendingTerrain = new float[cells];
+        Arrays.fill(mTerrain, WALL);
+        for (int i = 0; i < 2; i++) {
+            mDepth[i] = new float[cells];
+            mFlowLeft[i] = new float[cells];
+            mFlowRight[i] = new float[cells];
+            mFlowUp[i] = new float[cells];
+            mFlowDown[i] = new float[cells];
+        }
+        mOutput = new TripleBuffer<float[]>(new float[cells], new float[cells], new float[cells]);
+    }
+
+    /**
+     * A simulation over the cells of a height grid, with the default time step.
+     */
+    public static WaterSimulation forGrid(HeightGrid grid, WorkerPool pool) {
+        return new WaterSimulation(grid.getColumns(), grid.getRows(), grid.getCellWidth(),
+                grid.getCellHeight(), DEFAULT_TIME_STEP, pool);
+    }
+
+    /**
+     * Replace the terrain with the heights of a height grid, depths from the camera with NaN
+     * where there is no data. Can be called from any thread.
+     */
+    public void setTerrainDepths(float[] depths) {
+        synchronized (mPendingTerrain) {
+            for (int i = 0; i < mPendingTerrain.length; i++) {
+                float depth = depths[i];
+                mPendingTerrain[i] = depth == depth ? -depth : WALL;
+            }
+            mTerrainPending = true;
+        }
+    }
+
+    /**
+     * Water added to every cell, in metres per second.
+     */
+    public void setRainRate(float metresPerSecond) {
+        mRainRate = metresPerSecond;
+    }
+
+    /**
+     * Water removed from every cell that has some, in metres per second.
+     */
+    public void setEvaporationRate(float metresPerSecond) {
+        mEvaporationRate = metresPerSecond;
+    }
+
+    public void setFlowDamping(float flowDamping) {
+        mFlowDamping = flowDamping;
+    }
+
+    /**
+     * Drain all water before the next step. Can be called from any thread.
+     */
+    public void clearWater() {
+        mClearPending = true;
+    }
+
+    /**
+     * Run the time steps that fit into the elapsed time plus what was left over last time, at
+     * most {@link #MAX_STEPS_PER_ADVANCE}, and publish the water depths.
+     *
+     * @return the number of steps run.
+     */
+    public int advance(double seconds) {
+        mBacklog += seconds;
+        int steps = (int) (mBacklog / mTimeStep);
+        if (steps > MAX_STEPS_PER_ADVANCE) {
+            steps = MAX_STEPS_PER_ADVANCE;
+            mBacklog = 0;
+        } else {
+            mBacklog -= steps * mTimeStep;
+        }
+        for (int i = 0; i < steps; i++) {
+            step();
+        }
+        System.arraycopy(mDepth[mCurrent], 0, mOutput.getBack(), 0, mColumns * mRows);
+        mOutput.publish();
+        return steps;
+    }
+
+    /**
+     * Run one time step.
+     */
+    public void step() {
+        applyPending();
+        mPool.run(mStrips, mFlowTask);
+        mPool.run(mStrips, mDepthTask);
+        mCurrent ^= 1;
+        mStepCount++;
+    }
+
+    private void applyPending() {
+        synchronized (mPendingTerrain) {
+            if (mTerrainPending) {
+                System.arraycopy(mPendingTerrain, 0, mTerrain, 0, mTerrain.length);
+                mTerrainPending = false;
+            }
+        }
+        if (mClearPending) {
+            mClearPending = false;
+            for (int i = 0; i < 2; i++) {
+                Arrays.fill(mDepth[i], 0);
+                Arrays.fill(mFlowLeft[i], 0);
+                Arrays.fill(mFlowRight[i], 0);
+                Arrays.fill(mFlowUp[i], 0);
+                Arrays.fill(mFlowDown[i], 0);
+            }
+        }
+    }
+
+    /**
+     * New outflows from the current depths and outflows. Pipes of cross section cell area
+     * and cell length.
+     */
+    private void updateFlows(int strip) {
+        float[] depth = mDepth[mCurrent];
+        float[] left = mFlowLeft[mCurrent];
+        float[] right = mFlowRight[mCurrent];
+        float[] up = mFlowUp[mCurrent];
+        float[] down = mFlowDown[mCurrent];
+        float[] newLeft = mFlowLeft[mCurrent ^ 1];
+        float[] newRight = mFlowRight[mCurrent ^ 1];
+        float[] newUp = mFlowUp[mCurrent ^ 1];
+        float[] newDown = mFlowDown[mCurrent ^ 1];
+        float[] terrain = mTerrain;
+        float area = mCellWidth * mCellHeight;
+        float dt = mTimeStep;
+        float damping = mFlowDamping;
+        // Acceleration of a pipe's flow per metre of surface difference, along x and y.
+        float kx = dt * GRAVITY * area / mCellWidth;
+        float ky = dt * GRAVITY * area / mCellHeight;
+        int columns = mColumns;
+        int firstRow = strip * ROWS_PER_STRIP;
+        int endRow = Math.min(firstRow + ROWS_PER_STRIP, mRows);
+
+        for (int row = firstRow; row < endRow; row++) {
+            for (int column = 0, i = row * columns; column < columns; column++, i++) {
+                float water = depth[i];
+                float surface = terrain[i] + water;
+                float fl = column > 0 ? Math.max(0f,
+                        left[i] * damping + kx * (surface - terrain[i - 1] - depth[i - 1])) : 0f;
+                float fr = column + 1 < columns ? Math.max(0f,
+                        right[i] * damping + kx * (surface - terrain[i + 1] - depth[i + 1])) : 0f;
+                float fu = row > 0 ? Math.max(0f, up[i] * damping
+                        + ky * (surface - terrain[i - columns] - depth[i - columns])) : 0f;
+                float fd = row + 1 < mRows ? Math.max(0f, down[i] * damping
+                        + ky * (surface - terrain[i + columns] - depth[i + columns])) : 0f;
+                float out = (fl + fr + fu + fd) * dt;
+                if (out > water * area) {
+                    // Never give away more than there is.
+                    float scale = out > 0 ? water * area / out : 0f;
+                    fl *= scale;
+                    fr *= scale;
+                    fu *= scale;
+                    fd *= scale;
+                }
+                newLeft[i] = fl;
+                newRight[i] = fr;
+                newUp[i] = fu;
+                newDown[i] = fd;
+            }
+        }
+    }
+
+    /**
+     * New depths from the current depths and the new outflows of each cell and its neighbours.
+     */
+    private void updateDepths(int strip) {
+        float[] depth = mDepth[mCurrent];
+        float[] newDepth = mDepth[mCurrent ^ 1];
+        float[] left = mFlowLeft[mCurrent ^ 1];
+        float[] right = mFlowRight[mCurrent ^ 1];
+        float[] up = mFlowUp[mCurrent ^ 1];
+        float[] down = mFlowDown[mCurrent ^ 1];
+        float[] terrain = mTerrain;
+        float volumeToDepth = mTimeStep / (mCellWidth * mCellHeight);
+        float rain = mRainRate * mTimeStep;
+        float evaporation = mEvaporationRate * mTimeStep;
+        int columns = mColumns;
+        int firstRow = strip * ROWS_PER_STRIP;
+        int endRow = Math.min(firstRow + ROWS_PER_STRIP, mRows);
+
+        for (int row = firstRow; row < endRow; row++) {
+            for (int column = 0, i = row * columns; column < columns; column++, i++) {
+                if (terrain[i] == WALL) {
+                    newDepth[i] = 0f;
+                    continue;
+                }
+                float in = (column > 0 ? right[i - 1] : 0f)
+                        + (column + 1 < columns ? left[i + 1] : 0f)
+                        + (row > 0 ? down[i - columns] : 0f)
+                        + (row + 1 < mRows ? up[i + columns] : 0f);
+                float out = left[i] + right[i] + up[i] + down[i];
+                float water = depth[i] + (in - out) * volumeToDepth + rain;
+                newDepth[i] = water > evaporation ? water - evaporation : 0f;
+            }
+        }
+    }
+
+    /**
+     * Water depths of the last {@link #advance(double)}, if newer than those of the previous
+     * call; for one consumer thread. Do not modify.
+     *
+     * @return the depths per cell in metres, or null if nothing new was published.
+     */
+    public float[] takeLatestDepths() {
+        return mOutput.takeLatest();
+    }
+
+    /**
+     * Current water depths. Only for the simulating thread; do not modify.
+     */
+    public float[] getDepths() {
+        return mDepth[mCurrent];
+    }
+
+    /**
+     * Total water volume in cubic metres. Only for the simulating thread.
+     */
+    public double getVolume() {
+        double volume = 0;
+        for (float depth : mDepth[mCurrent]) {
+            volume += depth;
+        }
+        return volume * mCellWidth * mCellHeight;
+    }
+
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    public float getTimeStep() {
+        return mTimeStep;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+}
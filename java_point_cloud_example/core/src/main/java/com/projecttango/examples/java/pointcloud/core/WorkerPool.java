@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of worker threads that run the numbered tasks of one job at a time, with the
+ * calling thread helping. Starting a job allocates nothing, so it can run several times a frame.
+ * <p>
+ * Tasks are handed out in index order but may finish in any order; callers get determinism by
+ * having each task write only its own part of the output.
+ */
+public class WorkerPool {
+    /**
+     * One job, run once for each task index.
+     */
+    public interface Task {
+        void run(int index);
+    }
+
+    private final Thread[] mThreads;
+    private final Object mLock = new Object();
+    // Job generation in the high half, next task index in the low half, so a worker that wakes
+    // up late can never take a task of the following job.
+    private final AtomicLong mCursor = new AtomicLong();
+    private int mGeneration;
+    private Task mTask;
+    private int mTaskCount;
+    private int mPending;
+    private Throwable mFailure;
+    private boolean mShutdown;
+
+    /**
+     * @param threads threads working on a job, the caller included. 1 runs every job inline.
+     */
+    public WorkerPool(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A worker pool needs at least one thread");
+        }
+        mThreads = new Thread[threads - 1];
+        for (int i = 0; i < mThreads.length; i++) {
+            mThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, "FrameWorker-" + (i + 1));
+            mThreads[i].setDaemon(true);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Run task for every index from 0 to taskCount - 1 and wait until all have finished.
+     * Only one thread at a time may start jobs.
+     */
+    public void run(int taskCount, Task task) {
+        if (mThreads.length == 0 || taskCount <= 1) {
+            for (int i = 0; i < taskCount; i++) {
+                task.run(i);
+            }
+            return;
+        }
+        int generation;
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("Worker pool is shut down");
+            }
+            generation = ++mGeneration;
+            mTask = task;
+            mTaskCount = taskCount;
+            mPending = taskCount;
+            mFailure = null;
+            mCursor.set((long) generation << 32);
+            mLock.notifyAll();
+        }
+        work(generation, task, taskCount);
+        Throwable failure;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // The workers are still using the job's data, so keep waiting for them.
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mTask = null;
+            failure = mFailure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while (true) {
+            int generation;
+            Task task;
+            int taskCount;
+            synchronized (mLock) {
+                while (mGeneration == seen && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Only shutdown stops a worker.
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                generation = mGeneration;
+                seen = generation;
+                task = mTask;
+                taskCount = mTaskCount;
+            }
+            if (task != null) {
+                work(generation, task, taskCount);
+            }
+        }
+    }
+
+    private void work(int generation, Task task, int taskCount) {
+        int done = 0;
+        Throwable failure = null;
+        while (true) {
+            long cursor = mCursor.get();
+            int index = (int) cursor;
+            if ((int) (cursor >>> 32) != generation || index >= taskCount) {
+                break;
+            }
+            if (!mCursor.compareAndSet(cursor, cursor + 1)) {
+                continue;
+            }
+            try {
+                task.run(index);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            done++;
+        }
+        if (done > 0) {
+            synchronized (mLock) {
+                if (failure != null && mFailure == null) {
+                    mFailure = failure;
+                }
+                mPending -= done;
+                if (mPending == 0) {
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Threads working on a job, the caller included.
+     */
+    public int getThreadCount() {
+        return mThreads.length + 1;
+    }
+
+    /**
+     * Stop the worker threads once they are idle.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link ContourSimplifier} on the isolines of a wavy terrain: stitching alone keeps exactly the
+ * extracted segments, and simplified polylines stay within the tolerance of the stitched ones.
+ */
+public class ContourSimplifierTest {
+    private static final int FLOATS = ContourSimplifier.FLOATS_PER_VERTEX;
+    // The simplifier matches end points rounded to this, about a micrometer.
+    private static final float KEY_SCALE = 1 << 20;
+    private static final int[] RESOLUTIONS = {16, 64, 200};
+    private static final float[] TOLERANCES = {0.0005f, 0.001f, 0.002f, 0.01f};
+
+    @Test
+    public void stitchingAtToleranceZeroKeepsTheSegments() {
+        for (int resolution : RESOLUTIONS) {
+            IsolineExtractor extractor = extract(resolution);
+            int vertexCount = extractor.getVertexCount();
+            assertTrue(vertexCount > 0);
+
+            ContourSimplifier simplifier = new ContourSimplifier();
+            simplifier.setTolerance(0);
+            int lineVertices = simplifier.process(extractor.getVertices(), vertexCount);
+
+            assertEquals("vertices at " + resolution, vertexCount, lineVertices);
+            assertEquals("segments at " + resolution,
+                    segmentKeys(extractor.getVertices(), vertexCount),
+                    segmentKeys(simplifier.getLineVertices(), lineVertices));
+            assertTrue(simplifier.getPolylineCount() < vertexCount / 2);
+        }
+    }
+
+    @Test
+    public void simplifiedPolylinesStayWithinTheTolerance() {
+        for (int resolution : RESOLUTIONS) {
+            IsolineExtractor extractor = extract(resolution);
+            ContourSimplifier stitched = new ContourSimplifier();
+            stitched.setTolerance(0);
+            int stitchedVertices = stitched.process(extractor.getVertices(),
+                    extractor.getVertexCount());
+            int fewest = stitchedVertices;
+            for (float tolerance : TOLERANCES) {
+                ContourSimplifier simplified = new ContourSimplifier();
+                simplified.setTolerance(tolerance);
+                int lineVertices = simplified.process(extractor.getVertices(),
+                        extractor.getVertexCount());
+                assertTrue(lineVertices <= fewest);
+                fewest = lineVertices;
+                assertEquals(stitched.getPolylineCount(), simplified.getPolylineCount());
+                for (int polyline = 0; polyline < stitched.getPolylineCount(); polyline++) {
+                    assertWithinTolerance(resolution + " at " + tolerance + " m, polyline "
+                            + polyline, stitched, simplified, polyline, tolerance);
+                }
+            }
+            assertTrue("nothing simplified at " + resolution, fewest < stitchedVertices);
+        }
+    }
+
+    /**
+     * Every vertex of the stitched polyline lies within the tolerance of the simplified
+     * segment spanning it, and the simplified polyline keeps a subsequence of its vertices,
+     * including both ends.
+     */
+    private static void assertWithinTolerance(String message, ContourSimplifier stitched,
+                                              ContourSimplifier simplified, int polyline,
+                                              float tolerance) {
+        float[] original = stitched.getPolylineVertices();
+        int first = stitched.getPolylineStart(polyline);
+        int end = stitched.getPolylineStart(polyline + 1);
+        float[] kept = simplified.getPolylineVertices();
+        int keptFirst = simplified.getPolylineStart(polyline);
+        int keptEnd = simplified.getPolylineStart(polyline + 1);
+        assertTrue(message + ": kept " + (keptEnd - keptFirst), keptEnd - keptFirst >= 2);
+        assertTrue(message + ": first vertex", sameVertex(original, first, kept, keptFirst));
+        assertTrue(message + ": last vertex", sameVertex(original, end - 1, kept, keptEnd - 1));
+
+        int k = keptFirst;
+        for (int i = first + 1; i < end; i++) {
+            if (k + 1 < keptEnd && sameVertex(original, i, kept, k + 1)) {
+                k++;
+                continue;
+            }
+            double distance = distanceToSegment(original, i, kept, k, k + 1);
+            assertTrue(message + ": vertex " + (i - first) + " is " + distance + " m away",
+                    distance <= tolerance * 1.0001);
+        }
+        assertEquals(message + ": kept vertices not in the original", keptEnd - 1, k);
+    }
+
+    private static boolean sameVertex(float[] a, int i, float[] b, int j) {
+        return a[i * FLOATS] == b[j * FLOATS] && a[i * FLOATS + 1] == b[j * FLOATS + 1];
+    }
+
+    private static double distanceToSegment(float[] points, int i, float[] line, int a, int b) {
+        double ax = line[a * FLOATS];
+        double ay = line[a * FLOATS + 1];
+        double dx = line[b * FLOATS] - ax;
+        double dy = line[b * FLOATS + 1] - ay;
+        double px = points[i * FLOATS] - ax;
+        double py = points[i * FLOATS + 1] - ay;
+        double squaredLength = dx * dx + dy * dy;
+        double t = squaredLength > 0
+                ? Math.min(Math.max((px * dx + py * dy) / squaredLength, 0), 1) : 0;
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+
+    /**
+     * The isolines of a terrain like that of the benchmarks, with hills and valleys crossing
+     * several color bands.
+     */
+    private static IsolineExtractor extract(int resolution) {
+        HeightGrid grid = HeightGrid.forSandbox(resolution);
+        float[] heights = grid.getHeights();
+        float mid = (float) (ElevationPalette.MIN_DEPTH + ElevationPalette.MAX_DEPTH) / 2;
+        float amplitude = (float) (ElevationPalette.MAX_DEPTH - ElevationPalette.MIN_DEPTH) / 2;
+        for (int row = 0; row < resolution; row++) {
+            for (int column = 0; column < resolution; column++) {
+                heights[row * resolution + column] = mid + amplitude
+                        * (float) (Math.sin(column * 6.0 / resolution)
+                        * Math.cos(row * 4.0 / resolution));
+            }
+        }
+        IsolineExtractor extractor = IsolineExtractor.forPalette(resolution * resolution);
+        extractor.extract(grid);
+        return extractor;
+    }
+
+    /**
+     * The segments as a sorted list of keys, each with its end points rounded the way the
+     * simplifier matches them and in a fixed order, so the same segments give the same list
+     * whichever way round and in whatever order they were written.
+     */
+    private static List<String> segmentKeys(float[] vertices, int vertexCount) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i + 1 < vertexCount; i += 2) {
+            String[] ends = {vertexKey(vertices, i), vertexKey(vertices, i + 1)};
+            Arrays.sort(ends);
+            keys.add(ends[0] + " " + ends[1]);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static String vertexKey(float[] vertices, int vertex) {
+        int src = vertex * FLOATS;
+        return Math.round(vertices[src] * KEY_SCALE) + ","
+                + Math.round(vertices[src + 1] * KEY_SCALE) + ","
+                + Float.floatToIntBits(vertices[src + 2]);
+    }
+}
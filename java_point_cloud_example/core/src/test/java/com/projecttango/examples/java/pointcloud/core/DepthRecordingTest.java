@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Frames written by a {@link DepthRecorder} come back from a {@link DepthReplay} exactly as they
+ * were recorded, whatever the size of the mapping window.
+ */
+public class DepthRecordingTest {
+    private static final int FRAME_COUNT = 60;
+    // Smaller than most frames, so frames straddle windows and the replay keeps remapping.
+    private static final long SMALL_WINDOW_BYTES = 4096;
+    private static final int RECORDER_MAX_POINTS = 500;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * A frame as handed to the recorder.
+     */
+    private static class Recorded {
+        final double timestamp;
+        final float[] points;
+        final float[] transform;
+        final boolean transformValid;
+
+        Recorded(double timestamp, float[] points, float[] transform, boolean transformValid) {
+            this.timestamp = timestamp;
+            this.points = points;
+            this.transform = transform;
+            this.transformValid = transformValid;
+        }
+    }
+
+    @Test
+    public void framesRoundTrip() throws IOException, InterruptedException {
+        File file = mFolder.newFile("frames" + DepthRecording.FILE_EXTENSION);
+        List<Recorded> frames = createFrames(new Random(1));
+        record(file, frames);
+        assertTrue(file.length() > SMALL_WINDOW_BYTES * 10);
+
+        DepthReplay replay = new DepthReplay(file);
+        try {
+            assertFrames(frames, replay);
+        } finally {
+            replay.close();
+        }
+        replay = new DepthReplay(file, SMALL_WINDOW_BYTES);
+        try {
+            assertFrames(frames, replay);
+            // Going back to earlier frames maps their window again.
+            DepthReplay.Frame frame = new DepthReplay.Frame();
+            for (int i = frames.size() - 1; i >= 0; i -= 7) {
+                replay.readFrame(i, frame);
+                assertFrame("frame " + i + " read backwards", frames.get(i), frame);
+            }
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void recordingCutShortKeepsTheWholeFrames() throws IOException, InterruptedException {
+        File file = mFolder.newFile("cut" + DepthRecording.FILE_EXTENSION);
+        List<Recorded> frames = createFrames(new Random(2));
+        record(file, frames);
+        // Cut the last frame in half, as if the app was killed while writing it.
+        Recorded last = frames.remove(frames.size() - 1);
+        RandomAccessFile cut = new RandomAccessFile(file, "rw");
+        try {
+            cut.setLength(cut.length() - DepthRecording.frameBytes(last.points.length / 4) / 2);
+        } finally {
+            cut.close();
+        }
+
+        DepthReplay replay = new DepthReplay(file, SMALL_WINDOW_BYTES);
+        try {
+            assertFrames(frames, replay);
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void stopKeepsEveryAcceptedFrame() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            File file = mFolder.newFile("stop" + run + DepthRecording.FILE_EXTENSION);
+            final DepthRecorder recorder = new DepthRecorder(file, RECORDER_MAX_POINTS);
+            final List<Recorded> frames = createFrames(new Random(run));
+            final List<Recorded> accepted = new ArrayList<Recorded>();
+            final AtomicBoolean started = new AtomicBoolean();
+            recorder.start();
+            // Record from another thread, as the Tango callback does, while stop() runs.
+            Thread callback = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; !Thread.currentThread().isInterrupted();
+                         i = (i + 1) % frames.size()) {
+                        Recorded frame = frames.get(i);
+                        if (record(recorder, frame)) {
+                            accepted.add(frame);
+                        }
+                        started.set(true);
+                    }
+                }
+            });
+            callback.start();
+            while (!started.get()) {
+                Thread.yield();
+            }
+            recorder.stop();
+            callback.interrupt();
+            callback.join();
+
+            assertEquals(accepted.size(), recorder.getRecordedFrames());
+            DepthReplay replay = new DepthReplay(file, SMALL_WINDOW_BYTES);
+            try {
+                assertFrames(accepted, replay);
+            } finally {
+                replay.close();
+            }
+        }
+    }
+
+    /**
+     * Frames of varying sizes, from empty to larger than the recorder's slots, with and
+     * without a valid transform, and with a few special float values among the points.
+     */
+    private static List<Recorded> createFrames(Random random) {
+        List<Recorded> frames = new ArrayList<Recorded>();
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            int numPoints = i % 10 == 0 ? 0 : random.nextInt(3 * RECORDER_MAX_POINTS);
+            float[] points = new float[numPoints * FrameBuffer.FLOATS_PER_POINT];
+            for (int j = 0; j < points.length; j++) {
+                points[j] = (random.nextFloat() - 0.5f) * 8;
+            }
+            if (numPoints > 2) {
+                points[1] = Float.NaN;
+                points[6] = Float.NEGATIVE_INFINITY;
+                points[9] = -0f;
+            }
+            boolean transformValid = i % 3 != 1;
+            float[] transform = null;
+            if (transformValid || i % 2 == 0) {
+                transform = new float[DepthRecording.TRANSFORM_FLOATS];
+                for (int j = 0; j < transform.length; j++) {
+                    transform[j] = random.nextFloat();
+                }
+            }
+            frames.add(new Recorded(1000 + i / 5.0 + random.nextDouble() / 100, points,
+                    transform, transformValid));
+        }
+        return frames;
+    }
+
+    /**
+     * Record every frame, waiting for the writer to catch up instead of dropping any.
+     */
+    private static void record(File file, List<Recorded> frames)
+            throws IOException, InterruptedException {
+        DepthRecorder recorder = new DepthRecorder(file, RECORDER_MAX_POINTS);
+        recorder.start();
+        for (Recorded frame : frames) {
+            int attempts = 0;
+            while (!record(recorder, frame)) {
+                assertTrue("the writer is stuck", ++attempts < 10000);
+                Thread.sleep(1);
+            }
+        }
+        recorder.stop();
+        assertEquals(frames.size(), recorder.getRecordedFrames());
+    }
+
+    private static boolean record(DepthRecorder recorder, Recorded frame) {
+        return recorder.record(frame.timestamp, FloatBuffer.wrap(frame.points),
+                frame.points.length / FrameBuffer.FLOATS_PER_POINT, frame.transform,
+                frame.transformValid);
+    }
+
+    private static void assertFrames(List<Recorded> expected, DepthReplay replay)
+            throws IOException {
+        assertEquals("frame count", expected.size(), replay.getFrameCount());
+        DepthReplay.Frame frame = new DepthReplay.Frame();
+        replay.rewind();
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(replay.next(frame, false));
+            assertFrame("frame " + i, expected.get(i), frame);
+        }
+        assertFalse(replay.next(frame, false));
+    }
+
+    private static void assertFrame(String message, Recorded expected, DepthReplay.Frame actual) {
+        assertEquals(message + ": timestamp", expected.timestamp, actual.timestamp, 0);
+        assertEquals(message + ": numPoints", expected.points.length / FrameBuffer.FLOATS_PER_POINT,
+                actual.numPoints);
+        assertEquals(message + ": transform validity", expected.transformValid,
+                actual.transformValid);
+        for (int i = 0; i < DepthRecording.TRANSFORM_FLOATS; i++) {
+            float transform = expected.transform != null ? expected.transform[i] : 0f;
+            assertBitsEqual(message + ": transform float " + i, transform, actual.transform[i]);
+        }
+        assertEquals(message + ": point floats", expected.points.length, actual.points.remaining());
+        for (int i = 0; i < expected.points.length; i++) {
+            assertBitsEqual(message + ": point float " + i, expected.points[i],
+                    actual.points.get(i));
+        }
+    }
+
+    private static void assertBitsEqual(String message, float expected, float actual) {
+        if (Float.floatToRawIntBits(expected) != Float.floatToRawIntBits(actual)) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The Java reference of the {@link ElevationShader} fragment shader picks the same slots and
+ * colors as {@link ColorLut}, and paints contours exactly at the band boundaries.
+ */
+public class ElevationShaderTest {
+    // Heights this close to a boundary, in bands, may round to either side of it in float.
+    private static final double ROUNDING_BANDS = 1e-4;
+    private static final int SAMPLES = 200000;
+
+    private static final ColorLut[] TABLES = {
+            ColorLut.createDefault(),
+            ColorLut.create(ColorMap.TERRAIN, 8),
+            ColorLut.create(ColorMap.VIRIDIS, 40, 0.2, 0.35, 0.55),
+    };
+
+    @Test
+    public void paletteTexelsAreTheTableColors() {
+        for (ColorLut lut : TABLES) {
+            int[] texels = new ElevationShader(lut).getPaletteTexels();
+            assertEquals(lut.getBands() + 1, texels.length);
+            for (int slot = 0; slot < texels.length; slot++) {
+                assertEquals(lut.rgba8Of(slot), texels[slot]);
+            }
+        }
+    }
+
+    @Test
+    public void bandColorsAreSampledFromTheColorMap() {
+        for (ColorLut lut : TABLES) {
+            int bands = lut.getBands();
+            assertEquals(ElevationPalette.BLACK, lut.colorOf(0));
+            for (int band = 0; band < bands; band++) {
+                assertEquals(lut.getColorMap().colorAt(band / (double) (bands - 1)),
+                        lut.colorOf(band + 1));
+            }
+        }
+    }
+
+    @Test
+    public void slotsMatchTheTableAcrossTheHeightRange() {
+        for (ColorLut lut : TABLES) {
+            ElevationShader shader = new ElevationShader(lut);
+            double start = lut.getNearDepth() - 0.05;
+            double end = lut.getMaxDepth() + 0.05;
+            for (int i = 0; i <= SAMPLES; i++) {
+                float h = (float) (start + (end - start) * i / SAMPLES);
+                int expected = lut.slotOf(h);
+                int slot = shader.slotOf(h);
+                if (slot != expected) {
+                    String message = lut.getColorMap() + " at " + h;
+                    assertTrue(message, distanceToBoundary(lut, h) < ROUNDING_BANDS);
+                    assertEquals(message, 1, Math.abs(slot - expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shadesAreTheSlotColorOrWhiteOnContours() {
+        for (ColorLut lut : TABLES) {
+            ElevationShader shader = new ElevationShader(lut);
+            double lineWidth = shader.getLineWidth();
+            double start = lut.getNearDepth() - 0.05;
+            double end = lut.getMaxDepth() + 0.05;
+            for (int i = 0; i <= SAMPLES; i++) {
+                float h = (float) (start + (end - start) * i / SAMPLES);
+                String message = lut.getColorMap() + " at " + h;
+                double distance = distanceToBoundary(lut, h);
+                if (Math.abs(distance - lineWidth) > ROUNDING_BANDS) {
+                    assertEquals(message, distance < lineWidth, shader.isContour(h));
+                }
+                int expected = shader.isContour(h)
+                        ? ElevationPalette.WHITE : lut.colorOf(shader.slotOf(h));
+                assertEquals(message, expected, shader.shade(h));
+            }
+        }
+    }
+
+    @Test
+    public void bandBoundariesAreContoursAndBandMiddlesAreNot() {
+        for (ColorLut lut : TABLES) {
+            ElevationShader shader = new ElevationShader(lut);
+            double bandHeight = lut.getBandHeight();
+            for (int k = 0; k <= lut.getBands(); k++) {
+                double boundary = lut.getMinDepth() + k * bandHeight;
+                String message = lut.getColorMap() + " boundary " + k;
+                assertEquals(message, ElevationPalette.WHITE, shader.shade((float) boundary));
+                // Just inside the line on either side.
+                double inside = 0.9 * shader.getLineWidth() * bandHeight;
+                assertTrue(message, shader.isContour((float) (boundary - inside)));
+                assertTrue(message, shader.isContour((float) (boundary + inside)));
+                if (k < lut.getBands()) {
+                    float middle = (float) (boundary + bandHeight / 2);
+                    assertFalse(message, shader.isContour(middle));
+                    assertEquals(message, k + 1, shader.slotOf(middle));
+                    assertEquals(message, lut.colorOf(k + 1), shader.shade(middle));
+                    // Just outside the line, still in the band above the boundary.
+                    float outside = (float) (boundary + 1.1 * shader.getLineWidth() * bandHeight);
+                    assertFalse(message, shader.isContour(outside));
+                    assertEquals(message, lut.colorOf(k + 1), shader.shade(outside));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void heightsOutsideTheBandsFollowTheTable() {
+        for (ColorLut lut : TABLES) {
+            ElevationShader shader = new ElevationShader(lut);
+            float near = (float) lut.getNearDepth();
+            float gap = (float) ((lut.getNearDepth() + lut.getMinDepth()) / 2);
+            float far = (float) (lut.getMaxDepth() + 0.05);
+            assertEquals(1, shader.slotOf(near));
+            assertEquals(1, shader.slotOf(near - 0.1f));
+            assertEquals(0, shader.slotOf(gap));
+            assertEquals(0, shader.slotOf(far));
+            assertEquals(0, shader.slotOf(Float.NaN));
+            assertFalse(shader.isContour(Float.NaN));
+            assertEquals(lut.colorOf(1), shader.shade(near - 0.1f));
+            assertEquals(ElevationPalette.BLACK, shader.shade(gap));
+            assertEquals(ElevationPalette.BLACK, shader.shade(far));
+            assertEquals(ElevationPalette.BLACK, shader.shade(Float.NaN));
+        }
+    }
+
+    @Test
+    public void zeroLineWidthDrawsNoContours() {
+        ColorLut lut = ColorLut.createDefault();
+        ElevationShader shader = new ElevationShader(lut, 0f);
+        double start = lut.getMinDepth();
+        double end = lut.getMaxDepth();
+        for (int i = 0; i <= SAMPLES; i++) {
+            float h = (float) (start + (end - start) * i / SAMPLES);
+            assertFalse(shader.isContour(h));
+            assertEquals(lut.colorOf(shader.slotOf(h)), shader.shade(h));
+        }
+    }
+
+    /**
+     * Distance from a height to the nearest band boundary, in bands, in double precision.
+     * Heights far outside the bands are infinitely far from a boundary.
+     */
+    private static double distanceToBoundary(ColorLut lut, float h) {
+        double t = (h - lut.getMinDepth()) * lut.getBandsPerMetre();
+        double k = Math.floor(t + 0.5);
+        if (k < 0 || k > lut.getBands()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(t - k);
+    }
+}
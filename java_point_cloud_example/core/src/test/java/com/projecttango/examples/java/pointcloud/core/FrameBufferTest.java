@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+
+/**
+ * The load and crop path of a {@link FrameBuffer} reads the sensor buffer straight into its
+ * primitive array and crops in place, allocating nothing once warmed up.
+ */
+public class FrameBufferTest {
+    private static final int MAX_POINTS = 100000;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 100;
+
+    @Test
+    public void loadCopiesThePointsAndRewindsTheSource() {
+        FloatBuffer source = FloatBuffer.wrap(new float[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        source.position(5);
+        FrameBuffer frame = new FrameBuffer(1);
+
+        frame.load(source, 2);
+
+        assertEquals(2, frame.getPointCount());
+        assertEquals(0, source.position());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i + 1, frame.getPoints()[i], 0);
+        }
+    }
+
+    @Test
+    public void cropKeepsTheInsidePointsInScanOrder() {
+        FloatBuffer source = SyntheticFrames.createFrame(MAX_POINTS, 1);
+        RoiMask roiMask = RoiMask.createDefault();
+        FrameBuffer frame = new FrameBuffer(MAX_POINTS);
+        frame.load(source, MAX_POINTS);
+        PointStages stages = new PointStages(ColorLut.createDefault(), MAX_POINTS);
+
+        int kept = stages.cropPointsIntoRectangle(frame);
+
+        float[] points = frame.getPoints();
+        int expected = 0;
+        for (int i = 0; i < MAX_POINTS; i++) {
+            int src = i * FrameBuffer.FLOATS_PER_POINT;
+            if (roiMask.contains(source.get(src), source.get(src + 1))) {
+                for (int k = 0; k < FrameBuffer.FLOATS_PER_POINT; k++) {
+                    assertEquals(source.get(src + k),
+                            points[expected * FrameBuffer.FLOATS_PER_POINT + k], 0);
+                }
+                expected++;
+            }
+        }
+        assertEquals(expected, kept);
+        assertEquals(kept, frame.getPointCount());
+    }
+
+    @Test
+    public void steadyStateLoadAndCropAllocateNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // Frames of different sizes, as the sensor delivers them.
+        FloatBuffer[] sensorFrames = {
+                SyntheticFrames.createFrame(MAX_POINTS, 1),
+                SyntheticFrames.createFrame(MAX_POINTS / 2, 2),
+                SyntheticFrames.createFrame(MAX_POINTS * 3 / 4, 3)};
+        int[] pointCounts = {MAX_POINTS, MAX_POINTS / 2, MAX_POINTS * 3 / 4};
+        FrameBuffer frame = new FrameBuffer(MAX_POINTS);
+        PointStages stages = new PointStages(ColorLut.createDefault(), MAX_POINTS);
+        float[] points = frame.getPoints();
+        int kept = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.load(sensorFrames[i % sensorFrames.length], pointCounts[i % pointCounts.length]);
+            kept += stages.cropPointsIntoRectangle(frame);
+        }
+        // The first call may allocate its own bookkeeping.
+        threads.getThreadAllocatedBytes(thread);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame.load(sensorFrames[i % sensorFrames.length], pointCounts[i % pointCounts.length]);
+            kept += stages.cropPointsIntoRectangle(frame);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals("bytes allocated over " + MEASURED_FRAMES + " frames", 0, allocated);
+        assertSame(points, frame.getPoints());
+        // Keeps the loops from being optimized away.
+        assertEquals(true, kept > 0);
+    }
+}
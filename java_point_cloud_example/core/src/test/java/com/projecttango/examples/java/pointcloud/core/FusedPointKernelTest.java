@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * The {@link FusedPointKernel} gives the same points and colors, bit for bit, as the four
+ * separate {@link PointStages} passes it replaces.
+ */
+public class FusedPointKernelTest {
+    private static final int MAX_POINTS = 100000;
+    private static final int RANDOM_FRAMES = 200;
+
+    @Test
+    public void matchesTheStagesOnRandomFrames() {
+        Random random = new Random(1);
+        for (int frame = 0; frame < RANDOM_FRAMES; frame++) {
+            int pointCount = random.nextInt(3000);
+            float[] points = new float[pointCount * FrameBuffer.FLOATS_PER_POINT];
+            for (int i = 0; i < pointCount; i++) {
+                // About half the points fall inside the crop rectangle, at any depth.
+                points[i * 4] = (random.nextFloat() - 0.5f) * 0.5f;
+                points[i * 4 + 1] = (random.nextFloat() - 0.5f) * 0.3f;
+                points[i * 4 + 2] = random.nextFloat() * 0.6f;
+                points[i * 4 + 3] = random.nextFloat();
+            }
+            assertSameOutput("random frame " + frame, points, pointCount);
+        }
+    }
+
+    @Test
+    public void matchesTheStagesOnSyntheticFrames() {
+        int[] pointCounts = {2, 1000, 30000, MAX_POINTS};
+        for (int i = 0; i < pointCounts.length; i++) {
+            FloatBuffer buffer = SyntheticFrames.createFrame(pointCounts[i], i);
+            float[] points = new float[pointCounts[i] * FrameBuffer.FLOATS_PER_POINT];
+            buffer.get(points);
+            assertSameOutput("synthetic frame of " + pointCounts[i], points, pointCounts[i]);
+        }
+    }
+
+    @Test
+    public void emptyFrameGivesNoPoints() {
+        assertEquals(0, assertSameOutput("empty frame", new float[0], 0));
+    }
+
+    @Test
+    public void singlePointGivesNoPoints() {
+        assertEquals(0, assertSameOutput("single point",
+                new float[] {0, 0, 0.4f, 1}, 1));
+    }
+
+    @Test
+    public void allPointsCroppedGivesNoPoints() {
+        float[] points = {
+                1, 1, 0.4f, 1,
+                -1, 0, 0.4f, 1,
+                0, 1, 0.4f, 1,
+                0.5f, -0.5f, 0.4f, 1};
+        assertEquals(0, assertSameOutput("all points cropped", points, 4));
+    }
+
+    @Test
+    public void loneKeptPointAmongCroppedOnesIsDropped() {
+        float[] points = {
+                1, 1, 0.4f, 1,
+                0, 0, 0.4f, 1,
+                -1, 0, 0.4f, 1};
+        assertEquals(0, assertSameOutput("one point kept", points, 3));
+    }
+
+    @Test
+    public void lastPointIsWrittenOnceTwoAreKept() {
+        // x increases, so an interpolated point goes in between: first, middle, last.
+        float[] increasing = {
+                -0.01f, 0, 0.40f, 1,
+                1, 1, 0.40f, 1,
+                0.01f, 0, 0.45f, 1};
+        assertEquals(3, assertSameOutput("two points kept, increasing x", increasing, 3));
+        // x decreases, so no point in between: first and last.
+        float[] decreasing = {
+                0.01f, 0, 0.40f, 1,
+                -0.01f, 0, 0.45f, 1};
+        assertEquals(2, assertSameOutput("two points kept, decreasing x", decreasing, 2));
+    }
+
+    /**
+     * Run both paths over the same raw frame and compare counts and every output bit.
+     *
+     * @return the number of output points.
+     */
+    private static int assertSameOutput(String message, float[] points, int pointCount) {
+        PointStages stages = new PointStages(ColorLut.createDefault(), MAX_POINTS);
+        float[] staged = stages.process(load(points, pointCount));
+        int stagedCount = stages.getPointCount();
+
+        FusedPointKernel kernel = new FusedPointKernel(ColorLut.createDefault(), MAX_POINTS);
+        int fusedCount = kernel.process(load(points, pointCount));
+
+        assertEquals(message + ": point count", stagedCount, fusedCount);
+        assertEquals(message + ": kernel point count", fusedCount, kernel.getPointCount());
+        assertBitsEqual(message + ": points", staged, kernel.getPoints(),
+                stagedCount * FrameBuffer.FLOATS_PER_POINT);
+        assertBitsEqual(message + ": colors", stages.getColors(), kernel.getColors(),
+                stagedCount * 4);
+        return fusedCount;
+    }
+
+    private static FrameBuffer load(float[] points, int pointCount) {
+        FrameBuffer frame = new FrameBuffer(Math.max(1, pointCount));
+        frame.load(FloatBuffer.wrap(points), pointCount);
+        return frame;
+    }
+
+    private static void assertBitsEqual(String message, float[] expected, float[] actual,
+                                        int length) {
+        for (int i = 0; i < length; i++) {
+            if (Float.floatToRawIntBits(expected[i]) != Float.floatToRawIntBits(actual[i])) {
+                throw new AssertionError(message + " differ at float " + i + ": expected "
+                        + expected[i] + " but was " + actual[i]);
+            }
+        }
+    }
+}
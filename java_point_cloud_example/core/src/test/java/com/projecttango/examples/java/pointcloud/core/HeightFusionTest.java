@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A cell that is no longer seen fades out of the {@link HeightFusion} map and is dropped by the
+ * {@link TemporalHeightFilter} after it, instead of showing its last height forever.
+ */
+public class HeightFusionTest {
+    private static final float SEEN_HEIGHT = 0.4f;
+    private static final float KEPT_HEIGHT = 0.5f;
+    private static final int MAX_FRAMES = 100;
+
+    private HeightGrid mGrid;
+    private HeightFusion mFusion;
+    private TemporalHeightFilter mFilter;
+    private FrameBuffer mFrame;
+    // Cells of the two points: the first one stops being seen, the second one never does.
+    private int mFadingCell;
+    private int mKeptCell;
+
+    @Before
+    public void createPipeline() {
+        mGrid = new HeightGrid(4, 4, 0, 1, 0, 1);
+        mFusion = HeightFusion.createDefault(mGrid.getCellCount());
+        mFilter = TemporalHeightFilter.createDefault(mGrid.getCellCount());
+        mFrame = new FrameBuffer(2);
+        mFadingCell = mGrid.cellOf(0.1f, 0.1f);
+        mKeptCell = mGrid.cellOf(0.9f, 0.9f);
+    }
+
+    @Test
+    public void cellThatIsNoLongerSeenDisappears() {
+        for (int frame = 0; frame < MAX_FRAMES; frame++) {
+            feed(true);
+            assertEquals(SEEN_HEIGHT, mGrid.getHeights()[mFadingCell], 1e-6f);
+        }
+
+        // Still reported for a few frames, then gone from the grid and the filter.
+        feed(false);
+        assertEquals(SEEN_HEIGHT, mGrid.getHeights()[mFadingCell], 1e-6f);
+        fadeOut();
+        assertTrue(Float.isNaN(mFilter.getEstimates()[mFadingCell]));
+        assertTrue(Float.isNaN(mFusion.getHeights()[mFadingCell]));
+
+        for (int frame = 0; frame < MAX_FRAMES; frame++) {
+            feed(false);
+            assertTrue(Float.isNaN(mGrid.getHeights()[mFadingCell]));
+            assertEquals(KEPT_HEIGHT, mGrid.getHeights()[mKeptCell], 1e-6f);
+        }
+    }
+
+    @Test
+    public void cellThatIsSeenAgainComesBack() {
+        for (int frame = 0; frame < MAX_FRAMES; frame++) {
+            feed(true);
+        }
+        fadeOut();
+        feed(true);
+        assertEquals(SEEN_HEIGHT, mGrid.getHeights()[mFadingCell], 1e-6f);
+        assertFalse(Float.isNaN(mFilter.getEstimates()[mFadingCell]));
+    }
+
+    @Test
+    public void filterKeepsCellsWithoutFusion() {
+        // Without fusion a cell missing from a frame keeps its height in the grid, and the
+        // filter keeps its estimate.
+        for (int frame = 0; frame < MAX_FRAMES; frame++) {
+            load(frame < 10);
+            mGrid.bin(mFrame);
+            mFilter.update(mGrid);
+        }
+        assertEquals(SEEN_HEIGHT, mGrid.getHeights()[mFadingCell], 1e-6f);
+        assertEquals(SEEN_HEIGHT, mFilter.getEstimates()[mFadingCell], 1e-6f);
+    }
+
+    /**
+     * Stop seeing the fading cell until it is no longer reported.
+     */
+    private void fadeOut() {
+        int frames = 0;
+        while (!Float.isNaN(mGrid.getHeights()[mFadingCell])) {
+            assertTrue("cell still reported after " + frames + " frames", frames < MAX_FRAMES);
+            feed(false);
+            frames++;
+        }
+    }
+
+    private void feed(boolean seeFadingCell) {
+        load(seeFadingCell);
+        mGrid.bin(mFrame);
+        mFusion.update(mGrid);
+        mFilter.update(mGrid);
+    }
+
+    private void load(boolean seeFadingCell) {
+        float[] points = seeFadingCell
+                ? new float[] {0.9f, 0.9f, KEPT_HEIGHT, 1, 0.1f, 0.1f, SEEN_HEIGHT, 1}
+                : new float[] {0.9f, 0.9f, KEPT_HEIGHT, 1};
+        mFrame.load(FloatBuffer.wrap(points), points.length / FrameBuffer.FLOATS_PER_POINT);
+    }
+}
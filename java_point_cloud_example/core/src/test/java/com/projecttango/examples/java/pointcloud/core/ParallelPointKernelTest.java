@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * The {@link ParallelPointKernel} gives the same points, colors and statistics, bit for bit, as
+ * the serial {@link FusedPointKernel}, and the parallel {@link HeightGrid} bin the same cells
+ * as the serial one, at every thread count.
+ */
+public class ParallelPointKernelTest {
+    private static final int MAX_POINTS = 100000;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    // Larger than several of the kernel's 8192 point chunks.
+    private static final int MULTI_CHUNK_POINTS = 50000;
+
+    private final WorkerPool[] mPools = new WorkerPool[THREAD_COUNTS.length];
+
+    @Before
+    public void createPools() {
+        for (int i = 0; i < THREAD_COUNTS.length; i++) {
+            mPools[i] = new WorkerPool(THREAD_COUNTS[i]);
+        }
+    }
+
+    @After
+    public void shutdownPools() {
+        for (WorkerPool pool : mPools) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void emptyFrameGivesNoPoints() {
+        assertEquals(0, assertSameOutput("empty frame", new float[0], 0));
+    }
+
+    @Test
+    public void singlePointGivesNoPoints() {
+        assertEquals(0, assertSameOutput("single point", new float[] {0, 0, 0.4f, 1}, 1));
+    }
+
+    @Test
+    public void twoKeptPointsMatch() {
+        float[] points = {
+                -0.01f, 0, 0.40f, 1,
+                1, 1, 0.40f, 1,
+                0.01f, 0, 0.45f, 1};
+        assertEquals(3, assertSameOutput("two points kept", points, 3));
+    }
+
+    @Test
+    public void matchesOnMultiChunkFrames() {
+        FloatBuffer buffer = SyntheticFrames.createFrame(MULTI_CHUNK_POINTS, 1);
+        float[] points = new float[MULTI_CHUNK_POINTS * FrameBuffer.FLOATS_PER_POINT];
+        buffer.get(points);
+        assertSameOutput("synthetic frame", points, MULTI_CHUNK_POINTS);
+
+        // Kept points only in a few chunks, so chunks with nothing kept link past each other.
+        float[] sparse = new float[MULTI_CHUNK_POINTS * FrameBuffer.FLOATS_PER_POINT];
+        for (int i = 0; i < MULTI_CHUNK_POINTS; i++) {
+            boolean inside = i % 20000 < 3;
+            sparse[i * 4] = inside ? (i % 2 == 0 ? -0.01f : 0.01f) : 1;
+            sparse[i * 4 + 2] = 0.40f + (i % 7) * 0.01f;
+            sparse[i * 4 + 3] = 1;
+        }
+        assertSameOutput("sparse frame", sparse, MULTI_CHUNK_POINTS);
+    }
+
+    @Test
+    public void matchesOnRandomFrames() {
+        Random random = new Random(2);
+        for (int frame = 0; frame < 20; frame++) {
+            int pointCount = random.nextInt(MULTI_CHUNK_POINTS);
+            float[] points = new float[pointCount * FrameBuffer.FLOATS_PER_POINT];
+            for (int i = 0; i < pointCount; i++) {
+                points[i * 4] = (random.nextFloat() - 0.5f) * 0.5f;
+                points[i * 4 + 1] = (random.nextFloat() - 0.5f) * 0.3f;
+                points[i * 4 + 2] = random.nextFloat() * 0.6f;
+                points[i * 4 + 3] = random.nextFloat();
+            }
+            assertSameOutput("random frame " + frame, points, pointCount);
+        }
+    }
+
+    @Test
+    public void kernelCanBeReusedAcrossFrameSizes() {
+        FloatBuffer buffer = SyntheticFrames.createFrame(MULTI_CHUNK_POINTS, 3);
+        float[] large = new float[MULTI_CHUNK_POINTS * FrameBuffer.FLOATS_PER_POINT];
+        buffer.get(large);
+        float[][] frames = {new float[0], large, new float[0], {0, 0, 0.4f, 1}, large};
+        for (WorkerPool pool : mPools) {
+            FusedPointKernel serial = new FusedPointKernel(ColorLut.createDefault(), MAX_POINTS);
+            ParallelPointKernel parallel =
+                    new ParallelPointKernel(ColorLut.createDefault(), MAX_POINTS, pool);
+            for (int i = 0; i < frames.length; i++) {
+                int pointCount = frames[i].length / FrameBuffer.FLOATS_PER_POINT;
+                assertSameOutput("frame " + i + " at " + pool.getThreadCount() + " threads",
+                        serial, parallel, frames[i], pointCount);
+            }
+        }
+    }
+
+    @Test
+    public void parallelBinMatchesSerialBin() {
+        Random random = new Random(3);
+        int[] pointCounts = {0, 1, 1000, MULTI_CHUNK_POINTS};
+        for (int pointCount : pointCounts) {
+            float[] points = new float[pointCount * FrameBuffer.FLOATS_PER_POINT];
+            if (pointCount > 0) {
+                SyntheticFrames.createFrame(pointCount, random.nextLong()).get(points);
+            }
+            FrameBuffer frame = load(points, pointCount);
+
+            HeightGrid serial = HeightGrid.forSandbox(64);
+            serial.bin(frame);
+            for (WorkerPool pool : mPools) {
+                String message = pointCount + " points at " + pool.getThreadCount() + " threads";
+                HeightGrid parallel = HeightGrid.forSandbox(64);
+                parallel.bin(frame, pool);
+                assertBitsEqual(message + ": heights", serial.getHeights(),
+                        parallel.getHeights(), serial.getCellCount());
+                for (int cell = 0; cell < serial.getCellCount(); cell++) {
+                    assertEquals(message + ": count of cell " + cell,
+                            serial.getCounts()[cell], parallel.getCounts()[cell]);
+                }
+                assertSameStatistics(message, serial.getStatistics(), parallel.getStatistics());
+            }
+        }
+    }
+
+    /**
+     * Run the serial kernel and the parallel one at every thread count over the same raw frame.
+     *
+     * @return the number of output points.
+     */
+    private int assertSameOutput(String message, float[] points, int pointCount) {
+        int count = 0;
+        for (WorkerPool pool : mPools) {
+            count = assertSameOutput(message + " at " + pool.getThreadCount() + " threads",
+                    new FusedPointKernel(ColorLut.createDefault(), MAX_POINTS),
+                    new ParallelPointKernel(ColorLut.createDefault(), MAX_POINTS, pool),
+                    points, pointCount);
+        }
+        return count;
+    }
+
+    private static int assertSameOutput(String message, FusedPointKernel serial,
+                                        ParallelPointKernel parallel, float[] points,
+                                        int pointCount) {
+        int serialCount = serial.process(load(points, pointCount));
+        int parallelCount = parallel.process(load(points, pointCount));
+
+        assertEquals(message + ": point count", serialCount, parallelCount);
+        assertEquals(message + ": kernel point count", parallelCount, parallel.getPointCount());
+        assertBitsEqual(message + ": points", serial.getPoints(), parallel.getPoints(),
+                serialCount * FrameBuffer.FLOATS_PER_POINT);
+        assertBitsEqual(message + ": colors", serial.getColors(), parallel.getColors(),
+                serialCount * 4);
+        assertSameStatistics(message, serial.getStatistics(), parallel.getStatistics());
+        return parallelCount;
+    }
+
+    private static void assertSameStatistics(String message, FrameStatistics expected,
+                                             FrameStatistics actual) {
+        assertEquals(message + ": statistics count", expected.getCount(), actual.getCount());
+        assertEquals(message + ": min", expected.getMin(), actual.getMin(), 0);
+        assertEquals(message + ": max", expected.getMax(), actual.getMax(), 0);
+        // Chunk sums are added in a different order, so the mean may differ by rounding.
+        assertEquals(message + ": mean", expected.getMean(), actual.getMean(), 1e-9);
+        for (int bin = 0; bin < FrameStatistics.HISTOGRAM_BINS; bin++) {
+            assertEquals(message + ": histogram bin " + bin,
+                    expected.getHistogram()[bin], actual.getHistogram()[bin]);
+        }
+    }
+
+    private static FrameBuffer load(float[] points, int pointCount) {
+        FrameBuffer frame = new FrameBuffer(Math.max(1, pointCount));
+        frame.load(FloatBuffer.wrap(points), pointCount);
+        return frame;
+    }
+
+    private static void assertBitsEqual(String message, float[] expected, float[] actual,
+                                        int length) {
+        for (int i = 0; i < length; i++) {
+            if (Float.floatToRawIntBits(expected[i]) != Float.floatToRawIntBits(actual[i])) {
+                throw new AssertionError(message + " differ at float " + i + ": expected "
+                        + expected[i] + " but was " + actual[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link QualityController} log replays to the decisions the controller reports, for short
+ * sessions and for sessions longer than the log keeps.
+ */
+public class QualityControllerTest {
+    private static final int MAX_POINTS = 60000;
+    // More frames than the controller logs, about 11 minutes at 30 fps.
+    private static final int LONG_SESSION_FRAMES = 20000;
+    private static final int LOG_SAMPLES = 4096;
+
+    @Test
+    public void shortSessionReplaysToItsDecisions() throws IOException {
+        QualityController controller = createController();
+        List<QualityController.Decision> all = run(controller, 3000, 1);
+        assertFalse(all.isEmpty());
+        assertEquals(all, controller.getDecisions());
+        assertEquals(controller.getDecisions(), replay(controller));
+    }
+
+    @Test
+    public void longSessionReplaysToItsDecisions() throws IOException {
+        QualityController controller = createController();
+        List<QualityController.Decision> all = run(controller, LONG_SESSION_FRAMES, 2);
+        List<QualityController.Decision> kept = controller.getDecisions();
+        assertFalse(kept.isEmpty());
+        // Only the decisions on the logged frames are kept.
+        assertTrue(kept.size() < all.size());
+        assertEquals(all.subList(all.size() - kept.size(), all.size()), kept);
+        for (QualityController.Decision decision : kept) {
+            assertTrue(decision.sequence >= LONG_SESSION_FRAMES - LOG_SAMPLES);
+        }
+        assertEquals(kept, replay(controller));
+    }
+
+    @Test
+    public void replayStartsFromTheLoggedState() throws IOException {
+        // The log starts in a heavy stretch, where the controller is away from level 0.
+        QualityController controller = createController();
+        run(controller, LONG_SESSION_FRAMES + 1000, 3);
+        String log = writeLog(controller);
+        assertTrue(log.contains("\nstate,"));
+        assertFalse(log.contains("\nstate,0,"));
+        QualityController replayed = createController();
+        assertEquals(controller.getDecisions(), QualityController.replay(
+                new BufferedReader(new StringReader(log)), replayed));
+        assertEquals(controller.getLevel(), replayed.getLevel());
+        assertEquals(controller.getAverageMillis(), replayed.getAverageMillis(), 0);
+    }
+
+    private static QualityController createController() {
+        return new QualityController(QualityController.createDefaultLevels(MAX_POINTS),
+                QualityController.DEFAULT_TARGET_MILLIS);
+    }
+
+    /**
+     * Feed frames whose cost swings between light and heavy scenes and drops with the quality
+     * level, with some noise.
+     *
+     * @return every decision the listener was told about.
+     */
+    private static List<QualityController.Decision> run(QualityController controller,
+                                                        int frames, long seed) {
+        final List<QualityController.Decision> decisions =
+                new ArrayList<QualityController.Decision>();
+        controller.setListener(new QualityController.Listener() {
+            @Override
+            public void onQualityChanged(QualityController.Decision decision) {
+                decisions.add(decision);
+            }
+        });
+        Random random = new Random(seed);
+        FrameTimings timings = new FrameTimings();
+        for (int frame = 0; frame < frames; frame++) {
+            double load = 1 + 0.6 * Math.sin(frame * 2 * Math.PI / 1500);
+            double millis = 30 * load / (1 + 0.3 * controller.getLevel())
+                    + random.nextGaussian() * 3;
+            long nanos = (long) (Math.max(1, millis) * 1e6);
+            timings.reset();
+            timings.add(FrameTimings.Stage.BIN, nanos);
+            controller.onFrame(frame, nanos, timings);
+        }
+        return decisions;
+    }
+
+    private static List<QualityController.Decision> replay(QualityController controller)
+            throws IOException {
+        return QualityController.replay(new BufferedReader(new StringReader(writeLog(controller))),
+                createController());
+    }
+
+    private static String writeLog(QualityController controller) throws IOException {
+        StringWriter log = new StringWriter();
+        controller.writeLog(log);
+        return log.toString();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.projecttango.examples.java.pointcloud.core.RecordingGeometryUploader.Call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upload schedule of {@link StreamingGeometry}, recorded by a {@link RecordingGeometryUploader}:
+ * which ring slot each frame writes, when storage is orphaned and how many bytes go up.
+ */
+public class StreamingGeometryTest {
+    private static final int MAX_VERTICES = 1000;
+    private static final int FLOATS_PER_POSITION = 3;
+    private static final int SLOT_COUNT = 3;
+    private static final int FRAMES = 7;
+    private static final int POSITION_BYTES = FLOATS_PER_POSITION * 4;
+    private static final int COLOR_BYTES = StreamingGeometry.FLOATS_PER_COLOR * 4;
+
+    @Test
+    public void createsOneBufferPerStreamAndSlot() {
+        RecordingGeometryUploader uploader = new RecordingGeometryUploader();
+        StreamingGeometry geometry = createGeometry(uploader);
+
+        List<Call> calls = uploader.getCalls();
+        assertEquals(SLOT_COUNT * 2, calls.size());
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            assertCall(calls.get(slot * 2), Call.Type.CREATE, -1, slot * 2 + 1, 0,
+                    MAX_VERTICES * POSITION_BYTES);
+            assertCall(calls.get(slot * 2 + 1), Call.Type.CREATE, -1, slot * 2 + 2, 0,
+                    MAX_VERTICES * COLOR_BYTES);
+        }
+        assertEquals(-1, geometry.getSlot());
+        assertEquals(0, uploader.getTotalBytes());
+    }
+
+    @Test
+    public void growingVertexCountOrphansTheNextSlotEveryFrame() {
+        RecordingGeometryUploader uploader = new RecordingGeometryUploader();
+        StreamingGeometry geometry = createGeometry(uploader);
+        uploader.reset();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int vertexCount = (frame + 1) * 100;
+            float[] positions = ramp(vertexCount * FLOATS_PER_POSITION, frame);
+            float[] colors = ramp(vertexCount * StreamingGeometry.FLOATS_PER_COLOR, -frame);
+            assertEquals(frame % SLOT_COUNT, geometry.beginFrame());
+            geometry.uploadAll(positions, colors, vertexCount);
+
+            int positionBuffer = geometry.getPositionBuffer();
+            int colorBuffer = geometry.getColorBuffer();
+            List<Call> calls = callsOfFrame(uploader, frame);
+            assertEquals(4, calls.size());
+            assertCall(calls.get(0), Call.Type.ORPHAN, frame, positionBuffer, 0,
+                    MAX_VERTICES * POSITION_BYTES);
+            assertCall(calls.get(1), Call.Type.UPLOAD, frame, positionBuffer, 0,
+                    vertexCount * POSITION_BYTES);
+            assertCall(calls.get(2), Call.Type.ORPHAN, frame, colorBuffer, 0,
+                    MAX_VERTICES * COLOR_BYTES);
+            assertCall(calls.get(3), Call.Type.UPLOAD, frame, colorBuffer, 0,
+                    vertexCount * COLOR_BYTES);
+            assertEquals(vertexCount * (POSITION_BYTES + COLOR_BYTES),
+                    uploader.getFrameBytes(frame));
+
+            assertContents(uploader.getContents(positionBuffer), positions);
+            assertContents(uploader.getContents(colorBuffer), colors);
+        }
+        assertEquals(FRAMES, uploader.getFrameCount());
+    }
+
+    @Test
+    public void steadyVertexCountCyclesTheRingWithEqualFrames() {
+        RecordingGeometryUploader uploader = new RecordingGeometryUploader();
+        StreamingGeometry geometry = createGeometry(uploader);
+        uploader.reset();
+
+        int vertexCount = 600;
+        int[] slotBuffers = new int[SLOT_COUNT];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int slot = geometry.beginFrame();
+            assertEquals(frame % SLOT_COUNT, slot);
+            geometry.uploadAll(ramp(vertexCount * FLOATS_PER_POSITION, frame),
+                    ramp(vertexCount * StreamingGeometry.FLOATS_PER_COLOR, frame), vertexCount);
+
+            // Each slot keeps its buffer, and no two slots share one.
+            if (frame < SLOT_COUNT) {
+                slotBuffers[slot] = geometry.getPositionBuffer();
+                for (int other = 0; other < slot; other++) {
+                    assertTrue(slotBuffers[other] != slotBuffers[slot]);
+                }
+            } else {
+                assertEquals(slotBuffers[slot], geometry.getPositionBuffer());
+            }
+            List<Call> calls = callsOfFrame(uploader, frame);
+            assertEquals(Call.Type.ORPHAN, calls.get(0).type);
+            assertEquals(slotBuffers[slot], calls.get(0).buffer);
+            assertEquals(vertexCount * (POSITION_BYTES + COLOR_BYTES),
+                    uploader.getFrameBytes(frame));
+        }
+        assertEquals(FRAMES * vertexCount * (POSITION_BYTES + COLOR_BYTES),
+                uploader.getTotalBytes());
+    }
+
+    @Test
+    public void rangeUploadsWriteOnlyTheRangeWithoutOrphaning() {
+        RecordingGeometryUploader uploader = new RecordingGeometryUploader();
+        StreamingGeometry geometry = createGeometry(uploader);
+        float[] positions = ramp(MAX_VERTICES * FLOATS_PER_POSITION, 0);
+        float[] colors = ramp(MAX_VERTICES * StreamingGeometry.FLOATS_PER_COLOR, 0);
+        uploader.reset();
+
+        int firstVertex = 250;
+        int vertexCount = 50;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            geometry.beginFrame();
+            geometry.uploadRange(positions, colors, firstVertex, vertexCount);
+
+            List<Call> calls = callsOfFrame(uploader, frame);
+            assertEquals(2, calls.size());
+            assertCall(calls.get(0), Call.Type.UPLOAD, frame, geometry.getPositionBuffer(),
+                    firstVertex * POSITION_BYTES, vertexCount * POSITION_BYTES);
+            assertCall(calls.get(1), Call.Type.UPLOAD, frame, geometry.getColorBuffer(),
+                    firstVertex * COLOR_BYTES, vertexCount * COLOR_BYTES);
+            assertEquals(vertexCount * (POSITION_BYTES + COLOR_BYTES),
+                    uploader.getFrameBytes(frame));
+        }
+    }
+
+    private static StreamingGeometry createGeometry(RecordingGeometryUploader uploader) {
+        return new StreamingGeometry(uploader, MAX_VERTICES, FLOATS_PER_POSITION, true,
+                SLOT_COUNT);
+    }
+
+    private static List<Call> callsOfFrame(RecordingGeometryUploader uploader, int frame) {
+        List<Call> calls = new ArrayList<Call>();
+        for (Call call : uploader.getCalls()) {
+            if (call.frame == frame) {
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+
+    private static void assertCall(Call call, Call.Type type, int frame, int buffer,
+                                   int byteOffset, int byteSize) {
+        String message = call.toString();
+        assertEquals(message, type, call.type);
+        assertEquals(message, frame, call.frame);
+        assertEquals(message, buffer, call.buffer);
+        assertEquals(message, byteOffset, call.byteOffset);
+        assertEquals(message, byteSize, call.byteSize);
+    }
+
+    /**
+     * The uploaded data is in place and the rest of the orphaned storage was never written.
+     */
+    private static void assertContents(float[] contents, float[] expected) {
+        for (int i = 0; i < contents.length; i++) {
+            if (i < expected.length) {
+                assertEquals("float " + i, expected[i], contents[i], 0f);
+            } else {
+                assertTrue("float " + i, Float.isNaN(contents[i]));
+            }
+        }
+    }
+
+    private static float[] ramp(int length, int frame) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = frame * 10000 + i;
+        }
+        return values;
+    }
+}
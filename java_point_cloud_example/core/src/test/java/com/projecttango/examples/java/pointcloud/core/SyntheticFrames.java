@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.projecttango.examples.java.pointcloud.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Builds depth frames that look like what the sensor delivers over a sandbox: XYZC points in
+ * row scan order, x increasing along each row, over a bumpy surface around 0.44 m away.
+ * Roughly a third of the points fall inside the crop rectangle, as on the real rig.
+ */
+final class SyntheticFrames {
+    private static final float HALF_WIDTH = 0.35f;
+    private static final float HALF_HEIGHT = 0.25f;
+    private static final float BASE_DEPTH = 0.44f;
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * A direct, native order buffer with pointCount points, like TangoPointCloudData.points.
+     */
+    static FloatBuffer createFrame(int pointCount, long seed) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(pointCount * 4 * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        Random random = new Random(seed);
+        int columns = (int) Math.ceil(Math.sqrt(pointCount * HALF_WIDTH / HALF_HEIGHT));
+        int rows = (pointCount + columns - 1) / columns;
+        for (int i = 0; i < pointCount; i++) {
+            float u = (i % columns) / (float) columns;
+            float v = (i / columns) / (float) rows;
+            float x = (u * 2 - 1) * HALF_WIDTH;
+            float y = (v * 2 - 1) * HALF_HEIGHT;
+            float z = BASE_DEPTH
+                    + 0.03f * (float) Math.sin(x * 40) * (float) Math.cos(y * 30)
+                    + 0.002f * (float) random.nextGaussian();
+            buffer.put(x).put(y).put(z).put(1f);
+        }
+        buffer.rewind();
+        return buffer;
+    }
+}